@@ -0,0 +1,33 @@
+package io.mycat.benchmark;
+
+import lombok.SneakyThrows;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * 运行全部基准测试,结果以json格式写入文件,用作基线或与基线对比
+ * 参数1:结果文件,默认baseline/result.json
+ * 参数2:基准测试名称的正则,默认全部
+ */
+public class BenchmarkMain {
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        String resultFile = args.length > 0 ? args[0] : "baseline" + File.separator + "result.json";
+        String include = args.length > 1 ? args[1] : BenchmarkMain.class.getPackage().getName() + ".*";
+        File parent = new File(resultFile).getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        Options opt = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+        new Runner(opt).run();
+    }
+}
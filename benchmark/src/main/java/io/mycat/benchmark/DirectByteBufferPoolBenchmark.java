@@ -0,0 +1,63 @@
+package io.mycat.benchmark;
+
+import io.mycat.buffer.MycatDirectByteBufferPool;
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 直接内存池分配与回收的耗时,页大小与块大小同BufferPoolConfig的默认值,多线程共享一个内存池
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectByteBufferPoolBenchmark {
+    private static final int PAGE_SIZE = 1024 * 1024 * 2;
+    private static final short CHUNK_SIZE = 8192;
+    private static final short PAGE_COUNT = 16;
+    private MycatDirectByteBufferPool pool;
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(DirectByteBufferPoolBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        this.pool = new MycatDirectByteBufferPool(PAGE_SIZE, CHUNK_SIZE, PAGE_COUNT);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int allocateRecycleChunk() {
+        return allocateRecycle(CHUNK_SIZE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int allocateRecycleLarge() {
+        return allocateRecycle(CHUNK_SIZE * 8);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int allocateRecycleChunkContended() {
+        return allocateRecycle(CHUNK_SIZE);
+    }
+
+    private int allocateRecycle(int size) {
+        ByteBuffer buffer = pool.allocate(size);
+        int capacity = buffer.capacity();
+        pool.recycle(buffer);
+        return capacity;
+    }
+}
@@ -0,0 +1,85 @@
+package io.mycat.benchmark;
+
+import io.mycat.MycatDataContext;
+import io.mycat.hbt3.DrdsConst;
+import io.mycat.hbt3.DrdsRunner;
+import io.mycat.hbt3.DrdsSql;
+import io.mycat.hbt4.PlanCache;
+import io.mycat.metadata.SchemaHandler;
+import lombok.SneakyThrows;
+import org.apache.calcite.rel.RelNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询语句的解析与生成分布式执行计划的耗时,分片表为内存中构造的两张自动分片表
+ * cold每次清空计划缓存,cached命中计划缓存
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrdsRunnerBenchmark {
+    @Param({
+            "select * from travelrecord where id = 1",
+            "select user_id,count(*) from travelrecord where days > 10 group by user_id order by user_id limit 10",
+            "select * from travelrecord t join company c on t.id = c.id where t.fee > 100"
+    })
+    private String sql;
+    private DrdsRunner drdsRunner;
+    private MycatDataContext dataContext;
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(DrdsRunnerBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        Map<String, SchemaHandler> schemas = Fixtures.schemas();
+        DrdsConst drdsConst = () -> schemas;
+        this.drdsRunner = new DrdsRunner(drdsConst, PlanCache.INSTANCE);
+        this.dataContext = Fixtures.fake(MycatDataContext.class, Collections.singletonMap("getDefaultSchema", Fixtures.SCHEMA));
+    }
+
+    @TearDown
+    public void tearDown() {
+        PlanCache.INSTANCE.clear();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (DrdsSql drdsSql : drdsRunner.preParse(sql, Collections.emptyList())) {
+            blackhole.consume(drdsSql);
+        }
+    }
+
+    @Benchmark
+    public void planCold(Blackhole blackhole) {
+        PlanCache.INSTANCE.clear();
+        plan(blackhole);
+    }
+
+    @Benchmark
+    public void planCached(Blackhole blackhole) {
+        plan(blackhole);
+    }
+
+    private void plan(Blackhole blackhole) {
+        Iterable<DrdsSql> drdsSqls = drdsRunner.preParse(sql, Collections.emptyList());
+        for (DrdsSql drdsSql : drdsRunner.convertToMycatRel(drdsSqls, dataContext)) {
+            RelNode relNode = drdsSql.getRelNode();
+            blackhole.consume(relNode);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.mycat.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import io.mycat.hbt4.Executor;
+import io.mycat.hbt4.MycatMergeSortExecutor;
+import io.mycat.hbt4.executor.MycatHashJoinExecutor;
+import io.mycat.hbt4.executor.MycatValuesExecutor;
+import io.mycat.mpp.Row;
+import lombok.SneakyThrows;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存执行器的耗时,输入为内存中的行,模拟各个分片已经返回的结果
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+    private static final int FIELD_COUNT = 5;
+    @Param({"4"})
+    private int shardCount;
+    @Param({"10000"})
+    private int rowCount;
+    private MycatValuesExecutor[] shards;
+    private MycatValuesExecutor left;
+    private MycatValuesExecutor right;
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(ExecutorBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        this.shards = new MycatValuesExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            //按id取模分片,每个分片内id有序
+            shards[i] = MycatValuesExecutor.create(Fixtures.rows(i, shardCount, rowCount / shardCount));
+        }
+        List<Row> rows = Fixtures.rows(0, 1, rowCount);
+        this.left = MycatValuesExecutor.create(rows);
+        this.right = MycatValuesExecutor.create(Fixtures.rows(0, 2, rowCount / 2));
+    }
+
+    @Benchmark
+    public void mergeSort(Blackhole blackhole) {
+        Comparator<Row> comparator = Comparator.comparingLong(row -> (Long) row.values[0]);
+        consume(new MycatMergeSortExecutor(comparator, shards), blackhole);
+    }
+
+    @Benchmark
+    public void hashJoin(Blackhole blackhole) {
+        //连接执行器会缓存结果,每次调用都新建
+        MycatHashJoinExecutor executor = new MycatHashJoinExecutor(JoinRelType.INNER,
+                left,
+                right,
+                ImmutableList.of(),
+                new int[]{0},
+                new int[]{0},
+                false,
+                false,
+                FIELD_COUNT,
+                FIELD_COUNT,
+                null,
+                Collections.emptyList());
+        consume(executor, blackhole);
+    }
+
+    private static void consume(Executor executor, Blackhole blackhole) {
+        executor.open();
+        try {
+            Row row;
+            while ((row = executor.next()) != null) {
+                blackhole.consume(row);
+            }
+        } finally {
+            executor.close();
+        }
+    }
+}
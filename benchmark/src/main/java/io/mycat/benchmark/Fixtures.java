@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.benchmark;
+
+import com.alibaba.fastsql.sql.SQLUtils;
+import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlCreateTableStatement;
+import io.mycat.BackendTableInfo;
+import io.mycat.DataNode;
+import io.mycat.MySQLPacketUtil;
+import io.mycat.SimpleColumnInfo;
+import io.mycat.beans.mysql.MySQLFieldsType;
+import io.mycat.calcite.CalciteConvertors;
+import io.mycat.config.ShardingFuntion;
+import io.mycat.metadata.LogicTable;
+import io.mycat.metadata.SQL2ResultSetUtil;
+import io.mycat.metadata.SchemaHandler;
+import io.mycat.metadata.SchemaHandlerImpl;
+import io.mycat.metadata.ShardingTable;
+import io.mycat.mpp.Row;
+import io.mycat.router.mycat1xfunction.PartitionRuleFunctionManager;
+import lombok.SneakyThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 基准测试使用的内存数据,不依赖真实的后端与配置文件
+ */
+public class Fixtures {
+    public static final String SCHEMA = "db1";
+    public static final LocalDate TRAVEL_DATE = LocalDate.of(2020, 12, 1);
+    public static final String CREATE_TABLE_SQL = "CREATE TABLE db1.travelrecord (\n" +
+            "  `id` bigint NOT NULL,\n" +
+            "  `user_id` varchar(100) DEFAULT NULL,\n" +
+            "  `traveldate` date DEFAULT NULL,\n" +
+            "  `fee` decimal(10,0) DEFAULT NULL,\n" +
+            "  `days` int DEFAULT NULL,\n" +
+            "  PRIMARY KEY (`id`)\n" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+    public static final String CREATE_COMPANY_SQL = "CREATE TABLE db1.company (\n" +
+            "  `id` bigint NOT NULL,\n" +
+            "  `companyname` varchar(100) DEFAULT NULL,\n" +
+            "  PRIMARY KEY (`id`)\n" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+
+    /**
+     * 动态代理实现接口,指定的方法返回固定值,其余方法返回类型的默认值
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fake(Class<T> clazz, Map<String, Object> returns) {
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (returns.containsKey(name)) {
+                return returns.get(name);
+            }
+            switch (name) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return clazz.getSimpleName() + "@fake";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return (char) 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    /**
+     * 模拟后端返回的文本协议结果集报文,packetId从1开始
+     */
+    public static byte[] textResultSetPackets(int rowCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int packetId = 1;
+        String[] names = {"id", "user_id", "traveldate", "fee", "days"};
+        int[] types = {MySQLFieldsType.FIELD_TYPE_LONGLONG, MySQLFieldsType.FIELD_TYPE_VAR_STRING,
+                MySQLFieldsType.FIELD_TYPE_DATE, MySQLFieldsType.FIELD_TYPE_NEW_DECIMAL, MySQLFieldsType.FIELD_TYPE_LONG};
+        write(out, MySQLPacketUtil.generateMySQLPacket(packetId++, MySQLPacketUtil.generateResultSetCount(names.length)));
+        for (int i = 0; i < names.length; i++) {
+            write(out, MySQLPacketUtil.generateMySQLPacket(packetId++,
+                    MySQLPacketUtil.generateColumnDefPayload(names[i], types[i], 33, StandardCharsets.UTF_8)));
+        }
+        write(out, MySQLPacketUtil.generateMySQLPacket(packetId++, MySQLPacketUtil.generateEof(0, 2)));
+        for (int i = 0; i < rowCount; i++) {
+            byte[][] row = {
+                    Long.toString(i).getBytes(),
+                    ("user" + i).getBytes(),
+                    "2020-12-01".getBytes(),
+                    Integer.toString(i % 1000).getBytes(),
+                    Integer.toString(i % 30).getBytes()};
+            write(out, MySQLPacketUtil.generateMySQLPacket(packetId++, MySQLPacketUtil.generateTextRow(row)));
+        }
+        write(out, MySQLPacketUtil.generateMySQLPacket(packetId, MySQLPacketUtil.generateEof(0, 2)));
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 与travelrecord字段一致的行,id有序
+     */
+    public static List<Row> rows(int start, int step, int count) {
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = start + (long) i * step;
+            rows.add(Row.of(new Object[]{id, "user" + id, TRAVEL_DATE, BigDecimal.valueOf(id % 1000), (int) (id % 30)}));
+        }
+        return rows;
+    }
+
+    public static List<DataNode> dataNodes(String table, int dbNum, int tableNum) {
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (int i = 0; i < dbNum; i++) {
+            for (int j = 0; j < tableNum; j++) {
+                dataNodes.add(new BackendTableInfo("c" + i, SCHEMA + "_" + i, table + "_" + (i * tableNum + j)));
+            }
+        }
+        return dataNodes;
+    }
+
+    public static List<SimpleColumnInfo> columns(String createTableSQL) {
+        MySqlCreateTableStatement statement = (MySqlCreateTableStatement) SQLUtils.parseSingleMysqlStatement(createTableSQL);
+        return CalciteConvertors.getColumnInfo(SQL2ResultSetUtil.getMycatRowMetaData(statement));
+    }
+
+    /**
+     * 分片表,function为null时使用自动分片 mod_hash(id)
+     */
+    @SneakyThrows
+    public static ShardingTable shardingTable(String table, String createTableSQL, ShardingFuntion function, List<DataNode> dataNodes) {
+        ShardingTable shardingTable = LogicTable.createShardingTable(SCHEMA, table, dataNodes, columns(createTableSQL), null, createTableSQL);
+        shardingTable.setShardingFuntion(PartitionRuleFunctionManager.getRuleAlgorithm(shardingTable, function));
+        return shardingTable;
+    }
+
+    public static ShardingFuntion autoFunction(int dbNum, int tableNum) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("dbNum", String.valueOf(dbNum));
+        properties.put("tableNum", String.valueOf(tableNum));
+        properties.put("storeNum", String.valueOf(dbNum));
+        properties.put("dbMethod", "mod_hash(id)");
+        properties.put("tableMethod", "mod_hash(id)");
+        return ShardingFuntion.builder().properties(properties).ranges(new HashMap<>()).build();
+    }
+
+    /**
+     * 两张按id自动分片的表,分片数与分片算法相同
+     */
+    public static Map<String, SchemaHandler> schemas() {
+        SchemaHandlerImpl schemaHandler = new SchemaHandlerImpl(SCHEMA, "prototype");
+        schemaHandler.logicTables().put("travelrecord",
+                shardingTable("travelrecord", CREATE_TABLE_SQL, autoFunction(2, 2), dataNodes("travelrecord", 2, 2)));
+        schemaHandler.logicTables().put("company",
+                shardingTable("company", CREATE_COMPANY_SQL, autoFunction(2, 2), dataNodes("company", 2, 2)));
+        return Collections.singletonMap(SCHEMA, schemaHandler);
+    }
+}
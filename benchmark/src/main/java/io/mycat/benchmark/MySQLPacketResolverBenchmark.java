@@ -0,0 +1,62 @@
+package io.mycat.benchmark;
+
+import io.mycat.buffer.HeapBufferPool;
+import io.mycat.proxy.buffer.ProxyBufferImpl;
+import io.mycat.proxy.packet.BackendMySQLPacketResolver;
+import io.mycat.proxy.session.MySQLProxySession;
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后端文本结果集报文的解析耗时,报文一次性全部在buffer中,相当于后端一次读满
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MySQLPacketResolverBenchmark {
+    @Param({"100", "10000"})
+    private int rowCount;
+    private int length;
+    private ProxyBufferImpl proxyBuffer;
+    private MySQLProxySession session;
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(MySQLPacketResolverBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        byte[] packets = Fixtures.textResultSetPackets(rowCount);
+        this.length = packets.length;
+        this.proxyBuffer = new ProxyBufferImpl(new HeapBufferPool());
+        this.proxyBuffer.newBuffer(packets);
+        this.session = Fixtures.fake(MySQLProxySession.class, Collections.singletonMap("currentProxyBuffer", proxyBuffer));
+    }
+
+    @Benchmark
+    public int resolveTextResultSet() throws IOException {
+        proxyBuffer.packetReadStartIndex(0);
+        proxyBuffer.packetReadEndIndex(length);
+        BackendMySQLPacketResolver resolver = new BackendMySQLPacketResolver(session);
+        resolver.setPacketId(1);
+        resolver.prepareReveiceResponse();
+        int packetCount = 0;
+        while (resolver.readMySQLPacket()) {
+            proxyBuffer.packetReadStartIndex(resolver.getEndPos());
+            packetCount++;
+        }
+        return packetCount;
+    }
+}
@@ -0,0 +1,78 @@
+package io.mycat.benchmark;
+
+import io.mycat.DataNode;
+import io.mycat.RangeVariable;
+import io.mycat.RangeVariableType;
+import io.mycat.config.ShardingFuntion;
+import io.mycat.router.CustomRuleFunction;
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片算法根据分片字段的值计算分片的耗时,auto为自动分片mod_hash,其余为mycat1.x分片算法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleFunctionBenchmark {
+    private static final int PARTITION_COUNT = 4;
+    @Param({"auto", "PartitionByMod", "PartitionByLong"})
+    private String function;
+    private CustomRuleFunction ruleFunction;
+    private Map<String, Collection<RangeVariable>> rangeValues;
+    private long id;
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(RuleFunctionBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        ShardingFuntion shardingFuntion;
+        List<DataNode> dataNodes;
+        if ("auto".equals(function)) {
+            shardingFuntion = Fixtures.autoFunction(2, 2);
+            dataNodes = Fixtures.dataNodes("travelrecord", 2, 2);
+        } else {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("columnName", "id");
+            properties.put("count", String.valueOf(PARTITION_COUNT));
+            properties.put("partitionCount", String.valueOf(PARTITION_COUNT));
+            properties.put("partitionLength", "256");
+            shardingFuntion = ShardingFuntion.builder()
+                    .name(function)
+                    .clazz("io.mycat.router.mycat1xfunction." + function)
+                    .properties(properties)
+                    .ranges(new HashMap<>())
+                    .build();
+            dataNodes = Fixtures.dataNodes("travelrecord", 1, PARTITION_COUNT);
+        }
+        this.ruleFunction = Fixtures.shardingTable("travelrecord", Fixtures.CREATE_TABLE_SQL, shardingFuntion, dataNodes).function();
+        this.rangeValues = Collections.singletonMap("id",
+                Collections.singletonList(new RangeVariable("id", RangeVariableType.RANGE, "100", "200")));
+    }
+
+    @Benchmark
+    public List<DataNode> routeEqual() {
+        long value = (id++) & 0xffff;
+        Map<String, Collection<RangeVariable>> equalValues = Collections.singletonMap("id",
+                Collections.singletonList(new RangeVariable("id", RangeVariableType.EQUAL, value)));
+        return ruleFunction.calculate(equalValues);
+    }
+
+    @Benchmark
+    public List<DataNode> routeRange() {
+        return ruleFunction.calculate(rangeValues);
+    }
+}
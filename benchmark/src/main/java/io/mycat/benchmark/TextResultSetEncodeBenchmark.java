@@ -0,0 +1,66 @@
+package io.mycat.benchmark;
+
+import io.mycat.MySQLPacketUtil;
+import io.mycat.beans.mycat.ResultSetBuilder;
+import io.mycat.mpp.Row;
+import io.mycat.resultset.TextResultSetResponse;
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.JDBCType;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 结果集对象行编码为文本协议行报文的耗时,包括列定义报文
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextResultSetEncodeBenchmark {
+    @Param({"100", "10000"})
+    private int rowCount;
+    private ResultSetBuilder builder;
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(TextResultSetEncodeBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Setup
+    public void setup() {
+        builder = ResultSetBuilder.create()
+                .addColumnInfo("id", JDBCType.BIGINT)
+                .addColumnInfo("user_id", JDBCType.VARCHAR)
+                .addColumnInfo("traveldate", JDBCType.DATE)
+                .addColumnInfo("fee", JDBCType.DECIMAL)
+                .addColumnInfo("days", JDBCType.INTEGER);
+        for (Row row : Fixtures.rows(0, 1, rowCount)) {
+            builder.addObjectRowPayload(Arrays.asList(row.values));
+        }
+    }
+
+    @Benchmark
+    public void encodeTextRows(Blackhole blackhole) {
+        TextResultSetResponse response = new TextResultSetResponse(builder.build());
+        int packetId = 1;
+        blackhole.consume(MySQLPacketUtil.generateMySQLPacket(packetId++, MySQLPacketUtil.generateResultSetCount(response.columnCount())));
+        Iterator<byte[]> columnDefIterator = response.columnDefIterator();
+        while (columnDefIterator.hasNext()) {
+            blackhole.consume(MySQLPacketUtil.generateMySQLPacket(packetId++, columnDefIterator.next()));
+        }
+        Iterator<byte[]> rowIterator = response.rowIterator();
+        while (rowIterator.hasNext()) {
+            blackhole.consume(MySQLPacketUtil.generateMySQLPacket(packetId++, rowIterator.next()));
+        }
+    }
+}
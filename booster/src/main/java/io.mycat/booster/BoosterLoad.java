@@ -0,0 +1,39 @@
+package io.mycat.booster;
+
+/**
+ * booster目标的实时状态,由心跳和连接计数提供
+ * chen junwen
+ */
+public interface BoosterLoad {
+    BoosterLoad NONE = new BoosterLoad() {
+        @Override
+        public boolean isAvailable(String target) {
+            return true;
+        }
+
+        @Override
+        public int getActiveConnections(String target) {
+            return 0;
+        }
+
+        @Override
+        public long getLatencyMillis(String target) {
+            return 0;
+        }
+    };
+
+    /**
+     * 心跳失败或者复制延迟超过阈值时返回false
+     */
+    boolean isAvailable(String target);
+
+    /**
+     * 正在使用的连接数
+     */
+    int getActiveConnections(String target);
+
+    /**
+     * 最近一次心跳的往返时间,未知返回0
+     */
+    long getLatencyMillis(String target);
+}
@@ -1,43 +1,122 @@
 package io.mycat.booster;
 
-import io.mycat.MycatConfig;
-import io.mycat.config.PatternRootConfig;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.config.UserConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 按估算的扫描行数与booster的实时负载选择booster
+ * 1.估算行数小于boosterMinScanRows的查询留在主集群,估算不出行数(NaN)时视为大查询
+ * 2.跳过心跳失败或者复制延迟的booster
+ * 3.选择(活跃连接数+1+最近分配的行数/LOAD_UNIT_ROWS)*(1+心跳延迟/LATENCY_UNIT_MILLIS)最小的booster,
+ * 最近分配的行数按半衰期衰减,避免同时到达的大查询都选中同一个booster
+ * 4.booster的实时状态是注册在MetaClusterCurrent中的BoosterLoad,没有注册时认为都可用
+ */
 public enum BoosterRuntime {
     INSTANCE;
     private static final Logger LOGGER = LoggerFactory.getLogger(BoosterRuntime.class);
-    private MycatConfig config;
-    private Map<String, List<String>> boosters = new HashMap<>();
-
-    public synchronized void load(MycatConfig config) {
-        if (this.config != config) {
-            this.config = config;
-            Stream<PatternRootConfig> configStream = Optional.ofNullable(config.getInterceptors())
-                    .map(i -> i.stream()).orElse(Stream.empty());
-            boosters =
-                    configStream.filter(i -> i.getUser() != null)
-                            .collect(Collectors
-                                    .toMap(k -> k.getUser().getUsername(), v -> v.getBoosters()));
+    private static final double LOAD_UNIT_ROWS = 100_000;
+    private static final double LATENCY_UNIT_MILLIS = 100;
+    private static final long HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private volatile Map<String, List<String>> boosters = Collections.emptyMap();
+    private final Map<String, DecayingCounter> assignedRows = new ConcurrentHashMap<>();
+
+    /**
+     * 加载配置时调用,用户配置中的boosters为该用户可以使用的booster集群
+     */
+    public void load(List<UserConfig> users) {
+        Map<String, List<String>> boosters = new HashMap<>();
+        for (UserConfig user : Optional.ofNullable(users).orElse(Collections.emptyList())) {
+            List<String> targets = user.getBoosters();
+            if (targets != null && !targets.isEmpty()) {
+                boosters.put(user.getUsername(), Collections.unmodifiableList(new ArrayList<>(targets)));
+            }
         }
+        this.boosters = boosters;
+    }
+
+    public boolean hasBooster(String name) {
+        List<String> strings = boosters.get(name);
+        return strings != null && !strings.isEmpty();
     }
 
     public Optional<String> getBooster(String name) {
+        return getBooster(name, Double.NaN);
+    }
+
+    /**
+     * @param estimatedRows 估算的扫描行数,未知为NaN
+     */
+    public Optional<String> getBooster(String name, double estimatedRows) {
         List<String> strings = boosters.getOrDefault(name, Collections.emptyList());
         if (strings.isEmpty()) {
             return Optional.empty();
         }
-        int randomIndex = ThreadLocalRandom.current().nextInt(0, strings.size());
-        return Optional.of(strings.get(randomIndex));
+        if (estimatedRows < MetaClusterCurrent.serverConfig().getBoosterMinScanRows()) {
+            return Optional.empty();
+        }
+        BoosterLoad load = MetaClusterCurrent.exist(BoosterLoad.class) ? MetaClusterCurrent.wrapper(BoosterLoad.class) : BoosterLoad.NONE;
+        long now = System.nanoTime();
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+        int ties = 0;
+        for (String target : strings) {
+            if (!load.isAvailable(target)) {
+                continue;
+            }
+            DecayingCounter counter = assignedRows.get(target);
+            double assigned = counter == null ? 0 : counter.get(now);
+            double score = (load.getActiveConnections(target) + 1 + assigned / LOAD_UNIT_ROWS)
+                    * (1 + load.getLatencyMillis(target) / LATENCY_UNIT_MILLIS);
+            if (score < bestScore) {
+                best = target;
+                bestScore = score;
+                ties = 1;
+            } else if (score == bestScore && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                //分数相同时均匀随机
+                best = target;
+            }
+        }
+        if (best == null) {
+            LOGGER.debug("user:{} all boosters are unavailable", name);
+            return Optional.empty();
+        }
+        if (!Double.isNaN(estimatedRows)) {
+            assignedRows.computeIfAbsent(best, s -> new DecayingCounter()).add(estimatedRows, now);
+        }
+        return Optional.of(best);
+    }
+
+    private static class DecayingCounter {
+        private double value;
+        private long timestamp = System.nanoTime();
+
+        synchronized double get(long now) {
+            decay(now);
+            return value;
+        }
+
+        synchronized void add(double delta, long now) {
+            decay(now);
+            value += delta;
+        }
+
+        private void decay(long now) {
+            long elapsed = now - timestamp;
+            if (elapsed > 0) {
+                value *= Math.pow(0.5, (double) elapsed / HALF_LIFE_NANOS);
+                timestamp = now;
+            }
+        }
     }
 
     public static void main(String[] args) {
 
     }
-}
\ No newline at end of file
+}
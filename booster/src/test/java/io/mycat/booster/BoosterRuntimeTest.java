@@ -0,0 +1,60 @@
+package io.mycat.booster;
+
+import io.mycat.MetaClusterCurrent;
+import io.mycat.config.ServerConfig;
+import io.mycat.config.UserConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+public class BoosterRuntimeTest {
+    private Map<Class, Object> oldContext;
+    private final ServerConfig serverConfig = new ServerConfig();
+
+    @Before
+    public void setUp() {
+        oldContext = MetaClusterCurrent.context.get();
+        HashMap<Class, Object> context = new HashMap<>(oldContext);
+        context.put(ServerConfig.class, serverConfig);
+        MetaClusterCurrent.register(context);
+    }
+
+    @After
+    public void tearDown() {
+        BoosterRuntime.INSTANCE.load(Collections.emptyList());
+        MetaClusterCurrent.register(oldContext);
+    }
+
+    private static UserConfig user(String username, String... boosters) {
+        UserConfig userConfig = new UserConfig();
+        userConfig.setUsername(username);
+        userConfig.setBoosters(boosters.length == 0 ? null : Arrays.asList(boosters));
+        return userConfig;
+    }
+
+    @Test
+    public void testLoad() {
+        BoosterRuntime.INSTANCE.load(Arrays.asList(user("root", "b1"), user("app")));
+        Assert.assertTrue(BoosterRuntime.INSTANCE.hasBooster("root"));
+        Assert.assertFalse(BoosterRuntime.INSTANCE.hasBooster("app"));
+        Assert.assertEquals(Optional.of("b1"), BoosterRuntime.INSTANCE.getBooster("root", 100));
+        Assert.assertEquals(Optional.empty(), BoosterRuntime.INSTANCE.getBooster("app", 100));
+        //重新加载配置后使用新的booster
+        BoosterRuntime.INSTANCE.load(Collections.singletonList(user("app", "b2")));
+        Assert.assertFalse(BoosterRuntime.INSTANCE.hasBooster("root"));
+        Assert.assertEquals(Optional.of("b2"), BoosterRuntime.INSTANCE.getBooster("app", 100));
+    }
+
+    @Test
+    public void testMinScanRows() {
+        BoosterRuntime.INSTANCE.load(Collections.singletonList(user("root", "b1")));
+        serverConfig.setBoosterMinScanRows(1000);
+        Assert.assertEquals(Optional.empty(), BoosterRuntime.INSTANCE.getBooster("root", 999));
+        Assert.assertEquals(Optional.of("b1"), BoosterRuntime.INSTANCE.getBooster("root", 1000));
+        //估算不出行数时视为大查询
+        Assert.assertEquals(Optional.of("b1"), BoosterRuntime.INSTANCE.getBooster("root", Double.NaN));
+    }
+}
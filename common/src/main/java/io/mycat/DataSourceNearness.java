@@ -6,6 +6,16 @@ public interface DataSourceNearness {
 
     public String getDataSourceByTargetName(String targetName);
 
+    /**
+     * @param master 写语句或者要求读主节点
+     */
+    public String getDataSourceByTargetName(String targetName, boolean master, String loadBalanceStrategy);
+
+    /**
+     * 数据源上的写已经提交,executedGtidSet为提交后数据源的gtid_executed
+     */
+    public void onCommitted(String datasourceName, String executedGtidSet);
+
     public void setLoadBalanceStrategy(String loadBalanceStrategy);
 
     public void clear();
@@ -1,5 +1,7 @@
 package io.mycat;
 
+import io.mycat.config.ServerConfig;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -20,4 +22,16 @@ public class MetaClusterCurrent {
     public static boolean exist(Class interceptorRuntimeClass) {
         return context.get().containsKey(interceptorRuntimeClass);
     }
+
+    /**
+     * server.yml中的server配置,没有注册时(例如测试)使用默认配置
+     */
+    public static ServerConfig serverConfig() {
+        Object o = context.get().get(ServerConfig.class);
+        return o == null ? DefaultServerConfig.INSTANCE : (ServerConfig) o;
+    }
+
+    private static class DefaultServerConfig {
+        static final ServerConfig INSTANCE = new ServerConfig();
+    }
 }
\ No newline at end of file
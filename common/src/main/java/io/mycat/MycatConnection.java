@@ -13,4 +13,9 @@ public interface MycatConnection extends AutoCloseable,Wrapper {
     public boolean isClosed();
 
     public RowBaseIterator executeQuery(MycatRowMetaData mycatRowMetaData, String sql);
+
+    /**
+     * 取消正在执行的语句,可以在其他线程调用
+     */
+    public void cancel();
 }
\ No newline at end of file
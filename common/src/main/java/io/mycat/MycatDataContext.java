@@ -98,6 +98,52 @@ public interface MycatDataContext extends Wrapper, SessionOpt {
         return !getCancelFlag().get();
     }
 
+    /**
+     * 开始处理一条语句,记录语句和开始时间,清除上一条语句的kill标记
+     */
+    void startQuery(String sql);
+
+    String getQuery();
+
+    /**
+     * 当前语句执行的阶段,例如建表的进度,show processlist的State列显示,startQuery时清除
+     */
+    void setQueryState(String state);
+
+    String getQueryState();
+
+    long getQueryStartTime();
+
+    /**
+     * 当前语句是否已经被kill query
+     */
+    boolean isQueryCancelled();
+
+    /**
+     * kill query,标记当前语句,中断正在执行语句的线程并取消jdbc连接上正在执行的语句,可以在其他线程调用
+     */
+    void cancelQuery();
+
+    /**
+     * 当前线程开始执行语句并发送结果,kill query时中断该线程,使阻塞在等待分片结果上的执行器停止
+     */
+    void bindQueryThread();
+
+    /**
+     * 当前线程不再执行该语句,清除kill query留下的中断标记后线程才能执行其他会话的任务
+     */
+    void unbindQueryThread();
+
+    /**
+     * 记录当前语句写入的逻辑表,语句响应完成后使结果集缓存失效,事务中写入的表在事务结束后再失效一次
+     */
+    void addWrittenTable(String schemaName, String tableName);
+
+    /**
+     * 语句的响应已经写完
+     */
+    void endQuery();
+
     void run(Runnable runnable);
 
     boolean isReadOnly();
@@ -114,5 +160,7 @@ public interface MycatDataContext extends Wrapper, SessionOpt {
 
     public String resolveDatasourceTargetName(String targetName);
 
+    public String resolveDatasourceTargetName(String targetName, boolean master, String loadBalanceStrategy);
+
     Map<Long, PreparedStatement> getPrepareInfo();
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package io.mycat;
+
+/**
+ * 处理网络io的线程(reactor),在该线程中阻塞会使它负责的所有会话停止读写
+ * 需要等待的操作(例如获取jdbc连接)在该线程中不等待,直接失败
+ */
+public interface NonBlockingThread {
+}
@@ -14,24 +14,126 @@
  */
 package io.mycat;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 定时任务按子系统隔离
+ * 1.timer:周期性的维护任务,通过scheduleAtFixedRate注册的任务记录延迟和超时
+ * 2.timeoutTimer:查询超时等大量的一次性任务使用时间轮,tick为10毫秒
+ * 3.heartbeatExecutor:会阻塞的心跳在单独的有界线程池中并行执行,同一个数据源上一次心跳未结束时跳过本次
+ * chen junwen
+ */
 public class ScheduleUtil {
-    final static ScheduledExecutorService timer = Executors.newScheduledThreadPool(1);
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleUtil.class);
+    private static final long TIMEOUT_TICK_MILLIS = 10;
+    final static ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(2, threadFactory("MYCAT_SCHEDULE", false));
+    final static HashedWheelTimer timeoutTimer = new HashedWheelTimer(threadFactory("MYCAT_TIMEOUT", true),
+            TIMEOUT_TICK_MILLIS, TimeUnit.MILLISECONDS, 512);
+    final static ThreadPoolExecutor heartbeatExecutor = new ThreadPoolExecutor(4, 4,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1024), threadFactory("MYCAT_HEARTBEAT", true));
     final static AtomicInteger COUNTER = new AtomicInteger(0);
+    final static LongAdder EXPIRED = new LongAdder();
+    final static Map<String, TaskStat> TASKS = new ConcurrentHashMap<>();
+    final static Map<String, Boolean> RUNNING_HEARTBEATS = new ConcurrentHashMap<>();
+    final static LongAdder HEARTBEAT_SKIPS = new LongAdder();
+    final static LongAdder HEARTBEAT_REJECTIONS = new LongAdder();
+
+    static {
+        heartbeatExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threadFactory(String name, boolean daemon) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + index.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    /**
+     * @param scheduleThreads  维护任务的线程数
+     * @param heartbeatThreads 心跳线程数
+     */
+    public static void configure(int scheduleThreads, int heartbeatThreads) {
+        timer.setCorePoolSize(Math.max(1, scheduleThreads));
+        int threads = Math.max(1, heartbeatThreads);
+        if (threads >= heartbeatExecutor.getMaximumPoolSize()) {
+            heartbeatExecutor.setMaximumPoolSize(threads);
+            heartbeatExecutor.setCorePoolSize(threads);
+        } else {
+            heartbeatExecutor.setCorePoolSize(threads);
+            heartbeatExecutor.setMaximumPoolSize(threads);
+        }
+    }
 
     public static ScheduledExecutorService getTimer() {
         return timer;
     }
 
+    /**
+     * 注册周期任务,show @@schedule中按name显示执行次数,开始时间相对计划的延迟和执行时间超过周期的次数
+     * 同名的任务替换旧的统计
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable runnable, long initialDelay, long period, TimeUnit unit) {
+        TaskStat stat = new TaskStat(name, unit.toMillis(period));
+        TASKS.put(name, stat);
+        stat.nextNanos = System.nanoTime() + unit.toNanos(initialDelay);
+        ScheduledFuture<?> future = timer.scheduleAtFixedRate(() -> stat.run(runnable), initialDelay, period, unit);
+        stat.future = future;
+        return future;
+    }
+
+    /**
+     * 取消周期任务并移除统计,同名的新任务不受影响
+     */
+    public static void cancel(String name, Future<?> future, boolean mayInterruptIfRunning) {
+        future.cancel(mayInterruptIfRunning);
+        TASKS.computeIfPresent(name, (k, v) -> v.future == future ? null : v);
+    }
+
+    /**
+     * 在心跳线程池中执行,key(数据源)上一次心跳还没有结束时跳过
+     *
+     * @return 是否提交
+     */
+    public static boolean submitHeartbeat(String key, Runnable runnable) {
+        if (RUNNING_HEARTBEATS.putIfAbsent(key, Boolean.TRUE) != null) {
+            HEARTBEAT_SKIPS.increment();
+            LOGGER.warn("heartbeat:{} is still running, skip", key);
+            return false;
+        }
+        try {
+            heartbeatExecutor.execute(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    RUNNING_HEARTBEATS.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            RUNNING_HEARTBEATS.remove(key);
+            HEARTBEAT_REJECTIONS.increment();
+            LOGGER.warn("heartbeat:{} is rejected", key);
+            return false;
+        }
+    }
+
     public static TimerTask getTimerFuture(Closeable closeable, long delay, TimeUnit unit) {
         TimerTask timerTask = new TimerTask(delay, unit) {
 
@@ -41,7 +143,7 @@ public class ScheduleUtil {
             }
         };
         COUNTER.incrementAndGet();
-        getTimer().schedule(() -> timerTask.accept(), delay, unit);
+        timerTask.timeout = timeoutTimer.newTimeout(timeout -> timerTask.accept(), delay, unit);
         return timerTask;
     }
 
@@ -51,6 +153,7 @@ public class ScheduleUtil {
         final long delay;
         final TimeUnit unit;
         final AtomicBoolean finished = new AtomicBoolean(false);
+        volatile Timeout timeout;
 
         TimerTask(long delay, TimeUnit unit) {
             this.delay = delay;
@@ -58,14 +161,21 @@ public class ScheduleUtil {
         }
 
         void accept() {
-            if (!this.finished.get()) {
+            if (this.finished.compareAndSet(false, true)) {
+                COUNTER.decrementAndGet();
+                EXPIRED.increment();
                 onClose();
             }
         }
 
         public void setFinished() {
-            COUNTER.decrementAndGet();
-            finished.set(true);
+            if (finished.compareAndSet(false, true)) {
+                COUNTER.decrementAndGet();
+                Timeout timeout = this.timeout;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+            }
         }
 
         abstract void close() throws IOException;
@@ -74,13 +184,81 @@ public class ScheduleUtil {
             try {
                 close();
             } catch (Exception e) {
-                e.printStackTrace();
+                LOGGER.error("", e);
             }
         }
     }
 
+    /**
+     * 周期任务的统计
+     */
+    @Getter
+    public static class TaskStat {
+        final String name;
+        final long periodMillis;
+        final LongAdder runs = new LongAdder();
+        final LongAdder overruns = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        volatile long lastLatenessMillis;
+        volatile long maxLatenessMillis;
+        volatile long lastDurationMillis;
+        volatile long maxDurationMillis;
+        volatile boolean running;
+        volatile long nextNanos;
+        volatile ScheduledFuture<?> future;
+
+        TaskStat(String name, long periodMillis) {
+            this.name = name;
+            this.periodMillis = periodMillis;
+        }
+
+        void run(Runnable runnable) {
+            long start = System.nanoTime();
+            long lateness = Math.max(0, TimeUnit.NANOSECONDS.toMillis(start - nextNanos));
+            nextNanos += TimeUnit.MILLISECONDS.toNanos(periodMillis);
+            lastLatenessMillis = lateness;
+            maxLatenessMillis = Math.max(maxLatenessMillis, lateness);
+            running = true;
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                //异常会使ScheduledExecutorService取消之后的执行
+                failures.increment();
+                LOGGER.error("schedule task:{} fail", name, e);
+            } finally {
+                running = false;
+                long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                lastDurationMillis = duration;
+                maxDurationMillis = Math.max(maxDurationMillis, duration);
+                runs.increment();
+                if (duration > periodMillis) {
+                    overruns.increment();
+                }
+            }
+        }
+    }
+
+    public static List<TaskStat> getTaskStats() {
+        return new ArrayList<>(TASKS.values());
+    }
 
     public static int getScheduleCount() {
         return COUNTER.get();
     }
-}
\ No newline at end of file
+
+    public static long getExpiredCount() {
+        return EXPIRED.sum();
+    }
+
+    public static ThreadPoolExecutor getHeartbeatExecutor() {
+        return heartbeatExecutor;
+    }
+
+    public static long getHeartbeatSkips() {
+        return HEARTBEAT_SKIPS.sum();
+    }
+
+    public static long getHeartbeatRejections() {
+        return HEARTBEAT_REJECTIONS.sum();
+    }
+}
@@ -70,6 +70,8 @@ public interface TransactionSession extends Dumpable {
 
     String resolveFinalTargetName(String targetName);
 
+    String resolveFinalTargetName(String targetName, boolean master, String loadBalanceStrategy);
+
     TransactionType transactionType();
 
     /**
@@ -78,4 +80,14 @@ public interface TransactionSession extends Dumpable {
     public void doAction();
 
     public void addCloseResource(AutoCloseable closeable);
+
+    /**
+     * 取消会话在所有jdbc连接上正在执行的语句,kill query时在其他线程调用
+     */
+    void cancel();
+
+    /**
+     * 会话正在使用的jdbc连接的数据源名,show processlist时在其他线程调用
+     */
+    List<String> getUsedDatasources();
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ package io.mycat.api;
 
 import io.mycat.api.callback.MySQLAPIExceptionCallback;
 import io.mycat.api.collector.ResultSetCollector;
+import io.mycat.api.collector.ResultSetTransfor;
 
 /**
  * collector runner
@@ -30,5 +31,11 @@ public interface MySQLAPI {
   void query(String sql, ResultSetCollector resultSetCollector,
       MySQLAPIExceptionCallback exceptionCollector);
 
+  /**
+   * 由transfor直接从报文解码行
+   */
+  void query(String sql, ResultSetTransfor resultSetTransfor,
+      MySQLAPIExceptionCallback exceptionCollector);
+
   void close();
 }
\ No newline at end of file
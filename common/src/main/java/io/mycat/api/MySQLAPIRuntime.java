@@ -22,5 +22,20 @@ public interface MySQLAPIRuntime {
 
   void create(String dataSourceName, MySQLAPISessionCallback callback);
 
+  /**
+   * 该数据源是否可以使用native连接
+   */
+  default boolean isAvailable(String dataSourceName) {
+    return true;
+  }
+
+  /**
+   * 当前线程是否可以阻塞等待native连接的回调,
+   * reactor线程阻塞时无法读取它自己的session的响应
+   */
+  default boolean isBlockingAllowed() {
+    return true;
+  }
+
   void addPengdingJob(MySQLJobCallback callback);
 }
\ No newline at end of file
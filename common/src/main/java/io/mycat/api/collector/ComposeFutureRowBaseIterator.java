@@ -24,6 +24,10 @@ public class ComposeFutureRowBaseIterator implements RowBaseIterator {
     final LinkedList<Future<RowBaseIterator>> seq;
     private MycatRowMetaData metaData;
     private RowBaseIterator current;
+    /**
+     * 当前读取的是第几个结果集
+     */
+    private int index = -1;
 
     public ComposeFutureRowBaseIterator(MycatRowMetaData metaData, LinkedList<Future<RowBaseIterator>> seq) {
         this.metaData = metaData;
@@ -40,6 +44,7 @@ public class ComposeFutureRowBaseIterator implements RowBaseIterator {
     public boolean next() {
         if (current == null && !seq.isEmpty()) {
             current = seq.removeFirst().get();
+            index++;
         }
         if(current == null){
             return false;
@@ -57,9 +62,14 @@ public class ComposeFutureRowBaseIterator implements RowBaseIterator {
             return false;
         }
         current = seq.removeFirst().get();
+        index++;
         return next();
     }
 
+    public int getIndex() {
+        return index;
+    }
+
     @Override
     public void close() {
         try {
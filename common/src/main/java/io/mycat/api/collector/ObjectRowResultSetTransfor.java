@@ -0,0 +1,434 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.api.collector;
+
+import io.mycat.MycatTimeUtil;
+import io.mycat.beans.mycat.MycatRowMetaData;
+import io.mycat.beans.mysql.packet.ColumnDefPacket;
+import io.mycat.beans.mysql.packet.MySQLPacket;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+import static java.sql.Types.*;
+
+/**
+ * 把文本协议的行直接解码为对象数组,类型按照期望的行类型(而不是后端返回的字段类型)转换,
+ * 与JdbcRowBaseIterator.getObject得到的java类型一致
+ * chen junwen
+ */
+public class ObjectRowResultSetTransfor implements ResultSetTransfor {
+    private final int[] columnTypes;
+    private final Consumer<Object[]> rowConsumer;
+    private Object[] row;
+
+    public ObjectRowResultSetTransfor(MycatRowMetaData metaData, Consumer<Object[]> rowConsumer) {
+        int columnCount = metaData.getColumnCount();
+        this.columnTypes = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            this.columnTypes[i] = metaData.getColumnType(i + 1);
+        }
+        this.rowConsumer = rowConsumer;
+    }
+
+    @Override
+    public void onResultSetStart() {
+
+    }
+
+    @Override
+    public void onResultSetEnd() {
+
+    }
+
+    @Override
+    public void collectColumnList(ColumnDefPacket[] packets) {
+
+    }
+
+    @Override
+    public void onRowStart() {
+        row = new Object[columnTypes.length];
+    }
+
+    @Override
+    public void onRowEnd() {
+        rowConsumer.accept(row);
+        row = null;
+    }
+
+    private Object convert(int columnIndex, byte[] bytes) {
+        int columnType = columnTypes[columnIndex];
+        switch (columnType) {
+            case BINARY:
+            case VARBINARY:
+            case LONGVARBINARY:
+            case BLOB:
+                return bytes;
+            default:
+        }
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        switch (columnType) {
+            case BIT:
+            case BOOLEAN:
+                return !("0".equals(text) || "false".equalsIgnoreCase(text));
+            case TINYINT:
+                return (byte) parseLong(text);
+            case SMALLINT:
+                return (short) parseLong(text);
+            case INTEGER:
+                return (int) parseLong(text);
+            case BIGINT:
+                return parseLong(text);
+            case FLOAT:
+            case REAL:
+                return Float.parseFloat(text);
+            case DOUBLE:
+                return Double.parseDouble(text);
+            case NUMERIC:
+            case DECIMAL:
+                return new BigDecimal(text);
+            case DATE:
+                if (text.startsWith("0000-00-00")) {
+                    return null;
+                }
+                return LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text);
+            case TIME:
+            case TIME_WITH_TIMEZONE:
+                return MycatTimeUtil.timeStringToTimeDuration(text);
+            case TIMESTAMP:
+            case TIMESTAMP_WITH_TIMEZONE:
+                if (text.startsWith("0000-00-00")) {
+                    return null;
+                }
+                if (text.length() == 10) {
+                    return LocalDate.parse(text).atStartOfDay();
+                }
+                return LocalDateTime.parse(text.replace(' ', 'T'));
+            case NULL:
+                return null;
+            default:
+                return text;
+        }
+    }
+
+    /**
+     * bit字段在文本协议中是原始字节
+     */
+    private Object convertBit(int columnIndex, byte[] bytes) {
+        long value = 0;
+        for (byte b : bytes) {
+            value = (value << 8) | (b & 0xff);
+        }
+        switch (columnTypes[columnIndex]) {
+            case BIT:
+            case BOOLEAN:
+                return value != 0;
+            case TINYINT:
+                return (byte) value;
+            case SMALLINT:
+                return (short) value;
+            case INTEGER:
+                return (int) value;
+            case BIGINT:
+                return value;
+            case BINARY:
+            case VARBINARY:
+            case LONGVARBINARY:
+            case BLOB:
+                return bytes;
+            default:
+                return convert(columnIndex, Long.toString(value).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            //bigint unsigned或者小数
+            return text.indexOf('.') >= 0 ? new BigDecimal(text).longValue() : new BigInteger(text).longValue();
+        }
+    }
+
+    @Override
+    public void collectDecimal(int columnIndex, ColumnDefPacket columnDef, int decimalScale, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectTiny(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectGeometry(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectTinyString(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectVarString(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectShort(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectBlob(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectMediumBlob(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectTinyBlob(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectFloat(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectDouble(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectNull(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectTimestamp(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectInt24(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectDate(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectTime(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectDatetime(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectYear(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectNewDate(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectVarChar(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectBit(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convertBit(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectNewDecimal(int columnIndex, ColumnDefPacket columnDef, int decimalScale, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectEnum(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectSet(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectLong(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectLongLong(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectLongBlob(int columnIndex, ColumnDefPacket columnDef, MySQLPacket mySQLPacket, int startIndex) {
+        row[columnIndex] = convert(columnIndex, mySQLPacket.readLenencBytes());
+    }
+
+    @Override
+    public void collectNullDecimal(int columnIndex, ColumnDefPacket columnDef, int decimalScale) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullTiny(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullGeometry(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullTinyString(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullVarString(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullShort(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullBlob(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullMediumBlob(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullTinyBlob(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullFloat(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullDouble(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullTimestamp(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullInt24(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullDate(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullTime(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullDatetime(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullYear(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullNewDate(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullVarChar(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullBit(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullNewDecimal(int columnIndex, ColumnDefPacket columnDef, int decimalScale) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullEnum(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullSet(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullLong(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullLongLong(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+
+    @Override
+    public void collectNullLongBlob(int columnIndex, ColumnDefPacket columnDef) {
+        row[columnIndex] = null;
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.api.collector;
+
+import io.mycat.beans.mycat.CopyMycatRowMetaData;
+import io.mycat.beans.mycat.MycatRowMetaData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 结果集缓存
+ * 1.行数据编码后保存在堆外,按字节预算做LRU淘汰
+ * 2.同一个key同时只有一个加载,并发未命中的请求等待该加载
+ * 3.按逻辑表失效,加载期间表被修改则丢弃加载结果
+ * chen junwen
+ */
+public class OffHeapResultSetCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapResultSetCache.class);
+    private static final int INITIAL_ENTRY_CAPACITY = 64 * 1024;
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * schemaName.tableName(小写) -> keys
+     */
+    private final Map<String, Set<Object>> tableIndex = new HashMap<>();
+    /**
+     * 无法确定引用表的缓存,任意表失效都会清除
+     */
+    private final Set<Object> untrackedKeys = new HashSet<>();
+    private final ConcurrentHashMap<Object, Loading> loadings = new ConcurrentHashMap<>();
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicLong entryIds = new AtomicLong();
+    private final Map<String, Long> tableInvalidatedEpochs = new HashMap<>();
+    private long anyInvalidatedEpoch = -1;
+    private long bytes = 0;
+
+    private volatile long maxBytes;
+    private volatile long maxEntryBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public OffHeapResultSetCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    private static class Entry {
+        final Object key;
+        final MycatRowMetaData metaData;
+        final ByteBuffer buffer;
+        final int rowCount;
+        final Set<String> tables;
+        long id;
+
+        Entry(Object key, MycatRowMetaData metaData, ByteBuffer buffer, int rowCount, Set<String> tables) {
+            this.key = key;
+            this.metaData = metaData;
+            this.buffer = buffer;
+            this.rowCount = rowCount;
+            this.tables = tables;
+        }
+
+        int size() {
+            return buffer.capacity();
+        }
+    }
+
+    private static class Loading {
+        final long startEpoch;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Loading(long startEpoch) {
+            this.startEpoch = startEpoch;
+        }
+    }
+
+    public static String tableKey(String schemaName, String tableName) {
+        return (schemaName + "." + tableName).toLowerCase();
+    }
+
+    public synchronized void configure(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        evictIfNecessary();
+    }
+
+    public RowBaseIterator get(Object key) {
+        RowBaseIterator iterator = peek(key);
+        if (iterator == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return iterator;
+    }
+
+    /**
+     * 读取缓存,不计入命中统计
+     */
+    public synchronized RowBaseIterator peek(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        return new OffHeapRowIterator(entry.metaData, entry.buffer, entry.rowCount);
+    }
+
+    /**
+     * 缓存的版本号,每次写入都会变化,不存在返回-1
+     * 用于判断由该缓存派生的数据是否过期,需要先取版本号再读取缓存
+     */
+    public synchronized long getEntryId(Object key) {
+        Entry entry = entries.get(key);
+        return entry == null ? -1 : entry.id;
+    }
+
+    /**
+     * 编码并缓存结果集,结果集过大或者加载期间相关表被修改则不缓存
+     *
+     * @param tables schemaName.tableName,为空表示无法确定引用的表
+     */
+    public boolean put(Object key, RowBaseIterator iterator, Collection<String> tables) {
+        Loading loading = loadings.get(key);
+        long startEpoch = loading != null ? loading.startEpoch : epoch.get();
+        Entry entry;
+        try {
+            entry = encode(key, iterator, tables);
+        } catch (OffHeapRowCodec.EntryTooLargeException e) {
+            rejections.increment();
+            LOGGER.warn("result set is not cached key:{} {}", key, e.getMessage());
+            return false;
+        } finally {
+            iterator.close();
+        }
+        synchronized (this) {
+            if (isInvalidatedSince(entry.tables, startEpoch)) {
+                return false;
+            }
+            remove(key);
+            entry.id = entryIds.incrementAndGet();
+            entries.put(key, entry);
+            bytes += entry.size();
+            if (entry.tables.isEmpty()) {
+                untrackedKeys.add(key);
+            } else {
+                for (String table : entry.tables) {
+                    tableIndex.computeIfAbsent(table, s -> new HashSet<>()).add(key);
+                }
+            }
+            evictIfNecessary();
+            return entries.containsKey(key);
+        }
+    }
+
+    private Entry encode(Object key, RowBaseIterator iterator, Collection<String> tables) {
+        MycatRowMetaData metaData = new CopyMycatRowMetaData(iterator.getMetaData());
+        int columnCount = metaData.getColumnCount();
+        long limit = Math.min(maxEntryBytes, maxBytes);
+        OffHeapRowCodec.Output output = new OffHeapRowCodec.Output((int) Math.min(INITIAL_ENTRY_CAPACITY, limit), limit);
+        Object[] row = new Object[columnCount];
+        int rowCount = 0;
+        while (iterator.next()) {
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = iterator.getObject(i + 1);
+            }
+            OffHeapRowCodec.writeRow(output, row);
+            rowCount++;
+        }
+        Set<String> tableSet = new HashSet<>();
+        for (String table : tables) {
+            tableSet.add(table.toLowerCase());
+        }
+        return new Entry(key, metaData, output.toCompactBuffer(), rowCount, tableSet);
+    }
+
+    /**
+     * 单飞加载,已有加载进行中时等待该加载的结果
+     *
+     * @param waitMillis 等待进行中加载的时间,小于等于0则不等待直接返回已有缓存
+     * @return 加载后的缓存,无法缓存时返回null
+     */
+    public RowBaseIterator load(Object key, Runnable loader, long waitMillis) {
+        Loading loading = new Loading(epoch.get());
+        Loading existing = loadings.putIfAbsent(key, loading);
+        if (existing != null) {
+            if (waitMillis > 0) {
+                try {
+                    existing.future.get(waitMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException | TimeoutException e) {
+                    return null;
+                }
+            }
+            return peek(key);
+        }
+        loads.increment();
+        try {
+            loader.run();
+            loading.future.complete(null);
+        } catch (Throwable t) {
+            loadFailures.increment();
+            loading.future.completeExceptionally(t);
+            throw t;
+        } finally {
+            loadings.remove(key, loading);
+        }
+        return peek(key);
+    }
+
+    public synchronized void invalidateTable(String schemaName, String tableName) {
+        String table = tableKey(schemaName, tableName);
+        long current = epoch.incrementAndGet();
+        tableInvalidatedEpochs.put(table, current);
+        anyInvalidatedEpoch = current;
+        Set<Object> keys = tableIndex.remove(table);
+        if (keys != null) {
+            for (Object key : new ArrayList<>(keys)) {
+                if (remove(key) != null) {
+                    invalidations.increment();
+                }
+            }
+        }
+        for (Object key : new ArrayList<>(untrackedKeys)) {
+            if (remove(key) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public synchronized void invalidate(Object key) {
+        if (remove(key) != null) {
+            invalidations.increment();
+        }
+    }
+
+    public synchronized void clear() {
+        anyInvalidatedEpoch = epoch.incrementAndGet();
+        tableInvalidatedEpochs.clear();
+        entries.clear();
+        tableIndex.clear();
+        untrackedKeys.clear();
+        bytes = 0;
+    }
+
+    private boolean isInvalidatedSince(Set<String> tables, long startEpoch) {
+        if (tables.isEmpty()) {
+            return anyInvalidatedEpoch > startEpoch;
+        }
+        for (String table : tables) {
+            Long invalidated = tableInvalidatedEpochs.get(table);
+            if (invalidated != null && invalidated > startEpoch) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Entry remove(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        bytes -= entry.size();
+        if (entry.tables.isEmpty()) {
+            untrackedKeys.remove(key);
+        } else {
+            for (String table : entry.tables) {
+                Set<Object> keys = tableIndex.get(table);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        tableIndex.remove(table);
+                    }
+                }
+            }
+        }
+        return entry;
+    }
+
+    private void evictIfNecessary() {
+        while (bytes > maxBytes && !entries.isEmpty()) {
+            Object eldestKey = entries.keySet().iterator().next();
+            remove(eldestKey);
+            evictions.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
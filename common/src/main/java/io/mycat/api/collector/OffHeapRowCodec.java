@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.api.collector;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.*;
+
+/**
+ * 结果集行的紧凑编码,每个值由一个类型字节和定长或带长度的负载组成
+ * 编码写入堆外内存,不产生行对象
+ * chen junwen
+ */
+public final class OffHeapRowCodec {
+    static final byte NULL = 0;
+    static final byte BYTE = 1;
+    static final byte SHORT = 2;
+    static final byte INT = 3;
+    static final byte LONG = 4;
+    static final byte FLOAT = 5;
+    static final byte DOUBLE = 6;
+    static final byte BOOLEAN = 7;
+    static final byte STRING = 8;
+    static final byte BYTES = 9;
+    static final byte BIG_DECIMAL = 10;
+    static final byte BIG_INTEGER = 11;
+    static final byte LOCAL_DATE = 12;
+    static final byte LOCAL_DATE_TIME = 13;
+    static final byte LOCAL_TIME = 14;
+    static final byte DURATION = 15;
+    static final byte SQL_DATE = 16;
+    static final byte SQL_TIME = 17;
+    static final byte SQL_TIMESTAMP = 18;
+
+    private OffHeapRowCodec() {
+    }
+
+    /**
+     * 可增长的堆外写缓冲,超过上限时抛出EntryTooLargeException
+     */
+    public static final class Output {
+        private final long maxBytes;
+        private ByteBuffer buffer;
+
+        public Output(int initialCapacity, long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.buffer = ByteBuffer.allocateDirect((int) Math.min(initialCapacity, maxBytes));
+        }
+
+        void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            long required = (long) buffer.position() + bytes;
+            if (required > maxBytes) {
+                throw new EntryTooLargeException(required);
+            }
+            long newCapacity = Math.max(required, (long) buffer.capacity() << 1);
+            newCapacity = Math.min(Math.min(newCapacity, maxBytes), Integer.MAX_VALUE);
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect((int) newCapacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+
+        public int size() {
+            return buffer.position();
+        }
+
+        /**
+         * 复制到刚好大小的只读堆外缓冲,避免缓存中留有未使用的容量
+         */
+        public ByteBuffer toCompactBuffer() {
+            ByteBuffer src = buffer.duplicate();
+            src.flip();
+            ByteBuffer target = ByteBuffer.allocateDirect(src.remaining());
+            target.put(src);
+            target.flip();
+            return target.asReadOnlyBuffer();
+        }
+    }
+
+    public static final class EntryTooLargeException extends RuntimeException {
+        public EntryTooLargeException(long size) {
+            super("result set exceeds cache entry limit, size:" + size, null, false, false);
+        }
+    }
+
+    public static void writeRow(Output out, Object[] row) {
+        for (Object o : row) {
+            writeValue(out, o);
+        }
+    }
+
+    public static void writeValue(Output out, Object o) {
+        if (o == null) {
+            out.ensure(1);
+            out.buffer.put(NULL);
+        } else if (o instanceof String) {
+            writeBytes(out, STRING, ((String) o).getBytes(StandardCharsets.UTF_8));
+        } else if (o instanceof Long) {
+            out.ensure(9);
+            out.buffer.put(LONG).putLong((Long) o);
+        } else if (o instanceof Integer) {
+            out.ensure(5);
+            out.buffer.put(INT).putInt((Integer) o);
+        } else if (o instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) o;
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.ensure(9 + unscaled.length);
+            out.buffer.put(BIG_DECIMAL).putInt(decimal.scale()).putInt(unscaled.length).put(unscaled);
+        } else if (o instanceof Double) {
+            out.ensure(9);
+            out.buffer.put(DOUBLE).putDouble((Double) o);
+        } else if (o instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) o;
+            out.ensure(13);
+            out.buffer.put(SQL_TIMESTAMP).putLong(timestamp.getTime()).putInt(timestamp.getNanos());
+        } else if (o instanceof java.sql.Date) {
+            out.ensure(9);
+            out.buffer.put(SQL_DATE).putLong(((java.sql.Date) o).getTime());
+        } else if (o instanceof java.sql.Time) {
+            out.ensure(9);
+            out.buffer.put(SQL_TIME).putLong(((java.sql.Time) o).getTime());
+        } else if (o instanceof LocalDateTime) {
+            LocalDateTime dateTime = (LocalDateTime) o;
+            out.ensure(13);
+            out.buffer.put(LOCAL_DATE_TIME).putLong(dateTime.toEpochSecond(ZoneOffset.UTC)).putInt(dateTime.getNano());
+        } else if (o instanceof LocalDate) {
+            out.ensure(9);
+            out.buffer.put(LOCAL_DATE).putLong(((LocalDate) o).toEpochDay());
+        } else if (o instanceof LocalTime) {
+            out.ensure(9);
+            out.buffer.put(LOCAL_TIME).putLong(((LocalTime) o).toNanoOfDay());
+        } else if (o instanceof Duration) {
+            Duration duration = (Duration) o;
+            out.ensure(13);
+            out.buffer.put(DURATION).putLong(duration.getSeconds()).putInt(duration.getNano());
+        } else if (o instanceof byte[]) {
+            writeBytes(out, BYTES, (byte[]) o);
+        } else if (o instanceof Boolean) {
+            out.ensure(2);
+            out.buffer.put(BOOLEAN).put((byte) (((Boolean) o) ? 1 : 0));
+        } else if (o instanceof Short) {
+            out.ensure(3);
+            out.buffer.put(SHORT).putShort((Short) o);
+        } else if (o instanceof Byte) {
+            out.ensure(2);
+            out.buffer.put(BYTE).put((Byte) o);
+        } else if (o instanceof Float) {
+            out.ensure(5);
+            out.buffer.put(FLOAT).putFloat((Float) o);
+        } else if (o instanceof BigInteger) {
+            writeBytes(out, BIG_INTEGER, ((BigInteger) o).toByteArray());
+        } else {
+            writeBytes(out, STRING, o.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeBytes(Output out, byte tag, byte[] bytes) {
+        out.ensure(5 + bytes.length);
+        out.buffer.put(tag).putInt(bytes.length).put(bytes);
+    }
+
+    public static void readRow(ByteBuffer in, Object[] row) {
+        for (int i = 0; i < row.length; i++) {
+            row[i] = readValue(in);
+        }
+    }
+
+    public static Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BYTE:
+                return in.get();
+            case SHORT:
+                return in.getShort();
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case FLOAT:
+                return in.getFloat();
+            case DOUBLE:
+                return in.getDouble();
+            case BOOLEAN:
+                return in.get() != 0;
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case BYTES:
+                return readBytes(in);
+            case BIG_DECIMAL: {
+                int scale = in.getInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            }
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(in.getLong());
+            case LOCAL_DATE_TIME: {
+                long epochSecond = in.getLong();
+                return LocalDateTime.ofEpochSecond(epochSecond, in.getInt(), ZoneOffset.UTC);
+            }
+            case LOCAL_TIME:
+                return LocalTime.ofNanoOfDay(in.getLong());
+            case DURATION: {
+                long seconds = in.getLong();
+                return Duration.ofSeconds(seconds, in.getInt());
+            }
+            case SQL_DATE:
+                return new java.sql.Date(in.getLong());
+            case SQL_TIME:
+                return new java.sql.Time(in.getLong());
+            case SQL_TIMESTAMP: {
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(in.getLong());
+                timestamp.setNanos(in.getInt());
+                return timestamp;
+            }
+            default:
+                throw new IllegalStateException("unknown value tag:" + tag);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,43 @@
+package io.mycat.api.collector;
+
+import io.mycat.beans.mycat.MycatRowMetaData;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 逐行解码缓存在堆外的结果集,每次读取都使用独立的ByteBuffer视图,可以并发读取
+ * chen junwen
+ */
+public class OffHeapRowIterator extends AbstractObjectRowIterator {
+    private final MycatRowMetaData metaData;
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private int index = 0;
+
+    public OffHeapRowIterator(MycatRowMetaData metaData, ByteBuffer buffer, int rowCount) {
+        this.metaData = metaData;
+        this.buffer = buffer.duplicate();
+        this.rowCount = rowCount;
+        this.currentRow = new Object[metaData.getColumnCount()];
+    }
+
+    @Override
+    public MycatRowMetaData getMetaData() {
+        return metaData;
+    }
+
+    @Override
+    public boolean next() {
+        if (index >= rowCount) {
+            return false;
+        }
+        OffHeapRowCodec.readRow(buffer, currentRow);
+        index++;
+        return true;
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
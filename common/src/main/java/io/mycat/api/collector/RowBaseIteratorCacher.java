@@ -1,56 +1,66 @@
 package io.mycat.api.collector;
 
-import io.mycat.beans.mycat.CopyMycatRowMetaData;
-import io.mycat.beans.mycat.MycatRowMetaData;
-import io.mycat.beans.mycat.ResultSetBuilder;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
 
 public class RowBaseIteratorCacher implements Runnable {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 32L * 1024 * 1024;
+
     final RowBaseIterator iterator;
     final Object key;
+    final Collection<String> tables;
+
+    static final OffHeapResultSetCache cache = new OffHeapResultSetCache(DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+
+    public static OffHeapResultSetCache getCache() {
+        return cache;
+    }
 
-    static final CacheManager cacheManager = CacheManager.create();
-    static final String cacheName = "resultSet";
+    public static void configure(long maxBytes, long maxEntryBytes) {
+        cache.configure(maxBytes, maxEntryBytes);
+    }
 
     public static void put(Object key, RowBaseIterator rowBaseIterator) {
-        new RowBaseIteratorCacher(key, rowBaseIterator).run();
+        put(key, rowBaseIterator, Collections.emptyList());
+    }
+
+    public static void put(Object key, RowBaseIterator rowBaseIterator, Collection<String> tables) {
+        new RowBaseIteratorCacher(key, rowBaseIterator, tables).run();
     }
 
     public static RowBaseIterator get(Object key) {
-        Cache cache = cacheManager.getCache(cacheName);
-        Element element = cache.get(key);
-        if (element == null) {
-            return null;
-        }
-        return (RowBaseIterator) element.getObjectValue();
+        return cache.get(key);
+    }
+
+    public static RowBaseIterator peek(Object key) {
+        return cache.peek(key);
+    }
+
+    public static long getEntryId(Object key) {
+        return cache.getEntryId(key);
+    }
+
+    public static RowBaseIterator load(Object key, Runnable loader, long waitMillis) {
+        return cache.load(key, loader, waitMillis);
+    }
+
+    public static void invalidateTable(String schemaName, String tableName) {
+        cache.invalidateTable(schemaName, tableName);
     }
 
     public RowBaseIteratorCacher(Object key, RowBaseIterator iterator) {
+        this(key, iterator, Collections.emptyList());
+    }
+
+    public RowBaseIteratorCacher(Object key, RowBaseIterator iterator, Collection<String> tables) {
         this.key = key;
         this.iterator = iterator;
+        this.tables = tables;
     }
 
     @Override
     public void run() {
-        MycatRowMetaData metaData = iterator.getMetaData();
-        CopyMycatRowMetaData mycatRowMetaData = new CopyMycatRowMetaData(metaData);
-        int columnCount = metaData.getColumnCount();
-        ResultSetBuilder resultSetBuilder = ResultSetBuilder.create();
-        while (iterator.next()) {
-            List<Object> row = new ArrayList<>(columnCount);
-            for (int i = 1; i <= columnCount; i++) {
-                row.add(iterator.getObject(i));
-            }
-            resultSetBuilder.addObjectRowPayload(row);
-        }
-        RowBaseIterator rowBaseIterator = resultSetBuilder.build(mycatRowMetaData);
-        Cache cache = cacheManager.getCache(cacheName);
-        Element element = new Element(key, rowBaseIterator);
-        cache.put(element);
-    }
-}
\ No newline at end of file
+        cache.put(key, iterator, tables);
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.beans.mycat;
+
+import io.mycat.MetaClusterCurrent;
+import io.mycat.api.collector.AbstractObjectRowIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 流式读取的jdbc结果集
+ * 1.fetchSize为Integer.MIN_VALUE时mysql驱动逐行读取,大于0时需要url带useCursorFetch=true按批读取,为0时驱动缓存整个结果集
+ * 2.一个连接同时只能有一个未读完的流式结果集,在该连接上执行其他语句前需要调用beforeExecute,把未读完的结果读入内存
+ * 3.流式读取时驱动会把net_write_timeout设置为netTimeoutForStreamingResults,多个分片按顺序消费不会被服务器断开
+ * chen junwen
+ */
+public class StreamingJdbcRowBaseIterator extends AbstractObjectRowIterator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingJdbcRowBaseIterator.class);
+    private static final Map<Connection, StreamingJdbcRowBaseIterator> ACTIVE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Connection connection;
+    private final JdbcRowBaseIterator delegate;
+    private final int columnCount;
+    private ArrayDeque<Object[]> materialized;
+    private boolean closed = false;
+    private boolean released = false;
+
+    private StreamingJdbcRowBaseIterator(Connection connection, JdbcRowBaseIterator delegate) {
+        this.connection = connection;
+        this.delegate = delegate;
+        this.columnCount = delegate.getMetaData().getColumnCount();
+    }
+
+    /**
+     * 配置中的jdbcFetchSize
+     */
+    public static int getFetchSize() {
+        return MetaClusterCurrent.serverConfig().getJdbcFetchSize();
+    }
+
+    public static boolean isStreaming() {
+        return getFetchSize() != 0;
+    }
+
+    /**
+     * 创建statement后,执行前设置
+     */
+    public static void applyFetchSize(Statement statement) throws SQLException {
+        int fetchSize = getFetchSize();
+        if (fetchSize != 0) {
+            statement.setFetchSize(fetchSize);
+        }
+    }
+
+    /**
+     * 在连接上执行任何语句前调用,该连接上未读完的流式结果集会被读入内存
+     */
+    public static void beforeExecute(Connection connection) {
+        StreamingJdbcRowBaseIterator active = ACTIVE.get(connection);
+        if (active != null) {
+            active.materialize();
+        }
+    }
+
+    /**
+     * 连接归还前关闭未读完的流式结果集
+     */
+    public static void closeActive(Connection connection) {
+        StreamingJdbcRowBaseIterator active = ACTIVE.get(connection);
+        if (active != null) {
+            active.close();
+        }
+    }
+
+    public static StreamingJdbcRowBaseIterator wrap(Connection connection, JdbcRowBaseIterator iterator) {
+        StreamingJdbcRowBaseIterator streamingIterator = new StreamingJdbcRowBaseIterator(connection, iterator);
+        ACTIVE.put(connection, streamingIterator);
+        return streamingIterator;
+    }
+
+    @Override
+    public MycatRowMetaData getMetaData() {
+        return delegate.getMetaData();
+    }
+
+    @Override
+    public synchronized boolean next() {
+        if (closed) {
+            return false;
+        }
+        if (materialized != null) {
+            currentRow = materialized.pollFirst();
+            return currentRow != null;
+        }
+        if (!delegate.next()) {
+            release();
+            return false;
+        }
+        currentRow = readRow();
+        return true;
+    }
+
+    /**
+     * 把剩余的行读入内存并关闭结果集,释放连接给其他语句使用
+     */
+    public synchronized void materialize() {
+        if (closed || materialized != null) {
+            return;
+        }
+        ArrayDeque<Object[]> rows = new ArrayDeque<>();
+        try {
+            while (delegate.next()) {
+                rows.add(readRow());
+            }
+        } finally {
+            materialized = rows;
+            release();
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("materialize streaming result {} rows", rows.size());
+        }
+    }
+
+    public synchronized boolean isMaterialized() {
+        return materialized != null;
+    }
+
+    private Object[] readRow() {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = delegate.getObject(i + 1);
+        }
+        return row;
+    }
+
+    private void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        ACTIVE.remove(connection, this);
+        delegate.close();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        materialized = null;
+        release();
+    }
+}
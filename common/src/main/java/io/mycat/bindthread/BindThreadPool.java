@@ -66,7 +66,7 @@ public class BindThreadPool<KEY extends BindThreadKey, PROCESS extends BindThrea
         this.keeplive = keeplive;
         this.processFactory = processFactory;
         this.exceptionHandler = exceptionHandler;
-        ScheduleUtil.getTimer().scheduleAtFixedRate(() -> {
+        ScheduleUtil.scheduleAtFixedRate("bindThreadPool", () -> {
             try {
                 pollTask();
             } catch (Exception e) {
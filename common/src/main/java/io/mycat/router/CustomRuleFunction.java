@@ -61,4 +61,9 @@ public abstract class CustomRuleFunction {
         return false;
     }
  public abstract    boolean isShardingKey(String name);
+
+    /**
+     * 决定数据所在分片的全部字段,按分库,分表算法参数的顺序,同一个字段可以出现多次
+     */
+    public abstract List<String> getShardingKeys();
 }
\ No newline at end of file
@@ -170,8 +170,33 @@ public abstract class Mycat1xSingleValueRuleFunction extends CustomRuleFunction
         return res;
     }
 
+    /**
+     * 同一个算法类,除分片字段外参数与范围相同,相同的分片值得到相同的分片下标
+     */
+    @Override
+    public boolean isSameRule(CustomRuleFunction other) {
+        if (other == this) {
+            return true;
+        }
+        if (other == null || other.getClass() != this.getClass()) {
+            return false;
+        }
+        Map<String, Object> properties = new HashMap<>(Optional.ofNullable(getProperties()).orElse(Collections.emptyMap()));
+        Map<String, Object> otherProperties = new HashMap<>(Optional.ofNullable(other.getProperties()).orElse(Collections.emptyMap()));
+        properties.remove("columnName");
+        otherProperties.remove("columnName");
+        return properties.equals(otherProperties)
+                && Objects.equals(Optional.ofNullable(getRanges()).orElse(Collections.emptyMap()),
+                Optional.ofNullable(other.getRanges()).orElse(Collections.emptyMap()));
+    }
+
     @Override
    public boolean isShardingKey(String name) {
         return this.columnName.equalsIgnoreCase(name);
     }
+
+    @Override
+    public List<String> getShardingKeys() {
+        return Collections.singletonList(columnName);
+    }
 }
\ No newline at end of file
@@ -14,7 +14,7 @@ public enum TimeProvider {
     }
 
     private void scheduleTick() {
-        ScheduleUtil.getTimer().scheduleAtFixedRate(() -> {
+        ScheduleUtil.scheduleAtFixedRate("timeProvider", () -> {
             now = System.currentTimeMillis();
         }, 1, 1, TimeUnit.MILLISECONDS);
     }
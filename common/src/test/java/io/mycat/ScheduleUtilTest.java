@@ -0,0 +1,124 @@
+package io.mycat;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ScheduleUtilTest {
+
+    @After
+    public void tearDown() {
+        ScheduleUtil.configure(2, 4);
+    }
+
+    private static Runnable await(CountDownLatch started, CountDownLatch latch) {
+        return () -> {
+            started.countDown();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private static void submitUntilAccepted(String key) throws InterruptedException {
+        CountDownLatch next = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!ScheduleUtil.submitHeartbeat(key, next::countDown)) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(next.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSkipRunningHeartbeat() throws Exception {
+        long skips = ScheduleUtil.getHeartbeatSkips();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        Assert.assertTrue(ScheduleUtil.submitHeartbeat("ds0", await(started, latch)));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        //同一个数据源上一次心跳没有结束
+        Assert.assertFalse(ScheduleUtil.submitHeartbeat("ds0", () -> Assert.fail()));
+        Assert.assertEquals(skips + 1, ScheduleUtil.getHeartbeatSkips());
+        //其他数据源不受影响
+        CountDownLatch other = new CountDownLatch(1);
+        Assert.assertTrue(ScheduleUtil.submitHeartbeat("ds1", other::countDown));
+        Assert.assertTrue(other.await(10, TimeUnit.SECONDS));
+        latch.countDown();
+        submitUntilAccepted("ds0");
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        ScheduleUtil.configure(2, 1);
+        long rejections = ScheduleUtil.getHeartbeatRejections();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Assert.assertTrue(ScheduleUtil.submitHeartbeat("running", await(started, latch)));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            int capacity = ScheduleUtil.getHeartbeatExecutor().getQueue().remainingCapacity();
+            for (int i = 0; i < capacity; i++) {
+                Assert.assertTrue(ScheduleUtil.submitHeartbeat("queued" + i, () -> {
+                }));
+            }
+            //队列已满
+            Assert.assertFalse(ScheduleUtil.submitHeartbeat("rejected", () -> Assert.fail()));
+            Assert.assertEquals(rejections + 1, ScheduleUtil.getHeartbeatRejections());
+        } finally {
+            latch.countDown();
+        }
+        //被拒绝的数据源在队列空出后可以再提交
+        submitUntilAccepted("rejected");
+    }
+
+    @Test
+    public void testOverrun() {
+        ScheduleUtil.TaskStat stat = new ScheduleUtil.TaskStat("test", 10);
+        stat.nextNanos = System.nanoTime();
+        stat.run(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertEquals(1, stat.getOverruns().sum());
+        Assert.assertTrue(stat.getLastDurationMillis() >= 50);
+        //上一次执行超过周期,本次开始时已经延迟
+        stat.run(() -> {
+        });
+        Assert.assertEquals(2, stat.getRuns().sum());
+        Assert.assertEquals(1, stat.getOverruns().sum());
+        Assert.assertTrue(stat.getMaxLatenessMillis() >= 30);
+        stat.run(() -> {
+            throw new IllegalStateException();
+        });
+        Assert.assertEquals(1, stat.getFailures().sum());
+        Assert.assertEquals(3, stat.getRuns().sum());
+        Assert.assertFalse(stat.isRunning());
+    }
+
+    @Test
+    public void testScheduleAtFixedRate() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        ScheduledFuture<?> future = ScheduleUtil.scheduleAtFixedRate("scheduleUtilTest", () -> {
+            latch.countDown();
+            //异常不会取消之后的执行
+            throw new IllegalStateException();
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        ScheduleUtil.TaskStat stat = ScheduleUtil.getTaskStats().stream()
+                .filter(s -> "scheduleUtilTest".equals(s.getName())).findFirst().get();
+        Assert.assertTrue(stat.getFailures().sum() >= 2);
+        ScheduleUtil.cancel("scheduleUtilTest", future, false);
+        Assert.assertTrue(future.isCancelled());
+        Assert.assertTrue(ScheduleUtil.getTaskStats().stream().noneMatch(s -> "scheduleUtilTest".equals(s.getName())));
+    }
+}
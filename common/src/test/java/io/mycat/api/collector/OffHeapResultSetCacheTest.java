@@ -0,0 +1,163 @@
+package io.mycat.api.collector;
+
+import io.mycat.beans.mycat.ResultSetBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.JDBCType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OffHeapResultSetCacheTest {
+
+    private static RowBaseIterator rows(int count, String value) {
+        ResultSetBuilder builder = ResultSetBuilder.create();
+        builder.addColumnInfo("id", JDBCType.BIGINT);
+        builder.addColumnInfo("name", JDBCType.VARCHAR);
+        for (int i = 0; i < count; i++) {
+            builder.addObjectRowPayload(Arrays.asList((long) i, value));
+        }
+        return builder.build();
+    }
+
+    private static List<Object> read(RowBaseIterator iterator) {
+        List<Object> list = new ArrayList<>();
+        while (iterator.next()) {
+            list.add(iterator.getObject(1));
+            list.add(iterator.getObject(2));
+        }
+        iterator.close();
+        return list;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 1024 * 1024);
+        Assert.assertNull(cache.get("k"));
+        Assert.assertTrue(cache.put("k", rows(2, "a"), Collections.singletonList("db1.t")));
+        Assert.assertEquals(Arrays.asList(0L, "a", 1L, "a"), read(cache.get("k")));
+        //每个读取者有自己的位置
+        RowBaseIterator first = cache.get("k");
+        Assert.assertTrue(first.next());
+        Assert.assertEquals(Arrays.asList(0L, "a", 1L, "a"), read(cache.get("k")));
+        Assert.assertEquals("id", first.getMetaData().getColumnName(1));
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertTrue(cache.getBytes() > 0);
+    }
+
+    @Test
+    public void testEntryTooLarge() {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 64);
+        Assert.assertFalse(cache.put("k", rows(100, "a"), Collections.singletonList("db1.t")));
+        Assert.assertNull(cache.peek("k"));
+        Assert.assertEquals(1, cache.getRejections());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testLruEviction() {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 1024 * 1024);
+        cache.put("k1", rows(10, "a"), Collections.singletonList("db1.t"));
+        long entryBytes = cache.getBytes();
+        cache.configure(entryBytes * 2, entryBytes * 2);
+        cache.put("k2", rows(10, "a"), Collections.singletonList("db1.t"));
+        //访问k1,k2成为最久未使用
+        Assert.assertNotNull(cache.get("k1"));
+        cache.put("k3", rows(10, "a"), Collections.singletonList("db1.t"));
+        Assert.assertNotNull(cache.peek("k1"));
+        Assert.assertNull(cache.peek("k2"));
+        Assert.assertNotNull(cache.peek("k3"));
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(entryBytes * 2, cache.getBytes());
+    }
+
+    @Test
+    public void testInvalidateTable() {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 1024 * 1024);
+        cache.put("t1", rows(1, "a"), Collections.singletonList("db1.t1"));
+        cache.put("t2", rows(1, "a"), Collections.singletonList("DB1.T2"));
+        cache.put("join", rows(1, "a"), Arrays.asList("db1.t1", "db1.t2"));
+        cache.put("untracked", rows(1, "a"), Collections.emptyList());
+        cache.invalidateTable("db1", "T2");
+        Assert.assertNotNull(cache.peek("t1"));
+        Assert.assertNull(cache.peek("t2"));
+        Assert.assertNull(cache.peek("join"));
+        //无法确定引用表的缓存任意表失效都清除
+        Assert.assertNull(cache.peek("untracked"));
+        Assert.assertEquals(3, cache.getInvalidations());
+        Assert.assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void testLoadDiscardedWhenInvalidatedDuringLoad() {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 1024 * 1024);
+        RowBaseIterator loaded = cache.load("k", () -> {
+            RowBaseIterator iterator = rows(1, "old");
+            //加载期间表被修改,加载的结果可能是旧数据
+            cache.invalidateTable("db1", "t");
+            cache.put("k", iterator, Collections.singletonList("db1.t"));
+        }, 0);
+        Assert.assertNull(loaded);
+        Assert.assertNull(cache.peek("k"));
+        //其他表的失效不影响
+        loaded = cache.load("k", () -> {
+            RowBaseIterator iterator = rows(1, "new");
+            cache.invalidateTable("db1", "other");
+            cache.put("k", iterator, Collections.singletonList("db1.t"));
+        }, 0);
+        Assert.assertEquals(Arrays.asList(0L, "new"), read(loaded));
+        Assert.assertEquals(2, cache.getLoads());
+    }
+
+    @Test
+    public void testSingleFlightLoad() throws Exception {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 1024 * 1024);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loaderRuns = new AtomicInteger();
+        Thread loader = new Thread(() -> cache.load("k", () -> {
+            loaderRuns.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            cache.put("k", rows(1, "a"), Collections.singletonList("db1.t"));
+        }, 0));
+        loader.start();
+        started.await();
+        //不等待时直接返回已有缓存
+        Assert.assertNull(cache.load("k", loaderRuns::incrementAndGet, 0));
+        Thread waiter = new Thread(() -> Assert.assertNotNull(cache.load("k", loaderRuns::incrementAndGet, 10_000)));
+        waiter.start();
+        Thread.sleep(50);
+        release.countDown();
+        loader.join();
+        waiter.join();
+        Assert.assertEquals(1, loaderRuns.get());
+        Assert.assertEquals(1, cache.getLoads());
+        Assert.assertNotNull(cache.peek("k"));
+    }
+
+    @Test
+    public void testLoadFailure() {
+        OffHeapResultSetCache cache = new OffHeapResultSetCache(1024 * 1024, 1024 * 1024);
+        try {
+            cache.load("k", () -> {
+                throw new IllegalStateException("backend down");
+            }, 0);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("backend down", e.getMessage());
+        }
+        Assert.assertEquals(1, cache.getLoadFailures());
+        //失败的加载不会阻塞下一次加载
+        Assert.assertNotNull(cache.load("k", () -> cache.put("k", rows(1, "a"), Collections.emptyList()), 0));
+    }
+}
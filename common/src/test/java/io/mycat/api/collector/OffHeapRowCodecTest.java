@@ -0,0 +1,71 @@
+package io.mycat.api.collector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+public class OffHeapRowCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        Object[] row = {
+                null,
+                (byte) 1,
+                (short) 2,
+                3,
+                4L,
+                5.5f,
+                6.25d,
+                true,
+                "中文abc",
+                new byte[]{1, 2, 3},
+                new BigDecimal("-12345678901234567890.000123"),
+                new BigInteger("123456789012345678901234567890"),
+                LocalDate.of(2020, 2, 29),
+                LocalDateTime.of(2020, 2, 29, 23, 59, 58, 123456789),
+                LocalTime.of(1, 2, 3, 4),
+                Duration.ofSeconds(-3600, 5),
+                java.sql.Date.valueOf("2020-01-02"),
+                java.sql.Time.valueOf("10:11:12"),
+                java.sql.Timestamp.valueOf("2020-01-02 10:11:12.123456")
+        };
+        OffHeapRowCodec.Output output = new OffHeapRowCodec.Output(8, Long.MAX_VALUE);
+        OffHeapRowCodec.writeRow(output, row);
+        OffHeapRowCodec.writeRow(output, row);
+        ByteBuffer buffer = output.toCompactBuffer();
+        Assert.assertEquals(output.size(), buffer.capacity());
+        Assert.assertTrue(buffer.isReadOnly());
+        for (int n = 0; n < 2; n++) {
+            Object[] read = new Object[row.length];
+            OffHeapRowCodec.readRow(buffer, read);
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] instanceof byte[]) {
+                    Assert.assertArrayEquals((byte[]) row[i], (byte[]) read[i]);
+                } else {
+                    Assert.assertEquals("column " + i, row[i], read[i]);
+                }
+            }
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testUnknownTypeAsString() {
+        OffHeapRowCodec.Output output = new OffHeapRowCodec.Output(8, 1024);
+        OffHeapRowCodec.writeValue(output, new StringBuilder("sb"));
+        Assert.assertEquals("sb", OffHeapRowCodec.readValue(output.toCompactBuffer()));
+    }
+
+    @Test(expected = OffHeapRowCodec.EntryTooLargeException.class)
+    public void testEntryTooLarge() {
+        OffHeapRowCodec.Output output = new OffHeapRowCodec.Output(8, 16);
+        OffHeapRowCodec.writeValue(output, "0123456789abcdef");
+    }
+}
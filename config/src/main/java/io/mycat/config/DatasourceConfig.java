@@ -22,6 +22,8 @@ public class DatasourceConfig {
     private int minCon = 1;
     private int maxRetryCount = 5;
     private long maxConnectTimeout = 3 * 1000;
+    private long acquireTimeout = 3 * 1000;//达到maxCon后等待连接的时间(毫秒),小于等于0则不等待
+    private int maxWaitQueueSize = 1024;
     private String dbType = "mysql";
     private String url;
     private int weight = 0;
@@ -63,6 +63,106 @@ public class ServerConfig {
     private BufferPoolConfig bufferPool = new BufferPoolConfig();
     private TimerConfig idleTimer = new TimerConfig(3, 15, TimeUnit.SECONDS.name());
     private String tempDirectory;
+    private int metadataLoadParallelism = 32;
+    private int metadataLoadParallelismPerTarget = 4;
+    private int ddlParallelism = 32;
+    private int ddlParallelismPerTarget = 4;
+    private boolean metadataSnapshot = true;
+    private long resultSetCacheMaxBytes = 256L * 1024 * 1024;
+    private long resultSetCacheMaxEntryBytes = 32L * 1024 * 1024;
+    /**
+     * 执行器查询分片时的fetchSize,Integer.MIN_VALUE为逐行流式读取,大于0需要url带useCursorFetch=true,0为驱动缓存整个结果集
+     */
+    private int jdbcFetchSize = Integer.MIN_VALUE;
+    /**
+     * 非事务查询的分片数达到该值时使用native连接在reactor线程中执行,小于等于0不开启
+     */
+    private int nativeFanOutThreshold = 0;
+    /**
+     * 多分片order by limit的offset达到该值时先查询每个分片的边界值再缩小每个分片返回的行数,小于等于0不开启
+     */
+    private long deepPageOffset = 10000;
+    /**
+     * mycat上hash聚合的分区数,分区在worker线程上并行聚合,小于等于1在当前线程聚合
+     */
+    private int hashAggParallelism = 4;
+    /**
+     * 一次hash聚合在内存中保存分组的字节数上限,超过后新的分组写到磁盘,小于等于0不写磁盘
+     */
+    private long hashAggMemoryBytes = 64L * 1024 * 1024;
+    /**
+     * hash聚合写磁盘的目录,为空时使用tempDirectory下的agg目录
+     */
+    private String hashAggSpillDirectory;
+    /**
+     * 多分片update/delete/insert同时执行的物理连接数,小于等于1按顺序执行
+     */
+    private int shardUpdateParallelism = 8;
+    /**
+     * 估算扫描行数达到该值的查询才使用booster,小于等于0不限制
+     */
+    private double boosterMinScanRows = 0;
+    /**
+     * 拦截器缓存的报文文件的总字节上限,小于等于0不开启
+     */
+    private long packetCacheMaxBytes = 0;
+    private long packetCacheMaxEntryBytes = 256L * 1024 * 1024;
+    /**
+     * 报文文件生成后可以使用的时间,小于等于0不过期
+     */
+    private long packetCacheTtlMillis = 10L * 60 * 1000;
+    /**
+     * 读写分离时会话写入后的读只使用已经执行过该写入的节点,需要数据源开启gtid
+     */
+    private boolean readYourWrites = false;
+    /**
+     * 心跳中没有追上的从节点时,等待一个从节点的最长毫秒数,超时后读主节点
+     */
+    private long readYourWritesWaitMillis = 50;
+    /**
+     * 周期性维护任务(心跳调度,空闲连接检查,缓存刷新等)的线程数
+     */
+    private int scheduleThreads = 2;
+    /**
+     * 执行心跳语句的线程数,不同数据源的心跳并行执行
+     */
+    private int heartbeatThreads = 4;
+    /**
+     * xa事务模式使用XA两阶段提交,false时各连接依次本地提交
+     */
+    private boolean xaTransaction = false;
+    /**
+     * 两阶段提交决策日志的目录,为空时使用tempDirectory下的xa目录
+     */
+    private String xaLogDirectory;
+    /**
+     * xid中的节点名,共用数据源的mycat需要不同,为空时生成一个随机节点名保存在xaLogDirectory中
+     */
+    private String xaNode;
+    /**
+     * 按sql模板与用户统计耗时直方图的模板数上限,超过后淘汰总耗时最小的模板,小于等于0不统计
+     */
+    private int sqlDigestStatMaxDigests = 200;
+    /**
+     * 执行时间达到该毫秒数的语句记录到慢查询日志,小于等于0不记录
+     */
+    private long slowQueryThresholdMillis = 0;
+    /**
+     * 慢查询日志的目录,为空时使用tempDirectory下的slowlog目录
+     */
+    private String slowQueryLogDirectory;
+    /**
+     * 单个慢查询日志文件的字节数,超过后滚动
+     */
+    private long slowQueryLogMaxFileBytes = 64L * 1024 * 1024;
+    /**
+     * 保留的慢查询日志文件数
+     */
+    private int slowQueryLogMaxFiles = 10;
+    /**
+     * prometheus exporter端口,小于等于0不开启
+     */
+    private int prometheusPort = -1;
 
     {
         if (tempDirectory == null) {
@@ -2,6 +2,8 @@ package io.mycat.config;
 
 import lombok.*;
 
+import java.util.List;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -12,4 +14,12 @@ public class UserConfig {
     private String password;
     private String ip = "127.0.0.1";
     private String transactionType = "xa";
+    /**
+     * 可以在show processlist中看到并kill其他用户的会话,相当于mysql的PROCESS与SUPER权限
+     */
+    private boolean processPrivilege;
+    /**
+     * 可以使用的booster集群名字,估算扫描行数达到boosterMinScanRows的查询路由到其中负载最低的集群
+     */
+    private List<String> boosters;
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.datasource.jdbc.datasource;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 数据源连接数的许可,达到maxCon后按先进先出等待,释放的许可直接交给队首的等待者
+ * 事务中的后续请求(TRANSACTION)优先于新的自动提交请求(NORMAL)
+ * chen junwen
+ */
+public class ConnectionWaitQueue {
+    /**
+     * 等待时间直方图的桶上限(毫秒)
+     */
+    public static final long[] WAIT_MILLIS_BUCKETS = {0, 1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    public enum Lane {
+        TRANSACTION,
+        NORMAL
+    }
+
+    private static class Waiter {
+        final Condition condition;
+        boolean granted = false;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter> transactionLane = new ArrayDeque<>();
+    private final ArrayDeque<Waiter> normalLane = new ArrayDeque<>();
+    private final int maxCon;
+    private final int maxWaiters;
+    private int used = 0;
+
+    private final AtomicLongArray waitBuckets = new AtomicLongArray(WAIT_MILLIS_BUCKETS.length + 1);
+    private final LongAdder waitMillisSum = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public ConnectionWaitQueue(int maxCon, int maxWaiters) {
+        this.maxCon = maxCon;
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * @return 是否获得许可,超时或者等待队列已满返回false
+     */
+    public boolean acquire(Lane lane, long timeoutMillis) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        lock.lock();
+        try {
+            if (used < maxCon && transactionLane.isEmpty() && normalLane.isEmpty()) {
+                used++;
+                recordWait(0);
+                return true;
+            }
+            if (timeoutMillis <= 0 || transactionLane.size() + normalLane.size() >= maxWaiters) {
+                rejections.increment();
+                return false;
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            ArrayDeque<Waiter> queue = lane == Lane.TRANSACTION ? transactionLane : normalLane;
+            queue.addLast(waiter);
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.remove(waiter);
+                        timeouts.increment();
+                        return false;
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    releaseLocked();
+                } else {
+                    queue.remove(waiter);
+                }
+                throw e;
+            }
+            recordWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked() {
+        Waiter next = transactionLane.pollFirst();
+        if (next == null) {
+            next = normalLane.pollFirst();
+        }
+        if (next != null) {
+            //许可直接转交,used不变
+            next.granted = true;
+            next.condition.signal();
+        } else if (used > 0) {
+            used--;
+        }
+    }
+
+    private void recordWait(long waitMillis) {
+        int index = WAIT_MILLIS_BUCKETS.length;
+        for (int i = 0; i < WAIT_MILLIS_BUCKETS.length; i++) {
+            if (waitMillis <= WAIT_MILLIS_BUCKETS[i]) {
+                index = i;
+                break;
+            }
+        }
+        waitBuckets.incrementAndGet(index);
+        waitMillisSum.add(waitMillis);
+    }
+
+    public int getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth(Lane lane) {
+        lock.lock();
+        try {
+            return lane == Lane.TRANSACTION ? transactionLane.size() : normalLane.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 每个桶(非累计)的次数,最后一个是超过最大上限的次数
+     */
+    public long[] getWaitBucketCounts() {
+        long[] counts = new long[waitBuckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = waitBuckets.get(i);
+        }
+        return counts;
+    }
+
+    public long getWaitMillisSum() {
+        return waitMillisSum.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public int getMaxCon() {
+        return maxCon;
+    }
+}
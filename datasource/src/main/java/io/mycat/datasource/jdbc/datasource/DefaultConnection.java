@@ -19,6 +19,8 @@ import io.mycat.MycatException;
 import io.mycat.api.collector.RowBaseIterator;
 import io.mycat.beans.mycat.JdbcRowBaseIterator;
 import io.mycat.beans.mycat.MycatRowMetaData;
+import io.mycat.beans.mycat.StreamingJdbcRowBaseIterator;
+import io.mycat.plug.loadBalance.LatencyStatistics;
 import lombok.SneakyThrows;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +28,8 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Junwen Chen
@@ -33,9 +37,21 @@ import java.sql.*;
 public class DefaultConnection implements MycatConnection {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultConnection.class);
+    /**
+     * 物理连接到打开的DefaultConnection,执行器在物理连接上直接创建的Statement通过它登记
+     */
+    private static final Map<Connection, DefaultConnection> OPENED = new ConcurrentHashMap<>();
     final Connection connection;
     private final JdbcDataSource jdbcDataSource;
     private volatile boolean isClosed = false;
+    /**
+     * 执行过更新语句,还没有读取gtid_executed
+     */
+    private volatile boolean written = false;
+    /**
+     * 最近一次创建的Statement,kill query时在其他线程cancel
+     */
+    private volatile Statement executingStatement;
     protected final ConnectionManager connectionManager;
 
     @SneakyThrows
@@ -45,16 +61,53 @@ public class DefaultConnection implements MycatConnection {
         this.connection = connection;
         this.jdbcDataSource = dataSource;
         this.connectionManager = connectionManager;
-        if (autocommit != null) {
+        //连接池在本地记录了会话状态时,只在状态不同时才发送设置语句
+        boolean diff = dataSource.isPoolManagedSessionState();
+        if (autocommit != null && (!diff || connection.getAutoCommit() != autocommit)) {
             connection.setAutoCommit(autocommit);
         }
 //        connection.setReadOnly(readOnly);
-        connection.setTransactionIsolation(transactionIsolation);
+        if (!diff || connection.getTransactionIsolation() != transactionIsolation) {
+            connection.setTransactionIsolation(transactionIsolation);
+        }
+        OPENED.put(connection, this);
+    }
+
+    /**
+     * 执行器不经过DefaultConnection,直接在物理连接上执行的语句,执行前登记以便kill query时cancel
+     */
+    public static void setExecutingStatement(Connection rawConnection, Statement statement) {
+        DefaultConnection defaultConnection = OPENED.get(rawConnection);
+        if (defaultConnection != null) {
+            defaultConnection.executingStatement = statement;
+        }
     }
 
 
+    /**
+     * 执行器直接在物理连接上执行语句时用于记录LatencyStatistics,不是DefaultConnection打开的连接返回null
+     */
+    public static String getDatasourceName(Connection rawConnection) {
+        DefaultConnection defaultConnection = OPENED.get(rawConnection);
+        return defaultConnection == null ? null : defaultConnection.jdbcDataSource.getName();
+    }
+
+    /**
+     * 取消物理连接上登记的正在执行的语句,用于并行查询中一个分片失败时中止其他分片
+     */
+    public static void cancel(Connection rawConnection) {
+        DefaultConnection defaultConnection = OPENED.get(rawConnection);
+        if (defaultConnection != null) {
+            defaultConnection.cancel();
+        }
+    }
+
     public long[] executeUpdate(String sql, boolean needGeneratedKeys) {
+        StreamingJdbcRowBaseIterator.beforeExecute(connection);
+        String name = jdbcDataSource.getName();
+        long startNanos = LatencyStatistics.INSTANCE.start(name);
         try (Statement statement = connection.createStatement()) {
+            executingStatement = statement;
             statement.executeUpdate(sql,
                     needGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
             long lastInsertId = 0;
@@ -64,16 +117,73 @@ public class DefaultConnection implements MycatConnection {
                     lastInsertId =Math.max(lastInsertId,  generatedKeys.getLong(1));
                 }
             }
+            written = true;
             return new long[]{statement.getUpdateCount(), lastInsertId};
         } catch (Exception e) {
             throw new MycatException(e);
+        } finally {
+            executingStatement = null;
+            LatencyStatistics.INSTANCE.end(name, startNanos);
         }
     }
 
+    @Override
+    public void cancel() {
+        Statement statement = executingStatement;
+        if (statement == null || isClosed) {
+            return;
+        }
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            LOGGER.warn("cancel statement on {} fail", jdbcDataSource.getName(), e);
+        }
+    }
 
+
+    public boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * 不经过executeUpdate直接在物理连接上执行的写
+     */
+    public void markWritten() {
+        written = true;
+    }
+
+    /**
+     * 读取数据源当前的gtid_executed,在写操作提交后调用,结果包含该连接上已经提交的事务
+     */
+    public String getExecutedGtidSet() {
+        StreamingJdbcRowBaseIterator.beforeExecute(connection);
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT @@GLOBAL.gtid_executed")) {
+            written = false;
+            return resultSet.next() ? resultSet.getString(1) : null;
+        } catch (Exception e) {
+            throw new MycatException(e);
+        }
+    }
+
+    /**
+     * 驱动缓存整个结果集,jdbcFetchSize只用于执行器的分片查询(MycatPreparedStatementUtil.executeQuery)
+     */
     public RowBaseIterator executeQuery(String sql) {
+        String name = jdbcDataSource.getName();
+        long startNanos = LatencyStatistics.INSTANCE.start(name);
+        try {
+            return executeBufferedQuery(sql);
+        } finally {
+            LatencyStatistics.INSTANCE.end(name, startNanos);
+        }
+    }
+
+    private RowBaseIterator executeBufferedQuery(String sql) {
         try {
+            StreamingJdbcRowBaseIterator.beforeExecute(connection);
             Statement statement = connection.createStatement();
+            executingStatement = statement;
             ResultSet resultSet = statement.executeQuery(sql);
             return new JdbcRowBaseIterator(null, statement, resultSet, new Closeable() {
                 @Override
@@ -106,6 +216,7 @@ public class DefaultConnection implements MycatConnection {
         try {
             if (!isClosed) {
                 isClosed = true;
+                OPENED.remove(connection, this);
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("close {}", connection);
                 }
@@ -150,11 +261,17 @@ public class DefaultConnection implements MycatConnection {
     }
 
     public RowBaseIterator executeQuery(MycatRowMetaData mycatRowMetaData, String sql) {
+        String name = jdbcDataSource.getName();
+        long startNanos = LatencyStatistics.INSTANCE.start(name);
         try {
+            StreamingJdbcRowBaseIterator.beforeExecute(connection);
             Statement statement = connection.createStatement();
+            executingStatement = statement;
             return new JdbcRowBaseIterator(mycatRowMetaData, statement, statement.executeQuery(sql), null, sql);
         } catch (Exception e) {
             throw new MycatException(e);
+        } finally {
+            LatencyStatistics.INSTANCE.end(name, startNanos);
         }
     }
 
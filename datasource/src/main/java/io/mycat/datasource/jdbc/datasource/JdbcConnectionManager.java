@@ -17,12 +17,15 @@ package io.mycat.datasource.jdbc.datasource;
 
 import io.mycat.MycatException;
 import io.mycat.MycatWorkerProcessor;
+import io.mycat.NonBlockingThread;
 import io.mycat.ScheduleUtil;
 import io.mycat.api.collector.RowBaseIterator;
+import io.mycat.beans.mycat.StreamingJdbcRowBaseIterator;
 import io.mycat.config.ClusterConfig;
 import io.mycat.config.DatasourceConfig;
 import io.mycat.datasource.jdbc.DatasourceProvider;
 import io.mycat.datasource.jdbc.datasourceprovider.DruidDatasourceProvider;
+import io.mycat.replica.GtidSet;
 import io.mycat.replica.ReplicaSelectorRuntime;
 import io.mycat.replica.heartbeat.HeartBeatStrategy;
 import org.slf4j.Logger;
@@ -30,7 +33,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
@@ -123,54 +128,125 @@ public class JdbcConnectionManager implements ConnectionManager {
                 .orElseGet(() -> {
                     return dataSourceMap.get(replicaSelector.getDatasourceNameByReplicaName(name, true, null));
                 }),()->"unknown target:"+name);
-        if (key.counter.updateAndGet(operand -> {
-            if (operand < key.getMaxCon()) {
-                return ++operand;
+        ConnectionWaitQueue.Lane lane = Boolean.FALSE.equals(autocommit) ?
+                ConnectionWaitQueue.Lane.TRANSACTION : ConnectionWaitQueue.Lane.NORMAL;
+        DatasourceConfig config = key.getConfig();
+        //reactor线程等待连接会阻塞它负责的所有会话,达到maxCon时直接失败
+        long acquireTimeout = Thread.currentThread() instanceof NonBlockingThread ? 0 : config.getAcquireTimeout();
+        boolean acquired;
+        try {
+            acquired = key.waitQueue.acquire(lane, acquireTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MycatException(e);
+        }
+        if (!acquired) {
+            throw new MycatException("max limit:{} datasource:{} wait timeout:{}ms",
+                    key.getMaxCon(), key.getName(), acquireTimeout);
+        }
+        key.counter.incrementAndGet();
+        Connection connection = null;
+        try {
+            connection = key.getDataSource().getConnection();
+            if (!key.isPoolManagedSessionState()) {
+                initConnection(key, connection);
             }
-            return operand;
-        }) < key.getMaxCon()) {
-            DefaultConnection defaultConnection;
-            try {
-                DatasourceConfig config = key.getConfig();
-                Connection connection = key.getDataSource().getConnection();
-                defaultConnection = new DefaultConnection(connection, key, autocommit, transactionIsolation, readOnly, this);
+            DefaultConnection defaultConnection = new DefaultConnection(connection, key, autocommit, transactionIsolation, readOnly, this);
+            LOGGER.debug("获取连接:{} {}", name, defaultConnection);
+            return defaultConnection;
+        } catch (Throwable e) {
+            LOGGER.debug("", e);
+            if (connection != null) {
                 try {
-                    return defaultConnection;
-                } finally {
-                    LOGGER.debug("获取连接:{} {}", name, defaultConnection);
-                    if (config.isInitSqlsGetConnection()) {
-                        if (config.getInitSqls() != null && !config.getInitSqls().isEmpty()) {
-                            try (Statement statement = connection.createStatement()) {
-                                for (String initSql : config.getInitSqls()) {
-                                    statement.execute(initSql);
-                                }
-                            }
-                        }
-                    }
+                    connection.close();
+                } catch (SQLException closeException) {
+                    LOGGER.error("", closeException);
                 }
-            } catch (SQLException e) {
-                LOGGER.debug("", e);
-                key.counter.decrementAndGet();
-                throw new MycatException(e);
             }
-        } else {
-            throw new MycatException("max limit");
+            release(key);
+            if (e instanceof MycatException) {
+                throw (MycatException) e;
+            }
+            throw new MycatException(String.valueOf(e.getMessage()), e);
         }
     }
 
-    @Override
-    public void closeConnection(DefaultConnection connection) {
-        connection.getDataSource().counter.updateAndGet(operand -> {
+    /**
+     * 每个物理连接只执行一次initSqls
+     * 连接池每次借出的可能是新的代理对象(例如hikari,atomikos),所以按unwrap得到的物理连接记录,
+     * 不能unwrap时按借出的连接记录,此时每次借出都会执行
+     */
+    private void initConnection(JdbcDataSource key, Connection connection) throws SQLException {
+        DatasourceConfig config = key.getConfig();
+        if (!config.isInitSqlsGetConnection() || config.getInitSqls().isEmpty()) {
+            return;
+        }
+        Connection physicalConnection = getPhysicalConnection(connection);
+        if (key.initializedConnections.contains(physicalConnection)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String initSql : config.getInitSqls()) {
+                statement.execute(initSql);
+            }
+        }
+        key.initializedConnections.add(physicalConnection);
+    }
+
+    private static Connection getPhysicalConnection(Connection connection) {
+        try {
+            Connection physicalConnection = connection.unwrap(Connection.class);
+            if (physicalConnection != null) {
+                return physicalConnection;
+            }
+        } catch (Exception e) {
+            LOGGER.debug("", e);
+        }
+        return connection;
+    }
+
+    private void release(JdbcDataSource dataSource) {
+        dataSource.counter.updateAndGet(operand -> {
             if (operand == 0) {
                 return 0;
             }
             return --operand;
         });
+        dataSource.waitQueue.release();
+    }
+
+    @Override
+    public void closeConnection(DefaultConnection connection) {
         LOGGER.debug("关闭连接:{}", connection);
         try {
+            StreamingJdbcRowBaseIterator.closeActive(connection.connection);
             connection.connection.close();
         } catch (SQLException e) {
             LOGGER.error("", e);
+        } finally {
+            release(connection.getDataSource());
+        }
+    }
+
+    /**
+     * 在从节点上执行WAIT_FOR_EXECUTED_GTID_SET,直到从节点执行了gtidSet或者超时
+     *
+     * @return 超时前从节点是否已经执行了gtidSet
+     */
+    public boolean waitForGtidSet(String datasourceName, GtidSet gtidSet, long timeoutMillis) {
+        //gtidSet由GtidSet.parse规范化,只包含uuid,tag,数字和分隔符
+        String sql = "SELECT WAIT_FOR_EXECUTED_GTID_SET('" + gtidSet + "', "
+                + BigDecimal.valueOf(Math.max(timeoutMillis, 1), 3).toPlainString() + ")";
+        try (DefaultConnection connection = getConnection(datasourceName);
+             Statement statement = connection.getRawConnection().createStatement()) {
+            //服务器不支持小数秒时由查询超时兜底
+            statement.setQueryTimeout((int) TimeUnit.MILLISECONDS.toSeconds(timeoutMillis) + 1);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                //0为已经执行,1为超时,gtid_mode关闭时为NULL
+                return resultSet.next() && resultSet.getObject(1) != null && resultSet.getInt(1) == 0;
+            }
+        } catch (SQLException e) {
+            throw new MycatException(e);
         }
     }
 
@@ -182,13 +258,18 @@ public class JdbcConnectionManager implements ConnectionManager {
         replicaSelector.putHeartFlow(replicaName, datasource, new Consumer<HeartBeatStrategy>() {
             @Override
             public void accept(HeartBeatStrategy heartBeatStrategy) {
-                workerProcessor.getMycatWorker().submit(() -> {
+                String key = replicaName + "." + datasource;
+                boolean submitted = ScheduleUtil.submitHeartbeat(key, () -> {
                     try {
                         heartbeat(heartBeatStrategy);
                     } catch (Exception e) {
                         heartBeatStrategy.onException(e);
                     }
                 });
+                if (!submitted) {
+                    //上一次心跳一个周期内还没有结束,按心跳失败处理
+                    heartBeatStrategy.onException(new MycatException("heartbeat:{} is not finished or rejected", key));
+                }
             }
 
             private void heartbeat(HeartBeatStrategy heartBeatStrategy) {
@@ -21,9 +21,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Optional;
+import java.sql.Connection;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -34,11 +33,26 @@ public class JdbcDataSource implements MycatDataSource {
     private final DatasourceConfig datasourceConfig;
     final AtomicInteger counter = new AtomicInteger(0);
     final DataSource dataSource;
+    final ConnectionWaitQueue waitQueue;
+    /**
+     * 已经执行过initSqls的物理连接
+     */
+    final Set<Connection> initializedConnections = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+    /**
+     * 连接池创建物理连接时已经执行initSqls,并且在本地记录autocommit与事务隔离级别(例如druid)
+     */
+    private final boolean poolManagedSessionState;
     volatile boolean valid = true;
 
     public JdbcDataSource(DatasourceConfig datasourceConfig, DataSource dataSource) {
+        this(datasourceConfig, dataSource, false);
+    }
+
+    public JdbcDataSource(DatasourceConfig datasourceConfig, DataSource dataSource, boolean poolManagedSessionState) {
         this.datasourceConfig = datasourceConfig;
         this.dataSource = dataSource;
+        this.poolManagedSessionState = poolManagedSessionState;
+        this.waitQueue = new ConnectionWaitQueue(datasourceConfig.getMaxCon(), datasourceConfig.getMaxWaitQueueSize());
     }
 
     public String getUrl() {
@@ -107,6 +121,14 @@ public class JdbcDataSource implements MycatDataSource {
         return counter.get();
     }
 
+    public ConnectionWaitQueue getWaitQueue() {
+        return waitQueue;
+    }
+
+    public boolean isPoolManagedSessionState() {
+        return poolManagedSessionState;
+    }
+
     public void setValid(boolean valid) {
         this.valid = valid;
     }
@@ -58,7 +58,7 @@ public class DruidDatasourceProvider implements DatasourceProvider {
       datasource.setConnectionInitSqls(initSQLs);
     }
 
-    return new JdbcDataSource(config,datasource);
+    return new JdbcDataSource(config,datasource,true);
   }
 
   @Override
@@ -53,6 +53,7 @@ public abstract class TransactionSessionTemplate implements TransactionSession {
     public void commit() {
         if (isInTransaction() && !updateConnectionMap.isEmpty()) {//真正开启事务才提交
             callBackCommit();
+            onCommitted(updateConnectionMap.values());
         }
         setInTranscation(false);
         updateConnectionMap.forEach((key, value) -> value.close());
@@ -120,6 +121,35 @@ public abstract class TransactionSessionTemplate implements TransactionSession {
         return dataSourceNearness.getDataSourceByTargetName(targetName);
     }
 
+    @Override
+    public String resolveFinalTargetName(String targetName, boolean master, String loadBalanceStrategy) {
+        return dataSourceNearness.getDataSourceByTargetName(targetName, master, loadBalanceStrategy);
+    }
+
+    /**
+     * 开启readYourWrites时记录写操作提交后数据源的gtid,之后的读选择已经追上的节点
+     */
+    private void onCommitted(Collection<?> connections) {
+        if (!DataSourceNearnessImpl.isReadYourWrites()) {
+            return;
+        }
+        for (Object o : connections) {
+            if (!(o instanceof DefaultConnection)) {
+                continue;
+            }
+            DefaultConnection connection = (DefaultConnection) o;
+            if (!connection.isWritten() || connection.isClosed()) {
+                continue;
+            }
+            String datasourceName = connection.getDataSource().getName();
+            try {
+                dataSourceNearness.onCommitted(datasourceName, connection.getExecutedGtidSet());
+            } catch (Exception e) {
+                LOGGER.warn("read gtid_executed of {} fail", datasourceName, e);
+            }
+        }
+    }
+
     public int getTransactionIsolation() {
         return dataContext.getIsolation().getJdbcValue();
     }
@@ -128,6 +158,8 @@ public abstract class TransactionSessionTemplate implements TransactionSession {
     @SneakyThrows
     public void check() {
         if (!isInTransaction()) {
+            onCommitted(updateConnectionMap.values());
+            onCommitted(closeResourceQueue);
             Set<Map.Entry<String, DefaultConnection>> entries = updateConnectionMap.entrySet();
             for (Map.Entry<String, DefaultConnection> entry : entries) {
                 DefaultConnection value = entry.getValue();
@@ -166,6 +198,32 @@ public abstract class TransactionSessionTemplate implements TransactionSession {
         closeResourceQueue.add(closeable);
     }
 
+    @Override
+    public void cancel() {
+        for (DefaultConnection connection : updateConnectionMap.values()) {
+            connection.cancel();
+        }
+        for (AutoCloseable closeable : closeResourceQueue) {
+            if (closeable instanceof MycatConnection) {
+                ((MycatConnection) closeable).cancel();
+            }
+        }
+    }
+
+    @Override
+    public List<String> getUsedDatasources() {
+        List<String> res = new ArrayList<>();
+        for (DefaultConnection connection : updateConnectionMap.values()) {
+            res.add(connection.getDataSource().getName());
+        }
+        for (AutoCloseable closeable : closeResourceQueue) {
+            if (closeable instanceof DefaultConnection) {
+                res.add(((DefaultConnection) closeable).getDataSource().getName());
+            }
+        }
+        return res;
+    }
+
     @Override
     public Dumper snapshot() {
         return Dumper.create()
@@ -188,7 +246,11 @@ public abstract class TransactionSessionTemplate implements TransactionSession {
                         if (absractConnection != null && !absractConnection.isClosed()) {
                             return absractConnection;
                         } else {
-                            return getConnection(jdbcDataSource, autocommit, transactionIsolation, readOnly);
+                            DefaultConnection connection = getConnection(jdbcDataSource, autocommit, transactionIsolation, readOnly);
+                            if (isInTransaction()) {
+                                onJoinTransaction(jdbcDataSource, connection);
+                            }
+                            return connection;
                         }
                     });
             LinkedList<MycatConnection> linkedList = new LinkedList<>();
@@ -214,13 +276,33 @@ public abstract class TransactionSessionTemplate implements TransactionSession {
         synchronized (jdbcConnectionManager) {
             for (String jdbcDataSource : needAdd) {
                 Deque<MycatConnection> mycatConnections = res.computeIfAbsent(jdbcDataSource, s -> new LinkedList<>());
+                DefaultConnection enlisted = isInTransaction() ? updateConnectionMap.get(jdbcDataSource) : null;
+                if (enlisted != null && !enlisted.isClosed()) {
+                    //事务中同一个数据源只使用参与事务的连接,新的连接不在事务(xa分支)中,会自动提交
+                    //多个分片在该连接上顺序执行,未读完的流式结果集在执行下一个语句前读入内存
+                    mycatConnections.add(enlisted);
+                    continue;
+                }
                 DefaultConnection connection = getConnection(jdbcDataSource, autocommit, transactionIsolation, readOnly);
-                addCloseResource(connection);
+                if (isInTransaction()) {
+                    //事务中的第一个连接参与事务,在提交或者回滚后关闭
+                    onJoinTransaction(jdbcDataSource, connection);
+                    updateConnectionMap.put(jdbcDataSource, connection);
+                } else {
+                    addCloseResource(connection);
+                }
                 mycatConnections.add(connection);
             }
             return res;
         }
     }
 
+    /**
+     * 连接在事务中第一次使用,执行语句之前调用
+     */
+    protected void onJoinTransaction(String jdbcDataSource, DefaultConnection connection) {
+
+    }
+
     abstract public DefaultConnection getConnection(String name, Boolean autocommit, int transactionIsolation, boolean readOnly);
 }
\ No newline at end of file
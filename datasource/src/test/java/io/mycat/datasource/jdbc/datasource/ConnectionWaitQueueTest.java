@@ -0,0 +1,284 @@
+package io.mycat.datasource.jdbc.datasource;
+
+import io.mycat.MycatException;
+import io.mycat.NonBlockingThread;
+import io.mycat.config.DatasourceConfig;
+import io.mycat.datasource.jdbc.DatasourceProvider;
+import io.mycat.replica.ReplicaSelectorRuntime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+public class ConnectionWaitQueueTest {
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ConnectionWaitQueue queue = new ConnectionWaitQueue(1, 8);
+        Assert.assertTrue(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 100));
+        long start = System.nanoTime();
+        Assert.assertFalse(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 50));
+        Assert.assertTrue(System.nanoTime() - start >= 50_000_000L);
+        Assert.assertEquals(1, queue.getTimeouts());
+        Assert.assertEquals(0, queue.getQueueDepth(ConnectionWaitQueue.Lane.NORMAL));
+        //不等待时直接拒绝
+        Assert.assertFalse(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 0));
+        Assert.assertEquals(1, queue.getRejections());
+        queue.release();
+        Assert.assertEquals(0, queue.getUsed());
+        Assert.assertTrue(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 0));
+    }
+
+    @Test
+    public void testWaitQueueFull() throws Exception {
+        ConnectionWaitQueue queue = new ConnectionWaitQueue(1, 1);
+        Assert.assertTrue(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 100));
+        Thread waiter = new Thread(() -> {
+            try {
+                queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 10_000);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiter.start();
+        waitUntil(() -> queue.getQueueDepth(ConnectionWaitQueue.Lane.NORMAL) == 1);
+        Assert.assertFalse(queue.acquire(ConnectionWaitQueue.Lane.TRANSACTION, 10_000));
+        Assert.assertEquals(1, queue.getRejections());
+        queue.release();
+        waiter.join();
+        Assert.assertEquals(1, queue.getUsed());
+    }
+
+    @Test
+    public void testWakeupOrder() throws Exception {
+        ConnectionWaitQueue queue = new ConnectionWaitQueue(1, 8);
+        Assert.assertTrue(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 100));
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        String[] names = {"n1", "n2", "t1"};
+        ConnectionWaitQueue.Lane[] lanes = {ConnectionWaitQueue.Lane.NORMAL, ConnectionWaitQueue.Lane.NORMAL, ConnectionWaitQueue.Lane.TRANSACTION};
+        int[] normalDepth = {1, 2, 2};
+        int[] transactionDepth = {0, 0, 1};
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            ConnectionWaitQueue.Lane lane = lanes[i];
+            Thread thread = new Thread(() -> {
+                try {
+                    if (queue.acquire(lane, 10_000)) {
+                        order.add(name);
+                        queue.release();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            int index = i;
+            waitUntil(() -> queue.getQueueDepth(ConnectionWaitQueue.Lane.NORMAL) == normalDepth[index]
+                    && queue.getQueueDepth(ConnectionWaitQueue.Lane.TRANSACTION) == transactionDepth[index]);
+        }
+        queue.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        //事务中的请求优先,同一队列先进先出
+        Assert.assertEquals(Arrays.asList("t1", "n1", "n2"), order);
+        Assert.assertEquals(0, queue.getUsed());
+        Assert.assertEquals(0, queue.getTimeouts());
+    }
+
+    @Test
+    public void testInterruptedWaiter() throws Exception {
+        ConnectionWaitQueue queue = new ConnectionWaitQueue(1, 8);
+        Assert.assertTrue(queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 100));
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                queue.acquire(ConnectionWaitQueue.Lane.NORMAL, 10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        waitUntil(() -> queue.getQueueDepth(ConnectionWaitQueue.Lane.NORMAL) == 1);
+        waiter.interrupt();
+        waiter.join();
+        Assert.assertTrue(interrupted.get());
+        Assert.assertEquals(0, queue.getQueueDepth(ConnectionWaitQueue.Lane.NORMAL));
+        queue.release();
+        Assert.assertEquals(0, queue.getUsed());
+    }
+
+    @Test
+    public void testConnectionFailureReleasesPermit() {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName("ds0");
+        config.setMaxCon(1);
+        config.setAcquireTimeout(0);
+        DataSource dataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataSource.class},
+                (proxy, method, args) -> {
+                    throw new SQLException("connection refused");
+                });
+        DatasourceProvider provider = new DatasourceProvider() {
+            @Override
+            public JdbcDataSource createDataSource(DatasourceConfig datasourceConfig) {
+                return new JdbcDataSource(datasourceConfig, dataSource);
+            }
+
+            @Override
+            public void closeDataSource(JdbcDataSource dataSource) {
+
+            }
+        };
+        ReplicaSelectorRuntime replicaSelector = new ReplicaSelectorRuntime(Collections.emptyList(), Collections.emptyMap(), null, null);
+        JdbcConnectionManager manager = new JdbcConnectionManager(Collections.singletonMap("ds0", config),
+                Collections.emptyMap(), provider, null, replicaSelector);
+        for (int i = 0; i < 2; i++) {
+            try {
+                manager.getConnection("ds0");
+                Assert.fail();
+            } catch (MycatException e) {
+                //获取物理连接失败时归还许可,第二次不会因为maxCon=1而等待超时
+                Assert.assertEquals("connection refused", e.getMessage());
+                Assert.assertTrue(e.getCause() instanceof SQLException);
+            }
+            JdbcDataSource jdbcDataSource = manager.getDatasourceInfo().get("ds0");
+            Assert.assertEquals(0, jdbcDataSource.getWaitQueue().getUsed());
+            Assert.assertEquals(0, jdbcDataSource.getUsedCount());
+        }
+    }
+
+    /**
+     * 连接池每次借出新的代理对象,代理unwrap得到物理连接
+     */
+    private static class ProxyPool {
+        final List<Connection> physicalConnections = new ArrayList<>();
+        final List<String> executed = new ArrayList<>();
+        final AtomicInteger borrowed = new AtomicInteger();
+        final DataSource dataSource = (DataSource) Proxy.newProxyInstance(ConnectionWaitQueueTest.class.getClassLoader(),
+                new Class[]{DataSource.class}, (proxy, method, args) -> {
+                    if ("getConnection".equals(method.getName())) {
+                        return connection(physicalConnections.get(borrowed.getAndIncrement() % physicalConnections.size()));
+                    }
+                    return null;
+                });
+
+        ProxyPool(int size) {
+            for (int i = 0; i < size; i++) {
+                physicalConnections.add(connection(null));
+            }
+        }
+
+        private Connection connection(Connection physicalConnection) {
+            return (Connection) Proxy.newProxyInstance(ConnectionWaitQueueTest.class.getClassLoader(), new Class[]{Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "unwrap":
+                                return physicalConnection == null ? proxy : physicalConnection;
+                            case "createStatement":
+                                return Proxy.newProxyInstance(ConnectionWaitQueueTest.class.getClassLoader(), new Class[]{Statement.class},
+                                        (statement, statementMethod, statementArgs) -> {
+                                            if ("execute".equals(statementMethod.getName())) {
+                                                executed.add(physicalConnections.indexOf(physicalConnection) + ":" + statementArgs[0]);
+                                                return false;
+                                            }
+                                            return null;
+                                        });
+                            case "getAutoCommit":
+                            case "isClosed":
+                                return false;
+                            case "getTransactionIsolation":
+                                return Connection.TRANSACTION_REPEATABLE_READ;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    private static JdbcConnectionManager manager(DatasourceConfig config, DataSource dataSource) {
+        DatasourceProvider provider = new DatasourceProvider() {
+            @Override
+            public JdbcDataSource createDataSource(DatasourceConfig datasourceConfig) {
+                return new JdbcDataSource(datasourceConfig, dataSource);
+            }
+
+            @Override
+            public void closeDataSource(JdbcDataSource dataSource) {
+
+            }
+        };
+        ReplicaSelectorRuntime replicaSelector = new ReplicaSelectorRuntime(Collections.emptyList(), Collections.emptyMap(), null, null);
+        return new JdbcConnectionManager(Collections.singletonMap(config.getName(), config),
+                Collections.emptyMap(), provider, null, replicaSelector);
+    }
+
+    private static class StubReactorThread extends Thread implements NonBlockingThread {
+        StubReactorThread(Runnable runnable) {
+            super(runnable);
+        }
+    }
+
+    @Test
+    public void testReactorThreadDoesNotWait() throws Exception {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName("ds0");
+        config.setMaxCon(1);
+        config.setAcquireTimeout(3000);
+        JdbcConnectionManager manager = manager(config, new ProxyPool(1).dataSource);
+        DefaultConnection connection = manager.getConnection("ds0");
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        long[] elapsed = new long[1];
+        Thread reactor = new StubReactorThread(() -> {
+            long start = System.nanoTime();
+            try {
+                manager.getConnection("ds0");
+            } catch (Throwable e) {
+                error.set(e);
+            }
+            elapsed[0] = System.nanoTime() - start;
+        });
+        reactor.start();
+        reactor.join();
+        Assert.assertTrue(error.get() instanceof MycatException);
+        Assert.assertTrue(elapsed[0] < TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertEquals(1, manager.getDatasourceInfo().get("ds0").getWaitQueue().getRejections());
+        connection.close();
+    }
+
+    @Test
+    public void testInitSqlsOncePerPhysicalConnection() {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName("ds0");
+        config.setInitSqls(Collections.singletonList("set names utf8mb4"));
+        config.setInitSqlsGetConnection(true);
+        ProxyPool pool = new ProxyPool(2);
+        JdbcConnectionManager manager = manager(config, pool.dataSource);
+        for (int i = 0; i < 6; i++) {
+            manager.getConnection("ds0").close();
+        }
+        //每次借出的代理不同,按物理连接只执行一次
+        Assert.assertEquals(6, pool.borrowed.get());
+        Assert.assertEquals(Arrays.asList("0:set names utf8mb4", "1:set names utf8mb4"), pool.executed);
+    }
+}
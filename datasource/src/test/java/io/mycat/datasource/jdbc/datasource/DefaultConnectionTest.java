@@ -0,0 +1,101 @@
+package io.mycat.datasource.jdbc.datasource;
+
+import io.mycat.config.DatasourceConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DefaultConnectionTest {
+
+    private static <T> T proxy(Class<T> clazz, AtomicInteger cancelCount) {
+        return clazz.cast(Proxy.newProxyInstance(DefaultConnectionTest.class.getClassLoader(), new Class[]{clazz},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "cancel":
+                            cancelCount.incrementAndGet();
+                            return null;
+                        case "getAutoCommit":
+                        case "isClosed":
+                            return false;
+                        case "getTransactionIsolation":
+                            return Connection.TRANSACTION_REPEATABLE_READ;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                }));
+    }
+
+    private static DefaultConnection open(Connection rawConnection) {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName("ds0");
+        JdbcDataSource dataSource = new JdbcDataSource(config, proxy(DataSource.class, new AtomicInteger()));
+        ConnectionManager connectionManager = new ConnectionManager() {
+            @Override
+            public void addDatasource(DatasourceConfig key) {
+
+            }
+
+            @Override
+            public void removeDatasource(String name) {
+
+            }
+
+            @Override
+            public DefaultConnection getConnection(String name) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void closeConnection(DefaultConnection connection) {
+
+            }
+        };
+        return new DefaultConnection(rawConnection, dataSource, true, Connection.TRANSACTION_REPEATABLE_READ, false, connectionManager);
+    }
+
+    @Test
+    public void testCancelRawStatement() {
+        Connection rawConnection = proxy(Connection.class, new AtomicInteger());
+        DefaultConnection connection = open(rawConnection);
+        //没有正在执行的语句
+        connection.cancel();
+
+        AtomicInteger cancelCount = new AtomicInteger();
+        PreparedStatement statement = proxy(PreparedStatement.class, cancelCount);
+        //执行器直接在物理连接上创建的语句
+        DefaultConnection.setExecutingStatement(rawConnection, statement);
+        connection.cancel();
+        Assert.assertEquals(1, cancelCount.get());
+
+        DefaultConnection.setExecutingStatement(rawConnection, null);
+        connection.cancel();
+        Assert.assertEquals(1, cancelCount.get());
+    }
+
+    @Test
+    public void testClosed() {
+        Connection rawConnection = proxy(Connection.class, new AtomicInteger());
+        DefaultConnection connection = open(rawConnection);
+        connection.close();
+        AtomicInteger cancelCount = new AtomicInteger();
+        DefaultConnection.setExecutingStatement(rawConnection, proxy(PreparedStatement.class, cancelCount));
+        connection.cancel();
+        Assert.assertEquals(0, cancelCount.get());
+
+        //连接池返回同一个物理连接
+        DefaultConnection reopened = open(rawConnection);
+        DefaultConnection.setExecutingStatement(rawConnection, proxy(PreparedStatement.class, cancelCount));
+        reopened.cancel();
+        Assert.assertEquals(1, cancelCount.get());
+        reopened.close();
+    }
+}
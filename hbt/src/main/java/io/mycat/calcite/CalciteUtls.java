@@ -277,7 +277,8 @@ public class CalciteUtls {
     }
 
     public static RexNode unCastWrapper(RexNode left) {
-        if (left.isA(SqlKind.CAST)) {
+        //参数替换为字面量后是CAST(CAST(字面量))
+        while (left.isA(SqlKind.CAST)) {
             left = ((RexCall) left).operands.get(0);
         }
         return left;
@@ -0,0 +1,32 @@
+package io.mycat.calcite.sqlfunction;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 函数参数一般是常量,比如date_format的格式,regexp的表达式,编译后的结果按参数缓存,每行只需要一次查找
+ * 超过maxSize时清空,避免非常量参数导致缓存无限增长
+ * chen junwen
+ */
+public class CompiledCache<V> {
+    private final ConcurrentHashMap<String, V> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final Function<String, V> compiler;
+
+    public CompiledCache(int maxSize, Function<String, V> compiler) {
+        this.maxSize = maxSize;
+        this.compiler = compiler;
+    }
+
+    public V get(String key) {
+        V value = cache.get(key);
+        if (value == null) {
+            value = compiler.apply(key);
+            if (cache.size() >= maxSize) {
+                cache.clear();
+            }
+            cache.put(key, value);
+        }
+        return value;
+    }
+}
@@ -5,6 +5,7 @@ import com.alibaba.druid.util.Base64;
 import com.alibaba.druid.util.HexBin;
 import com.alibaba.fastsql.util.StringUtils;
 import io.mycat.calcite.UnsolvedMysqlFunctionUtil;
+import io.mycat.calcite.sqlfunction.stringfunction.RegexpFunction;
 import org.apache.calcite.avatica.util.ByteString;
 
 import java.util.Arrays;
@@ -1610,7 +1611,7 @@ public class MySQLStringFunction {
         if (expr == null || pat == null) {
             return null;
         }
-        return expr.matches(".*" + pat + ".*") ? 1 : 0;
+        return RegexpFunction.matches(expr, pat) ? 1 : 0;
     }
     /***
      * MATCH AGAINST
@@ -17,6 +17,7 @@
 package io.mycat.calcite.sqlfunction.datefunction;
 
 
+import io.mycat.calcite.sqlfunction.CompiledCache;
 import org.apache.calcite.linq4j.function.Parameter;
 import org.apache.calcite.mycat.MycatBuiltInMethodImpl;
 import org.apache.calcite.rel.type.RelDataType;
@@ -27,18 +28,17 @@ import org.apache.calcite.sql.validate.SqlValidator;
 import org.apache.calcite.sql.validate.SqlValidatorScope;
 import org.jetbrains.annotations.Nullable;
 
-import java.time.DayOfWeek;
-import java.time.Duration;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.SignStyle;
 import java.time.format.TextStyle;
 import java.time.temporal.ChronoField;
-import java.time.temporal.IsoFields;
 import java.time.temporal.Temporal;
 import java.time.temporal.WeekFields;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Locale;
 
 
@@ -46,6 +46,11 @@ public class DateFormatFunction extends MycatDateFunction {
     public static ScalarFunction scalarFunction = ScalarFunctionImpl.create(DateFormatFunction.class,
             "dateFormat");
     public static DateFormatFunction INSTANCE = new DateFormatFunction();
+    /**
+     * mysql的week模式0,2(%U,%V,%X):周日为一周的第一天,包含当年第一个周日的周为第1周
+     * 模式1,3(%u,%v,%x)与ISO相同:周一为一周的第一天,当年天数不少于4天的周为第1周
+     */
+    private static final WeekFields SUNDAY_FIRST = WeekFields.of(DayOfWeek.SUNDAY, 7);
 
 
     public DateFormatFunction() {
@@ -70,258 +75,495 @@ public class DateFormatFunction extends MycatDateFunction {
 
     @Nullable
     public static String dateFormat(String dateText, String format, Locale locale) {
-        Temporal temporal = MycatBuiltInMethodImpl.timestampStringToTimestamp(dateText);
-        return dateFormat(format, locale, temporal);
+        CompiledFormat compiledFormat = CompiledFormat.get(format, locale);
+        LocalDateTime dateTime = CompiledFormat.fastParse(dateText);
+        if (dateTime == null) {
+            return compiledFormat.format(MycatBuiltInMethodImpl.timestampStringToTimestamp(dateText));
+        }
+        if (compiledFormat.isFast()) {
+            return compiledFormat.fastFormat(dateTime);
+        }
+        return compiledFormat.format(dateTime);
     }
 
     @Nullable
     public static String dateFormat(String format, Locale locale, Temporal temporal) {
-        DateTimeFormatterBuilder dateTimeFormatterBuilder = new DateTimeFormatterBuilder();
-        int length = format.length();
-        for (int i = 0; i < length; i++) {
-            int next = i + 1;
-            if (format.charAt(i) == '%' && next != length) {
-                char c = format.charAt(next);
-                if (isOption(c)) {
-                    i+=1;
-                    switch (c) {
-                        case 'a': {
-                            dateTimeFormatterBuilder.appendText(ChronoField.DAY_OF_WEEK, TextStyle.SHORT);
-                            break;
-                        }
-                        case 'b': {
-                            dateTimeFormatterBuilder.appendText(ChronoField.MONTH_OF_YEAR, TextStyle.SHORT);
-                            break;
-                        }
-                        case 'c': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.MONTH_OF_YEAR, 1, 2, SignStyle.NORMAL);
-                            break;
-                        }
-                        case 'D': {
-
-                            int day = temporal.get(ChronoField.DAY_OF_MONTH);
-                            String text = String.format("%01d", temporal.get(ChronoField.DAY_OF_MONTH));
-                            dateTimeFormatterBuilder.appendLiteral(text);
-                            String order;
-                            if (day >= 10 && day <= 19)
-                                order = ("th");
-                            else {
-                                int tmp = (int) (day % 10);
-                                switch (tmp) {
-                                    case 1:
-                                        order = ("st");
-                                        break;
-                                    case 2:
-                                        order = ("nd");
-                                        break;
-                                    case 3:
-                                        order = ("rd");
-                                        break;
-                                    default:
+        return CompiledFormat.get(format, locale).format(temporal);
+    }
+
+    /**
+     * 编译后的格式,按格式和locale缓存
+     * 1.与日期无关的选项合并为DateTimeFormatter
+     * 2.依赖日期值的选项(%D,%V,%v,%W,%y)每次计算
+     * 3.输入为yyyy-MM-dd或者yyyy-MM-dd HH:mm:ss时直接按位置解析,只包含%Y%m%d%H%i%s和普通字符的格式直接写字符
+     */
+    static class CompiledFormat {
+        private static final CompiledCache<CompiledFormat> US_CACHE = new CompiledCache<>(1024, format -> compile(format, Locale.US));
+        private static final CompiledCache<CompiledFormat> CACHE = new CompiledCache<>(1024, key -> {
+            int index = key.indexOf('\u0000');
+            return compile(key.substring(index + 1), Locale.forLanguageTag(key.substring(0, index)));
+        });
+
+        private final Part[] parts;
+        /**
+         * 快速路径的格式,选项字符或者普通字符,不支持时为null
+         */
+        private final char[] fastTokens;
+        private final boolean[] fastOptions;
+
+        private CompiledFormat(Part[] parts, char[] fastTokens, boolean[] fastOptions) {
+            this.parts = parts;
+            this.fastTokens = fastTokens;
+            this.fastOptions = fastOptions;
+        }
+
+        static CompiledFormat get(String format, Locale locale) {
+            if (Locale.US.equals(locale)) {
+                return US_CACHE.get(format);
+            }
+            return CACHE.get(locale.toLanguageTag() + '\u0000' + format);
+        }
+
+        @Nullable
+        String format(Temporal temporal) {
+            if (!(temporal instanceof LocalDate) && !(temporal instanceof LocalDateTime)) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Part part : parts) {
+                part.format(temporal, sb);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * 输入为yyyy-MM-dd或者yyyy-MM-dd HH:mm:ss并且是合法的日期时直接按位置解析,否则返回null
+         */
+        @Nullable
+        static LocalDateTime fastParse(String dateText) {
+            int length = dateText.length();
+            if (length != 10 && length != 19) {
+                return null;
+            }
+            int year = digits(dateText, 0, 4);
+            int month = digits(dateText, 5, 2);
+            int day = digits(dateText, 8, 2);
+            int hour = 0;
+            int minute = 0;
+            int second = 0;
+            if (year < 0 || month < 1 || month > 12 || day < 1
+                    || dateText.charAt(4) != '-' || dateText.charAt(7) != '-') {
+                return null;
+            }
+            if (length == 19) {
+                hour = digits(dateText, 11, 2);
+                minute = digits(dateText, 14, 2);
+                second = digits(dateText, 17, 2);
+                if (dateText.charAt(10) != ' ' || dateText.charAt(13) != ':' || dateText.charAt(16) != ':'
+                        || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+                    return null;
+                }
+            }
+            //非法日期交给原来的解析逻辑处理
+            if (day > Month.of(month).length(Year.isLeap(year))) {
+                return null;
+            }
+            return LocalDateTime.of(year, month, day, hour, minute, second);
+        }
+
+        boolean isFast() {
+            return fastTokens != null;
+        }
+
+        String fastFormat(LocalDateTime dateTime) {
+            StringBuilder sb = new StringBuilder(fastTokens.length + 8);
+            for (int i = 0; i < fastTokens.length; i++) {
+                char c = fastTokens[i];
+                if (!fastOptions[i]) {
+                    sb.append(c);
+                    continue;
+                }
+                switch (c) {
+                    case 'Y':
+                        appendDigits(sb, dateTime.getYear(), 4);
+                        break;
+                    case 'm':
+                        appendDigits(sb, dateTime.getMonthValue(), 2);
+                        break;
+                    case 'd':
+                        appendDigits(sb, dateTime.getDayOfMonth(), 2);
+                        break;
+                    case 'H':
+                        appendDigits(sb, dateTime.getHour(), 2);
+                        break;
+                    case 'i':
+                        appendDigits(sb, dateTime.getMinute(), 2);
+                        break;
+                    default:
+                        appendDigits(sb, dateTime.getSecond(), 2);
+                        break;
+                }
+            }
+            return sb.toString();
+        }
+
+        private static int digits(String text, int offset, int count) {
+            int value = 0;
+            for (int i = offset; i < offset + count; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private static void appendDigits(StringBuilder sb, int value, int width) {
+            if (width == 4) {
+                sb.append((char) ('0' + value / 1000))
+                        .append((char) ('0' + value / 100 % 10));
+            }
+            sb.append((char) ('0' + value / 10 % 10))
+                    .append((char) ('0' + value % 10));
+        }
+
+        static CompiledFormat compile(String format, Locale locale) {
+            Compiler compiler = new Compiler(locale);
+            int length = format.length();
+            for (int i = 0; i < length; i++) {
+                int next = i + 1;
+                if (format.charAt(i) == '%' && next != length) {
+                    char c = format.charAt(next);
+                    if (isOption(c)) {
+                        i += 1;
+                        switch (c) {
+                            case 'a': {
+                                compiler.slow();
+                                compiler.builder().appendText(ChronoField.DAY_OF_WEEK, TextStyle.SHORT);
+                                break;
+                            }
+                            case 'b': {
+                                compiler.slow();
+                                compiler.builder().appendText(ChronoField.MONTH_OF_YEAR, TextStyle.SHORT);
+                                break;
+                            }
+                            case 'c': {
+                                compiler.slow();
+                                compiler.builder().appendValue(ChronoField.MONTH_OF_YEAR, 1, 2, SignStyle.NORMAL);
+                                break;
+                            }
+                            case 'D': {
+                                compiler.add((temporal, sb) -> {
+                                    int day = temporal.get(ChronoField.DAY_OF_MONTH);
+                                    sb.append(day);
+                                    String order;
+                                    if (day >= 10 && day <= 19)
                                         order = ("th");
-                                        break;
-                                }
+                                    else {
+                                        int tmp = (int) (day % 10);
+                                        switch (tmp) {
+                                            case 1:
+                                                order = ("st");
+                                                break;
+                                            case 2:
+                                                order = ("nd");
+                                                break;
+                                            case 3:
+                                                order = ("rd");
+                                                break;
+                                            default:
+                                                order = ("th");
+                                                break;
+                                        }
+                                    }
+                                    sb.append(order);
+                                });
+                                break;
                             }
-                            dateTimeFormatterBuilder.appendLiteral(order);
-                            break;
-                        }
-                        case 'd': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.DAY_OF_MONTH, 2);
-                            break;
-                        }
-                        case 'e': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NORMAL);
-                            break;
-                        }
-                        case 'f': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.INSTANT_SECONDS, 6);
-                            break;
-                        }
-                        case 'H': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.HOUR_OF_DAY, 2);
-                            break;
-                        }
-                        case 'h':
-                        case 'I': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.CLOCK_HOUR_OF_AMPM, 2);
-                            break;
-                        }
-                        case 'i': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.MINUTE_OF_HOUR, 2);
-                            break;
-                        }
-                        case 'j': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.DAY_OF_YEAR, 3);
-                            break;
-                        }
-                        case 'k': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.HOUR_OF_DAY, 1,2,SignStyle.NORMAL);
-                            break;
-                        }
-                        case 'l': {
-                            dateTimeFormatterBuilder.appendText(ChronoField.CLOCK_HOUR_OF_AMPM);
-                            break;
-                        }
-                        case 'M': {
-                            dateTimeFormatterBuilder.appendText(ChronoField.MONTH_OF_YEAR, TextStyle.FULL);
-                            break;
-                        }
-                        case 'm': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.MONTH_OF_YEAR, 2);
-                            break;
-                        }
-                        case 'p': {
-                            dateTimeFormatterBuilder.appendText(ChronoField.AMPM_OF_DAY);
-                            break;
-                        }
-                        case 'r': {
-                            dateTimeFormatterBuilder
-                                    .appendValue(ChronoField.CLOCK_HOUR_OF_AMPM)
-                                    .appendLiteral(':')
-                                    .appendValue(ChronoField.MINUTE_OF_HOUR)
-                                    .appendLiteral(':')
-                                    .appendValue(ChronoField.SECOND_OF_MINUTE,2,2,SignStyle.NORMAL)
-                                    .appendLiteral(' ')
-                                    .appendText(ChronoField.AMPM_OF_DAY);
-                            break;
-                        }
-                        case 'S':
-                        case 's': {
-                            dateTimeFormatterBuilder.appendValue(ChronoField.SECOND_OF_MINUTE, 2);
-                            break;
-                        }
-                        case 'T': {
-                            dateTimeFormatterBuilder
-                                    .appendValue(ChronoField.HOUR_OF_DAY)
-                                    .appendLiteral(':')
-                                    .appendValue(ChronoField.MINUTE_OF_HOUR)
-                                    .appendLiteral(':')
-                                    .appendValue(ChronoField.SECOND_OF_MINUTE,2,2,SignStyle.NORMAL);
-                            break;
-                        }
-                        case 'U': {
-                            //todo check
-                            dateTimeFormatterBuilder
-                                    .appendValue(IsoFields.WEEK_OF_WEEK_BASED_YEAR);
-                            break;
-                        }
-                        case 'u': {
-                            //todo check
-                            dateTimeFormatterBuilder
-                                    .appendValue(ChronoField.ALIGNED_WEEK_OF_YEAR);
-                            break;
-                        }
-                        case 'V': {
-                            dateTimeFormatterBuilder
-                                    .appendLiteral( String.format("%01d",temporal.get(WeekFields.ISO.weekOfWeekBasedYear())-1));
-                            break;
-                        }
-                        case 'v': {
-                            dateTimeFormatterBuilder
-                                    .appendLiteral( String.format("%01d",temporal.get(WeekFields.SUNDAY_START.weekOfWeekBasedYear())-1));
-                            break;
-                        }
-                        case 'W': {
-                            DayOfWeek dayOfWeek = null;
-                            if (temporal instanceof LocalDateTime){
-                                 dayOfWeek = ((LocalDateTime) temporal).getDayOfWeek();
+                            case 'd': {
+                                compiler.fast(c);
+                                compiler.builder().appendValue(ChronoField.DAY_OF_MONTH, 2);
+                                break;
                             }
-                            if (temporal instanceof LocalDate){
-                                dayOfWeek = ((LocalDate) temporal).getDayOfWeek();
+                            case 'e': {
+                                compiler.slow();
+                                compiler.builder().appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NORMAL);
+                                break;
                             }
-                            dateTimeFormatterBuilder
-                                    .appendLiteral(dayOfWeek.getDisplayName(TextStyle.FULL,locale));
-                            break;
-                        }
-                        case 'w': {
-                            dateTimeFormatterBuilder
-                                    .appendValue(ChronoField.DAY_OF_WEEK, 1);
-                            break;
-                        }
-                        case 'X': {
-                            //todo check
-                            dateTimeFormatterBuilder
-                                    .appendValue(WeekFields.ISO.weekBasedYear(), 4, 4, SignStyle.NORMAL);
-                            break;
-                        }
-                        case 'x': {
-                            //todo check
-                            dateTimeFormatterBuilder
-                                    .appendValue(WeekFields.SUNDAY_START.weekBasedYear(), 4, 4, SignStyle.NORMAL);
-                            break;
+                            case 'f': {
+                                compiler.slow();
+                                compiler.builder().appendValue(ChronoField.INSTANT_SECONDS, 6);
+                                break;
+                            }
+                            case 'H': {
+                                compiler.fast(c);
+                                compiler.builder().appendValue(ChronoField.HOUR_OF_DAY, 2);
+                                break;
+                            }
+                            case 'h':
+                            case 'I': {
+                                compiler.slow();
+                                compiler.builder().appendValue(ChronoField.CLOCK_HOUR_OF_AMPM, 2);
+                                break;
+                            }
+                            case 'i': {
+                                compiler.fast(c);
+                                compiler.builder().appendValue(ChronoField.MINUTE_OF_HOUR, 2);
+                                break;
+                            }
+                            case 'j': {
+                                compiler.slow();
+                                compiler.builder().appendValue(ChronoField.DAY_OF_YEAR, 3);
+                                break;
+                            }
+                            case 'k': {
+                                compiler.slow();
+                                compiler.builder().appendValue(ChronoField.HOUR_OF_DAY, 1, 2, SignStyle.NORMAL);
+                                break;
+                            }
+                            case 'l': {
+                                compiler.slow();
+                                compiler.builder().appendText(ChronoField.CLOCK_HOUR_OF_AMPM);
+                                break;
+                            }
+                            case 'M': {
+                                compiler.slow();
+                                compiler.builder().appendText(ChronoField.MONTH_OF_YEAR, TextStyle.FULL);
+                                break;
+                            }
+                            case 'm': {
+                                compiler.fast(c);
+                                compiler.builder().appendValue(ChronoField.MONTH_OF_YEAR, 2);
+                                break;
+                            }
+                            case 'p': {
+                                compiler.slow();
+                                compiler.builder().appendText(ChronoField.AMPM_OF_DAY);
+                                break;
+                            }
+                            case 'r': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(ChronoField.CLOCK_HOUR_OF_AMPM, 2)
+                                        .appendLiteral(':')
+                                        .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+                                        .appendLiteral(':')
+                                        .appendValue(ChronoField.SECOND_OF_MINUTE, 2, 2, SignStyle.NORMAL)
+                                        .appendLiteral(' ')
+                                        .appendText(ChronoField.AMPM_OF_DAY);
+                                break;
+                            }
+                            case 'S':
+                            case 's': {
+                                compiler.fast('s');
+                                compiler.builder().appendValue(ChronoField.SECOND_OF_MINUTE, 2);
+                                break;
+                            }
+                            case 'T': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(ChronoField.HOUR_OF_DAY, 2)
+                                        .appendLiteral(':')
+                                        .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+                                        .appendLiteral(':')
+                                        .appendValue(ChronoField.SECOND_OF_MINUTE, 2, 2, SignStyle.NORMAL);
+                                break;
+                            }
+                            case 'U': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(SUNDAY_FIRST.weekOfYear(), 2);
+                                break;
+                            }
+                            case 'u': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(WeekFields.ISO.weekOfYear(), 2);
+                                break;
+                            }
+                            case 'V': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(SUNDAY_FIRST.weekOfWeekBasedYear(), 2);
+                                break;
+                            }
+                            case 'v': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(WeekFields.ISO.weekOfWeekBasedYear(), 2);
+                                break;
+                            }
+                            case 'W': {
+                                compiler.add((temporal, sb) -> {
+                                    DayOfWeek dayOfWeek = null;
+                                    if (temporal instanceof LocalDateTime) {
+                                        dayOfWeek = ((LocalDateTime) temporal).getDayOfWeek();
+                                    }
+                                    if (temporal instanceof LocalDate) {
+                                        dayOfWeek = ((LocalDate) temporal).getDayOfWeek();
+                                    }
+                                    sb.append(dayOfWeek.getDisplayName(TextStyle.FULL, locale));
+                                });
+                                break;
+                            }
+                            case 'w': {
+                                //0为周日
+                                compiler.add((temporal, sb) -> sb.append(temporal.get(ChronoField.DAY_OF_WEEK) % 7));
+                                break;
+                            }
+                            case 'X': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(SUNDAY_FIRST.weekBasedYear(), 4, 4, SignStyle.NORMAL);
+                                break;
+                            }
+                            case 'x': {
+                                compiler.slow();
+                                compiler.builder()
+                                        .appendValue(WeekFields.ISO.weekBasedYear(), 4, 4, SignStyle.NORMAL);
+                                break;
 
-                        }
-                        case 'Y': {
-                            dateTimeFormatterBuilder
-                                    .appendValue(ChronoField.YEAR, 4, 4, SignStyle.NORMAL);
-                            break;
-                        }
-                        case 'y': {
-                            int i1 = temporal.get(ChronoField.YEAR);
-                            String s = String.valueOf(i1);
-                            if (s.length()>2){
-                                s= s.substring(s.length()-2);
-                            }
-                            dateTimeFormatterBuilder
-                                    .appendLiteral(s);
-                            break;
-                        }
-                        case '#': {
-                            for (int j = next; j < length; j++) {
-                                if (Character.isDigit(format.charAt(j))) {
-                                    continue;
-                                } else {
-                                    i = j;
+                            }
+                            case 'Y': {
+                                compiler.fast(c);
+                                compiler.builder()
+                                        .appendValue(ChronoField.YEAR, 4, 4, SignStyle.NORMAL);
+                                break;
+                            }
+                            case 'y': {
+                                compiler.add((temporal, sb) -> {
+                                    String s = String.valueOf(temporal.get(ChronoField.YEAR));
+                                    if (s.length() > 2) {
+                                        s = s.substring(s.length() - 2);
+                                    }
+                                    sb.append(s);
+                                });
+                                break;
+                            }
+                            case '#': {
+                                compiler.slow();
+                                for (int j = next; j < length; j++) {
+                                    if (Character.isDigit(format.charAt(j))) {
+                                        continue;
+                                    } else {
+                                        i = j;
+                                    }
                                 }
+                                break;
                             }
-                            break;
-                        }
-                        case '.': {
-                            for (int j = next; j < length; j++) {
-                                if (isPunctuation(format.charAt(j))) {
-                                    continue;
-                                } else {
-                                    i = j;
+                            case '.': {
+                                compiler.slow();
+                                for (int j = next; j < length; j++) {
+                                    if (isPunctuation(format.charAt(j))) {
+                                        continue;
+                                    } else {
+                                        i = j;
+                                    }
                                 }
+                                break;
                             }
-                            break;
-                        }
-                        case '@': {
-                            for (int j = next; j < length; j++) {
-                                if (Character.isAlphabetic(format.charAt(j))) {
-                                    continue;
-                                } else {
-                                    i = j;
+                            case '@': {
+                                compiler.slow();
+                                for (int j = next; j < length; j++) {
+                                    if (Character.isAlphabetic(format.charAt(j))) {
+                                        continue;
+                                    } else {
+                                        i = j;
+                                    }
                                 }
+                                break;
+                            }
+                            case '%': {
+                                compiler.literal('%');
+                                break;
+                            }
+                            default: {
+                                throw new UnsupportedOperationException();
                             }
-                            break;
-                        }
-                        case '%': {
-                            dateTimeFormatterBuilder
-                                    .appendLiteral('%');
-                            break;
-                        }
-                        default: {
-                           throw new UnsupportedOperationException();
-                        }
 
+                        }
+                    } else {
+                        compiler.literal(c);
                     }
                 } else {
-                    dateTimeFormatterBuilder.appendLiteral(c);
+                    compiler.literal(format.charAt(i));
                 }
-            } else {
-                dateTimeFormatterBuilder.appendLiteral(format.charAt(i));
+            }
+            return compiler.build();
+        }
+    }
+
+    interface Part {
+        void format(Temporal temporal, StringBuilder sb);
+    }
+
+    /**
+     * 连续的与日期无关的选项合并到一个DateTimeFormatterBuilder
+     */
+    private static class Compiler {
+        final Locale locale;
+        final List<Part> parts = new ArrayList<>();
+        DateTimeFormatterBuilder builder;
+        StringBuilder fastTokens = new StringBuilder();
+        final BitSet fastOptions = new BitSet();
+
+        Compiler(Locale locale) {
+            this.locale = locale;
+        }
+
+        DateTimeFormatterBuilder builder() {
+            if (builder == null) {
+                builder = new DateTimeFormatterBuilder();
+            }
+            return builder;
+        }
+
+        void literal(char c) {
+            builder().appendLiteral(c);
+            if (fastTokens != null) {
+                fastTokens.append(c);
             }
         }
-        DateTimeFormatter dateTimeFormatter = dateTimeFormatterBuilder.toFormatter(locale);
 
-        if (temporal instanceof LocalDate) {
-            return ((LocalDate) temporal).format(dateTimeFormatter);
+        void fast(char option) {
+            if (fastTokens != null) {
+                fastOptions.set(fastTokens.length());
+                fastTokens.append(option);
+            }
+        }
+
+        void slow() {
+            fastTokens = null;
         }
-        if (temporal instanceof LocalDateTime) {
-            return ((LocalDateTime) temporal).format(dateTimeFormatter);
+
+        void add(Part part) {
+            slow();
+            flush();
+            parts.add(part);
+        }
+
+        private void flush() {
+            if (builder != null) {
+                DateTimeFormatter formatter = builder.toFormatter(locale);
+                parts.add(formatter::formatTo);
+                builder = null;
+            }
+        }
+
+        CompiledFormat build() {
+            flush();
+            char[] tokens = null;
+            boolean[] options = null;
+            if (fastTokens != null) {
+                tokens = fastTokens.toString().toCharArray();
+                options = new boolean[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    options[i] = fastOptions.get(i);
+                }
+            }
+            return new CompiledFormat(parts.toArray(new Part[0]), tokens, options);
         }
-        return null;
     }
 
     public static boolean isOption(char c) {
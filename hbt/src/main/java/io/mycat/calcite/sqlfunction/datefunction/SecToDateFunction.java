@@ -25,10 +25,6 @@ public class SecToDateFunction extends MycatDateFunction {
             return null;
         }
         try {
-            String javaPattern = format;
-            for (Map.Entry<String, String> entry : mysqlUnitMap.entrySet()) {
-                javaPattern = javaPattern.replaceAll(entry.getKey(), entry.getValue());
-            }
             Date date = DateParserUtils.parseDate(str);
             if (format.toLowerCase().contains("%y")) {
                 return DateFormatUtils.format(date, "yyyy-MM-dd");
@@ -17,6 +17,7 @@
 package io.mycat.calcite.sqlfunction.stringfunction;
 
 import io.mycat.calcite.MycatScalarFunction;
+import io.mycat.calcite.sqlfunction.CompiledCache;
 
 import org.apache.calcite.schema.ScalarFunction;
 import org.apache.calcite.sql.SqlCall;
@@ -29,11 +30,18 @@ import org.apache.calcite.sql.type.OperandTypes;
 import org.apache.calcite.sql.type.ReturnTypes;
 import org.apache.calcite.sql.type.SqlTypeFamily;
 
+import java.util.regex.Pattern;
+
 
 public class RegexpFunction extends MycatStringFunction {
     public static ScalarFunction scalarFunction = MycatScalarFunction.create(RegexpFunction.class,
             "regexp", 2);
     public static RegexpFunction INSTANCE = new RegexpFunction();
+    /**
+     * regexp函数族编译后的表达式
+     */
+    public static final CompiledCache<Pattern> PATTERN_CACHE = new CompiledCache<>(1024, Pattern::compile);
+    private static final CompiledCache<Pattern> MATCHES_CACHE = new CompiledCache<>(1024, pat -> Pattern.compile(".*" + pat + ".*"));
 
 
     public RegexpFunction() {
@@ -44,7 +52,14 @@ public class RegexpFunction extends MycatStringFunction {
         if (expr == null || pat == null) {
             return null;
         }
-        return expr.matches(".*" + pat + ".*");
+        return matches(expr, pat);
+    }
+
+    /**
+     * 与expr.matches(".*" + pat + ".*")相同
+     */
+    public static boolean matches(String expr, String pat) {
+        return MATCHES_CACHE.get(pat).matcher(expr).matches();
     }
 
     @Override
@@ -26,7 +26,6 @@ import org.apache.calcite.sql.type.ReturnTypes;
 import org.apache.calcite.sql.type.SqlTypeFamily;
 
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class RegexpInstrFunction extends MycatStringFunction {
@@ -43,7 +42,7 @@ public class RegexpInstrFunction extends MycatStringFunction {
         if (expr == null || pat == null) {
             return null;
         }
-        Matcher matcher = Pattern.compile(pat).matcher(expr);
+        Matcher matcher = RegexpFunction.PATTERN_CACHE.get(pat).matcher(expr);
         if(matcher.find()){
             return matcher.start()+1;
         }
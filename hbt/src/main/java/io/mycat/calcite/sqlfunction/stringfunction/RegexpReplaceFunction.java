@@ -27,7 +27,6 @@ import org.apache.calcite.sql.type.ReturnTypes;
 import org.apache.calcite.sql.type.SqlTypeFamily;
 
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class RegexpReplaceFunction extends MycatStringFunction {
@@ -44,7 +43,7 @@ public class RegexpReplaceFunction extends MycatStringFunction {
         if (expr == null || pat == null || replace == null) {
             return null;
         }
-        Matcher matcher = Pattern.compile(pat).matcher(expr);
+        Matcher matcher = RegexpFunction.PATTERN_CACHE.get(pat).matcher(expr);
         if (matcher.find()) {
             return matcher.replaceAll(replace);
         }
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt3;
+
+import com.google.common.collect.ImmutableList;
+import io.mycat.DataNode;
+import io.mycat.TableHandler;
+import io.mycat.router.ShardingTableHandler;
+import org.apache.calcite.rel.core.JoinRelType;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 分片算法,分片数量,分片所在的target都相同的分片表在分片字段上等值连接时,
+ * 第i个分片只需要与另一个表的第i个分片连接,连接下推为每个分片一条sql
+ * 分片按下标对应,分片的物理表名可以不同
+ */
+public class CoPartitionDistribution extends Distribution {
+    private final Distribution left;
+    private final ShardingTableHandler leftTable;
+    private final Distribution right;
+    private final ShardingTableHandler rightTable;
+    private final JoinRelType joinType;
+    private final List<ShardingTableHandler> tables;
+
+    public CoPartitionDistribution(Distribution left, ShardingTableHandler leftTable,
+                                   Distribution right, ShardingTableHandler rightTable,
+                                   JoinRelType joinType) {
+        this.left = left;
+        this.leftTable = leftTable;
+        this.right = right;
+        this.rightTable = rightTable;
+        this.joinType = joinType;
+        this.tables = ImmutableList.<ShardingTableHandler>builder()
+                .addAll(getTables(left, leftTable))
+                .addAll(getTables(right, rightTable))
+                .build();
+    }
+
+    /**
+     * 分片数量,分片所在的target,分片算法都相同
+     */
+    public static boolean isCoPartitioned(ShardingTableHandler one, ShardingTableHandler two) {
+        if (one == two) {
+            return true;
+        }
+        List<DataNode> oneDataNodes = one.dataNodes();
+        List<DataNode> twoDataNodes = two.dataNodes();
+        if (oneDataNodes.size() != twoDataNodes.size()) {
+            return false;
+        }
+        for (int i = 0; i < oneDataNodes.size(); i++) {
+            if (!oneDataNodes.get(i).getTargetName().equals(twoDataNodes.get(i).getTargetName())) {
+                return false;
+            }
+        }
+        return one.function().isSameRule(two.function());
+    }
+
+    /**
+     * 视图中已经连接在一起的分片表
+     */
+    public static List<ShardingTableHandler> getTables(Distribution distribution, ShardingTableHandler table) {
+        if (distribution instanceof CoPartitionDistribution) {
+            return ((CoPartitionDistribution) distribution).tables;
+        }
+        return ImmutableList.of(table);
+    }
+
+    public List<ShardingTableHandler> getTables() {
+        return tables;
+    }
+
+    /**
+     * 需要访问的分片下标,内连接取交集,外连接取保留行的一侧
+     */
+    public SortedSet<Integer> getPartitions(List<Object> params) {
+        SortedSet<Integer> leftPartitions = getPartitions(left, leftTable, params);
+        SortedSet<Integer> rightPartitions = getPartitions(right, rightTable, params);
+        SortedSet<Integer> res = new TreeSet<>();
+        switch (joinType) {
+            case INNER:
+            case SEMI:
+                res.addAll(leftPartitions);
+                res.retainAll(rightPartitions);
+                break;
+            case LEFT:
+            case ANTI:
+                res.addAll(leftPartitions);
+                break;
+            case RIGHT:
+                res.addAll(rightPartitions);
+                break;
+            default:
+                res.addAll(leftPartitions);
+                res.addAll(rightPartitions);
+                break;
+        }
+        if (res.isEmpty()) {
+            //结果为空,仍然需要一条sql得到空结果集
+            res.add(leftPartitions.isEmpty() ? 0 : leftPartitions.first());
+        }
+        return res;
+    }
+
+    private static SortedSet<Integer> getPartitions(Distribution distribution, ShardingTableHandler table, List<Object> params) {
+        if (distribution instanceof CoPartitionDistribution) {
+            return ((CoPartitionDistribution) distribution).getPartitions(params);
+        }
+        List<DataNode> dataNodes = table.dataNodes();
+        SortedSet<Integer> res = new TreeSet<>();
+        for (DataNode dataNode : distribution.getDataNodes(params)) {
+            int index = dataNodes.indexOf(dataNode);
+            if (index < 0) {
+                //不是该表的分片,不裁剪
+                return allPartitions(dataNodes.size());
+            }
+            res.add(index);
+        }
+        return res;
+    }
+
+    private static SortedSet<Integer> allPartitions(int size) {
+        SortedSet<Integer> res = new TreeSet<>();
+        for (int i = 0; i < size; i++) {
+            res.add(i);
+        }
+        return res;
+    }
+
+    private List<DataNode> toDataNodes(Collection<Integer> partitions) {
+        return partitions.stream().map(i -> new PartitionDataNode(i, tables)).collect(Collectors.toList());
+    }
+
+    @Override
+    public Iterable<DataNode> getDataNodes(List<Object> params) {
+        return toDataNodes(getPartitions(params));
+    }
+
+    @Override
+    public Iterable<DataNode> getDataNodes() {
+        return toDataNodes(allPartitions(leftTable.dataNodes().size()));
+    }
+
+    @Override
+    public boolean isSingle() {
+        if (leftTable.dataNodes().size() == 1) {
+            return true;
+        }
+        switch (joinType) {
+            case INNER:
+            case SEMI:
+                return left.isSingle() || right.isSingle();
+            case LEFT:
+            case ANTI:
+                return left.isSingle();
+            case RIGHT:
+                return right.isSingle();
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean isBroadCast() {
+        return false;
+    }
+
+    @Override
+    public boolean isSharding() {
+        return true;
+    }
+
+    @Override
+    public boolean isPartial() {
+        return left.isPartial() || right.isPartial();
+    }
+
+    @Override
+    public Type type() {
+        return Type.Sharding;
+    }
+
+    @Override
+    public boolean isPhy() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Collections.singletonMap("coPartition", tables.stream()
+                .map(i -> i.getSchemaName() + "." + i.getTableName())
+                .collect(Collectors.toList())).toString();
+    }
+
+    /**
+     * 连接中每个分片表在同一个分片下标上的物理表,targetName相同
+     */
+    public static class PartitionDataNode implements DataNode {
+        private final int index;
+        private final DataNode primary;
+        private final Map<String, DataNode> dataNodes = new LinkedHashMap<>();
+
+        public PartitionDataNode(int index, List<ShardingTableHandler> tables) {
+            this.index = index;
+            for (ShardingTableHandler table : tables) {
+                dataNodes.put(key(table), table.dataNodes().get(index));
+            }
+            this.primary = dataNodes.values().iterator().next();
+        }
+
+        private static String key(TableHandler table) {
+            return table.getSchemaName() + "." + table.getTableName();
+        }
+
+        /**
+         * 不在连接中的表(例如全局表)使用第一个表的分片,与原来的单分片视图一致
+         */
+        public DataNode getDataNode(TableHandler table) {
+            return dataNodes.getOrDefault(key(table), primary);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public String getTargetName() {
+            return primary.getTargetName();
+        }
+
+        @Override
+        public String getSchema() {
+            return primary.getSchema();
+        }
+
+        @Override
+        public String getTable() {
+            return primary.getTable();
+        }
+
+        @Override
+        public String toString() {
+            return "{index=" + index + ", dataNodes=" + dataNodes.values() + '}';
+        }
+    }
+}
@@ -96,13 +96,22 @@ import java.util.*;
 public class DrdsRunner {
     final static Logger log = LoggerFactory.getLogger(DrdsRunner.class);
     private final SchemaPlus schemas;
+    final Map<String, MycatSchema> mycatSchemas = new HashMap<>();
     DrdsConst config;
     PlanCache planCache;
 
     public DrdsRunner(DrdsConst config, PlanCache planCache) {
+        this(config, planCache, null, null);
+    }
+
+    /**
+     * 增量重建,除了changedSchemaName以外的schema直接复用previous中的calcite schema,
+     * changedSchemaName中没有变化的表也复用原来的MycatLogicTable
+     */
+    public DrdsRunner(DrdsConst config, PlanCache planCache, DrdsRunner previous, String changedSchemaName) {
         this.config = config;
         this.planCache = planCache;
-        this.schemas = convertRoSchemaPlus(config);
+        this.schemas = convertRoSchemaPlus(config, previous, changedSchemaName);
     }
 
 //    public List<String> explainSql(String originalSql) {
@@ -183,19 +192,34 @@ public class DrdsRunner {
     }
 
     public SchemaPlus convertRoSchemaPlus(DrdsConst config) {
+        return convertRoSchemaPlus(config, null, null);
+    }
+
+    private SchemaPlus convertRoSchemaPlus(DrdsConst config, DrdsRunner previous, String changedSchemaName) {
         SchemaPlus plus = CalciteSchema.createRootSchema(false).plus();
-        List<MycatSchema> schemas = new ArrayList<>();
         for (Map.Entry<String, SchemaHandler> entry : config.schemas().entrySet()) {
             String schemaName = entry.getKey();
             SchemaHandler schemaHandler = entry.getValue();
-            Map<String, Table> logicTableMap = new HashMap<>();
-            for (TableHandler tableHandler : schemaHandler.logicTables().values()) {
-                MycatLogicTable logicTable = new MycatLogicTable(tableHandler);
-                logicTableMap.put(logicTable.getTable().getTableName(), logicTable);
+            MycatSchema previousSchema = previous == null ? null : previous.mycatSchemas.get(schemaName);
+            MycatSchema schema;
+            if (previousSchema != null && !schemaName.equals(changedSchemaName)) {
+                schema = previousSchema;
+            } else {
+                Map<String, Table> logicTableMap = new HashMap<>();
+                for (TableHandler tableHandler : schemaHandler.logicTables().values()) {
+                    Table previousTable = previousSchema == null ? null : previousSchema.getMycatTableMap().get(tableHandler.getTableName());
+                    MycatLogicTable logicTable;
+                    if (previousTable instanceof MycatLogicTable && ((MycatLogicTable) previousTable).getTable() == tableHandler) {
+                        logicTable = (MycatLogicTable) previousTable;
+                    } else {
+                        logicTable = new MycatLogicTable(tableHandler);
+                    }
+                    logicTableMap.put(logicTable.getTable().getTableName(), logicTable);
+                }
+                schema = MycatSchema.create(config, schemaName, logicTableMap);
             }
-            MycatSchema schema = MycatSchema.create(config, schemaName, logicTableMap);
             plus.add(schemaName, schema);
-            schemas.add(schema);
+            mycatSchemas.put(schemaName, schema);
         }
         return plus;
     }
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt3;
+
+import com.google.common.collect.ImmutableList;
+import io.mycat.calcite.MycatCalciteSupport;
+import io.mycat.hbt4.executor.aggfunction.HyperLogLog;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.*;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.type.ReturnTypes;
+import org.apache.calcite.sql.type.SqlReturnTypeInference;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * approx_count_distinct(x)在各分片上计算HyperLogLog寄存器,mycat只合并寄存器
+ * 分片sql:select 分组字段,下标,max(前导零个数+1) from t group by 分组字段,下标
+ * 下标取md5(x)的前14位,前导零在md5(x)随后的48位上计算,每个分组每个分片最多返回2^14行
+ */
+public class HyperLogLogSketch {
+    private static final int HASH_BITS = 48;
+
+    /**
+     * hll_merge(下标,前导零个数+1),只在mycat上执行
+     */
+    public static final SqlAggFunction HLL_MERGE = new SqlAggFunction("hll_merge",
+            null,
+            SqlKind.OTHER_FUNCTION,
+            ReturnTypes.BIGINT,
+            null,
+            OperandTypes.NUMERIC_NUMERIC,
+            SqlFunctionCategory.NUMERIC,
+            false,
+            false) {
+    };
+
+    private static final SqlFunction MD5 = pushDownFunction("md5", ReturnTypes.VARCHAR_2000_NULLABLE);
+    private static final SqlFunction SUBSTRING = pushDownFunction("substring", ReturnTypes.VARCHAR_2000_NULLABLE);
+    private static final SqlFunction CONV = pushDownFunction("conv", ReturnTypes.VARCHAR_2000_NULLABLE);
+    private static final SqlFunction BIN = pushDownFunction("bin", ReturnTypes.VARCHAR_2000_NULLABLE);
+    private static final SqlFunction LENGTH = pushDownFunction("length", ReturnTypes.BIGINT_NULLABLE);
+
+    private static SqlFunction pushDownFunction(String name, SqlReturnTypeInference returnType) {
+        return new SqlFunction(name, SqlKind.OTHER_FUNCTION, returnType, null,
+                OperandTypes.VARIADIC, SqlFunctionCategory.STRING);
+    }
+
+    /**
+     * 只有一个approx_count_distinct(x)并且没有grouping sets
+     */
+    public static boolean isApproxCountDistinct(Aggregate aggregate) {
+        if (aggregate.getGroupType() != Aggregate.Group.SIMPLE || aggregate.getAggCallList().size() != 1) {
+            return false;
+        }
+        AggregateCall call = aggregate.getAggCallList().get(0);
+        return isApproxCountDistinct(call);
+    }
+
+    public static boolean isApproxCountDistinct(AggregateCall call) {
+        //sql2rel把approx_count_distinct(x)转换为近似的count(distinct x)
+        return call.getAggregation() == SqlStdOperatorTable.COUNT
+                && call.isDistinct()
+                && call.isApproximate()
+                && call.getArgList().size() == 1
+                && call.filterArg < 0;
+    }
+
+    /**
+     * 已经改写为合并寄存器的聚合
+     */
+    public static boolean isMerge(Aggregate aggregate) {
+        return aggregate.getAggCallList().stream().anyMatch(i -> i.getAggregation() == HLL_MERGE);
+    }
+
+    /**
+     * 分片上计算寄存器的视图,上面是合并寄存器的聚合
+     */
+    public static RelNode rewrite(RelNode input, Aggregate aggregate, Distribution distribution) {
+        AggregateCall call = aggregate.getAggCallList().get(0);
+        RelBuilder relBuilder = MycatCalciteSupport.relBuilderFactory.create(input.getCluster(), null);
+        RexBuilder rexBuilder = input.getCluster().getRexBuilder();
+        RelDataType bigint = input.getCluster().getTypeFactory().createSqlType(SqlTypeName.BIGINT);
+        relBuilder.push(input);
+        List<RexNode> projects = new ArrayList<>();
+        for (int key : aggregate.getGroupSet()) {
+            projects.add(relBuilder.field(key));
+        }
+        RexNode md5 = rexBuilder.makeCall(MD5, relBuilder.field(call.getArgList().get(0)));
+        RexNode index = rexBuilder.makeCall(SqlStdOperatorTable.MOD,
+                hex(rexBuilder, bigint, md5, 1, 4),
+                literal(rexBuilder, HyperLogLog.M));
+        RexNode hash = hex(rexBuilder, bigint, md5, 5, HASH_BITS / 4);
+        RexNode rho = rexBuilder.makeCall(SqlStdOperatorTable.CASE,
+                rexBuilder.makeCall(SqlStdOperatorTable.EQUALS, hash, literal(rexBuilder, 0)),
+                literal(rexBuilder, HASH_BITS + 1),
+                rexBuilder.makeCall(SqlStdOperatorTable.MINUS,
+                        literal(rexBuilder, HASH_BITS + 1),
+                        rexBuilder.makeCall(LENGTH, rexBuilder.makeCall(BIN, hash))));
+        projects.add(index);
+        projects.add(rho);
+        relBuilder.project(projects);
+        int groupCount = aggregate.getGroupCount();
+        relBuilder.aggregate(relBuilder.groupKey(ImmutableBitSet.range(groupCount + 1)),
+                relBuilder.max(relBuilder.field(groupCount + 1)));
+        View view = View.of(relBuilder.build(), distribution);
+        AggregateCall merge = AggregateCall.create(HLL_MERGE, false, false,
+                ImmutableList.of(groupCount, groupCount + 1), -1, RelCollations.EMPTY,
+                call.getType(), call.getName());
+        return aggregate.copy(aggregate.getTraitSet(), view,
+                ImmutableBitSet.range(groupCount), null, ImmutableList.of(merge));
+    }
+
+    /**
+     * cast(conv(substring(md5,start,length),16,10) as signed)
+     */
+    private static RexNode hex(RexBuilder rexBuilder, RelDataType bigint, RexNode md5, int start, int length) {
+        RexNode substring = rexBuilder.makeCall(SUBSTRING, md5, literal(rexBuilder, start), literal(rexBuilder, length));
+        RexNode conv = rexBuilder.makeCall(CONV, substring, literal(rexBuilder, 16), literal(rexBuilder, 10));
+        return rexBuilder.makeCast(bigint, conv);
+    }
+
+    private static RexNode literal(RexBuilder rexBuilder, int value) {
+        return rexBuilder.makeExactLiteral(BigDecimal.valueOf(value));
+    }
+}
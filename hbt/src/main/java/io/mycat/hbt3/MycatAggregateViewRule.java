@@ -17,6 +17,9 @@ public class MycatAggregateViewRule extends RelOptRule {
     public void onMatch(RelOptRuleCall call) {
         LogicalAggregate up = call.rel(0);
         RelNode view = call.rel(1);
+        if (HyperLogLogSketch.isMerge(up)) {
+            return;
+        }
         if (RelMdSqlViews.aggregate(up)) {
             RelNode res = SQLRBORewriter.aggregate(view,up);
             if (res != null) {
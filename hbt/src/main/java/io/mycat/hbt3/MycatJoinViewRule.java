@@ -24,6 +24,11 @@ public class MycatJoinViewRule extends RelOptRule {
             if (res != null) {
                 call.transformTo(res);
             }
+        } else {
+            RelNode res = SQLRBORewriter.coPartitionJoin(leftBase, rightBase, up);
+            if (res != null) {
+                call.transformTo(res);
+            }
         }
     }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@
  */
 package io.mycat.hbt3;
 
+import com.alibaba.fastsql.sql.SQLUtils;
 import com.google.common.collect.ImmutableList;
 import io.mycat.calcite.MycatCalciteSupport;
 import io.mycat.calcite.table.MycatLogicTable;
@@ -21,7 +22,9 @@ import io.mycat.hbt4.MycatConvention;
 import io.mycat.hbt4.logical.rel.MycatMergeSort;
 import io.mycat.metadata.CustomTableHandlerWrapper;
 import io.mycat.metadata.QueryBuilder;
+import io.mycat.router.ShardingTableHandler;
 import io.mycat.util.NameMap;
+import io.mycat.util.Pair;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.hep.HepPlanner;
@@ -31,17 +34,19 @@ import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelShuttleImpl;
 import org.apache.calcite.rel.core.*;
 import org.apache.calcite.rel.logical.*;
+import org.apache.calcite.rel.metadata.RelColumnOrigin;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rel.rules.CoreRules;
 import org.apache.calcite.rex.*;
 import org.apache.calcite.sql.SqlFunction;
 import org.apache.calcite.sql.SqlOperator;
 import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.util.ImmutableIntList;
+import org.apache.calcite.util.mapping.IntPair;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 public class SQLRBORewriter extends RelShuttleImpl {
     final static NextConvertor nextConvertor = new NextConvertor();
@@ -199,6 +204,10 @@ public class SQLRBORewriter extends RelShuttleImpl {
         if (RelMdSqlViews.join(left) && (RelMdSqlViews.join(right))) {
             return join(left, right, join);
         } else {
+            RelNode coPartitionJoin = coPartitionJoin(left, right, join);
+            if (coPartitionJoin != null) {
+                return coPartitionJoin;
+            }
             return join.copy(join.getTraitSet(), ImmutableList.of(left, right));
         }
     }
@@ -361,6 +370,9 @@ public class SQLRBORewriter extends RelShuttleImpl {
 
     public static RelNode aggregate(RelNode input, LogicalAggregate aggregate) {
         RelOptCluster cluster = input.getCluster();
+        if (HyperLogLogSketch.isMerge(aggregate)) {
+            return aggregate.copy(aggregate.getTraitSet(), ImmutableList.of(input));
+        }
         Distribution dataNodeInfo = null;
         if (input instanceof View) {
             dataNodeInfo = ((View) input).getDistribution();
@@ -370,9 +382,11 @@ public class SQLRBORewriter extends RelShuttleImpl {
             input = aggregate.copy(aggregate.getTraitSet(), ImmutableList.of(input));
             return input;
         }
-        if (dataNodeInfo.isSingle()) {
+        if (dataNodeInfo.isSingle() || groupByShardingKey(input, aggregate, dataNodeInfo)) {
             input = aggregate.copy(aggregate.getTraitSet(), ImmutableList.of(input));
             return View.of(input, dataNodeInfo);
+        } else if (!(input instanceof Union) && HyperLogLogSketch.isApproxCountDistinct(aggregate)) {
+            return HyperLogLogSketch.rewrite(input, aggregate, dataNodeInfo);
         } else {
             RelNode backup = input;
             if (!(input instanceof Union)) {
@@ -399,6 +413,42 @@ public class SQLRBORewriter extends RelShuttleImpl {
         }
     }
 
+    /**
+     * 分组字段包含某个表决定分片的全部字段时每个分组只在一个分片上,各分片聚合的结果直接合并即可,
+     * 例如分库分表使用不同的字段时只包含其中一个字段的分组仍然会分布在多个分表上
+     * 分片连接中外连接补的null会出现在多个分片上,所以分片连接只接受非空的分片字段
+     */
+    private static boolean groupByShardingKey(RelNode input, Aggregate aggregate, Distribution distribution) {
+        if (distribution.type() != Distribution.Type.Sharding || aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+            return false;
+        }
+        ShardingTableHandler table = getShardingTable(input, distribution);
+        if (table == null) {
+            return false;
+        }
+        List<ShardingTableHandler> tables = CoPartitionDistribution.getTables(distribution, table);
+        RelMetadataQuery mq = aggregate.getCluster().getMetadataQuery();
+        List<RelDataTypeField> fields = input.getRowType().getFieldList();
+        Map<ShardingTableHandler, Set<String>> groupColumns = new HashMap<>();
+        for (int key : aggregate.getGroupSet()) {
+            if (distribution instanceof CoPartitionDistribution && fields.get(key).getType().isNullable()) {
+                continue;
+            }
+            Pair<ShardingTableHandler, String> column = getOriginColumn(mq, input, key, tables);
+            if (column != null) {
+                groupColumns.computeIfAbsent(column.getKey(), k -> new HashSet<>()).add(normalize(column.getValue()));
+            }
+        }
+        for (Map.Entry<ShardingTableHandler, Set<String>> entry : groupColumns.entrySet()) {
+            List<String> shardingKeys = entry.getKey().function().getShardingKeys();
+            if (!shardingKeys.isEmpty() && shardingKeys.stream()
+                    .allMatch(k -> entry.getValue().contains(normalize(k)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static RelNode union(List<RelNode> inputs, LogicalUnion union) {
         if (union.all) {
             List<RelNode> children = new ArrayList<>();
@@ -447,6 +497,10 @@ public class SQLRBORewriter extends RelShuttleImpl {
             if (ldistribution.isPhy() && rdistribution.isPhy() && ldistribution.getDataNodes().equals(rdistribution.getDataNodes())) {
                 return View.of(join.copy(join.getTraitSet(), ImmutableList.of(leftView.getRelNode(), rightView.getRelNode())), ldistribution);
             }
+            RelNode coPartitionJoin = coPartitionJoin(left, right, join);
+            if (coPartitionJoin != null) {
+                return coPartitionJoin;
+            }
 //            left = ((View) left).expandToPhyRelNode();
 //            right = ((View) right).expandToPhyRelNode();
 //            List<DataNode> one = ldistribution.getDataNodes();
@@ -480,6 +534,122 @@ public class SQLRBORewriter extends RelShuttleImpl {
         return join.copy(join.getTraitSet(), ImmutableList.of(left, right));
     }
 
+    /**
+     * 分片连接在每个分片上独立完成,两侧视图带有过滤,投影时仍然可以下推,
+     * 过滤条件留在各自分片的sql中用于裁剪分片
+     */
+    public static RelNode coPartitionJoin(RelNode left, RelNode right, LogicalJoin join) {
+        if (!(left instanceof View) || !(right instanceof View)) {
+            return null;
+        }
+        View leftView = (View) left;
+        View rightView = (View) right;
+        Distribution coPartition = coPartition(leftView, rightView, join);
+        if (coPartition == null) {
+            return null;
+        }
+        return View.of(join.copy(join.getTraitSet(), ImmutableList.of(leftView.getRelNode(), rightView.getRelNode())), coPartition);
+    }
+
+    /**
+     * 两侧的分片表在分片字段上等值连接,并且分片算法,分片数量,分片所在的target相同时,
+     * 连接在每个分片上独立完成,返回按分片下标配对的分布,否则返回null
+     */
+    private static Distribution coPartition(View leftView, View rightView, LogicalJoin join) {
+        Distribution ldistribution = leftView.getDistribution();
+        Distribution rdistribution = rightView.getDistribution();
+        if (ldistribution.type() != Distribution.Type.Sharding || rdistribution.type() != Distribution.Type.Sharding) {
+            return null;
+        }
+        ShardingTableHandler leftTable = getShardingTable(leftView.getRelNode(), ldistribution);
+        ShardingTableHandler rightTable = getShardingTable(rightView.getRelNode(), rdistribution);
+        if (leftTable == null || rightTable == null) {
+            return null;
+        }
+        List<ShardingTableHandler> leftTables = CoPartitionDistribution.getTables(ldistribution, leftTable);
+        List<ShardingTableHandler> rightTables = CoPartitionDistribution.getTables(rdistribution, rightTable);
+        RelMetadataQuery mq = join.getCluster().getMetadataQuery();
+        List<RelDataTypeField> leftFields = leftView.getRowType().getFieldList();
+        List<RelDataTypeField> rightFields = rightView.getRowType().getFieldList();
+        //分片字段有多个时(分库分表字段不同),需要每个分片字段都在相同的位置上等值连接
+        Map<Pair<ShardingTableHandler, ShardingTableHandler>, Set<Integer>> coveredKeys = new HashMap<>();
+        for (IntPair pair : join.analyzeCondition().pairs()) {
+            //类型不同时mysql按转换后的值比较,分片算法按原值计算,不能保证在同一个分片
+            if (leftFields.get(pair.source).getType().getSqlTypeName() != rightFields.get(pair.target).getType().getSqlTypeName()) {
+                continue;
+            }
+            Pair<ShardingTableHandler, String> leftColumn = getOriginColumn(mq, leftView.getRelNode(), pair.source, leftTables);
+            Pair<ShardingTableHandler, String> rightColumn = getOriginColumn(mq, rightView.getRelNode(), pair.target, rightTables);
+            if (leftColumn == null || rightColumn == null) {
+                continue;
+            }
+            ShardingTableHandler leftKeyTable = leftColumn.getKey();
+            ShardingTableHandler rightKeyTable = rightColumn.getKey();
+            List<String> leftKeys = distinctShardingKeys(leftKeyTable);
+            int keyIndex = leftKeys.indexOf(normalize(leftColumn.getValue()));
+            if (keyIndex < 0 || keyIndex != distinctShardingKeys(rightKeyTable).indexOf(normalize(rightColumn.getValue()))
+                    || !CoPartitionDistribution.isCoPartitioned(leftKeyTable, rightKeyTable)) {
+                continue;
+            }
+            Set<Integer> covered = coveredKeys.computeIfAbsent(new Pair<>(leftKeyTable, rightKeyTable), k -> new HashSet<>());
+            covered.add(keyIndex);
+            if (covered.size() == leftKeys.size()) {
+                return new CoPartitionDistribution(ldistribution, leftTable, rdistribution, rightTable, join.getJoinType());
+            }
+        }
+        return null;
+    }
+
+    private static List<String> distinctShardingKeys(ShardingTableHandler table) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String key : table.function().getShardingKeys()) {
+            keys.add(normalize(key));
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * 视图中唯一的分片表,已经下推的分片连接取第一个表
+     */
+    private static ShardingTableHandler getShardingTable(RelNode relNode, Distribution distribution) {
+        if (distribution instanceof CoPartitionDistribution) {
+            return ((CoPartitionDistribution) distribution).getTables().get(0);
+        }
+        List<ShardingTableHandler> tables = new ArrayList<>();
+        relNode.accept(new RelShuttleImpl() {
+            @Override
+            public RelNode visit(TableScan scan) {
+                MycatLogicTable logicTable = scan.getTable().unwrap(MycatLogicTable.class);
+                if (logicTable != null && logicTable.isSharding() && !tables.contains(logicTable.getTable())) {
+                    tables.add((ShardingTableHandler) logicTable.getTable());
+                }
+                return scan;
+            }
+        });
+        return tables.size() == 1 ? tables.get(0) : null;
+    }
+
+    /**
+     * 字段直接来自tables中某个表时返回该表与字段名
+     */
+    private static Pair<ShardingTableHandler, String> getOriginColumn(RelMetadataQuery mq, RelNode relNode, int index,
+                                                                      List<ShardingTableHandler> tables) {
+        RelColumnOrigin columnOrigin = mq.getColumnOrigin(relNode, index);
+        if (columnOrigin == null || columnOrigin.isDerived()) {
+            return null;
+        }
+        MycatLogicTable logicTable = columnOrigin.getOriginTable().unwrap(MycatLogicTable.class);
+        if (logicTable == null || !tables.contains(logicTable.getTable())) {
+            return null;
+        }
+        ShardingTableHandler table = (ShardingTableHandler) logicTable.getTable();
+        return new Pair<>(table, table.getColumns().get(columnOrigin.getOriginColumnOrdinal()).getColumnName());
+    }
+
+    private static String normalize(String columnName) {
+        return SQLUtils.normalize(columnName).toLowerCase();
+    }
+
     public static RelNode filter(RelNode input, LogicalFilter filter, OptimizationContext optimizationContext) {
         Distribution dataNodeInfo = null;
         if (input instanceof View) {
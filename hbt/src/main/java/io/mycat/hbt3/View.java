@@ -198,11 +198,16 @@ public class View extends AbstractRelNode implements MycatRel {
             public RelNode visit(TableScan scan) {
                 MycatLogicTable mycatLogicTable = scan.getTable().unwrap(MycatLogicTable.class);
                 if (mycatLogicTable != null) {
-                    MycatPhysicalTable physicalTable = new MycatPhysicalTable(mycatLogicTable, dataNode);
+                    DataNode tableDataNode = dataNode;
+                    if (dataNode instanceof CoPartitionDistribution.PartitionDataNode) {
+                        //分片连接中的每个表使用自己在该分片下标上的物理表
+                        tableDataNode = ((CoPartitionDistribution.PartitionDataNode) dataNode).getDataNode(mycatLogicTable.getTable());
+                    }
+                    MycatPhysicalTable physicalTable = new MycatPhysicalTable(mycatLogicTable, tableDataNode);
                     RelOptTableImpl relOptTable1 = RelOptTableImpl.create(scan.getTable().getRelOptSchema(),
                             scan.getRowType(),
                             physicalTable,
-                            ImmutableList.of(dataNode.getTargetName(),dataNode.getSchema(), dataNode.getTable())
+                            ImmutableList.of(tableDataNode.getTargetName(),tableDataNode.getSchema(), tableDataNode.getTable())
                     );
                     return LogicalTableScan.create(scan.getCluster(), relOptTable1, ImmutableList.of());
                 }
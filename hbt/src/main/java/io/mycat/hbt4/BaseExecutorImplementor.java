@@ -291,7 +291,7 @@ public abstract class BaseExecutorImplementor implements ExecutorImplementor {
         }
     }
 
-    private RexNode resolveDynamicParam(RexNode node) {
+    protected RexNode resolveDynamicParam(RexNode node) {
         if (node == null) {
             return null;
         }
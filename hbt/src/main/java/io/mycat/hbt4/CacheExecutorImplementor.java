@@ -40,9 +40,15 @@ public class CacheExecutorImplementor  extends ExecutorImplementorImpl {
         }
         Executor executor = rel.implement(this);
         RelDataType rowType = rel.getRowType();
-        EnumeratorRowIterator rowIterator = new EnumeratorRowIterator(new CalciteRowMetaData(rowType.getFieldList()),
-                Linq4j.asEnumerable(() -> executor.outputObjectIterator()).enumerator(), () -> {
-        });
-        RowBaseIteratorCacher.put(this.key,rowIterator);
+        try {
+            factory.open();
+            executor.open();
+            EnumeratorRowIterator rowIterator = new EnumeratorRowIterator(new CalciteRowMetaData(rowType.getFieldList()),
+                    Linq4j.asEnumerable(() -> executor.outputObjectIterator()).enumerator(), () -> {
+            });
+            RowBaseIteratorCacher.put(this.key, rowIterator, PlanCache.collectTables(rel));
+        } finally {
+            executor.close();
+        }
     }
 }
\ No newline at end of file
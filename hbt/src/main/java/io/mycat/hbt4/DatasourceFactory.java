@@ -27,6 +27,9 @@ public interface DatasourceFactory extends AutoCloseable {
 
     public void createTableIfNotExisted(String targetName, String createTableSql);
 
+    /**
+     * 写语句使用的连接,提交后读取这些连接的gtid
+     */
     Map<String, Connection> getConnections(List<String> targets);
 
     void regist(ImmutableList<String> asList);
@@ -36,4 +39,11 @@ public interface DatasourceFactory extends AutoCloseable {
     List<Connection> getTmpConnections(List<String> targets);
 
     void recycleTmpConnections(List<Connection> connections);
+
+    /**
+     * 事务中的查询需要使用事务绑定的连接
+     */
+    default boolean isInTransaction() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package io.mycat.hbt4;
 import com.alibaba.fastsql.util.JdbcUtils;
 import com.google.common.collect.ImmutableList;
 import io.mycat.*;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
 import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
 import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
 import lombok.SneakyThrows;
@@ -44,7 +45,12 @@ public class DefaultDatasourceFactory implements DatasourceFactory {
         HashMap<String,Connection> connectionHashMap = new HashMap<>();
         Map<String, Deque<MycatConnection>> connection = context.getTransactionSession().getConnection(targets);
         for (Map.Entry<String, Deque<MycatConnection>> stringDequeEntry : connection.entrySet()) {
-            connectionHashMap.put(stringDequeEntry.getKey(),stringDequeEntry.getValue().getFirst().unwrap(Connection.class));
+            MycatConnection mycatConnection = stringDequeEntry.getValue().getFirst();
+            if (mycatConnection instanceof DefaultConnection) {
+                //执行器直接在物理连接上写,由事务会话在提交后读取gtid
+                ((DefaultConnection) mycatConnection).markWritten();
+            }
+            connectionHashMap.put(stringDequeEntry.getKey(),mycatConnection.unwrap(Connection.class));
         }
 
         return connectionHashMap;
@@ -59,10 +65,18 @@ public class DefaultDatasourceFactory implements DatasourceFactory {
     public Connection getConnection(String key) {
         Deque<MycatConnection> mycatConnections = connectionMap.get(key);
         MycatConnection pop = mycatConnections.pop();
-        autoCloseables.add(pop);
+        if (!context.isInTransaction()) {
+            //事务中的连接由事务会话在提交或者回滚后关闭
+            autoCloseables.add(pop);
+        }
         return pop.unwrap(Connection.class);
     }
 
+    @Override
+    public boolean isInTransaction() {
+        return context.isInTransaction() || !context.isAutocommit();
+    }
+
     /**
      * @todo check dead lock
      * @param targets
@@ -21,8 +21,11 @@ import io.mycat.hbt3.MycatLookUpView;
 import io.mycat.hbt3.View;
 import io.mycat.hbt4.executor.*;
 import io.mycat.hbt4.logical.rel.MycatInsertRel;
+import io.mycat.hbt4.logical.rel.MycatMergeSort;
 import io.mycat.hbt4.logical.rel.MycatUpdateRel;
 import io.mycat.metadata.QueryBuilder;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
 
 public abstract class ExecutorImplementorImpl extends BaseExecutorImplementor {
     protected final DatasourceFactory factory;
@@ -52,6 +55,21 @@ public abstract class ExecutorImplementorImpl extends BaseExecutorImplementor {
         return MycatLookupExecutor.create(mycatLookUpView.getRelNode(), factory, params);
     }
 
+    @Override
+    public Executor implement(MycatMergeSort mergeSort) {
+        RexNode offset = resolveDynamicParam(mergeSort.offset);
+        RexNode fetch = resolveDynamicParam(mergeSort.fetch);
+        if (offset != null && fetch != null && mergeSort.getInput() instanceof View) {
+            View view = (View) mergeSort.getInput();
+            long offsetValue = ((RexLiteral) offset).getValueAs(Long.class);
+            if (!view.getDistribution().isSingle() && MycatDeepPageExecutor.isAvailable(view, offsetValue)) {
+                long fetchValue = ((RexLiteral) fetch).getValueAs(Long.class);
+                return MycatDeepPageExecutor.create(view, comparator(mergeSort), offsetValue, fetchValue, params, factory);
+            }
+        }
+        return super.implement(mergeSort);
+    }
+
     @Override
     public Executor implement(MycatInsertRel mycatInsertRel) {
         return MycatInsertExecutor.create(mycatInsertRel, factory, params);
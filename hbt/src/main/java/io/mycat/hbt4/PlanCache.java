@@ -14,12 +14,21 @@
  */
 package io.mycat.hbt4;
 
-import java.util.PriorityQueue;
+import io.mycat.hbt3.View;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.TableScan;
+
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 public enum PlanCache {
     INSTANCE;
     ConcurrentHashMap<String, PriorityQueue<Plan>> cache = new ConcurrentHashMap<>();
+    /**
+     * sql -> 计划引用的表(schemaName.tableName,小写)
+     */
+    ConcurrentHashMap<String, Set<String>> tableRefs = new ConcurrentHashMap<>();
 
     public Plan getMinCostPlan(String sql) {
         PriorityQueue<Plan> plans = cache.computeIfAbsent(sql, s -> new PriorityQueue<>(Comparable::compareTo));
@@ -32,6 +41,52 @@ public enum PlanCache {
     public void put(String sql,Plan plan){
         PriorityQueue<Plan> plans = cache.computeIfAbsent(sql, s -> new PriorityQueue<>(Comparable::compareTo));
         plans.add(plan);
+        Set<String> tables = tableRefs.computeIfAbsent(sql, s -> ConcurrentHashMap.newKeySet());
+        tables.addAll(collectTables(plan.getRelNode()));
+    }
+
+    /**
+     * 只清除引用了该表的计划,无法确定引用表的计划也一并清除
+     */
+    public void invalidate(String schemaName, String tableName) {
+        String key = toKey(schemaName, tableName);
+        cache.keySet().removeIf(sql -> {
+            Set<String> tables = tableRefs.get(sql);
+            if (tables == null || tables.isEmpty() || tables.contains(key)) {
+                tableRefs.remove(sql);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public void clear() {
+        cache.clear();
+        tableRefs.clear();
+    }
+
+    static Set<String> collectTables(RelNode relNode) {
+        Set<String> tables = new HashSet<>();
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if (node instanceof TableScan) {
+                    List<String> qualifiedName = node.getTable().getQualifiedName();
+                    if (qualifiedName.size() >= 2) {
+                        tables.add(toKey(qualifiedName.get(qualifiedName.size() - 2),
+                                qualifiedName.get(qualifiedName.size() - 1)));
+                    }
+                }
+                if (node instanceof View) {
+                    visit(((View) node).getRelNode(), 0, node);
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(relNode);
+        return tables;
     }
 
-}
\ No newline at end of file
+    private static String toKey(String schemaName, String tableName) {
+        return (schemaName + "." + tableName).toLowerCase();
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4;
+
+import com.google.common.collect.Iterables;
+import io.mycat.TableHandler;
+import io.mycat.calcite.table.MycatTableBase;
+import io.mycat.hbt3.Distribution;
+import io.mycat.hbt3.View;
+import io.mycat.statistic.StatisticCenter;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.TableScan;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * 按执行计划估算查询扫描的行数,用于判断是否路由到booster
+ * 每个View扫描的行数 = 逻辑表的统计行数 * where条件的选择率 * 分片裁剪后的分片数/全部分片数
+ * 有表没有统计信息时返回NaN
+ * chen junwen
+ */
+public class ScanRowsEstimator {
+
+    public static double estimate(RelNode relNode, List<Object> params) {
+        return estimate(relNode, params, StatisticCenter.INSTANCE::getLogicTableRow);
+    }
+
+    /**
+     * @param tableRows schemaName,tableName -> 逻辑表的统计行数,未知为null
+     */
+    public static double estimate(RelNode relNode, List<Object> params, BiFunction<String, String, Double> tableRows) {
+        double[] rows = {0};
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if (node instanceof View) {
+                    View view = (View) node;
+                    rows[0] += estimateView(view.getRelNode(), getWidth(view.getDistribution(), params), tableRows);
+                    return;
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(relNode);
+        return rows[0];
+    }
+
+    /**
+     * 实际访问的分片占全部分片的比例,广播表只访问其中一个副本,但是一个副本就有全部的行
+     */
+    private static double getWidth(Distribution distribution, List<Object> params) {
+        if (distribution.isBroadCast()) {
+            return 1;
+        }
+        int total = Iterables.size(distribution.getDataNodes());
+        if (total == 0) {
+            return 1;
+        }
+        return (double) Iterables.size(distribution.getDataNodes(params)) / total;
+    }
+
+    private static double estimateView(RelNode relNode, double width, BiFunction<String, String, Double> tableRows) {
+        double[] rows = {0};
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if (node instanceof TableScan) {
+                    MycatTableBase table = node.getTable().unwrap(MycatTableBase.class);
+                    if (table == null) {
+                        return;
+                    }
+                    TableHandler tableHandler = table.logicTable();
+                    Double rowCount = tableRows.apply(tableHandler.getSchemaName(), tableHandler.getTableName());
+                    if (rowCount == null) {
+                        rows[0] = Double.NaN;
+                        return;
+                    }
+                    double selectivity = 1;
+                    if (parent instanceof Filter) {
+                        Filter filter = (Filter) parent;
+                        Double value = filter.getCluster().getMetadataQuery().getSelectivity(node, filter.getCondition());
+                        if (value != null) {
+                            selectivity = value;
+                        }
+                    }
+                    rows[0] += rowCount * selectivity * width;
+                    return;
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(relNode);
+        return rows[0];
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4;
+
+import com.alibaba.fastsql.sql.ast.SQLStatement;
+import io.mycat.MycatDataContext;
+import io.mycat.MycatUser;
+import io.mycat.calcite.MycatCalciteSupport;
+import io.mycat.hbt4.executor.MycatPreparedStatementUtil;
+import io.mycat.util.JsonUtil;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行时间超过阈值的语句记录执行计划,每个View发送到分片的sql,耗时与行数,以及mycat上算子的内存使用
+ * 异步写入按大小滚动的文件,最近的记录保存在内存中供管理命令查询
+ */
+public enum SlowQueryLog {
+    INSTANCE;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+    /**
+     * 内存中保存的最近的慢查询数
+     */
+    public static final int MAX_RECENT = 100;
+    private static final int MAX_SQL_LENGTH = 4096;
+    /**
+     * 一条语句最多记录的分片sql与算子数
+     */
+    private static final int MAX_TRACES = 256;
+    private static final ThreadLocal<Recorder> CURRENT = new ThreadLocal<>();
+
+    private volatile long thresholdNanos = 0;
+    private volatile SlowQueryLogFile file;
+    private final ArrayDeque<Entry> recent = new ArrayDeque<>();
+
+    /**
+     * @param thresholdMillis 记录的最小执行毫秒数,小于等于0不记录
+     * @param directory       日志文件目录
+     * @param maxFileBytes    单个文件的字节数,超过后滚动
+     * @param maxFiles        保留的文件数
+     */
+    public synchronized void configure(long thresholdMillis, Path directory, long maxFileBytes, int maxFiles) {
+        SlowQueryLogFile old = this.file;
+        if (thresholdMillis <= 0) {
+            this.thresholdNanos = 0;
+            this.file = null;
+        } else {
+            this.file = new SlowQueryLogFile(directory, maxFileBytes, maxFiles);
+            this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        }
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * 开始记录当前线程上的一条语句,不记录时返回null
+     *
+     * @param statement 超过阈值时才转换为sql文本
+     */
+    public Recorder begin(MycatDataContext dataContext, SQLStatement statement) {
+        if (thresholdNanos <= 0) {
+            return null;
+        }
+        MycatUser user = dataContext.getUser();
+        Recorder recorder = new Recorder(user == null ? "" : user.getUserName(), dataContext.getDefaultSchema(), statement);
+        CURRENT.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * 当前线程上正在记录的语句,执行器在创建时获取
+     */
+    public static Recorder current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 超过阈值时在当前线程生成执行计划文本,文件在单独的线程写入
+     *
+     * @param rel   执行计划,没有生成执行计划时为null
+     * @param error 执行失败的异常
+     */
+    public void end(Recorder recorder, MycatRel rel, Throwable error) {
+        if (recorder == null) {
+            return;
+        }
+        CURRENT.remove();
+        long elapsedNanos = System.nanoTime() - recorder.startNanos;
+        long threshold = thresholdNanos;
+        SlowQueryLogFile file = this.file;
+        if (threshold <= 0 || elapsedNanos < threshold || file == null) {
+            return;
+        }
+        Entry entry = new Entry(recorder, elapsedNanos, rel, error);
+        synchronized (recent) {
+            if (recent.size() >= MAX_RECENT) {
+                recent.removeFirst();
+            }
+            recent.addLast(entry);
+        }
+        file.append(JsonUtil.toJson(entry));
+    }
+
+    /**
+     * 最近的慢查询,按时间从新到旧
+     */
+    public List<Entry> getRecent() {
+        synchronized (recent) {
+            ArrayList<Entry> list = new ArrayList<>(recent);
+            Collections.reverse(list);
+            return list;
+        }
+    }
+
+    public void reset() {
+        synchronized (recent) {
+            recent.clear();
+        }
+    }
+
+    /**
+     * 队列满没有写入文件的记录数
+     */
+    public long getDropped() {
+        SlowQueryLogFile file = this.file;
+        return file == null ? 0 : file.getDropped();
+    }
+
+    private static String truncate(String text) {
+        if (text == null) {
+            return null;
+        }
+        return text.length() > MAX_SQL_LENGTH ? text.substring(0, MAX_SQL_LENGTH) : text;
+    }
+
+    /**
+     * 一条语句的执行过程,分片的耗时与行数在worker或者reactor线程上更新
+     */
+    public static class Recorder {
+        private final long startTime = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final String user;
+        private final String schema;
+        private final SQLStatement statement;
+        private final List<ViewTrace> views = new ArrayList<>();
+        private final List<OperatorTrace> operators = new ArrayList<>();
+        private long parseNanos;
+        private long planNanos;
+
+        Recorder(String user, String schema, SQLStatement statement) {
+            this.user = user;
+            this.schema = schema;
+            this.statement = statement;
+        }
+
+        public void setParseNanos(long parseNanos) {
+            this.parseNanos = parseNanos;
+        }
+
+        public void setPlanNanos(long planNanos) {
+            this.planNanos = planNanos;
+        }
+
+        /**
+         * @param sql    带参数的sql在超过阈值时才替换参数
+         * @return 超过记录数上限时返回一个不保存的对象
+         */
+        public ViewTrace addView(String target, String sql, List<Object> params) {
+            ViewTrace trace = new ViewTrace(target, sql, params);
+            synchronized (views) {
+                if (views.size() < MAX_TRACES) {
+                    views.add(trace);
+                }
+            }
+            return trace;
+        }
+
+        /**
+         * @return 超过记录数上限时返回一个不保存的对象
+         */
+        public OperatorTrace addOperator(String name) {
+            OperatorTrace trace = new OperatorTrace(name);
+            synchronized (operators) {
+                if (operators.size() < MAX_TRACES) {
+                    operators.add(trace);
+                }
+            }
+            return trace;
+        }
+    }
+
+    /**
+     * 发送到一个分片的sql
+     */
+    @Getter
+    public static class ViewTrace {
+        private final String target;
+        private final String sql;
+        private final List<Object> params;
+        /**
+         * 发送sql到返回结果集(或者执行完成)的时间
+         */
+        private volatile long elapsedNanos;
+        /**
+         * 返回的行数或者影响的行数
+         */
+        private volatile long rows;
+
+        ViewTrace(String target, String sql, List<Object> params) {
+            this.target = target;
+            this.sql = sql;
+            this.params = params;
+        }
+
+        public void setElapsedNanos(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public void setRows(long rows) {
+            this.rows = rows;
+        }
+
+        /**
+         * 只由读取结果集的线程调用
+         */
+        public void incrementRows() {
+            rows++;
+        }
+
+        public long getElapsedMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        }
+
+        String toSql() {
+            if (params == null || params.isEmpty() || sql.indexOf('?') < 0) {
+                return truncate(sql);
+            }
+            try {
+                return truncate(MycatPreparedStatementUtil.apply(sql, params));
+            } catch (Throwable e) {
+                return truncate(sql + " " + params);
+            }
+        }
+    }
+
+    /**
+     * mycat上需要在内存中保存行的算子,行是迭代过程中更新的
+     */
+    @Getter
+    public static class OperatorTrace {
+        private final String name;
+        /**
+         * 保存在内存中的行数或者分组数
+         */
+        private volatile long rows;
+        /**
+         * 估算的内存字节数,无法估算时为-1
+         */
+        private volatile long bytes = -1;
+        /**
+         * 写到磁盘的行数
+         */
+        private volatile long spilledRows;
+
+        OperatorTrace(String name) {
+            this.name = name;
+        }
+
+        public void setRows(long rows) {
+            this.rows = rows;
+        }
+
+        /**
+         * 只由迭代该算子的线程调用
+         */
+        public void incrementRows() {
+            rows++;
+        }
+
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public void setSpilledRows(long spilledRows) {
+            this.spilledRows = spilledRows;
+        }
+    }
+
+    @Getter
+    public static class Entry {
+        private final long startTime;
+        private final String user;
+        private final String schema;
+        private final String sql;
+        private final long elapsedMicros;
+        private final long parseMicros;
+        private final long planMicros;
+        private final String logicalPlan;
+        private final String physicalPlan;
+        private final List<Map<String, Object>> views;
+        private final List<Map<String, Object>> operators;
+        private final String error;
+
+        Entry(Recorder recorder, long elapsedNanos, MycatRel rel, Throwable error) {
+            this.startTime = recorder.startTime;
+            this.user = recorder.user;
+            this.schema = recorder.schema;
+            this.sql = truncate(String.valueOf(recorder.statement));
+            this.elapsedMicros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+            this.parseMicros = TimeUnit.NANOSECONDS.toMicros(recorder.parseNanos);
+            this.planMicros = TimeUnit.NANOSECONDS.toMicros(recorder.planNanos);
+            this.logicalPlan = rel == null ? null : logicalPlan(rel);
+            this.physicalPlan = rel == null ? null : physicalPlan(rel);
+            List<Map<String, Object>> views = new ArrayList<>();
+            synchronized (recorder.views) {
+                for (ViewTrace trace : recorder.views) {
+                    Map<String, Object> view = new LinkedHashMap<>();
+                    view.put("target", trace.target);
+                    view.put("sql", trace.toSql());
+                    view.put("elapsedMicros", trace.getElapsedMicros());
+                    view.put("rows", trace.rows);
+                    views.add(view);
+                }
+            }
+            this.views = views;
+            List<Map<String, Object>> operators = new ArrayList<>();
+            synchronized (recorder.operators) {
+                for (OperatorTrace trace : recorder.operators) {
+                    Map<String, Object> operator = new LinkedHashMap<>();
+                    operator.put("name", trace.name);
+                    operator.put("rows", trace.rows);
+                    operator.put("bytes", trace.bytes);
+                    operator.put("spilledRows", trace.spilledRows);
+                    operators.add(operator);
+                }
+            }
+            this.operators = operators;
+            this.error = error == null ? null : String.valueOf(error.getMessage());
+        }
+
+        private static String logicalPlan(MycatRel rel) {
+            try {
+                return MycatCalciteSupport.INSTANCE.convertToMycatRelNodeText(rel);
+            } catch (Throwable e) {
+                LOGGER.warn("slow query log explain fail", e);
+                return null;
+            }
+        }
+
+        /**
+         * 部分算子没有实现ExplainWriter时返回null
+         */
+        private static String physicalPlan(MycatRel rel) {
+            try {
+                return rel.explain(new ExplainWriter()).getText().toString();
+            } catch (Throwable e) {
+                LOGGER.debug("slow query log explain fail", e);
+                return null;
+            }
+        }
+    }
+}
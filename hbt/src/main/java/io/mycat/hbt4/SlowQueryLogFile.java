@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 慢查询日志文件,每行一条json,在单独的线程写入
+ * 当前文件为slow.log,超过maxFileBytes后依次改名为slow.log.1,slow.log.2...,最多保留maxFiles个文件
+ * 队列满时丢弃记录,不阻塞执行语句的线程
+ */
+class SlowQueryLogFile {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLogFile.class);
+    static final String FILE_NAME = "slow.log";
+    private static final int QUEUE_SIZE = 1024;
+    private static final byte[] LINE_SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed = false;
+    private OutputStream out;
+    private long size;
+
+    SlowQueryLogFile(Path directory, long maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        Thread thread = new Thread(this::run, "slow-query-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void append(String line) {
+        if (closed || !queue.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 写完已经在队列中的记录后结束线程,不中断写入线程,中断会关闭正在写的文件通道
+     */
+    void close() {
+        closed = true;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                String line;
+                try {
+                    line = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (line != null) {
+                    write(line);
+                }
+            }
+            String line;
+            while ((line = queue.poll()) != null) {
+                write(line);
+            }
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void write(String line) {
+        try {
+            if (out == null) {
+                open();
+            }
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            if (size > 0 && size + bytes.length + 1 > maxFileBytes) {
+                closeFile();
+                rotate();
+                open();
+            }
+            out.write(bytes);
+            out.write(LINE_SEPARATOR);
+            size += bytes.length + 1;
+            if (queue.isEmpty()) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.error("write slow query log fail directory:{}", directory, e);
+            dropped.increment();
+            closeFile();
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(FILE_NAME);
+        this.size = Files.exists(path) ? Files.size(path) : 0;
+        this.out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    private void rotate() throws IOException {
+        Path current = directory.resolve(FILE_NAME);
+        if (maxFiles == 1) {
+            Files.deleteIfExists(current);
+            return;
+        }
+        Files.deleteIfExists(directory.resolve(FILE_NAME + "." + (maxFiles - 1)));
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            Path path = directory.resolve(FILE_NAME + "." + i);
+            if (Files.exists(path)) {
+                Files.move(path, directory.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(current, directory.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.error("close slow query log fail", e);
+            }
+            out = null;
+            size = 0;
+        }
+    }
+}
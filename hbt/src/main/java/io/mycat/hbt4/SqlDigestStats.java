@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4;
+
+import io.mycat.MycatDataContext;
+import io.mycat.MycatUser;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按sql模板(计划缓存使用的参数化sql)与用户统计各阶段耗时的直方图,以及每个分片的后端耗时直方图
+ * 只保留maxDigests个模板,按space-saving算法淘汰:新模板替换总耗时最小的模板并继承它的总耗时,
+ * 后出现的高耗时模板不会因为刚进入时总耗时小而被立即淘汰,继承的部分是总耗时的误差上限
+ */
+public enum SqlDigestStats {
+    INSTANCE;
+
+    public static final long[] LATENCY_MICROS_BUCKETS = {100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000, 10000000};
+    /**
+     * 模板过长时截断,避免标签过大
+     */
+    private static final int MAX_DIGEST_LENGTH = 1024;
+    /**
+     * 一个模板最多统计的分片数
+     */
+    private static final int MAX_TARGETS = 256;
+    private static final ThreadLocal<Recorder> CURRENT = new ThreadLocal<>();
+
+    public enum Phase {
+        /**
+         * 参数化并重新解析语句
+         */
+        PARSE,
+        /**
+         * 生成执行计划,命中计划缓存时很短
+         */
+        PLAN,
+        /**
+         * 最慢的分片从发送语句到返回结果集的时间
+         */
+        BACKEND,
+        /**
+         * 执行计划开始执行到结果写完,包括BACKEND
+         */
+        EXECUTE
+    }
+
+    private volatile int maxDigests = 0;
+    private final ConcurrentHashMap<DigestKey, DigestStat> stats = new ConcurrentHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxDigests 保留的模板数,小于等于0不统计
+     */
+    public void configure(int maxDigests) {
+        this.maxDigests = maxDigests;
+        if (maxDigests <= 0) {
+            stats.clear();
+        }
+    }
+
+    /**
+     * 开始统计当前线程上的一条语句,不统计时返回null
+     */
+    public Recorder begin(MycatDataContext dataContext) {
+        if (maxDigests <= 0) {
+            return null;
+        }
+        MycatUser user = dataContext.getUser();
+        Recorder recorder = new Recorder(user == null ? "" : user.getUserName());
+        CURRENT.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * 当前线程上正在统计的语句,执行器在创建时获取,用于记录分片耗时
+     */
+    public static Recorder current() {
+        return CURRENT.get();
+    }
+
+    public void end(Recorder recorder) {
+        if (recorder == null) {
+            return;
+        }
+        CURRENT.remove();
+        if (recorder.digest == null || maxDigests <= 0) {
+            return;
+        }
+        DigestKey key = new DigestKey(recorder.digest, recorder.user);
+        DigestStat stat = stats.get(key);
+        if (stat == null) {
+            stat = add(key);
+        }
+        stat.record(recorder);
+    }
+
+    /**
+     * 新模板只在第一次出现时加锁,已有模板的统计不加锁
+     */
+    private synchronized DigestStat add(DigestKey key) {
+        DigestStat stat = stats.get(key);
+        if (stat != null) {
+            return stat;
+        }
+        long inheritedMicros = 0;
+        while (!stats.isEmpty() && stats.size() >= maxDigests) {
+            DigestStat min = null;
+            long minTotalMicros = 0;
+            for (DigestStat candidate : stats.values()) {
+                long totalMicros = candidate.getTotalMicros();
+                if (min == null || totalMicros < minTotalMicros) {
+                    min = candidate;
+                    minTotalMicros = totalMicros;
+                }
+            }
+            stats.remove(min.key);
+            evictions.increment();
+            inheritedMicros = Math.max(inheritedMicros, minTotalMicros);
+        }
+        stat = new DigestStat(key, inheritedMicros);
+        stats.put(key, stat);
+        return stat;
+    }
+
+    public Collection<DigestStat> getStats() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 一条语句的耗时,分片耗时在worker线程上记录
+     */
+    public static class Recorder {
+        private final String user;
+        private final long[] phaseNanos = new long[Phase.values().length];
+        private final Map<String, Long> targetNanos = new ConcurrentHashMap<>();
+        private String digest;
+
+        Recorder(String user) {
+            this.user = user;
+        }
+
+        public void setDigest(String digest) {
+            this.digest = digest.length() > MAX_DIGEST_LENGTH ? digest.substring(0, MAX_DIGEST_LENGTH) : digest;
+        }
+
+        public void addPhase(Phase phase, long nanos) {
+            phaseNanos[phase.ordinal()] += nanos;
+        }
+
+        /**
+         * 同一个分片有多条语句时取最慢的一条
+         */
+        public void addTarget(String target, long nanos) {
+            targetNanos.merge(target, nanos, Math::max);
+        }
+    }
+
+    public static class DigestKey {
+        final String digest;
+        final String user;
+
+        DigestKey(String digest, String user) {
+            this.digest = digest;
+            this.user = user;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DigestKey digestKey = (DigestKey) o;
+            return digest.equals(digestKey.digest) && user.equals(digestKey.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(digest, user);
+        }
+    }
+
+    public static class DigestStat {
+        private final DigestKey key;
+        private final Histogram[] phases = new Histogram[Phase.values().length];
+        private final ConcurrentHashMap<String, Histogram> targets = new ConcurrentHashMap<>();
+        /**
+         * 替换其他模板时继承的总耗时
+         */
+        private final long inheritedMicros;
+
+        DigestStat(DigestKey key, long inheritedMicros) {
+            this.key = key;
+            this.inheritedMicros = inheritedMicros;
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new Histogram();
+            }
+        }
+
+        void record(Recorder recorder) {
+            long backendNanos = 0;
+            for (Map.Entry<String, Long> entry : recorder.targetNanos.entrySet()) {
+                backendNanos = Math.max(backendNanos, entry.getValue());
+                Histogram histogram = targets.get(entry.getKey());
+                if (histogram == null) {
+                    if (targets.size() >= MAX_TARGETS) {
+                        continue;
+                    }
+                    histogram = targets.computeIfAbsent(entry.getKey(), k -> new Histogram());
+                }
+                histogram.observe(entry.getValue());
+            }
+            recorder.phaseNanos[Phase.BACKEND.ordinal()] = backendNanos;
+            for (Phase phase : Phase.values()) {
+                if (phase == Phase.BACKEND && recorder.targetNanos.isEmpty()) {
+                    continue;
+                }
+                phases[phase.ordinal()].observe(recorder.phaseNanos[phase.ordinal()]);
+            }
+        }
+
+        public String getDigest() {
+            return key.digest;
+        }
+
+        public String getUser() {
+            return key.user;
+        }
+
+        public Histogram getPhase(Phase phase) {
+            return phases[phase.ordinal()];
+        }
+
+        public Map<String, Histogram> getTargets() {
+            return Collections.unmodifiableMap(targets);
+        }
+
+        public long getInheritedMicros() {
+            return inheritedMicros;
+        }
+
+        /**
+         * 淘汰时比较的总耗时,包括继承的部分
+         */
+        public long getTotalMicros() {
+            return inheritedMicros
+                    + phases[Phase.PARSE.ordinal()].getMicrosSum()
+                    + phases[Phase.PLAN.ordinal()].getMicrosSum()
+                    + phases[Phase.EXECUTE.ordinal()].getMicrosSum();
+        }
+    }
+
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_MICROS_BUCKETS.length + 1);
+        private final LongAdder microsSum = new LongAdder();
+
+        void observe(long nanos) {
+            long micros = nanos / 1000;
+            int index = LATENCY_MICROS_BUCKETS.length;
+            for (int i = 0; i < LATENCY_MICROS_BUCKETS.length; i++) {
+                if (micros <= LATENCY_MICROS_BUCKETS[i]) {
+                    index = i;
+                    break;
+                }
+            }
+            buckets.incrementAndGet(index);
+            microsSum.add(micros);
+        }
+
+        public long[] getBucketCounts() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        public long getMicrosSum() {
+            return microsSum.sum();
+        }
+    }
+}
@@ -14,18 +14,23 @@
  */
 package io.mycat.hbt4.executor;
 
+import com.google.common.collect.ImmutableMultimap;
 import io.mycat.hbt4.Executor;
 import io.mycat.mpp.Row;
-import org.apache.calcite.linq4j.Enumerable;
-import org.apache.calcite.linq4j.EnumerableDefaults;
 import org.apache.calcite.linq4j.JoinType;
-import org.apache.calcite.linq4j.Linq4j;
-import org.apache.calcite.linq4j.function.Function1;
 import org.apache.calcite.linq4j.function.Predicate2;
+import org.apache.calcite.sql.util.SqlString;
 
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
+/**
+ * 批量嵌套循环连接
+ * 1.每批左表行的个数根据查找的耗时调整,不超过计划中关联变量的个数(即IN列表的上限)
+ * 2.每批只访问连接键对应的分片
+ * 3.同时有多个批次在查找,按提交顺序消费,结果顺序与逐批执行一致
+ * 4.每个批次的每个分片占用一个临时连接,提前提交的批次占用的连接总数不超过MAX_PENDING_CONNECTIONS,
+ * 避免分片多时一个join占用连接池中大量的连接
+ */
 public class MycatBatchNestedLoopJoinExecutor implements Executor {
     final JoinType joinType;
     final Executor leftInput;
@@ -33,12 +38,21 @@ public class MycatBatchNestedLoopJoinExecutor implements Executor {
     final Executor originRightInput;
     final int leftExecuterFieldCount;
     final int rightExecuterFieldCount;
-    final static int batchSize = 1000;
+    final static int MIN_BATCH_SIZE = 16;
+    final static int MAX_PENDING_BATCHES = 4;
+    final static int MAX_PENDING_CONNECTIONS = 8;
+    final static long TARGET_LOOKUP_MILLIS = 100;
     final Predicate2<Row, Row> lookup;
     final Predicate2<Row, Row> nonEqualCondition;
+    private final int maxBatchSize;
+    private int batchSize;
+    private final ArrayDeque<MycatLookupExecutor.LookupBatch> pendingBatches = new ArrayDeque<>();
+    private int pendingConnections = 0;
+    private List<Row> nextLeftRows;
+    private ImmutableMultimap<String, SqlString> nextSqls;
     private Iterator<Row> iterator;
-    private Enumerable<Row> leftEnumerable;
-    Function1<List<Row>, Enumerable<Row>> inner;
+    private boolean leftOpened = false;
+    private boolean leftExhausted = false;
 
     protected MycatBatchNestedLoopJoinExecutor(JoinType joinType,
                                             Executor leftInput,
@@ -55,6 +69,8 @@ public class MycatBatchNestedLoopJoinExecutor implements Executor {
         this.rightExecuterFieldCount = rightExecuterFieldCount;
         this.lookup = lookup;
         this.nonEqualCondition = nonEqualCondition;
+        this.maxBatchSize = rightInput.getMaxBatchSize();
+        this.batchSize = initialBatchSize(maxBatchSize);
     }
 
     public static MycatBatchNestedLoopJoinExecutor create(
@@ -76,42 +92,141 @@ public class MycatBatchNestedLoopJoinExecutor implements Executor {
         );
     }
 
+    static int initialBatchSize(int maxBatchSize) {
+        return Math.min(maxBatchSize, Math.max(MIN_BATCH_SIZE, maxBatchSize / 8));
+    }
+
+    /**
+     * 查找耗时远小于目标时扩大批次,超过目标时缩小批次
+     */
+    static int adaptBatchSize(int batchSize, long elapsedMillis, int maxBatchSize) {
+        if (elapsedMillis * 2 < TARGET_LOOKUP_MILLIS) {
+            return Math.min(maxBatchSize, batchSize * 2);
+        }
+        if (elapsedMillis > TARGET_LOOKUP_MILLIS) {
+            return Math.max(Math.min(MIN_BATCH_SIZE, maxBatchSize), batchSize / 2);
+        }
+        return batchSize;
+    }
+
     @Override
     public void open() {
-        if (this.iterator == null) {
+        if (!leftOpened) {
             leftInput.open();
-            this.leftEnumerable = Linq4j.asEnumerable(leftInput);
-            inner = inlist -> {
-                rightInput.setIn(inlist);
-                rightInput.open();
-                return  Linq4j.asEnumerable(rightInput);
-            };
+            leftOpened = true;
         }
-        this.iterator = EnumerableDefaults.correlateBatchJoin(joinType,
-                leftEnumerable,
-                inner,
-                (v0, v1) -> {
-                    if (v0 == null) {
-                        v0 = Row.create(leftExecuterFieldCount);
-                    }
-                    if (v1 == null) {
-                        v1 = Row.create(rightExecuterFieldCount);
-                    }
-                    return v0.compose(v1);
-                },
-                nonEqualCondition, batchSize).iterator();
+        discardPendingBatches();
+        this.leftExhausted = false;
+        this.iterator = Collections.emptyIterator();
     }
 
     @Override
     public Row next() {
-        if (this.iterator.hasNext()) {
-            return this.iterator.next();
+        while (true) {
+            if (this.iterator.hasNext()) {
+                return this.iterator.next();
+            }
+            fillPendingBatches();
+            MycatLookupExecutor.LookupBatch batch = pollPendingBatch();
+            if (batch == null) {
+                return null;
+            }
+            List<Row> rightRows = batch.await();
+            this.batchSize = adaptBatchSize(this.batchSize, batch.elapsedMillis(), maxBatchSize);
+            this.iterator = join(batch.args, rightRows).iterator();
+        }
+    }
+
+    private void fillPendingBatches() {
+        while (pendingBatches.size() < MAX_PENDING_BATCHES) {
+            if (nextLeftRows == null) {
+                if (leftExhausted) {
+                    return;
+                }
+                List<Row> leftRows = new ArrayList<>(batchSize);
+                Row row;
+                while (leftRows.size() < batchSize && (row = leftInput.next()) != null) {
+                    leftRows.add(row);
+                }
+                if (leftRows.size() < batchSize) {
+                    leftExhausted = true;
+                }
+                if (leftRows.isEmpty()) {
+                    return;
+                }
+                nextLeftRows = leftRows;
+                nextSqls = rightInput.expandToSql(leftRows);
+            }
+            //第一个批次总是提交,之后的批次在连接数超过上限时等前面的批次消费后再提交
+            int connections = nextSqls.size();
+            if (!pendingBatches.isEmpty() && pendingConnections + connections > MAX_PENDING_CONNECTIONS) {
+                return;
+            }
+            pendingBatches.add(rightInput.submit(nextLeftRows, nextSqls));
+            pendingConnections += connections;
+            nextLeftRows = null;
+            nextSqls = null;
+        }
+    }
+
+    private MycatLookupExecutor.LookupBatch pollPendingBatch() {
+        MycatLookupExecutor.LookupBatch batch = pendingBatches.poll();
+        if (batch != null) {
+            pendingConnections -= batch.connections.size();
+        }
+        return batch;
+    }
+
+    private List<Row> join(List<Row> leftRows, List<Row> rightRows) {
+        List<Row> res = new ArrayList<>();
+        if (rightRows.isEmpty() && (joinType == JoinType.INNER || joinType == JoinType.SEMI)) {
+            return res;
+        }
+        for (Row leftRow : leftRows) {
+            boolean matched = false;
+            for (Row rightRow : rightRows) {
+                if (nonEqualCondition.apply(leftRow, rightRow)) {
+                    matched = true;
+                    if (joinType == JoinType.SEMI || joinType == JoinType.ANTI) {
+                        break;
+                    }
+                    res.add(leftRow.compose(rightRow));
+                }
+            }
+            switch (joinType) {
+                case LEFT:
+                    if (!matched) {
+                        res.add(leftRow.compose(Row.create(rightExecuterFieldCount)));
+                    }
+                    break;
+                case SEMI:
+                    if (matched) {
+                        res.add(leftRow);
+                    }
+                    break;
+                case ANTI:
+                    if (!matched) {
+                        res.add(leftRow);
+                    }
+                    break;
+                default:
+            }
+        }
+        return res;
+    }
+
+    private void discardPendingBatches() {
+        MycatLookupExecutor.LookupBatch batch;
+        while ((batch = pollPendingBatch()) != null) {
+            batch.discard();
         }
-        return null;
+        nextLeftRows = null;
+        nextSqls = null;
     }
 
     @Override
     public void close() {
+        discardPendingBatches();
         if (this.rightInput != null) {
             this.rightInput.close();
             this.rightInput = null;
@@ -128,4 +243,4 @@ public class MycatBatchNestedLoopJoinExecutor implements Executor {
     public boolean isRewindSupported() {
         return this.leftInput.isRewindSupported();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4.executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import io.mycat.DataNode;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatException;
+import io.mycat.MycatWorkerProcessor;
+import io.mycat.NameableExecutor;
+import io.mycat.api.collector.RowBaseIterator;
+import io.mycat.calcite.MycatCalciteSupport;
+import io.mycat.calcite.MycatSqlDialect;
+import io.mycat.calcite.resultset.CalciteRowMetaData;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.hbt3.View;
+import io.mycat.hbt4.DatasourceFactory;
+import io.mycat.hbt4.Executor;
+import io.mycat.mpp.Row;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.calcite.sql.util.SqlString;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static io.mycat.hbt4.executor.MycatPreparedStatementUtil.executeQuery;
+
+/**
+ * 多分片深分页 order by k limit offset,fetch,k是非空的精确数值字段
+ * 1.每个分片 order by k limit offset/分片数,1 得到边界值,取最小的作为kmin
+ * 2.每个分片 count(*) where k < kmin,合计为B,即全局排序中kmin之前的行数,B不大于offset
+ * 3.每个分片 where k >= kmin order by k limit offset-B+fetch,归并后跳过offset-B行取fetch行
+ * 数据分布均匀时每个分片只需要返回约fetch行,而不是offset+fetch行
+ * 倒序时比较方向相反
+ * chen junwen
+ */
+public class MycatDeepPageExecutor implements Executor {
+    private final List<DataNode> dataNodes;
+    private final List<RelNode> inputs;
+    private final RelFieldCollation fieldCollation;
+    private final Comparator<Row> comparator;
+    private final long offset;
+    private final long fetch;
+    private final List<Object> params;
+    private final DatasourceFactory factory;
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<RowBaseIterator> openIterators = new ArrayList<>();
+    private Iterator<Row> iterator;
+
+    /**
+     * @param view 多分片视图,relNode是下推到分片的order by k limit 0,offset+fetch
+     */
+    public static boolean isAvailable(View view, long offset) {
+        //offset达到deepPageOffset时使用,小于等于0不使用
+        long threshold = MetaClusterCurrent.serverConfig().getDeepPageOffset();
+        if (threshold <= 0 || offset < threshold || !(view.getRelNode() instanceof LogicalSort)) {
+            return false;
+        }
+        LogicalSort sort = (LogicalSort) view.getRelNode();
+        List<RelFieldCollation> fieldCollations = sort.getCollation().getFieldCollations();
+        if (fieldCollations.size() != 1) {
+            return false;
+        }
+        //null的排序位置与比较结果不一致,非精确数值在mysql与java中的比较结果可能不同
+        RelDataType type = sort.getRowType().getFieldList().get(fieldCollations.get(0).getFieldIndex()).getType();
+        return !type.isNullable() && SqlTypeUtil.isExactNumeric(type);
+    }
+
+    public static MycatDeepPageExecutor create(View view, Comparator<Row> comparator,
+                                               long offset, long fetch,
+                                               List<Object> params, DatasourceFactory factory) {
+        LogicalSort sort = (LogicalSort) view.getRelNode();
+        View input = View.of(sort.getInput(), view.getDistribution());
+        List<DataNode> dataNodes = new ArrayList<>();
+        List<RelNode> inputs = new ArrayList<>();
+        for (DataNode dataNode : view.getDistribution().getDataNodes(params)) {
+            dataNodes.add(dataNode);
+            inputs.add(input.applyDataNode(dataNode));
+        }
+        return new MycatDeepPageExecutor(dataNodes, inputs, sort.getCollation().getFieldCollations().get(0),
+                comparator, offset, fetch, params, factory);
+    }
+
+    protected MycatDeepPageExecutor(List<DataNode> dataNodes, List<RelNode> inputs,
+                                    RelFieldCollation fieldCollation, Comparator<Row> comparator,
+                                    long offset, long fetch,
+                                    List<Object> params, DatasourceFactory factory) {
+        this.dataNodes = dataNodes;
+        this.inputs = inputs;
+        this.fieldCollation = fieldCollation;
+        this.comparator = comparator;
+        this.offset = offset;
+        this.fetch = fetch;
+        this.params = params;
+        this.factory = factory;
+        ImmutableList.Builder<String> targets = ImmutableList.builder();
+        for (DataNode dataNode : dataNodes) {
+            targets.add(dataNode.getTargetName());
+        }
+        factory.regist(targets.build());
+    }
+
+    @Override
+    public void open() {
+        close();
+        if (dataNodes.isEmpty()) {
+            this.iterator = Collections.emptyIterator();
+            return;
+        }
+        boolean desc = fieldCollation.getDirection().isDescending();
+
+        //1.边界值
+        BigDecimal min = null;
+        for (BigDecimal value : probe(offset / dataNodes.size())) {
+            if (value != null && (min == null || (desc ? value.compareTo(min) > 0 : value.compareTo(min) < 0))) {
+                min = value;
+            }
+        }
+        if (min == null) {
+            //每个分片都不足offset/分片数行,总行数不超过offset
+            this.iterator = Collections.emptyIterator();
+            return;
+        }
+
+        //2.边界值之前的行数
+        long beforeCount = 0;
+        for (Long count : countBefore(min)) {
+            beforeCount += count;
+        }
+
+        //3.从边界值开始的窗口
+        long skip = offset - beforeCount;
+        Iterator<Row> merged = Iterators.mergeSorted(window(min, skip + fetch), comparator);
+        Iterators.advance(merged, (int) Math.min(skip, Integer.MAX_VALUE));
+        this.iterator = Iterators.limit(merged, (int) Math.min(fetch, Integer.MAX_VALUE));
+    }
+
+    /**
+     * 每个分片 order by k limit shardOffset,1
+     *
+     * @return 每个分片的边界值,行数不足时为null
+     */
+    protected List<BigDecimal> probe(long shardOffset) {
+        int index = fieldCollation.getFieldIndex();
+        RexBuilder rexBuilder = MycatCalciteSupport.INSTANCE.RexBuilder;
+        List<RelNode> probes = new ArrayList<>();
+        for (RelNode input : inputs) {
+            probes.add(LogicalSort.create(input, RelCollations.of(fieldCollation),
+                    rexBuilder.makeExactLiteral(BigDecimal.valueOf(shardOffset)),
+                    rexBuilder.makeExactLiteral(BigDecimal.ONE)));
+        }
+        List<BigDecimal> res = new ArrayList<>();
+        for (List<Object[]> rows : queryAll(probes)) {
+            res.add(rows.isEmpty() ? null : new BigDecimal(rows.get(0)[index].toString()));
+        }
+        return res;
+    }
+
+    /**
+     * 每个分片 count(*) where k在边界值之前
+     */
+    protected List<Long> countBefore(BigDecimal boundary) {
+        int index = fieldCollation.getFieldIndex();
+        SqlOperator before = fieldCollation.getDirection().isDescending() ? SqlStdOperatorTable.GREATER_THAN : SqlStdOperatorTable.LESS_THAN;
+        List<RelNode> counts = new ArrayList<>();
+        for (RelNode input : inputs) {
+            RelBuilder relBuilder = MycatCalciteSupport.relBuilderFactory.create(input.getCluster(), null);
+            relBuilder.push(input);
+            relBuilder.filter(relBuilder.call(before, relBuilder.field(index), toLiteral(boundary)));
+            relBuilder.aggregate(relBuilder.groupKey(), relBuilder.countStar("c"));
+            counts.add(relBuilder.build());
+        }
+        List<Long> res = new ArrayList<>();
+        for (List<Object[]> rows : queryAll(counts)) {
+            res.add(((Number) rows.get(0)[0]).longValue());
+        }
+        return res;
+    }
+
+    /**
+     * 每个分片 where k不在边界值之前 order by k limit limit,结果集流式读取,close时关闭
+     * 有分片失败时取消其他分片的查询并关闭已经得到的结果集
+     */
+    protected List<Iterator<Row>> window(BigDecimal boundary, long limit) {
+        int index = fieldCollation.getFieldIndex();
+        RexBuilder rexBuilder = MycatCalciteSupport.INSTANCE.RexBuilder;
+        SqlOperator notBefore = fieldCollation.getDirection().isDescending() ? SqlStdOperatorTable.LESS_THAN_OR_EQUAL : SqlStdOperatorTable.GREATER_THAN_OR_EQUAL;
+        NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+        CalciteRowMetaData metaData = new CalciteRowMetaData(inputs.get(0).getRowType().getFieldList());
+        List<Connection> connections = getConnections();
+        List<Future<RowBaseIterator>> futures = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            RelNode input = inputs.get(i);
+            RexNode condition = rexBuilder.makeCall(notBefore, rexBuilder.makeInputRef(input, index), toLiteral(boundary));
+            RelNode window = LogicalSort.create(LogicalFilter.create(input, condition), RelCollations.of(fieldCollation),
+                    rexBuilder.makeExactLiteral(BigDecimal.ZERO),
+                    rexBuilder.makeExactLiteral(BigDecimal.valueOf(limit)));
+            Connection connection = connections.get(i);
+            SqlString sql = toSql(window);
+            futures.add(mycatWorker.submit(() -> executeQuery(connection, metaData, sql, params)));
+        }
+        List<Iterator<Row>> iterators = new ArrayList<>();
+        MycatException error = null;
+        for (Future<RowBaseIterator> future : futures) {
+            try {
+                RowBaseIterator rowBaseIterator = get(future);
+                openIterators.add(rowBaseIterator);
+                iterators.add(toIterator(rowBaseIterator, metaData.getColumnCount()));
+            } catch (MycatException e) {
+                if (error == null) {
+                    error = e;
+                    //其他分片可能还在执行或者正在流式返回,取消之后关闭结果集不需要读完剩余的行
+                    for (Connection connection : connections) {
+                        DefaultConnection.cancel(connection);
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            close();
+            throw error;
+        }
+        return iterators;
+    }
+
+    private RexNode toLiteral(BigDecimal boundary) {
+        RelDataType type = inputs.get(0).getRowType().getFieldList().get(fieldCollation.getFieldIndex()).getType();
+        return MycatCalciteSupport.INSTANCE.RexBuilder.makeExactLiteral(boundary, type);
+    }
+
+    private List<Connection> getConnections() {
+        if (connections.isEmpty()) {
+            for (DataNode dataNode : dataNodes) {
+                connections.add(factory.getConnection(dataNode.getTargetName()));
+            }
+        }
+        return connections;
+    }
+
+    private SqlString toSql(RelNode relNode) {
+        return MycatCalciteSupport.INSTANCE.convertToSql(relNode, MycatSqlDialect.DEFAULT, false, params);
+    }
+
+    /**
+     * 每个分片在自己的连接上执行,结果读入内存
+     */
+    private List<List<Object[]>> queryAll(List<RelNode> relNodes) {
+        NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+        List<Connection> connections = getConnections();
+        List<Future<List<Object[]>>> futures = new ArrayList<>();
+        for (int i = 0; i < relNodes.size(); i++) {
+            Connection connection = connections.get(i);
+            RelNode relNode = relNodes.get(i);
+            CalciteRowMetaData metaData = new CalciteRowMetaData(relNode.getRowType().getFieldList());
+            SqlString sql = toSql(relNode);
+            futures.add(mycatWorker.submit(() -> {
+                try (RowBaseIterator rowBaseIterator = executeQuery(connection, metaData, sql, params)) {
+                    List<Object[]> rows = new ArrayList<>();
+                    Iterator<Row> iterator = toIterator(rowBaseIterator, metaData.getColumnCount());
+                    while (iterator.hasNext()) {
+                        rows.add(iterator.next().values);
+                    }
+                    return rows;
+                }
+            }));
+        }
+        List<List<Object[]>> res = new ArrayList<>();
+        for (Future<List<Object[]>> future : futures) {
+            res.add(get(future));
+        }
+        return res;
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MycatException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MycatException) {
+                throw (MycatException) cause;
+            }
+            throw new MycatException(String.valueOf(cause), cause);
+        }
+    }
+
+    private static Iterator<Row> toIterator(RowBaseIterator rowBaseIterator, int columnCount) {
+        return new Iterator<Row>() {
+            Row row;
+
+            @Override
+            public boolean hasNext() {
+                if (row == null && rowBaseIterator.next()) {
+                    Object[] values = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        values[i] = rowBaseIterator.getObject(i + 1);
+                    }
+                    row = Row.of(values);
+                }
+                return row != null;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row res = row;
+                row = null;
+                return res;
+            }
+        };
+    }
+
+    @Override
+    public Row next() {
+        if (iterator != null && iterator.hasNext()) {
+            return iterator.next();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        for (RowBaseIterator openIterator : openIterators) {
+            openIterator.close();
+        }
+        openIterators.clear();
+        iterator = null;
+    }
+
+    @Override
+    public boolean isRewindSupported() {
+        return false;
+    }
+}
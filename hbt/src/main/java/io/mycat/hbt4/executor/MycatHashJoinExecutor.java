@@ -17,6 +17,7 @@ package io.mycat.hbt4.executor;
 import com.google.common.collect.ImmutableList;
 import io.mycat.calcite.MycatCalciteSupport;
 import io.mycat.hbt4.Executor;
+import io.mycat.hbt4.SlowQueryLog;
 import org.apache.calcite.MycatContext;
 import io.mycat.hbt4.MycatRexCompiler;
 import io.mycat.mpp.Row;
@@ -54,6 +55,7 @@ public class MycatHashJoinExecutor implements Executor {
     private List<Object> params;
     private Enumerable<Row> rows;
     private Iterator<Row> iterator;
+    private final SlowQueryLog.Recorder slowLog = SlowQueryLog.current();
 
     public MycatHashJoinExecutor(JoinRelType joinType,
                                  Executor outer,
@@ -135,7 +137,12 @@ public class MycatHashJoinExecutor implements Executor {
                 }
                 return Row.of(values);
             };
+            //inner是放入hash表的一侧,慢查询日志记录放入的行数
+            final SlowQueryLog.OperatorTrace trace = slowLog == null ? null : slowLog.addOperator("HashJoin");
             final Function1<Row, Row> innerKeySelector = a0 -> {
+                if (trace != null) {
+                    trace.incrementRows();
+                }
                 Object[] values = new Object[rightKeys.length];
                 for (int i = 0; i < values.length; i++) {
                     values[i] = a0.values[rightKeys[i]];
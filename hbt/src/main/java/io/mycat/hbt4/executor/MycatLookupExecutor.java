@@ -23,25 +23,32 @@ import io.mycat.api.collector.RowBaseIterator;
 import io.mycat.calcite.MycatCalciteSupport;
 import io.mycat.calcite.resultset.CalciteRowMetaData;
 import io.mycat.calcite.resultset.MyCatResultSetEnumerator;
+import io.mycat.hbt3.AbstractMycatTable;
+import io.mycat.hbt3.Distribution;
 import io.mycat.hbt3.View;
 import io.mycat.hbt4.DatasourceFactory;
 import io.mycat.hbt4.Executor;
 import io.mycat.mpp.Row;
+import lombok.SneakyThrows;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeField;
-import org.apache.calcite.rex.RexCorrelVariable;
-import org.apache.calcite.rex.RexFieldAccess;
-import org.apache.calcite.rex.RexNode;
-import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.*;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.util.SqlString;
 
 import java.sql.Connection;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.mycat.hbt4.executor.MycatPreparedStatementUtil.executeQuery;
 
@@ -56,18 +63,30 @@ public class MycatLookupExecutor implements Executor {
     private List<Object> params;
     private MyCatResultSetEnumerator myCatResultSetEnumerator = null;
     private List<Connection> tmpConnections;
+    /**
+     * correlation id -> 批量参数中的位置
+     */
+    private final Map<Integer, Integer> correlationIndexes;
 
     public MycatLookupExecutor(View view, DatasourceFactory factory, List<Object> params) {
         this.view = view;
         this.factory = factory;
         this.params = params;
         this.metaData = new CalciteRowMetaData(this.view.getRowType().getFieldList());
+        this.correlationIndexes = collectCorrelationIndexes(view.getRelNode());
     }
 
     public static MycatLookupExecutor create(View view, DatasourceFactory factory, List<Object> params) {
         return new MycatLookupExecutor(view, factory, params);
     }
 
+    /**
+     * 一次查找最多可以带的左表行数,即计划中关联变量的个数
+     */
+    public int getMaxBatchSize() {
+        return Math.max(1, correlationIndexes.size());
+    }
+
     void setIn(List<Row> args) {
         if (myCatResultSetEnumerator != null) {
             myCatResultSetEnumerator.close();
@@ -77,24 +96,7 @@ public class MycatLookupExecutor implements Executor {
             factory.recycleTmpConnections(tmpConnections);
             tmpConnections = null;
         }
-        //convert relNode to sql with cor variable
-        RelNode accept = this.view.getRelNode().accept(new RexShuttle() {
-            @Override
-            public RexNode visitFieldAccess(RexFieldAccess fieldAccess) {
-                RelDataTypeField field = fieldAccess.getField();
-                int index = field.getIndex();
-                RelDataType type = field.getType();
-                if (fieldAccess.getReferenceExpr() instanceof RexCorrelVariable) {
-                    RexCorrelVariable variable = (RexCorrelVariable) fieldAccess.getReferenceExpr();
-                    int id = variable.id.getId();
-                    Row row = args.get(id);
-                    return MycatCalciteSupport.INSTANCE.RexBuilder.makeLiteral(row.getObject(index), type, false);
-                }
-                return super.visitFieldAccess(fieldAccess);
-            }
-        });
-        View newView = View.of(accept, this.view.getDistribution());
-        ImmutableMultimap<String, SqlString> expandToSqls = newView.expandToSql(false, params);
+        ImmutableMultimap<String, SqlString> expandToSqls = expandToSql(args);
 
         MycatWorkerProcessor instance = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class);
         NameableExecutor mycatWorker = instance.getMycatWorker();
@@ -113,6 +115,181 @@ public class MycatLookupExecutor implements Executor {
         this.myCatResultSetEnumerator = new MyCatResultSetEnumerator(flag, composeFutureRowBaseIterator);
     }
 
+    /**
+     * 提交一批查找,各分片并发执行并把结果读入内存,不阻塞调用线程
+     * 可以同时有多个批次在执行
+     */
+    LookupBatch submit(List<Row> args) {
+        return submit(args, expandToSql(args));
+    }
+
+    /**
+     * 按已经展开的sql提交,每个分片占用一个临时连接直到该批次被消费或者丢弃
+     */
+    LookupBatch submit(List<Row> args, ImmutableMultimap<String, SqlString> expandToSqls) {
+        NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+        List<Connection> connections = factory.getTmpConnections(expandToSqls.keys().asList());
+        LookupBatch batch = new LookupBatch(args, connections, factory);
+        int i = 0;
+        for (Map.Entry<String, SqlString> entry : expandToSqls.entries()) {
+            Connection connection = connections.get(i);
+            SqlString sql = entry.getValue();
+            batch.futures.add(mycatWorker.submit(() -> {
+                try (RowBaseIterator rowBaseIterator = executeQuery(connection, metaData, sql, params)) {
+                    int columnCount = metaData.getColumnCount();
+                    List<Row> rows = new ArrayList<>();
+                    while (rowBaseIterator.next()) {
+                        Object[] values = new Object[columnCount];
+                        for (int j = 0; j < columnCount; j++) {
+                            values[j] = rowBaseIterator.getObject(j + 1);
+                        }
+                        rows.add(Row.of(values));
+                    }
+                    return rows;
+                } finally {
+                    batch.finish();
+                }
+            }));
+            i++;
+        }
+        return batch;
+    }
+
+    /**
+     * 把关联变量替换为左表的值,合并重复的条件,并按替换后的条件重新计算需要访问的分片
+     */
+    ImmutableMultimap<String, SqlString> expandToSql(List<Row> args) {
+        RexBuilder rexBuilder = MycatCalciteSupport.INSTANCE.RexBuilder;
+        //convert relNode to sql with cor variable
+        RelNode accept = this.view.getRelNode().accept(new RexShuttle() {
+            @Override
+            public RexNode visitFieldAccess(RexFieldAccess fieldAccess) {
+                RelDataTypeField field = fieldAccess.getField();
+                int index = field.getIndex();
+                RelDataType type = field.getType();
+                if (fieldAccess.getReferenceExpr() instanceof RexCorrelVariable) {
+                    RexCorrelVariable variable = (RexCorrelVariable) fieldAccess.getReferenceExpr();
+                    int position = correlationIndexes.getOrDefault(variable.id.getId(), 0);
+                    //批次不满时用第一行补齐,条件是析取的,重复的条件会被合并
+                    Row row = position < args.size() ? args.get(position) : args.get(0);
+                    return rexBuilder.makeLiteral(row.getObject(index), type, false);
+                }
+                return super.visitFieldAccess(fieldAccess);
+            }
+
+            @Override
+            public RexNode visitCall(RexCall call) {
+                RexNode node = super.visitCall(call);
+                if (node.isA(SqlKind.OR)) {
+                    return RexUtil.composeDisjunction(rexBuilder, ((RexCall) node).getOperands());
+                }
+                return node;
+            }
+        });
+        Distribution distribution = this.view.getDistribution();
+        if (!distribution.isPhy() && !distribution.isBroadCast()) {
+            distribution = route(accept, new ArrayList<>()).orElse(distribution);
+        }
+        View newView = View.of(accept, distribution);
+        return newView.expandToSql(false, params);
+    }
+
+    private static Optional<Distribution> route(RelNode relNode, List<RexNode> conditions) {
+        if (relNode instanceof Filter) {
+            Filter filter = (Filter) relNode;
+            conditions.add(filter.getCondition());
+            return route(filter.getInput(), conditions);
+        }
+        if (relNode instanceof Project) {
+            Project project = (Project) relNode;
+            List<RexNode> pushed = new ArrayList<>(conditions.size());
+            for (RexNode condition : conditions) {
+                pushed.add(RelOptUtil.pushPastProject(condition, project));
+            }
+            return route(project.getInput(), pushed);
+        }
+        if (relNode instanceof TableScan && !conditions.isEmpty()) {
+            AbstractMycatTable mycatTable = relNode.getTable().unwrap(AbstractMycatTable.class);
+            if (mycatTable != null) {
+                return Optional.of(mycatTable.computeDataNode(conditions));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Map<Integer, Integer> collectCorrelationIndexes(RelNode relNode) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        RexShuttle collector = new RexShuttle() {
+            @Override
+            public RexNode visitCorrelVariable(RexCorrelVariable variable) {
+                ids.add(variable.id.getId());
+                return variable;
+            }
+        };
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                node.accept(collector);
+                super.visit(node, ordinal, parent);
+            }
+        }.go(relNode);
+        Map<Integer, Integer> indexes = new HashMap<>();
+        for (Integer id : ids) {
+            indexes.put(id, indexes.size());
+        }
+        return indexes;
+    }
+
+    static class LookupBatch {
+        final List<Row> args;
+        final List<Connection> connections;
+        final DatasourceFactory factory;
+        final List<Future<List<Row>>> futures = new ArrayList<>();
+        final long startNanos = System.nanoTime();
+        final AtomicLong finishNanos = new AtomicLong(startNanos);
+
+        LookupBatch(List<Row> args, List<Connection> connections, DatasourceFactory factory) {
+            this.args = args;
+            this.connections = connections;
+            this.factory = factory;
+        }
+
+        void finish() {
+            finishNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        }
+
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(finishNanos.get() - startNanos);
+        }
+
+        @SneakyThrows
+        List<Row> await() {
+            try {
+                List<Row> rows = new ArrayList<>();
+                for (Future<List<Row>> future : futures) {
+                    try {
+                        rows.addAll(future.get());
+                    } catch (ExecutionException e) {
+                        throw e.getCause();
+                    }
+                }
+                return rows;
+            } finally {
+                discard();
+            }
+        }
+
+        void discard() {
+            for (Future<List<Row>> future : futures) {
+                try {
+                    future.get();
+                } catch (Throwable ignored) {
+                }
+            }
+            factory.recycleTmpConnections(connections);
+        }
+    }
+
     @Override
     public void open() {
 
@@ -141,4 +318,4 @@ public class MycatLookupExecutor implements Executor {
     public boolean isRewindSupported() {
         throw new UnsupportedOperationException();
     }
-}
\ No newline at end of file
+}
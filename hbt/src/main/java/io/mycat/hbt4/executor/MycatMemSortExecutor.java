@@ -15,6 +15,7 @@
 package io.mycat.hbt4.executor;
 
 import io.mycat.hbt4.Executor;
+import io.mycat.hbt4.SlowQueryLog;
 import io.mycat.mpp.Row;
 
 import java.util.Comparator;
@@ -29,6 +30,7 @@ public class MycatMemSortExecutor implements Executor {
     private final Comparator<Row> comparator;
     private Iterator<Row> iterator;
     private List<Row> output = null;
+    private final SlowQueryLog.Recorder slowLog = SlowQueryLog.current();
 
     protected MycatMemSortExecutor(Comparator<Row> comparator, Executor input) {
         this.comparator = comparator;
@@ -43,6 +45,9 @@ public class MycatMemSortExecutor implements Executor {
             input.open();
             output = StreamSupport.stream( input.spliterator(),false).parallel().sorted(comparator).collect(Collectors.toList());
             input.close();
+            if (slowLog != null) {
+                slowLog.addOperator("MemSort").setRows(output.size());
+            }
             this.iterator = output.iterator();
         }
     }
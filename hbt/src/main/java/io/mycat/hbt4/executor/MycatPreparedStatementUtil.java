@@ -17,7 +17,10 @@ import com.google.common.collect.ImmutableList;
 import io.mycat.api.collector.RowBaseIterator;
 import io.mycat.beans.mycat.JdbcRowBaseIterator;
 import io.mycat.beans.mycat.MycatRowMetaData;
+import io.mycat.beans.mycat.StreamingJdbcRowBaseIterator;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
 import io.mycat.hbt4.Group;
+import io.mycat.plug.loadBalance.LatencyStatistics;
 import lombok.SneakyThrows;
 import org.apache.calcite.sql.util.SqlString;
 import org.slf4j.Logger;
@@ -119,6 +122,7 @@ public class MycatPreparedStatementUtil {
 
         @SneakyThrows
         public ExecuteBatchInsert invoke() {
+            StreamingJdbcRowBaseIterator.beforeExecute(connection);
             try (PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 for (List<Object> objects : value.args) {
                     setParams(preparedStatement, objects);
@@ -163,17 +167,38 @@ public class MycatPreparedStatementUtil {
                                                SqlString value,
                                                List<Object> params) {
         String sql = value.getSql();
-        PreparedStatement preparedStatement = mycatConnection.prepareStatement(sql);
-        ImmutableList<Integer> dynamicParameters = value.getDynamicParameters();
-        if (dynamicParameters != null && !dynamicParameters.isEmpty()) {
-            MycatPreparedStatementUtil.setParams(preparedStatement, dynamicParameters.stream().map(i -> params.get(i)).collect(Collectors.toList()));
-        }
-        try {
-            ResultSet resultSet = preparedStatement.executeQuery();
-            return new JdbcRowBaseIterator(calciteRowMetaData, preparedStatement, resultSet, null, sql);
-        } catch (Throwable throwable) {
-            LOGGER.error("sql:{} {}", sql, (params).toString(), throwable);
-            throw throwable;
+        //同一个连接上的执行与登记流式结果集需要原子进行
+        synchronized (mycatConnection) {
+            StreamingJdbcRowBaseIterator.beforeExecute(mycatConnection);
+            PreparedStatement preparedStatement = mycatConnection.prepareStatement(sql);
+            DefaultConnection.setExecutingStatement(mycatConnection, preparedStatement);
+            String datasourceName = DefaultConnection.getDatasourceName(mycatConnection);
+            try {
+                StreamingJdbcRowBaseIterator.applyFetchSize(preparedStatement);
+                ImmutableList<Integer> dynamicParameters = value.getDynamicParameters();
+                if (dynamicParameters != null && !dynamicParameters.isEmpty()) {
+                    MycatPreparedStatementUtil.setParams(preparedStatement, dynamicParameters.stream().map(i -> params.get(i)).collect(Collectors.toList()));
+                }
+                ResultSet resultSet;
+                //executeQuery返回时已经收到第一批结果
+                long startNanos = datasourceName == null ? 0 : LatencyStatistics.INSTANCE.start(datasourceName);
+                try {
+                    resultSet = preparedStatement.executeQuery();
+                } finally {
+                    if (datasourceName != null) {
+                        LatencyStatistics.INSTANCE.end(datasourceName, startNanos);
+                    }
+                }
+                JdbcRowBaseIterator iterator = new JdbcRowBaseIterator(calciteRowMetaData, preparedStatement, resultSet, null, sql);
+                if (StreamingJdbcRowBaseIterator.isStreaming()) {
+                    return StreamingJdbcRowBaseIterator.wrap(mycatConnection, iterator);
+                }
+                return iterator;
+            } catch (Throwable throwable) {
+                preparedStatement.close();
+                LOGGER.error("sql:{} {}", sql, (params).toString(), throwable);
+                throw throwable;
+            }
         }
     }
 
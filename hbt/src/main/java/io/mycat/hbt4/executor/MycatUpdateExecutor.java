@@ -6,18 +6,32 @@ import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlDeleteStatement;
 import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlInsertStatement;
 import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlUpdateStatement;
 import io.mycat.DataNode;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatWorkerProcessor;
+import io.mycat.NameableExecutor;
+import io.mycat.beans.mycat.StreamingJdbcRowBaseIterator;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
 import io.mycat.hbt3.Distribution;
 import io.mycat.hbt4.DatasourceFactory;
 import io.mycat.hbt4.Executor;
 import io.mycat.hbt4.GroupKey;
+import io.mycat.hbt4.SlowQueryLog;
+import io.mycat.hbt4.SqlDigestStats;
 import io.mycat.mpp.Row;
+import io.mycat.plug.loadBalance.LatencyStatistics;
 import io.mycat.util.Pair;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import static io.mycat.hbt4.executor.MycatPreparedStatementUtil.apply;
@@ -25,6 +39,8 @@ import static java.sql.Statement.NO_GENERATED_KEYS;
 
 @Getter
 public class MycatUpdateExecutor implements Executor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MycatUpdateExecutor.class);
+    private static final String SAVEPOINT_NAME = "MYCAT_UPDATE";
     private final Distribution values;
     private final SQLStatement sqlStatement;
     private  List<Object> parameters;
@@ -32,6 +48,12 @@ public class MycatUpdateExecutor implements Executor {
     private DatasourceFactory factory;
     public long lastInsertId = 0;
     public long affectedRow = 0;
+    /**
+     * 每个分片的执行时间
+     */
+    private final Map<String, Long> shardTimeNanos = new LinkedHashMap<>();
+    private final SqlDigestStats.Recorder recorder = SqlDigestStats.current();
+    private final SlowQueryLog.Recorder slowLog = SlowQueryLog.current();
 
     public MycatUpdateExecutor(Distribution values,
                                SQLStatement sqlStatement,
@@ -63,19 +85,196 @@ public class MycatUpdateExecutor implements Executor {
         return Pair.of(key.getTarget(), sql);
     }
 
+    /**
+     * 不同物理连接上的语句并发执行,同一个连接上的语句按顺序执行
+     * 事务中任何一个分片失败,已经执行的分片回滚到语句开始前的保存点,整条语句不生效,成功时释放保存点
+     * 非事务中各分片独立提交,失败时其他分片继续执行,抛出第一个错误
+     */
     @Override
     @SneakyThrows
     public void open() {
         Map<String, Connection> connections = factory.getConnections(groupKeys.stream().map(i -> i.getTarget()).distinct().collect(Collectors.toList()));
         boolean insertId = sqlStatement instanceof MySqlInsertStatement;
+        List<ShardUpdate> shards = new ArrayList<>();
+        Map<Connection, ShardUpdate> shardMap = new IdentityHashMap<>();
         for (GroupKey key : groupKeys) {
-            String sql = key.getParameterizedSql();
-            String target = key.getTarget();
-            Connection connection = connections.get(target);
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, insertId ? Statement.RETURN_GENERATED_KEYS : NO_GENERATED_KEYS);
-            MycatPreparedStatementUtil.setParams(preparedStatement, parameters);
-            this.affectedRow += preparedStatement.executeUpdate();
-            this.lastInsertId = Math.max(this.lastInsertId, getInSingleSqlLastInsertId(insertId, preparedStatement));
+            Connection connection = connections.get(key.getTarget());
+            ShardUpdate shard = shardMap.get(connection);
+            if (shard == null) {
+                shard = new ShardUpdate(key.getTarget(), connection);
+                shardMap.put(connection, shard);
+                shards.add(shard);
+            } else if (!shard.target.equals(key.getTarget())) {
+                shard.target = shard.target + "," + key.getTarget();
+            }
+            shard.sqls.add(key.getParameterizedSql());
+        }
+        boolean inTransaction = factory.isInTransaction();
+        //只有一条物理语句时mysql会回滚该语句本身,不需要保存点
+        boolean useSavepoint = inTransaction && groupKeys.size() > 1;
+        execute(shards, insertId, inTransaction, useSavepoint);
+
+        Throwable error = null;
+        for (ShardUpdate shard : shards) {
+            shardTimeNanos.put(shard.target, shard.elapsedNanos);
+            if (recorder != null) {
+                recorder.addTarget(shard.target, shard.elapsedNanos);
+            }
+            if (slowLog != null) {
+                SlowQueryLog.ViewTrace trace = slowLog.addView(shard.target, String.join(";", shard.sqls), parameters);
+                trace.setElapsedNanos(shard.elapsedNanos);
+                trace.setRows(shard.affectedRow);
+            }
+            if (shard.error != null) {
+                LOGGER.error("target:{} sqls:{} update fail", shard.target, shard.sqls, shard.error);
+                if (error == null) {
+                    error = shard.error;
+                } else {
+                    error.addSuppressed(shard.error);
+                }
+                continue;
+            }
+            this.affectedRow += shard.affectedRow;
+            this.lastInsertId = Math.max(this.lastInsertId, shard.lastInsertId);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            for (ShardUpdate shard : shards) {
+                LOGGER.debug("target:{} affectedRow:{} time:{}ms", shard.target, shard.affectedRow,
+                        TimeUnit.NANOSECONDS.toMillis(shard.elapsedNanos));
+            }
+        }
+        if (error != null) {
+            if (useSavepoint) {
+                for (ShardUpdate shard : shards) {
+                    shard.rollbackToSavepoint();
+                }
+            }
+            throw error;
+        }
+        if (useSavepoint) {
+            for (ShardUpdate shard : shards) {
+                shard.releaseSavepoint();
+            }
+        }
+    }
+
+    private void execute(List<ShardUpdate> shards, boolean insertId, boolean failFast, boolean useSavepoint) {
+        ConcurrentLinkedQueue<ShardUpdate> pending = new ConcurrentLinkedQueue<>(shards);
+        CountDownLatch done = new CountDownLatch(shards.size());
+        AtomicBoolean failed = new AtomicBoolean(false);
+        Runnable drain = () -> {
+            ShardUpdate shard;
+            while ((shard = pending.poll()) != null) {
+                try {
+                    if (!(failFast && failed.get())) {
+                        shard.execute(parameters, insertId, useSavepoint);
+                    }
+                } catch (Throwable e) {
+                    shard.error = e;
+                    failed.set(true);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        //一条语句同时执行的分片数,小于等于1按顺序执行
+        int helpers = Math.min(MetaClusterCurrent.serverConfig().getShardUpdateParallelism(), shards.size()) - 1;
+        if (helpers > 0 && MetaClusterCurrent.exist(MycatWorkerProcessor.class)) {
+            NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+            for (int i = 0; i < helpers; i++) {
+                mycatWorker.execute(drain);
+            }
+        }
+        //调用线程也取分片执行,线程池繁忙时退化为顺序执行,只等待已经开始执行的分片
+        drain.run();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 同一个物理连接上需要执行的语句
+     */
+    private static class ShardUpdate {
+        String target;
+        final Connection connection;
+        final List<String> sqls = new ArrayList<>(1);
+        long affectedRow;
+        long lastInsertId;
+        long elapsedNanos;
+        Savepoint savepoint;
+        Throwable error;
+
+        ShardUpdate(String target, Connection connection) {
+            this.target = target;
+            this.connection = connection;
+        }
+
+        void execute(List<Object> parameters, boolean insertId, boolean useSavepoint) throws SQLException {
+            long startTime = System.nanoTime();
+            try {
+                StreamingJdbcRowBaseIterator.beforeExecute(connection);
+                if (useSavepoint && !connection.getAutoCommit()) {
+                    savepoint = connection.setSavepoint(SAVEPOINT_NAME);
+                }
+                String datasourceName = DefaultConnection.getDatasourceName(connection);
+                for (String sql : sqls) {
+                    try (PreparedStatement preparedStatement = connection.prepareStatement(sql, insertId ? Statement.RETURN_GENERATED_KEYS : NO_GENERATED_KEYS)) {
+                        DefaultConnection.setExecutingStatement(connection, preparedStatement);
+                        MycatPreparedStatementUtil.setParams(preparedStatement, parameters);
+                        long statementStart = datasourceName == null ? 0 : LatencyStatistics.INSTANCE.start(datasourceName);
+                        try {
+                            affectedRow += preparedStatement.executeUpdate();
+                        } finally {
+                            if (datasourceName != null) {
+                                LatencyStatistics.INSTANCE.end(datasourceName, statementStart);
+                            }
+                        }
+                        lastInsertId = Math.max(lastInsertId, getInSingleSqlLastInsertId(insertId, preparedStatement));
+                    }
+                }
+            } finally {
+                DefaultConnection.setExecutingStatement(connection, null);
+                elapsedNanos = System.nanoTime() - startTime;
+            }
+        }
+
+        void rollbackToSavepoint() {
+            if (savepoint == null) {
+                return;
+            }
+            try {
+                connection.rollback(savepoint);
+            } catch (Throwable e) {
+                LOGGER.error("target:{} rollback to savepoint fail", target, e);
+            } finally {
+                savepoint = null;
+            }
+        }
+
+        /**
+         * 释放失败时保存点留到事务结束,同名的保存点会被下一条语句覆盖
+         */
+        void releaseSavepoint() {
+            if (savepoint == null) {
+                return;
+            }
+            try {
+                connection.releaseSavepoint(savepoint);
+            } catch (Throwable e) {
+                LOGGER.warn("target:{} release savepoint fail", target, e);
+            } finally {
+                savepoint = null;
+            }
         }
     }
 
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4.executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatException;
+import io.mycat.api.MySQLAPI;
+import io.mycat.api.MySQLAPIRuntime;
+import io.mycat.api.callback.MySQLAPIExceptionCallback;
+import io.mycat.api.callback.MySQLAPISessionCallback;
+import io.mycat.api.collector.ObjectRowResultSetTransfor;
+import io.mycat.beans.mysql.packet.ErrorPacket;
+import io.mycat.calcite.resultset.CalciteRowMetaData;
+import io.mycat.hbt3.View;
+import io.mycat.hbt4.DatasourceFactory;
+import io.mycat.hbt4.SlowQueryLog;
+import io.mycat.mpp.Row;
+import org.apache.calcite.sql.util.SqlString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 多分片查询使用reactor线程中的native连接执行,行在reactor线程中直接从报文解码为Row,
+ * 分片完成的回调推进消费端,不需要每个分片占用一个阻塞的worker线程
+ * 只在非事务,分片数达到fanOutThreshold,所有目标都支持native并且当前不是reactor线程时使用
+ * chen junwen
+ */
+public class NativeViewExecutor extends ViewExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NativeViewExecutor.class);
+    private static final Row END = Row.of(new Object[0]);
+    /**
+     * 连续没有收到任何行或者完成通知的最长时间
+     */
+    private static final long NO_PROGRESS_TIMEOUT_MINUTES = 5;
+
+    private Query query;
+
+    public NativeViewExecutor(View view, List<Object> params, DatasourceFactory factory, ImmutableMultimap<String, SqlString> expandToSql) {
+        super(view, params, factory, expandToSql);
+    }
+
+    public static boolean isAvailable(DatasourceFactory factory, ImmutableMultimap<String, SqlString> expandToSql) {
+        //分片数达到nativeFanOutThreshold时使用native连接,小于等于0不使用
+        int threshold = MetaClusterCurrent.serverConfig().getNativeFanOutThreshold();
+        if (threshold <= 0 || expandToSql.size() < threshold || factory.isInTransaction()) {
+            return false;
+        }
+        if (!MetaClusterCurrent.exist(MySQLAPIRuntime.class)) {
+            return false;
+        }
+        MySQLAPIRuntime runtime = MetaClusterCurrent.wrapper(MySQLAPIRuntime.class);
+        //next()阻塞等待行,在reactor线程中会阻塞该reactor上的session,例如proxy事务的session
+        if (!runtime.isBlockingAllowed()) {
+            return false;
+        }
+        for (String target : expandToSql.keySet()) {
+            if (!runtime.isAvailable(target)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void open() {
+        if (query != null) {
+            query.close();
+        }
+        CalciteRowMetaData calciteRowMetaData = new CalciteRowMetaData(view.getRelNode().getRowType().getFieldList());
+        MySQLAPIRuntime runtime = MetaClusterCurrent.wrapper(MySQLAPIRuntime.class);
+        Query query = new Query(expandToSql.size());
+        this.query = query;
+        for (Map.Entry<String, SqlString> entry : expandToSql.entries()) {
+            String target = entry.getKey();
+            String sql = toSql(entry.getValue());
+            SlowQueryLog.ViewTrace trace = slowLog == null ? null : slowLog.addView(target, sql, null);
+            long startTime = System.nanoTime();
+            runtime.create(target, new MySQLAPISessionCallback() {
+                @Override
+                public void onSession(MySQLAPI mySQLAPI) {
+                    if (query.closed) {
+                        mySQLAPI.close();
+                        query.finish();
+                        return;
+                    }
+                    Consumer<Object[]> rowConsumer = query::add;
+                    if (trace != null) {
+                        rowConsumer = row -> {
+                            trace.incrementRows();
+                            query.add(row);
+                        };
+                    }
+                    ObjectRowResultSetTransfor transfor = new ObjectRowResultSetTransfor(calciteRowMetaData, rowConsumer);
+                    mySQLAPI.query(sql, transfor, new MySQLAPIExceptionCallback() {
+                        @Override
+                        public void onException(Exception exception, MySQLAPI mySQLAPI) {
+                            mySQLAPI.close();
+                            query.fail(target, sql, exception);
+                        }
+
+                        @Override
+                        public void onFinished(boolean monopolize, MySQLAPI mySQLAPI) {
+                            long elapsedNanos = System.nanoTime() - startTime;
+                            if (recorder != null) {
+                                recorder.addTarget(target, elapsedNanos);
+                            }
+                            if (trace != null) {
+                                trace.setElapsedNanos(elapsedNanos);
+                            }
+                            mySQLAPI.close();
+                            query.finish();
+                        }
+
+                        @Override
+                        public void onErrorPacket(ErrorPacket errorPacket, boolean monopolize, MySQLAPI mySQLAPI) {
+                            mySQLAPI.close();
+                            query.fail(target, sql, new MycatException(errorPacket.getErrorMessageString()));
+                        }
+                    });
+                }
+
+                @Override
+                public void onException(Exception exception) {
+                    query.fail(target, sql, exception);
+                }
+            });
+        }
+    }
+
+    private String toSql(SqlString sqlString) {
+        ImmutableList<Integer> dynamicParameters = sqlString.getDynamicParameters();
+        if (dynamicParameters == null || dynamicParameters.isEmpty()) {
+            return sqlString.getSql();
+        }
+        return MycatPreparedStatementUtil.apply(sqlString.getSql(), params);
+    }
+
+    @Override
+    public Row next() {
+        return query.next();
+    }
+
+    @Override
+    public void close() {
+        if (query != null) {
+            query.close();
+        }
+    }
+
+    /**
+     * 一次open的所有分片,reactor线程写入,消费线程读取
+     */
+    private static class Query {
+        final LinkedBlockingQueue<Row> queue = new LinkedBlockingQueue<>();
+        int remaining;
+        volatile Throwable error;
+        volatile boolean closed = false;
+
+        Query(int shardCount) {
+            this.remaining = shardCount;
+        }
+
+        void add(Object[] row) {
+            if (!closed) {
+                queue.add(Row.of(row));
+            }
+        }
+
+        void finish() {
+            queue.add(END);
+        }
+
+        void fail(String target, String sql, Throwable throwable) {
+            LOGGER.error("target:{} sql:{}", target, sql, throwable);
+            if (error == null) {
+                error = throwable;
+            }
+            queue.add(END);
+        }
+
+        Row next() {
+            try {
+                while (remaining > 0) {
+                    if (error != null) {
+                        throw new MycatException(String.valueOf(error.getMessage()), error);
+                    }
+                    Row row = queue.poll(NO_PROGRESS_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+                    if (row == null) {
+                        throw new MycatException("native query has no progress in {} minutes", NO_PROGRESS_TIMEOUT_MINUTES);
+                    }
+                    if (row != END) {
+                        return row;
+                    }
+                    remaining--;
+                }
+                if (error != null) {
+                    throw new MycatException(String.valueOf(error.getMessage()), error);
+                }
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MycatException(e);
+            }
+        }
+
+        /**
+         * 未完成的分片继续在reactor线程中读完结果后归还连接,读到的行被丢弃
+         */
+        void close() {
+            closed = true;
+            queue.clear();
+        }
+    }
+}
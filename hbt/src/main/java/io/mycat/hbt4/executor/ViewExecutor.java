@@ -12,6 +12,8 @@ import io.mycat.calcite.resultset.MyCatResultSetEnumerator;
 import io.mycat.hbt3.View;
 import io.mycat.hbt4.DatasourceFactory;
 import io.mycat.hbt4.Executor;
+import io.mycat.hbt4.SlowQueryLog;
+import io.mycat.hbt4.SqlDigestStats;
 import io.mycat.mpp.Row;
 import io.mycat.util.Pair;
 import lombok.SneakyThrows;
@@ -29,23 +31,51 @@ import static io.mycat.hbt4.executor.MycatPreparedStatementUtil.executeQuery;
 
 public class ViewExecutor implements Executor {
     final View view;
-    private List<Object> params;
+    protected final List<Object> params;
     final DatasourceFactory factory;
-    private final ImmutableMultimap<String, SqlString> expandToSql;
+    protected final ImmutableMultimap<String, SqlString> expandToSql;
+    /**
+     * 创建时所在语句的耗时统计,为null时不统计
+     */
+    protected final SqlDigestStats.Recorder recorder;
+    /**
+     * 创建时所在语句的慢查询记录,为null时不记录
+     */
+    protected final SlowQueryLog.Recorder slowLog;
 
     public static ViewExecutor create(View view, boolean forUpdate, List<Object> params, DatasourceFactory factory) {
-        return new ViewExecutor(view, forUpdate, params, factory);
+        ImmutableMultimap<String, SqlString> expandToSql = view.expandToSql(forUpdate, params);
+        if (!forUpdate && NativeViewExecutor.isAvailable(factory, expandToSql)) {
+            return new NativeViewExecutor(view, params, factory, expandToSql);
+        }
+        ViewExecutor viewExecutor = new ViewExecutor(view, params, factory, expandToSql);
+        factory.regist(expandToSql.keys().asList());
+        return viewExecutor;
     }
 
     protected ViewExecutor(View view, boolean forUpdate, List<Object> params, DatasourceFactory factory) {
+        this(view, params, factory, view.expandToSql(forUpdate, params));
+        factory.regist(this.expandToSql.keys().asList());
+    }
+
+    /**
+     * 不登记jdbc连接
+     */
+    protected ViewExecutor(View view, List<Object> params, DatasourceFactory factory, ImmutableMultimap<String, SqlString> expandToSql) {
         this.view = view;
         this.params = params;
         this.factory = factory;
-        this.expandToSql = this.view.expandToSql(forUpdate, params);
-        factory.regist(this.expandToSql.keys().asList());
+        this.expandToSql = expandToSql;
+        this.recorder = SqlDigestStats.current();
+        this.slowLog = SlowQueryLog.current();
     }
 
     private MyCatResultSetEnumerator myCatResultSetEnumerator;
+    private ComposeFutureRowBaseIterator composeFutureRowBaseIterator;
+    /**
+     * 按分片结果集的读取顺序
+     */
+    private SlowQueryLog.ViewTrace[] traces;
 
     @Override
     @SneakyThrows
@@ -57,19 +87,41 @@ public class ViewExecutor implements Executor {
         MycatWorkerProcessor mycatWorkerProcessor = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class);
         NameableExecutor mycatWorker = mycatWorkerProcessor.getMycatWorker();
         LinkedList<Future<RowBaseIterator>> futureArrayList = new LinkedList<>();
-
+        this.traces = slowLog == null ? null : new SlowQueryLog.ViewTrace[expandToSql.size()];
+        int index = 0;
         for (Map.Entry<String, SqlString> entry : expandToSql.entries()) {
             Connection mycatConnection = factory.getConnection(entry.getKey());
-            futureArrayList.add(mycatWorker.submit(() -> executeQuery(mycatConnection, calciteRowMetaData, entry.getValue(), params)));
+            SlowQueryLog.ViewTrace trace = slowLog == null ? null : slowLog.addView(entry.getKey(), entry.getValue().getSql(), params);
+            if (traces != null) {
+                traces[index++] = trace;
+            }
+            long startTime = System.nanoTime();
+            futureArrayList.add(mycatWorker.submit(() -> {
+                RowBaseIterator rowBaseIterator = executeQuery(mycatConnection, calciteRowMetaData, entry.getValue(), params);
+                long elapsedNanos = System.nanoTime() - startTime;
+                if (recorder != null) {
+                    recorder.addTarget(entry.getKey(), elapsedNanos);
+                }
+                if (trace != null) {
+                    trace.setElapsedNanos(elapsedNanos);
+                }
+                return rowBaseIterator;
+            }));
         }
         AtomicBoolean flag = new AtomicBoolean();
-        ComposeFutureRowBaseIterator composeFutureRowBaseIterator = new ComposeFutureRowBaseIterator(calciteRowMetaData, futureArrayList);
+        this.composeFutureRowBaseIterator = new ComposeFutureRowBaseIterator(calciteRowMetaData, futureArrayList);
         this.myCatResultSetEnumerator = new MyCatResultSetEnumerator(flag, composeFutureRowBaseIterator);
     }
 
     @Override
     public Row next() {
-        return myCatResultSetEnumerator.moveNext() ? Row.of(myCatResultSetEnumerator.current()) : null;
+        if (!myCatResultSetEnumerator.moveNext()) {
+            return null;
+        }
+        if (traces != null) {
+            traces[composeFutureRowBaseIterator.getIndex()].incrementRows();
+        }
+        return Row.of(myCatResultSetEnumerator.current());
     }
 
     @Override
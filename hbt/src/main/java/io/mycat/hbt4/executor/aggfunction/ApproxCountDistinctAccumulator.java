@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4.executor.aggfunction;
+
+import io.mycat.mpp.Row;
+import org.apache.calcite.rel.core.AggregateCall;
+
+/**
+ * approx_count_distinct(x),分片没有下推时在mycat上计算
+ */
+public class ApproxCountDistinctAccumulator implements Accumulator {
+    private final AggregateCall call;
+    private final HyperLogLog hyperLogLog = new HyperLogLog();
+
+    ApproxCountDistinctAccumulator(AggregateCall call) {
+        this.call = call;
+    }
+
+    public void send(Row row) {
+        hyperLogLog.add(row.getObject(call.getArgList().get(0)));
+    }
+
+    public Object end() {
+        return hyperLogLog.estimate();
+    }
+}
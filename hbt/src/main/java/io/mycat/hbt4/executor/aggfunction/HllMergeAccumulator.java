@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4.executor.aggfunction;
+
+import io.mycat.mpp.Row;
+import org.apache.calcite.rel.core.AggregateCall;
+
+/**
+ * hll_merge(index,rho),合并各分片返回的寄存器
+ */
+public class HllMergeAccumulator implements Accumulator {
+    private final AggregateCall call;
+    private final HyperLogLog hyperLogLog = new HyperLogLog();
+
+    HllMergeAccumulator(AggregateCall call) {
+        this.call = call;
+    }
+
+    public void send(Row row) {
+        Object index = row.getObject(call.getArgList().get(0));
+        Object rho = row.getObject(call.getArgList().get(1));
+        if (index == null || rho == null) {
+            //该分组在分片上只有null值
+            return;
+        }
+        hyperLogLog.merge(((Number) index).intValue(), ((Number) rho).intValue());
+    }
+
+    public Object end() {
+        return hyperLogLog.estimate();
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.hbt4.executor.aggfunction;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 2^14个寄存器的HyperLogLog,标准误差约0.81%
+ * 分片上用md5计算的(寄存器下标,前导零个数+1)与这里的值可以直接合并
+ */
+public class HyperLogLog {
+    public static final int P = 14;
+    public static final int M = 1 << P;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+    private final byte[] registers = new byte[M];
+
+    public void add(Object value) {
+        if (value == null) {
+            return;
+        }
+        long hash;
+        if (value instanceof byte[]) {
+            hash = HASH.hashBytes((byte[]) value).asLong();
+        } else {
+            hash = HASH.hashString(value.toString(), StandardCharsets.UTF_8).asLong();
+        }
+        int index = (int) (hash >>> (64 - P));
+        int rho = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        merge(index, rho);
+    }
+
+    public void merge(int index, int rho) {
+        if (registers[index] < rho) {
+            registers[index] = (byte) rho;
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * M * M / sum;
+        if (estimate <= 2.5 * M && zeros > 0) {
+            //基数较小时使用线性计数
+            estimate = M * Math.log((double) M / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
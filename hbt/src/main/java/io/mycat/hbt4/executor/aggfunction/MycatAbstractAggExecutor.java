@@ -1,6 +1,7 @@
 package io.mycat.hbt4.executor.aggfunction;
 
 import com.google.common.collect.ImmutableList;
+import io.mycat.hbt3.HyperLogLogSketch;
 import io.mycat.hbt4.Executor;
 import io.mycat.mpp.Row;
 import org.apache.calcite.rel.core.Aggregate;
@@ -104,7 +105,11 @@ public class MycatAbstractAggExecutor {
                 return new FilterAccumulator(accumulator, call.filterArg);
             };
         }
-        if (call.getAggregation() == SqlStdOperatorTable.COUNT) {
+        if (HyperLogLogSketch.isApproxCountDistinct(call)) {
+            return () -> new ApproxCountDistinctAccumulator(call);
+        } else if (call.getAggregation() == HyperLogLogSketch.HLL_MERGE) {
+            return () -> new HllMergeAccumulator(call);
+        } else if (call.getAggregation() == SqlStdOperatorTable.COUNT) {
             return () -> new CountAccumulator(call);
         } else if (call.getAggregation() == SqlStdOperatorTable.SUM
                 || call.getAggregation() == SqlStdOperatorTable.SUM0) {
@@ -30,18 +30,70 @@
  */
 package io.mycat.hbt4.executor.aggfunction;
 
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatException;
+import io.mycat.MycatWorkerProcessor;
+import io.mycat.NameableExecutor;
+import io.mycat.config.ServerConfig;
+import io.mycat.hbt3.HyperLogLogSketch;
 import io.mycat.hbt4.Executor;
+import io.mycat.hbt4.SlowQueryLog;
 import io.mycat.mpp.Row;
+import lombok.SneakyThrows;
 import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
 
-import java.util.Iterator;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
+/**
+ * 只有一个分组集合时按分组字段的hash把行分到多个分区,分区在worker线程上并行聚合
+ * 分区内存超过预算后,已有的分组继续在内存中聚合,新的分组写到磁盘,内存中的结果输出后再逐个聚合磁盘上的行
+ * 各分片的部分聚合结果边到达边合并,不需要等所有分片返回
+ */
 public class MycatHashAggExecutor extends MycatAbstractAggExecutor implements Executor {
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_QUEUED_BATCHES = 8;
+    /**
+     * 聚合的分区数量,小于等于1在当前线程聚合
+     */
+    private final int parallelism;
+    /**
+     * 一次聚合在内存中保存分组的字节数,小于等于0不写磁盘
+     */
+    private final long memoryBudget;
+    private final Path spillDirectory;
+    private final long accumulatorBytes;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private final AtomicInteger queuedBatches = new AtomicInteger();
     private Iterator<Row> iter;
+    private final SlowQueryLog.Recorder slowLog = SlowQueryLog.current();
 
 
     public MycatHashAggExecutor(Executor input, Aggregate rel) {
        super(input,rel);
+       long bytes = 64;
+       for (AggregateCall call : rel.getAggCallList()) {
+           bytes += 32;
+           if (HyperLogLogSketch.isApproxCountDistinct(call) || call.getAggregation() == HyperLogLogSketch.HLL_MERGE) {
+               bytes += HyperLogLog.M;
+           }
+       }
+       this.accumulatorBytes = bytes;
+       ServerConfig config = MetaClusterCurrent.serverConfig();
+       this.parallelism = config.getHashAggParallelism();
+       this.memoryBudget = config.getHashAggMemoryBytes();
+       this.spillDirectory = Optional.ofNullable(config.getHashAggSpillDirectory()).map(i -> Paths.get(i))
+               .orElseGet(() -> Paths.get(config.getTempDirectory(), "agg"));
     }
 
     public static MycatHashAggExecutor create(Executor input, Aggregate rel) {
@@ -50,6 +102,11 @@ public class MycatHashAggExecutor extends MycatAbstractAggExecutor implements Ex
 
     @Override
     public void open() {
+        if (isPartitioned()) {
+            closeSpillFiles();
+            this.iter = partitionAggregate();
+            return;
+        }
         if (iter == null) {
             input.open();
             Row row = null;
@@ -62,6 +119,102 @@ public class MycatHashAggExecutor extends MycatAbstractAggExecutor implements Ex
         this.iter = groups.stream().flatMap(i -> i.end()).iterator();
     }
 
+    /**
+     * grouping sets与没有分组字段的聚合结果行数很少,仍然使用原来的方式
+     */
+    private boolean isPartitioned() {
+        return groups.size() == 1 && !unionGroups.isEmpty() && (parallelism > 1 || memoryBudget > 0);
+    }
+
+    private Iterator<Row> partitionAggregate() {
+        NameableExecutor mycatWorker = null;
+        if (parallelism > 1 && MetaClusterCurrent.exist(MycatWorkerProcessor.class)) {
+            mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+        }
+        int size = mycatWorker == null ? 1 : parallelism;
+        long budget = memoryBudget > 0 ? Math.max(1, memoryBudget / size) : 0;
+        List<Partition> partitions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            partitions.add(new Partition(budget));
+        }
+        input.open();
+        Row row;
+        if (size == 1) {
+            Partition partition = partitions.get(0);
+            while ((row = input.next()) != null) {
+                partition.send(row);
+            }
+        } else {
+            List<List<Row>> buffers = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                buffers.add(new ArrayList<>(BATCH_SIZE));
+            }
+            while ((row = input.next()) != null) {
+                int index = (key(row).hashCode() & Integer.MAX_VALUE) % size;
+                List<Row> buffer = buffers.get(index);
+                buffer.add(row);
+                if (buffer.size() >= BATCH_SIZE) {
+                    partitions.get(index).offer(buffer, mycatWorker);
+                    buffers.set(index, new ArrayList<>(BATCH_SIZE));
+                    if (queuedBatches.get() > MAX_QUEUED_BATCHES * size) {
+                        //worker跟不上时当前线程也参与聚合,限制排队的行数
+                        for (Partition partition : partitions) {
+                            partition.drain();
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                List<Row> buffer = buffers.get(i);
+                if (!buffer.isEmpty()) {
+                    partitions.get(i).offer(buffer, mycatWorker);
+                }
+            }
+            for (Partition partition : partitions) {
+                partition.await();
+            }
+        }
+        if (slowLog != null) {
+            //只记录第一轮聚合,写到磁盘的行之后再次聚合时不记录
+            long groupCount = 0;
+            long bytes = 0;
+            long spilledRows = 0;
+            for (Partition partition : partitions) {
+                groupCount += partition.accumulators.size();
+                bytes += partition.bytes;
+                spilledRows += partition.spillFile == null ? 0 : partition.spillFile.rowCount;
+            }
+            SlowQueryLog.OperatorTrace trace = slowLog.addOperator("HashAgg");
+            trace.setRows(groupCount);
+            trace.setBytes(bytes);
+            trace.setSpilledRows(spilledRows);
+        }
+        return new PartitionIterator(partitions);
+    }
+
+    private Row key(Row row) {
+        Row key = Row.create(unionGroups.cardinality());
+        int j = 0;
+        for (Integer i : unionGroups) {
+            key.set(j++, row.getObject(i));
+        }
+        return key;
+    }
+
+    private long estimate(Row key) {
+        long bytes = accumulatorBytes;
+        for (Object value : key.values) {
+            if (value instanceof String) {
+                bytes += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                bytes += 16 + ((byte[]) value).length;
+            } else {
+                bytes += 16;
+            }
+        }
+        return bytes;
+    }
+
     @Override
     public Row next() {
         if (iter.hasNext()) {
@@ -73,12 +226,242 @@ public class MycatHashAggExecutor extends MycatAbstractAggExecutor implements Ex
     @Override
     public void close() {
         input.close();
+        closeSpillFiles();
+    }
+
+    private void closeSpillFiles() {
+        for (SpillFile spillFile : spillFiles) {
+            spillFile.delete();
+        }
+        spillFiles.clear();
     }
 
     @Override
     public boolean isRewindSupported() {
-        return true;
+        return !isPartitioned();
     }
 
+    /**
+     * 同一时间只有一个线程聚合一个分区
+     */
+    private final class Partition {
+        private final Map<Row, AccumulatorList> accumulators = new HashMap<>();
+        private final ConcurrentLinkedQueue<List<Row>> batches = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final long budget;
+        private long bytes;
+        private SpillFile spillFile;
+        private volatile Throwable error;
+
+        private Partition(long budget) {
+            this.budget = budget;
+        }
 
-}
\ No newline at end of file
+        public void send(Row row) {
+            Row key = key(row);
+            AccumulatorList list = accumulators.get(key);
+            if (list == null) {
+                if (budget > 0 && bytes > budget) {
+                    if (spillFile == null) {
+                        spillFile = newSpillFile();
+                    }
+                    spillFile.write(row);
+                    return;
+                }
+                list = new AccumulatorList();
+                for (AccumulatorFactory factory : accumulatorFactories) {
+                    list.add(factory.get());
+                }
+                accumulators.put(key, list);
+                bytes += estimate(key);
+            }
+            list.send(row);
+        }
+
+        public void offer(List<Row> batch, NameableExecutor mycatWorker) {
+            batches.add(batch);
+            queuedBatches.incrementAndGet();
+            if (!running.get()) {
+                try {
+                    mycatWorker.execute(this::drainAll);
+                } catch (RejectedExecutionException e) {
+                    //由当前线程在await中聚合
+                }
+            }
+        }
+
+        private void drainAll() {
+            //释放running之后到达的批次由这里继续聚合
+            do {
+                if (!drain()) {
+                    return;
+                }
+            } while (!batches.isEmpty());
+        }
+
+        /**
+         * @return 其他线程正在聚合该分区时返回false
+         */
+        public boolean drain() {
+            if (!running.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                List<Row> batch;
+                while ((batch = batches.poll()) != null) {
+                    queuedBatches.decrementAndGet();
+                    if (error != null) {
+                        continue;
+                    }
+                    try {
+                        for (Row row : batch) {
+                            send(row);
+                        }
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                }
+            } finally {
+                running.set(false);
+            }
+            return true;
+        }
+
+        public void await() {
+            while (running.get() || !batches.isEmpty()) {
+                if (!drain()) {
+                    LockSupport.parkNanos(100_000);
+                }
+            }
+            Throwable throwable = error;
+            if (throwable instanceof MycatException) {
+                throw (MycatException) throwable;
+            }
+            if (throwable != null) {
+                throw new MycatException(String.valueOf(throwable), throwable);
+            }
+        }
+
+        public Iterator<Row> end() {
+            Iterator<Map.Entry<Row, AccumulatorList>> iterator = accumulators.entrySet().iterator();
+            return new Iterator<Row>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Row next() {
+                    Map.Entry<Row, AccumulatorList> entry = iterator.next();
+                    Row key = entry.getKey();
+                    Row rb = Row.create(outputRowLength);
+                    for (int i = 0; i < key.size(); i++) {
+                        rb.set(i, key.getObject(i));
+                    }
+                    entry.getValue().end(rb);
+                    return rb;
+                }
+            };
+        }
+    }
+
+    /**
+     * 先输出各分区内存中的结果,再逐个聚合写到磁盘的行,每次聚合至少消除一个分组,最终会结束
+     */
+    private final class PartitionIterator implements Iterator<Row> {
+        private final Deque<Partition> partitions;
+        private final Deque<SpillFile> pending = new ArrayDeque<>();
+        private Iterator<Row> current = Collections.emptyIterator();
+
+        private PartitionIterator(List<Partition> partitions) {
+            this.partitions = new ArrayDeque<>(partitions);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                current = Collections.emptyIterator();
+                Partition partition = partitions.poll();
+                if (partition == null) {
+                    SpillFile spillFile = pending.poll();
+                    if (spillFile == null) {
+                        return false;
+                    }
+                    partition = new Partition(memoryBudget);
+                    spillFile.forEach(partition::send);
+                }
+                if (partition.spillFile != null) {
+                    pending.add(partition.spillFile);
+                }
+                current = partition.end();
+            }
+            return true;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    @SneakyThrows
+    private SpillFile newSpillFile() {
+        Path directory = spillDirectory;
+        Files.createDirectories(directory);
+        SpillFile spillFile = new SpillFile(Files.createTempFile(directory, "agg", ".tmp"));
+        synchronized (spillFiles) {
+            spillFiles.add(spillFile);
+        }
+        return spillFile;
+    }
+
+    /**
+     * 按顺序写入,写完之后读取一次
+     */
+    private static final class SpillFile {
+        private final Path path;
+        private ObjectOutputStream out;
+        private long rowCount;
+
+        @SneakyThrows
+        private SpillFile(Path path) {
+            this.path = path;
+            this.out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        }
+
+        @SneakyThrows
+        public void write(Row row) {
+            out.writeUnshared(row.values);
+            if (++rowCount % BATCH_SIZE == 0) {
+                //释放序列化时保存的对象引用
+                out.reset();
+            }
+        }
+
+        @SneakyThrows
+        public void forEach(Consumer<Row> consumer) {
+            out.close();
+            out = null;
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                for (long i = 0; i < rowCount; i++) {
+                    consumer.accept(Row.of((Object[]) in.readUnshared()));
+                }
+            }
+            delete();
+        }
+
+        public void delete() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
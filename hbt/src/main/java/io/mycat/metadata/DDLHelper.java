@@ -1,10 +1,28 @@
 package io.mycat.metadata;
 
-import io.mycat.DataNode;
+import io.mycat.*;
 import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.util.Pair;
+import org.apache.calcite.MycatContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class DDLHelper {
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.mycat.metadata.LogicTable.rewriteCreateTableSql;
 
+public class DDLHelper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DDLHelper.class);
+    /**
+     * 失败信息中最多列出的分片数
+     */
+    private static final int MAX_REPORTED_FAILURES = 10;
     public static void createDatabaseIfNotExist(DefaultConnection connection, DataNode node) {
         createDatabaseIfNotExist(connection, node.getSchema());
     }
@@ -13,4 +31,186 @@ public class DDLHelper {
         connection.executeUpdate("CREATE DATABASE IF NOT EXISTS " + schema, false);
     }
 
+    /**
+     * 在所有分片上创建物理表
+     * 1.每个target上同名的库只创建一次
+     * 2.不同target并发执行,同一个target上最多ddlParallelismPerTarget个连接,每个连接顺序执行分到的建表语句
+     * 3.全部执行完以后汇总失败的分片抛出异常,已经创建的表保留
+     * 4.执行语句的会话在show processlist的State中显示进度
+     *
+     * @param name           日志和错误信息中使用的逻辑表名
+     * @param createTableSql 已经转为mysql语法的建表语句
+     */
+    public static void createPhysicalTables(String name, String createTableSql, Collection<DataNode> dataNodes) {
+        MycatDataContext dataContext = MycatContext.CONTEXT.get();
+        try {
+            Map<String, Set<Pair<String, String>>> schemas = new LinkedHashMap<>();
+            Map<String, List<DataNode>> nodes = new LinkedHashMap<>();
+            for (DataNode node : dataNodes) {
+                schemas.computeIfAbsent(node.getTargetName(), s -> new LinkedHashSet<>())
+                        .add(new Pair<>(node.getTargetName(), node.getSchema()));
+                nodes.computeIfAbsent(node.getTargetName(), s -> new ArrayList<>()).add(node);
+            }
+            Map<Pair<String, String>, Throwable> schemaFailures = execute("create database for " + name, schemas, 1,
+                    dataContext, (connection, schema) -> createDatabaseIfNotExist(connection, schema.getValue()));
+            Map<DataNode, Throwable> failures = new LinkedHashMap<>();
+            for (List<DataNode> list : nodes.values()) {
+                Iterator<DataNode> iterator = list.iterator();
+                while (iterator.hasNext()) {
+                    DataNode node = iterator.next();
+                    Throwable throwable = schemaFailures.get(new Pair<>(node.getTargetName(), node.getSchema()));
+                    if (throwable != null) {
+                        failures.put(node, throwable);
+                        iterator.remove();
+                    }
+                }
+            }
+            int parallelismPerTarget = Math.max(1, MetaClusterCurrent.serverConfig().getDdlParallelismPerTarget());
+            Map<DataNode, Throwable> tableFailures = execute("create table " + name, nodes, parallelismPerTarget,
+                    dataContext, (connection, node) -> connection.executeUpdate(rewriteCreateTableSql(createTableSql, node.getSchema(), node.getTable()), false));
+            failures.putAll(tableFailures);
+            if (!failures.isEmpty()) {
+                throw new MycatException(failureMessage("create physical tables of " + name, failures, dataNodes.size()));
+            }
+        } finally {
+            if (dataContext != null) {
+                dataContext.setQueryState(null);
+            }
+        }
+    }
+
+    private static String failureMessage(String name, Map<DataNode, Throwable> failures, int total) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(" failed on ").append(failures.size()).append("/").append(total).append(" data nodes:");
+        int count = 0;
+        for (Map.Entry<DataNode, Throwable> e : failures.entrySet()) {
+            if (count++ == MAX_REPORTED_FAILURES) {
+                sb.append(" ...");
+                break;
+            }
+            sb.append(" ").append(e.getKey().getUniqueName()).append(":").append(e.getValue().getMessage()).append(";");
+        }
+        return sb.toString();
+    }
+
+    @FunctionalInterface
+    interface ConnectionTask<T> {
+        void run(DefaultConnection connection, T item);
+    }
+
+    /**
+     * 按target分组执行,每个worker在target上取一个连接,顺序执行分到的任务
+     * worker在mycatWorker线程池中并发执行,调用线程也取worker执行,线程池繁忙时退化为顺序执行
+     *
+     * @param byTarget 每个target上的任务,任务在所有target中唯一
+     * @return 失败的任务
+     */
+    static <T> Map<T, Throwable> execute(String name,
+                                         Map<String, ? extends Collection<T>> byTarget,
+                                         int perTarget,
+                                         MycatDataContext dataContext,
+                                         ConnectionTask<T> task) {
+        JdbcConnectionManager jdbcConnectionManager = MetaClusterCurrent.wrapper(JdbcConnectionManager.class);
+        Map<T, Throwable> failures = new ConcurrentHashMap<>();
+        int total = 0;
+        for (Collection<T> items : byTarget.values()) {
+            total += items.size();
+        }
+        Progress progress = new Progress(name, total, failures, dataContext);
+        ConcurrentLinkedQueue<Runnable> workers = new ConcurrentLinkedQueue<>();
+        for (Map.Entry<String, ? extends Collection<T>> e : byTarget.entrySet()) {
+            String target = e.getKey();
+            Collection<T> items = e.getValue();
+            if (items.isEmpty()) {
+                continue;
+            }
+            ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>(items);
+            for (int i = 0, n = Math.min(perTarget, items.size()); i < n; i++) {
+                workers.add(() -> {
+                    DefaultConnection connection = null;
+                    try {
+                        T item;
+                        while ((item = queue.poll()) != null) {
+                            try {
+                                if (connection == null) {
+                                    connection = jdbcConnectionManager.getConnection(target);
+                                }
+                                task.run(connection, item);
+                            } catch (Throwable throwable) {
+                                failures.put(item, throwable);
+                                LOGGER.error("{} target:{} item:{} fail", name, target, item, throwable);
+                            }
+                            progress.onFinished();
+                        }
+                    } finally {
+                        if (connection != null) {
+                            connection.close();
+                        }
+                    }
+                });
+            }
+        }
+        if (workers.isEmpty()) {
+            return failures;
+        }
+        long startTime = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(workers.size());
+        Runnable drain = () -> {
+            Runnable worker;
+            while ((worker = workers.poll()) != null) {
+                try {
+                    worker.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(MetaClusterCurrent.serverConfig().getDdlParallelism(), workers.size()) - 1;
+        if (helpers > 0 && MetaClusterCurrent.exist(MycatWorkerProcessor.class)) {
+            NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+            for (int i = 0; i < helpers; i++) {
+                mycatWorker.execute(drain);
+            }
+        }
+        drain.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MycatException(name + " is interrupted");
+        }
+        LOGGER.info("{} finished {} tasks, {} failed, in {}ms", name, total, failures.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return failures;
+    }
+
+    /**
+     * 每完成一个任务更新会话的State,每完成十分之一的任务打印一次进度
+     */
+    private static class Progress {
+        final String name;
+        final int total;
+        final int step;
+        final Map<?, Throwable> failures;
+        final MycatDataContext dataContext;
+        final AtomicInteger finished = new AtomicInteger();
+
+        Progress(String name, int total, Map<?, Throwable> failures, MycatDataContext dataContext) {
+            this.name = name;
+            this.total = total;
+            this.step = Math.max(1, total / 10);
+            this.failures = failures;
+            this.dataContext = dataContext;
+        }
+
+        void onFinished() {
+            int count = finished.incrementAndGet();
+            if (dataContext != null) {
+                dataContext.setQueryState(name + " " + count + "/" + total + ", " + failures.size() + " failed");
+            }
+            if (count % step == 0 && count != total) {
+                LOGGER.info("{} progress {}/{}, {} failed", name, count, total, failures.size());
+            }
+        }
+    }
 }
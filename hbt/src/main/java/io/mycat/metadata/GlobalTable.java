@@ -10,7 +10,6 @@ import io.mycat.plug.loadBalance.LoadBalanceStrategy;
 import java.util.*;
 import java.util.function.Supplier;
 
-import static io.mycat.metadata.LogicTable.rewriteCreateTableSql;
 
 public class GlobalTable implements GlobalTableHandler {
     private final LogicTable logicTable;
@@ -120,12 +119,7 @@ public class GlobalTable implements GlobalTableHandler {
             DDLHelper.createDatabaseIfNotExist(connection, getSchemaName());
             connection.executeUpdate(normalizeCreateTableSQLToMySQL(getCreateTableSQL()), false);
         }
-        for (DataNode node : getGlobalDataNode()) {
-            try (DefaultConnection connection = jdbcConnectionManager.getConnection(node.getTargetName())) {
-                DDLHelper.createDatabaseIfNotExist(connection, node);
-                connection.executeUpdate(rewriteCreateTableSql(normalizeCreateTableSQLToMySQL(getCreateTableSQL()), node.getSchema(), node.getTable()), false);
-            }
-        }
+        DDLHelper.createPhysicalTables(getUniqueName(), normalizeCreateTableSQLToMySQL(getCreateTableSQL()), getGlobalDataNode());
     }
 
 
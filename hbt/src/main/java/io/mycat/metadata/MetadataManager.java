@@ -45,6 +45,7 @@ import io.mycat.querycondition.*;
 import io.mycat.replica.ReplicaSelectorRuntime;
 import io.mycat.router.ShardingTableHandler;
 import io.mycat.router.mycat1xfunction.PartitionRuleFunctionManager;
+import io.mycat.util.JsonUtil;
 import io.mycat.util.NameMap;
 import io.mycat.util.SplitUtil;
 import lombok.Getter;
@@ -55,6 +56,8 @@ import org.slf4j.LoggerFactory;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -80,6 +83,32 @@ public class MetadataManager implements MysqlVariableService {
     private final NameMap<Object> globalVariables;
     private final NameMap<Object> sessionVariables;
 
+    /**
+     * 元数据加载的总并发数与单个targetName上的并发数
+     */
+    private final int loadParallelism;
+    private final int loadParallelismPerTarget;
+    /**
+     * 从快照读取但是还没有与后端校验的建表语句 schemaName -> tableName -> createTableSQL
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> unverifiedCreateTableSQLs = new ConcurrentHashMap<>();
+    private final Set<String> unverifiedTables = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<String>> unverifiedDefaultTables = new ConcurrentHashMap<>();
+    /**
+     * 本次加载得到的建表语句与自动发现的表,用于生成新的快照
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> loadedCreateTableSQLs = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> loadedDefaultTables = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> discoveredTables = new ConcurrentHashMap<>();
+    /**
+     * 创建时的schema配置副本,构造过程会往配置里添加自动发现的表,重新加载需要使用原来的配置
+     */
+    private final List<LogicSchemaConfig> schemaConfigs;
+    /**
+     * 加载过程中是否有从后端获取元数据失败的表
+     */
+    private volatile boolean fetchFailed = false;
+
 
     public void removeSchema(String schemaName) {
         schemaMap.remove(schemaName);
@@ -105,7 +134,6 @@ public class MetadataManager implements MysqlVariableService {
     }
 
 
-    @SneakyThrows
     public MetadataManager(List<LogicSchemaConfig> schemaConfigs,
                            LoadBalanceManager loadBalanceManager,
                            SequenceGenerator sequenceGenerator,
@@ -113,6 +141,35 @@ public class MetadataManager implements MysqlVariableService {
                            JdbcConnectionManager jdbcConnectionManager,
                            String prototype
     ) {
+        this(schemaConfigs, loadBalanceManager, sequenceGenerator, replicaSelectorRuntime, jdbcConnectionManager, prototype,
+                null, 1, 1);
+    }
+
+    /**
+     * @param snapshot                 上一次启动保存的元数据快照,可以为null,使用了快照的元数据需要调用reload重新加载校验
+     * @param loadParallelism          加载元数据的总并发数
+     * @param loadParallelismPerTarget 单个targetName上的加载并发数
+     */
+    @SneakyThrows
+    public MetadataManager(List<LogicSchemaConfig> schemaConfigs,
+                           LoadBalanceManager loadBalanceManager,
+                           SequenceGenerator sequenceGenerator,
+                           ReplicaSelectorRuntime replicaSelectorRuntime,
+                           JdbcConnectionManager jdbcConnectionManager,
+                           String prototype,
+                           MetadataSnapshot snapshot,
+                           int loadParallelism,
+                           int loadParallelismPerTarget
+    ) {
+        this.loadParallelism = Math.max(1, loadParallelism);
+        this.loadParallelismPerTarget = Math.max(1, loadParallelismPerTarget);
+        this.schemaConfigs = copySchemaConfigs(schemaConfigs);
+        if (snapshot != null && snapshot.isCompatible()) {
+            for (Map.Entry<String, Map<String, String>> e : snapshot.getCreateTableSQLs().entrySet()) {
+                unverifiedCreateTableSQLs.put(e.getKey(), new ConcurrentHashMap<>(e.getValue()));
+            }
+            unverifiedDefaultTables.putAll(snapshot.getDefaultTables());
+        }
         this.loadBalanceManager = Objects.requireNonNull(loadBalanceManager);
         this.sequenceGenerator = Objects.requireNonNull(sequenceGenerator);
         this.replicaSelectorRuntime = Objects.requireNonNull(replicaSelectorRuntime);
@@ -176,50 +233,73 @@ public class MetadataManager implements MysqlVariableService {
         }
 
         for (Map.Entry<String, LogicSchemaConfig> entry : schemaConfigMap.entrySet()) {
-            String orignalSchemaName = entry.getKey();
-            LogicSchemaConfig value = entry.getValue();
-            String targetName = value.getTargetName();
-            final String schemaName = orignalSchemaName;
-            addSchema(schemaName, targetName);
-            if (targetName != null) {
-                try (DefaultConnection connection = jdbcConnectionManager.getConnection(this.prototype)) {
-                    Map<String, NormalTableConfig> adds = getDefaultNormalTable(connection, schemaName);
-                    Map<String, NormalTableConfig> normalTables = value.getNormalTables();
-                    for (Map.Entry<String, NormalTableConfig> add : adds.entrySet()) {
-                        normalTables.computeIfAbsent(add.getKey(), (n) -> add.getValue());
-                    }
+            addSchema(entry.getKey(), entry.getValue().getTargetName());
+        }
+
+        //自动发现物理库中的表,只获取表名,建表语句与其他表一起并行获取
+        List<LoadTask> discoverTasks = new ArrayList<>();
+        for (Map.Entry<String, LogicSchemaConfig> entry : schemaConfigMap.entrySet()) {
+            final String schemaName = entry.getKey();
+            if (entry.getValue().getTargetName() != null) {
+                discoverTasks.add(new LoadTask(this.prototype, () -> loadedDefaultTables.put(schemaName, getDefaultTableNames(schemaName))));
+            }
+        }
+        runLoadTasks(discoverTasks);
+        for (Map.Entry<String, LogicSchemaConfig> entry : schemaConfigMap.entrySet()) {
+            String schemaName = entry.getKey();
+            Map<String, NormalTableConfig> normalTables = entry.getValue().getNormalTables();
+            for (String tableName : loadedDefaultTables.getOrDefault(schemaName, Collections.emptyList())) {
+                if (!normalTables.containsKey(tableName)) {
+                    normalTables.put(tableName, new NormalTableConfig(null, new NormalBackEndTableInfoConfig(prototype, schemaName, tableName)));
+                    discoveredTables.computeIfAbsent(schemaName, s -> ConcurrentHashMap.newKeySet()).add(tableName);
                 }
             }
+        }
+
+        List<LoadTask> tableTasks = new ArrayList<>();
+        for (Map.Entry<String, LogicSchemaConfig> entry : schemaConfigMap.entrySet()) {
+            final String schemaName = entry.getKey();
+            LogicSchemaConfig value = entry.getValue();
 
             for (Map.Entry<String, NormalTableConfig> e : value.getNormalTables().entrySet()) {
                 String tableName = e.getKey();
                 NormalTableConfig tableConfigEntry = e.getValue();
-                try {
-                    addNormalTable(schemaName, tableName,
-                            tableConfigEntry,
-                            prototype
-                    );
-                } catch (Throwable throwable) {
-                    LOGGER.warn("", throwable);
-                }
+                Runnable loader = () -> {
+                    try {
+                        addNormalTable(schemaName, tableName,
+                                tableConfigEntry,
+                                prototype
+                        );
+                    } catch (Throwable throwable) {
+                        fetchFailed = true;
+                        LOGGER.warn("", throwable);
+                    }
+                };
+                String targetName = Optional.ofNullable(tableConfigEntry.getDataNode())
+                        .map(NormalBackEndTableInfoConfig::getTargetName)
+                        .orElse(prototype);
+                tableTasks.add(new LoadTask(targetName, loader));
             }
             for (Map.Entry<String, GlobalTableConfig> e : value.getGlobalTables().entrySet()) {
                 String tableName = e.getKey();
                 GlobalTableConfig tableConfigEntry = e.getValue();
                 List<DataNode> backendTableInfos = tableConfigEntry.getDataNodes().stream().map(i -> new BackendTableInfo(i.getTargetName(), schemaName, tableName)).collect(Collectors.toList());
-                addGlobalTable(schemaName, tableName,
+                Runnable loader = () -> addGlobalTable(schemaName, tableName,
                         tableConfigEntry,
                         prototype,
                         backendTableInfos
                 );
+                tableTasks.add(new LoadTask(getLoadTargetName(backendTableInfos), loader));
             }
             for (Map.Entry<String, ShardingTableConfig> e : value.getShadingTables().entrySet()) {
                 String tableName = e.getKey();
                 ShardingTableConfig tableConfigEntry = e.getValue();
-                addShardingTable(schemaName, tableName,
+                List<DataNode> backends = getBackendTableInfos(tableConfigEntry.getDataNode());
+                Runnable loader = () -> addShardingTable(schemaName, tableName,
                         tableConfigEntry,
                         prototype,
-                        getBackendTableInfos(tableConfigEntry.getDataNode()));
+                        backends);
+                tableTasks.add(new LoadTask(getLoadTargetName(backends), loader));
             }
 
             for (Map.Entry<String, CustomTableConfig> e : value.getCustomTables().entrySet()) {
@@ -230,6 +310,205 @@ public class MetadataManager implements MysqlVariableService {
                 );
             }
         }
+        runLoadTasks(tableTasks);
+
+        //自动发现的表如果获取不到建表语句则不作为配置保留
+        for (Map.Entry<String, Set<String>> e : discoveredTables.entrySet()) {
+            String schemaName = e.getKey();
+            Map<String, NormalTableConfig> normalTables = schemaConfigMap.get(schemaName).getNormalTables();
+            for (String tableName : e.getValue()) {
+                String createTableSQL = Optional.ofNullable(loadedCreateTableSQLs.get(schemaName))
+                        .map(i -> i.get(tableName)).orElse(null);
+                if (createTableSQL == null) {
+                    normalTables.remove(tableName);
+                }
+            }
+        }
+    }
+
+    private static List<LogicSchemaConfig> copySchemaConfigs(List<LogicSchemaConfig> schemaConfigs) {
+        List<LogicSchemaConfig> res = new ArrayList<>(schemaConfigs.size());
+        for (LogicSchemaConfig schemaConfig : schemaConfigs) {
+            res.add(JsonUtil.from(JsonUtil.toJson(schemaConfig), LogicSchemaConfig.class));
+        }
+        return res;
+    }
+
+    private String getLoadTargetName(List<DataNode> backends) {
+        if (backends == null || backends.isEmpty()) {
+            return prototype;
+        }
+        return backends.get(0).getTargetName();
+    }
+
+    /**
+     * 并行执行元数据加载任务,每个targetName最多提交loadParallelismPerTarget个worker,
+     * worker依次执行该targetName上的任务,线程池中的线程不会阻塞等待其他target的并发名额
+     */
+    @SneakyThrows
+    private void runLoadTasks(List<LoadTask> tasks) {
+        if (loadParallelism <= 1 || tasks.size() <= 1) {
+            for (LoadTask task : tasks) {
+                task.runnable.run();
+            }
+            return;
+        }
+        Map<String, Queue<LoadTask>> byTarget = new LinkedHashMap<>();
+        for (LoadTask task : tasks) {
+            byTarget.computeIfAbsent(task.targetName, s -> new ConcurrentLinkedQueue<>()).add(task);
+        }
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        NameableExecutor executor = ExecutorUtil.create("MYCAT_METADATA_LOADER", Math.min(loadParallelism, tasks.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            //按targetName轮流提交worker
+            for (int i = 0; i < loadParallelismPerTarget; i++) {
+                for (Queue<LoadTask> queue : byTarget.values()) {
+                    if (queue.size() <= i) {
+                        continue;
+                    }
+                    futures.add(executor.submit(() -> {
+                        LoadTask task;
+                        while ((task = queue.poll()) != null) {
+                            try {
+                                task.runnable.run();
+                            } catch (Throwable e) {
+                                failures.add(e);
+                            }
+                        }
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Throwable failure = failures.peek();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class LoadTask {
+        final String targetName;
+        final Runnable runnable;
+
+        LoadTask(String targetName, Runnable runnable) {
+            this.targetName = Objects.toString(targetName);
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * 不使用快照,按照创建时的配置重新从后端加载全部元数据
+     * 返回新的MetadataManager,原来的元数据不会被修改,可以在查询执行时调用
+     */
+    public MetadataManager reload() {
+        return new MetadataManager(copySchemaConfigs(schemaConfigs),
+                loadBalanceManager,
+                sequenceGenerator,
+                replicaSelectorRuntime,
+                jdbcConnectionManager,
+                prototype,
+                null,
+                loadParallelism,
+                loadParallelismPerTarget);
+    }
+
+    /**
+     * 有表获取元数据失败时得到的元数据不完整,不应该替换正在使用的元数据或者写入快照
+     */
+    public boolean isFetchFailed() {
+        return fetchFailed;
+    }
+
+    public boolean isVerified() {
+        return unverifiedDefaultTables.isEmpty() && unverifiedTables.isEmpty();
+    }
+
+    public MetadataSnapshot getSnapshot() {
+        MetadataSnapshot snapshot = new MetadataSnapshot();
+        for (Map.Entry<String, ConcurrentHashMap<String, String>> e : loadedCreateTableSQLs.entrySet()) {
+            snapshot.getCreateTableSQLs().put(e.getKey(), new TreeMap<>(e.getValue()));
+        }
+        for (Map.Entry<String, List<String>> e : loadedDefaultTables.entrySet()) {
+            snapshot.getDefaultTables().put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * 复制元数据,schema与表对象都是共享的,修改前需要先调用copySchema
+     */
+    private MetadataManager(MetadataManager from) {
+        this.loadBalanceManager = from.loadBalanceManager;
+        this.sequenceGenerator = from.sequenceGenerator;
+        this.replicaSelectorRuntime = from.replicaSelectorRuntime;
+        this.jdbcConnectionManager = from.jdbcConnectionManager;
+        this.prototype = from.prototype;
+        this.globalVariables = from.globalVariables;
+        this.sessionVariables = from.sessionVariables;
+        this.loadParallelism = from.loadParallelism;
+        this.loadParallelismPerTarget = from.loadParallelismPerTarget;
+        this.schemaConfigs = from.schemaConfigs;
+        this.schemaMap.putAll(from.schemaMap);
+        for (Map.Entry<String, ConcurrentHashMap<String, String>> e : from.loadedCreateTableSQLs.entrySet()) {
+            this.loadedCreateTableSQLs.put(e.getKey(), new ConcurrentHashMap<>(e.getValue()));
+        }
+        this.loadedDefaultTables.putAll(from.loadedDefaultTables);
+    }
+
+    private void copySchema(String schemaName, String defaultTargetName) {
+        SchemaHandler old = schemaMap.get(schemaName);
+        SchemaHandlerImpl schemaHandler = new SchemaHandlerImpl(schemaName,
+                old == null ? defaultTargetName : old.defaultTargetName());
+        if (old != null) {
+            schemaHandler.logicTables().putAll(old.logicTables());
+        }
+        schemaMap.put(schemaName, schemaHandler);
+    }
+
+    /**
+     * 写时复制,只加载变化的表,其他的schema与表和原来的元数据共享,原来的元数据不会被修改
+     */
+    public MetadataManager copyWithTable(LogicSchemaConfig schemaConfig, String tableName) {
+        String schemaName = schemaConfig.getSchemaName();
+        MetadataManager metadataManager = new MetadataManager(this);
+        metadataManager.copySchema(schemaName, schemaConfig.getTargetName());
+        metadataManager.removeTable(schemaName, tableName);
+        NormalTableConfig normalTableConfig = schemaConfig.getNormalTables().get(tableName);
+        GlobalTableConfig globalTableConfig = schemaConfig.getGlobalTables().get(tableName);
+        ShardingTableConfig shardingTableConfig = schemaConfig.getShadingTables().get(tableName);
+        CustomTableConfig customTableConfig = schemaConfig.getCustomTables().get(tableName);
+        if (normalTableConfig != null) {
+            metadataManager.addNormalTable(schemaName, tableName, normalTableConfig, prototype);
+        } else if (globalTableConfig != null) {
+            List<DataNode> backendTableInfos = globalTableConfig.getDataNodes().stream().map(i -> new BackendTableInfo(i.getTargetName(), schemaName, tableName)).collect(Collectors.toList());
+            metadataManager.addGlobalTable(schemaName, tableName, globalTableConfig, prototype, backendTableInfos);
+        } else if (shardingTableConfig != null) {
+            metadataManager.addShardingTable(schemaName, tableName, shardingTableConfig, prototype,
+                    getBackendTableInfos(shardingTableConfig.getDataNode()));
+        } else if (customTableConfig != null) {
+            metadataManager.addCustomTable(schemaName, tableName, customTableConfig);
+        } else {
+            throw new IllegalArgumentException("unknown table:" + schemaName + "." + tableName);
+        }
+        return metadataManager;
+    }
+
+    /**
+     * 写时复制,只移除指定的表,原来的元数据不会被修改
+     */
+    public MetadataManager copyWithoutTable(String schemaName, String tableName) {
+        MetadataManager metadataManager = new MetadataManager(this);
+        if (metadataManager.schemaMap.containsKey(schemaName)) {
+            metadataManager.copySchema(schemaName, null);
+            metadataManager.removeTable(schemaName, tableName);
+            Optional.ofNullable(metadataManager.loadedCreateTableSQLs.get(schemaName)).ifPresent(i -> i.remove(tableName));
+        }
+        return metadataManager;
     }
 
     private void addInnerTable(List<LogicSchemaConfig> schemaConfigs, String prototype) {
@@ -290,25 +569,45 @@ public class MetadataManager implements MysqlVariableService {
 //        });
     }
 
-    private Map<String, NormalTableConfig> getDefaultNormalTable(DefaultConnection connection, String schemaName) {
-        Set<String> tables = new HashSet<>();
-        RowBaseIterator tableIterator = connection.executeQuery("show tables from " + schemaName);
-        while (tableIterator.next()) {
-            tables.add(tableIterator.getString(1));
+    private List<String> getDefaultTableNames(String schemaName) {
+        List<String> tableNames = unverifiedDefaultTables.get(schemaName);
+        if (tableNames != null) {
+            return tableNames;
         }
-        Map<String, NormalTableConfig> res = new HashMap<>();
-        for (String tableName : tables) {
-            NormalBackEndTableInfoConfig normalBackEndTableInfoConfig = new NormalBackEndTableInfoConfig(prototype, schemaName, tableName);
-            try {
-                res.put(tableName, (new NormalTableConfig(
-                        getCreateTableSQLByJDBC(schemaName, tableName,
-                                Collections.singletonList(new BackendTableInfo(prototype, schemaName, tableName))),
-                        normalBackEndTableInfoConfig)));
-            } catch (Throwable e) {
-                LOGGER.warn("", e);
+        return fetchDefaultTableNames(schemaName);
+    }
+
+    private List<String> fetchDefaultTableNames(String schemaName) {
+        List<String> tables = new ArrayList<>();
+        try (DefaultConnection connection = jdbcConnectionManager.getConnection(this.prototype)) {
+            try (RowBaseIterator tableIterator = connection.executeQuery("show tables from " + schemaName)) {
+                while (tableIterator.next()) {
+                    tables.add(tableIterator.getString(1));
+                }
             }
         }
-        return res;
+        return tables;
+    }
+
+    /**
+     * 优先使用快照中的建表语句,使用快照的表记录下来,等待reload校验
+     */
+    private String resolveCreateTableSQL(String schemaName, String tableName, List<DataNode> backends) {
+        String createTableSQL = Optional.ofNullable(unverifiedCreateTableSQLs.get(schemaName))
+                .map(i -> i.get(tableName)).orElse(null);
+        if (createTableSQL != null) {
+            unverifiedTables.add(schemaName + "." + tableName);
+        } else {
+            createTableSQL = getCreateTableSQLByJDBC(schemaName, tableName, backends);
+        }
+        if (createTableSQL != null) {
+            recordCreateTableSQL(schemaName, tableName, createTableSQL);
+        }
+        return createTableSQL;
+    }
+
+    private void recordCreateTableSQL(String schemaName, String tableName, String createTableSQL) {
+        loadedCreateTableSQLs.computeIfAbsent(schemaName, s -> new ConcurrentHashMap<>()).put(tableName, createTableSQL);
     }
 
     private void addCustomTable(String schemaName,
@@ -333,7 +632,7 @@ public class MetadataManager implements MysqlVariableService {
                 Optional.ofNullable(dataNode.getSchemaName()).orElse(schemaName),
                 Optional.ofNullable(dataNode.getTableName()).orElse(tableName)));
         String createTableSQL = Optional.ofNullable(tableConfigEntry.getCreateTableSQL())
-                .orElseGet(() -> getCreateTableSQLByJDBC(schemaName, tableName, dataNodes));
+                .orElseGet(() -> resolveCreateTableSQL(schemaName, tableName, dataNodes));
         if (createTableSQL != null) {
             List<SimpleColumnInfo> columns = getSimpleColumnInfos(prototypeServer, schemaName, tableName, createTableSQL, dataNodes);
             addLogicTable(LogicTable.createNormalTable(schemaName, tableName, dataNodes.get(0), columns, createTableSQL));
@@ -350,7 +649,7 @@ public class MetadataManager implements MysqlVariableService {
         //////////////////////////////////////////////
         final String tableName = orignalTableName;
         String createTableSQL = Optional.ofNullable(tableConfigEntry.getCreateTableSQL())
-                .orElseGet(() -> getCreateTableSQLByJDBC(schemaName, orignalTableName, backendTableInfos));
+                .orElseGet(() -> resolveCreateTableSQL(schemaName, orignalTableName, backendTableInfos));
         List<SimpleColumnInfo> columns = getSimpleColumnInfos(prototypeServer, schemaName, tableName, createTableSQL, backendTableInfos);
         //////////////////////////////////////////////
 
@@ -397,7 +696,7 @@ public class MetadataManager implements MysqlVariableService {
                                   String prototypeServer,
                                   List<DataNode> backends) {
         //////////////////////////////////////////////
-        String createTableSQL = Optional.ofNullable(tableConfigEntry.getCreateTableSQL()).orElseGet(() -> getCreateTableSQLByJDBC(schemaName, orignalTableName, backends));
+        String createTableSQL = Optional.ofNullable(tableConfigEntry.getCreateTableSQL()).orElseGet(() -> resolveCreateTableSQL(schemaName, orignalTableName, backends));
         List<SimpleColumnInfo> columns = getSimpleColumnInfos(prototypeServer, schemaName, orignalTableName, createTableSQL, backends);
         //////////////////////////////////////////////
         String s = schemaName + "_" + orignalTableName;
@@ -567,6 +866,7 @@ public class MetadataManager implements MysqlVariableService {
                     }
                 }
             } catch (Throwable e) {
+                fetchFailed = true;
                 LOGGER.error("can not get create table sql from:" + backend.getTargetName() + backend.getTargetSchemaTable(), e);
                 continue;
             }
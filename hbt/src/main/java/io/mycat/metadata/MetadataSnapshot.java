@@ -0,0 +1,31 @@
+package io.mycat.metadata;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.*;
+
+/**
+ * 元数据快照,记录上一次启动时从后端获取的建表语句,用于快速启动
+ * 快照中的信息在启动后会在后台重新校验
+ */
+@Data
+@EqualsAndHashCode
+public class MetadataSnapshot {
+    public static final int CURRENT_VERSION = 1;
+
+    private int version = CURRENT_VERSION;
+    private String timestamp;
+    /**
+     * schemaName -> tableName -> createTableSQL
+     */
+    private Map<String, Map<String, String>> createTableSQLs = new HashMap<>();
+    /**
+     * schemaName -> 通过show tables自动发现的表名
+     */
+    private Map<String, List<String>> defaultTables = new HashMap<>();
+
+    public boolean isCompatible() {
+        return version == CURRENT_VERSION;
+    }
+}
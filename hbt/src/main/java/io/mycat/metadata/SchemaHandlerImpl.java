@@ -2,11 +2,11 @@ package io.mycat.metadata;
 
 import io.mycat.TableHandler;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SchemaHandlerImpl implements SchemaHandler {
-    final Map<String, TableHandler> tableMap = new HashMap<>();
+    final Map<String, TableHandler> tableMap = new ConcurrentHashMap<>();
     private String name;
     final String defaultTargetName;
 
@@ -12,7 +12,6 @@ import java.util.*;
 import java.util.function.Supplier;
 
 import static io.mycat.metadata.DDLHelper.createDatabaseIfNotExist;
-import static io.mycat.metadata.LogicTable.rewriteCreateTableSql;
 
 @Getter
 public class ShardingTable implements ShardingTableHandler {
@@ -71,12 +70,7 @@ public class ShardingTable implements ShardingTableHandler {
             createDatabaseIfNotExist(connection,getSchemaName());
             connection.executeUpdate(normalizeCreateTableSQLToMySQL(getCreateTableSQL()), false);
         }
-        for (DataNode node : getBackends()) {
-            try (DefaultConnection connection = jdbcConnectionManager.getConnection(node.getTargetName())) {
-                createDatabaseIfNotExist(connection,node);
-                connection.executeUpdate(rewriteCreateTableSql(normalizeCreateTableSQLToMySQL(getCreateTableSQL()),node.getSchema(), node.getTable()), false);
-            }
-        }
+        DDLHelper.createPhysicalTables(getUniqueName(), normalizeCreateTableSQLToMySQL(getCreateTableSQL()), getBackends());
     }
 
     @Override
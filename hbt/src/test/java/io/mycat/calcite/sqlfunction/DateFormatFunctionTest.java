@@ -0,0 +1,74 @@
+package io.mycat.calcite.sqlfunction;
+
+import io.mycat.calcite.sqlfunction.datefunction.DateFormatFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+public class DateFormatFunctionTest {
+
+    @Test
+    public void testFastPath() {
+        Assert.assertEquals("2020-01-02 03:04:05", DateFormatFunction.dateFormat("2020-01-02 03:04:05", "%Y-%m-%d %H:%i:%s", Locale.US));
+        Assert.assertEquals("20200102", DateFormatFunction.dateFormat("2020-01-02", "%Y%m%d", Locale.US));
+        Assert.assertEquals("00:00:00", DateFormatFunction.dateFormat("2020-01-02", "%H:%i:%S", Locale.US));
+        Assert.assertEquals("2020/02-29%", DateFormatFunction.dateFormat("2020-02-29 10:11:12", "%Y/%m-%d%%", Locale.US));
+    }
+
+    /**
+     * 期望值与mysql的date_format一致
+     */
+    @Test
+    public void testMySQLValues() {
+        String[] dates = {"2020-01-02 03:04:05", "2020-12-31", "2021-06-15 23:59:59"};
+        String[][] expected = {
+                {"%a %b %c %D %e %j %k %l %p",
+                        "Thu Jan 1 2nd 2 002 3 3 AM",
+                        "Thu Dec 12 31st 31 366 0 12 AM",
+                        "Tue Jun 6 15th 15 166 23 11 PM"},
+                {"%W %M %y %T %r",
+                        "Thursday January 20 03:04:05 03:04:05 AM",
+                        "Thursday December 20 00:00:00 12:00:00 AM",
+                        "Tuesday June 21 23:59:59 11:59:59 PM"},
+                //%V,%X周日为一周的第一天,%v,%x周一为一周的第一天
+                {"%V %v %w %X %x %U %u",
+                        "52 01 4 2019 2020 00 01",
+                        "52 53 4 2020 2020 52 53",
+                        "24 24 2 2021 2021 24 24"},
+        };
+        for (String[] row : expected) {
+            for (int i = 0; i < dates.length; i++) {
+                Assert.assertEquals(row[0] + " " + dates[i], row[i + 1], DateFormatFunction.dateFormat(dates[i], row[0], Locale.US));
+            }
+        }
+        //周日为0,2021年的第一个周日开始%U,%V的第1周
+        Assert.assertEquals("0 Sun 01 2021 53 2020 01", DateFormatFunction.dateFormat("2021-01-03", "%w %a %V %X %v %x %U", Locale.US));
+        Assert.assertEquals("6 Sat 52 2020 53 2020 00", DateFormatFunction.dateFormat("2021-01-02", "%w %a %V %X %v %x %U", Locale.US));
+    }
+
+    /**
+     * 按位置解析的快速路径与按LocalDateTime格式化的结果一致
+     */
+    @Test
+    public void testSameAsFormatter() {
+        String[] formats = {"%Y-%m-%d %H:%i:%s", "%a %b %c %D %e %j %k %l %p", "%W %M %y %T %r", "%V %v %w %X %x"};
+        String[] dates = {"2020-01-02 03:04:05", "2020-12-31", "2021-06-15 23:59:59"};
+        for (String format : formats) {
+            for (String date : dates) {
+                LocalDateTime dateTime = LocalDateTime.parse(date.length() == 10 ? date + "T00:00:00" : date.replace(' ', 'T'));
+                Assert.assertEquals(DateFormatFunction.dateFormat(format, Locale.US, dateTime),
+                        DateFormatFunction.dateFormat(date, format, Locale.US));
+            }
+        }
+        Assert.assertEquals("Thursday January 2nd 20", DateFormatFunction.dateFormat("2020-01-02 03:04:05", "%W %M %D %y", Locale.US));
+    }
+
+    @Test
+    public void testFallback() {
+        //不是固定位置的格式使用原来的解析
+        Assert.assertEquals("2020-01-02 03:04:05", DateFormatFunction.dateFormat("2020-1-2 3:4:5", "%Y-%m-%d %H:%i:%s", Locale.US));
+        Assert.assertEquals("2021-06-15 12:00:00", DateFormatFunction.dateFormat("2021-06-15 12:00:00.123", "%Y-%m-%d %H:%i:%s", Locale.US));
+    }
+}
@@ -0,0 +1,94 @@
+package io.mycat.calcite.sqlfunction;
+
+import io.mycat.calcite.sqlfunction.datefunction.DateFormatFunction;
+import io.mycat.calcite.sqlfunction.datefunction.FromUnixTimeFormatFunction;
+import io.mycat.calcite.sqlfunction.stringfunction.*;
+import lombok.SneakyThrows;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常用sql函数每行的耗时,格式和表达式参数都是常量
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlFunctionBenchmark {
+    private String dateTimeText = "2020-11-30 13:45:06";
+    private String dateText = "2020-11-30";
+    private String fractionText = "2020-11-30 13:45:06.123";
+    private String text = "mycat2 distributed database middleware";
+
+    @SneakyThrows
+    public static void main(String[] args) {
+        Options opt = new OptionsBuilder().include(SqlFunctionBenchmark.class.getSimpleName()).build();
+        new Runner(opt).run();
+    }
+
+    @Benchmark
+    public String dateFormatDateTime() {
+        return DateFormatFunction.dateFormat(dateTimeText, "%Y-%m-%d %H:%i:%s", (String) null);
+    }
+
+    @Benchmark
+    public String dateFormatDate() {
+        return DateFormatFunction.dateFormat(dateText, "%Y%m%d", (String) null);
+    }
+
+    @Benchmark
+    public String dateFormatText() {
+        return DateFormatFunction.dateFormat(dateTimeText, "%W %M %D %Y", (String) null);
+    }
+
+    @Benchmark
+    public String dateFormatFraction() {
+        return DateFormatFunction.dateFormat(fractionText, "%Y-%m-%d %H:%i:%s", (String) null);
+    }
+
+    @Benchmark
+    public String fromUnixTime() {
+        return FromUnixTimeFormatFunction.fromUnixTime(1606743906L, "%Y-%m-%d %H:%i:%s");
+    }
+
+    @Benchmark
+    public Boolean regexp() {
+        return RegexpFunction.regexp(text, "dis[a-z]+ed");
+    }
+
+    @Benchmark
+    public String regexpReplace() {
+        return RegexpReplaceFunction.regexpReplace(text, "[aeiou]", "_");
+    }
+
+    @Benchmark
+    public Integer regexpInstr() {
+        return RegexpInstrFunction.regexpInstr(text, "data[a-z]+");
+    }
+
+    @Benchmark
+    public Integer locate() {
+        return LocateFunction.locate("middle", text);
+    }
+
+    @Benchmark
+    public String replace() {
+        return ReplaceFunction.replace(text, "database", "db");
+    }
+
+    @Benchmark
+    public Integer findInSet() {
+        return FindInSetFunction.findInSet("c", "a,b,c,d");
+    }
+
+    @Benchmark
+    public String lpad() {
+        return LpadFunction.lpad(dateText, 16, "*");
+    }
+}
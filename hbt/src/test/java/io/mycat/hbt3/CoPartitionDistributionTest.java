@@ -0,0 +1,236 @@
+package io.mycat.hbt3;
+
+import com.alibaba.fastsql.sql.SQLUtils;
+import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlCreateTableStatement;
+import io.mycat.BackendTableInfo;
+import io.mycat.DataNode;
+import io.mycat.MycatDataContext;
+import io.mycat.calcite.CalciteConvertors;
+import io.mycat.config.ShardingFuntion;
+import io.mycat.hbt4.PlanCache;
+import io.mycat.metadata.*;
+import io.mycat.router.mycat1xfunction.PartitionByHashMod;
+import io.mycat.router.mycat1xfunction.PartitionByMod;
+import io.mycat.router.mycat1xfunction.PartitionRuleFunctionManager;
+import org.apache.calcite.MycatContext;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+public class CoPartitionDistributionTest {
+    private static final String SCHEMA = "db1";
+    private ShardingTable a;
+    private ShardingTable b;
+    private ShardingTable c;
+    private ShardingTable d;
+    private DrdsRunner drdsRunner;
+    private MycatDataContext dataContext;
+
+    @Before
+    public void setUp() throws Exception {
+        //a,b分片算法与分片相同,c分片算法不同,d分片数量不同
+        a = shardingTable("a", PartitionByMod.class, 4);
+        b = shardingTable("b", PartitionByMod.class, 4);
+        c = shardingTable("c", PartitionByHashMod.class, 4);
+        d = shardingTable("d", PartitionByMod.class, 2);
+        SchemaHandlerImpl schemaHandler = new SchemaHandlerImpl(SCHEMA, "prototype");
+        for (ShardingTable table : Arrays.asList(a, b, c, d)) {
+            schemaHandler.logicTables().put(table.getTableName(), table);
+        }
+        //自动分片表:e,f分库分表都按id,o1,o2分库按id分表按user_id,o3分库数量不同
+        schemaHandler.logicTables().put("e", autoTable("e", 2, "hash(id)", "hash(id)"));
+        schemaHandler.logicTables().put("f", autoTable("f", 2, "hash(id)", "hash(id)"));
+        schemaHandler.logicTables().put("o1", autoTable("o1", 2, "hash(id)", "hash(user_id)"));
+        schemaHandler.logicTables().put("o2", autoTable("o2", 2, "hash(id)", "hash(user_id)"));
+        schemaHandler.logicTables().put("o3", autoTable("o3", 4, "hash(id)", "hash(user_id)"));
+        Map<String, SchemaHandler> schemas = Collections.singletonMap(SCHEMA, schemaHandler);
+        drdsRunner = new DrdsRunner(() -> schemas, PlanCache.INSTANCE);
+        dataContext = (MycatDataContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{MycatDataContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getDefaultSchema":
+                            return SCHEMA;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return method.getReturnType() == boolean.class ? false : null;
+                    }
+                });
+        MycatContext.CONTEXT.set(dataContext);
+    }
+
+    @After
+    public void tearDown() {
+        PlanCache.INSTANCE.clear();
+        MycatContext.CONTEXT.remove();
+    }
+
+    /**
+     * 按id分片,分片依次分布在c0,c1上
+     */
+    private static ShardingTable shardingTable(String table, Class<?> function, int count) throws Exception {
+        String createTableSQL = "CREATE TABLE db1." + table + " (\n" +
+                "  `id` bigint NOT NULL,\n" +
+                "  `fee` bigint DEFAULT NULL,\n" +
+                "  PRIMARY KEY (`id`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            dataNodes.add(new BackendTableInfo("c" + (i % 2), SCHEMA + "_" + (i % 2), table + "_" + i));
+        }
+        MySqlCreateTableStatement statement = (MySqlCreateTableStatement) SQLUtils.parseSingleMysqlStatement(createTableSQL);
+        ShardingTable shardingTable = LogicTable.createShardingTable(SCHEMA, table, dataNodes,
+                CalciteConvertors.getColumnInfo(SQL2ResultSetUtil.getMycatRowMetaData(statement)), null, createTableSQL);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("columnName", "id");
+        properties.put("count", String.valueOf(count));
+        ShardingFuntion shardingFuntion = ShardingFuntion.builder().name(function.getSimpleName()).clazz(function.getName())
+                .properties(properties).ranges(new HashMap<>()).build();
+        shardingTable.setShardingFuntion(PartitionRuleFunctionManager.getRuleAlgorithm(shardingTable, shardingFuntion));
+        return shardingTable;
+    }
+
+    /**
+     * 每个库2个分表,库依次分布在c0,c1上
+     */
+    private static ShardingTable autoTable(String table, int dbNum, String dbMethod, String tableMethod) throws Exception {
+        String createTableSQL = "CREATE TABLE db1." + table + " (\n" +
+                "  `id` bigint NOT NULL,\n" +
+                "  `user_id` bigint NOT NULL,\n" +
+                "  `fee` bigint DEFAULT NULL,\n" +
+                "  PRIMARY KEY (`id`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+        MySqlCreateTableStatement statement = (MySqlCreateTableStatement) SQLUtils.parseSingleMysqlStatement(createTableSQL);
+        ShardingTable shardingTable = LogicTable.createShardingTable(SCHEMA, table, new ArrayList<>(),
+                CalciteConvertors.getColumnInfo(SQL2ResultSetUtil.getMycatRowMetaData(statement)), null, createTableSQL);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("dbNum", String.valueOf(dbNum));
+        properties.put("tableNum", "2");
+        properties.put("storeNum", "2");
+        properties.put("dbMethod", dbMethod);
+        properties.put("tableMethod", tableMethod);
+        ShardingFuntion function = ShardingFuntion.builder().properties(properties).ranges(new HashMap<>()).build();
+        shardingTable.setShardingFuntion(PartitionRuleFunctionManager.getRuleAlgorithm(shardingTable, function));
+        return shardingTable;
+    }
+
+    @Test
+    public void testIsCoPartitioned() {
+        Assert.assertTrue(CoPartitionDistribution.isCoPartitioned(a, a));
+        Assert.assertTrue(CoPartitionDistribution.isCoPartitioned(a, b));
+        Assert.assertTrue(CoPartitionDistribution.isCoPartitioned(b, a));
+        Assert.assertFalse(CoPartitionDistribution.isCoPartitioned(a, c));
+        Assert.assertFalse(CoPartitionDistribution.isCoPartitioned(a, d));
+    }
+
+    /**
+     * @return 执行计划中所有View的分布
+     */
+    private List<Distribution> plan(String sql, List<Object> params) {
+        DrdsSql drdsSql = drdsRunner.preParse(Collections.singletonList(SQLUtils.parseSingleMysqlStatement(sql)),
+                Collections.emptyList()).iterator().next();
+        drdsSql = drdsRunner.convertToMycatRel(Collections.singletonList(drdsSql), dataContext).iterator().next();
+        params.addAll(drdsSql.getParams());
+        List<Distribution> distributions = new ArrayList<>();
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if (node instanceof View) {
+                    distributions.add(((View) node).getDistribution());
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(drdsSql.getRelNode());
+        return distributions;
+    }
+
+    /**
+     * 连接下推为一个View时返回访问的分片下标,否则返回null
+     */
+    private List<Integer> coPartitions(String sql) {
+        List<Object> params = new ArrayList<>();
+        List<Distribution> distributions = plan(sql, params);
+        if (distributions.size() != 1 || !(distributions.get(0) instanceof CoPartitionDistribution)) {
+            return null;
+        }
+        return partitions(distributions.get(0), params);
+    }
+
+    private static List<Integer> partitions(Distribution distribution, List<Object> params) {
+        List<Integer> res = new ArrayList<>();
+        for (DataNode dataNode : distribution.getDataNodes(params)) {
+            res.add(((CoPartitionDistribution.PartitionDataNode) dataNode).getIndex());
+        }
+        return res;
+    }
+
+    @Test
+    public void testInnerJoin() {
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), coPartitions("select * from a join b on a.id = b.id"));
+        //任意一侧的分片字段条件都可以裁剪分片
+        Assert.assertEquals(Collections.singletonList(1), coPartitions("select * from a join b on a.id = b.id where a.id = 1"));
+        Assert.assertEquals(Collections.singletonList(3), coPartitions("select * from a join b on a.id = b.id where b.id = 3"));
+        //参数化后使用相同的计划,分片按参数计算
+        Assert.assertEquals(Collections.singletonList(2), coPartitions("select * from a join b on a.id = b.id where a.id = 2"));
+    }
+
+    @Test
+    public void testLeftJoin() {
+        //右侧的条件不能减少左侧保留的行
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), coPartitions("select * from a left join b on a.id = b.id and b.id = 1"));
+        Assert.assertEquals(Collections.singletonList(1), coPartitions("select * from a left join b on a.id = b.id where a.id = 1"));
+    }
+
+    @Test
+    public void testSemiJoin() {
+        //in,exists子查询会被展开为连接,这里直接用两侧已经裁剪的分布组合
+        List<Object> params = new ArrayList<>();
+        List<Distribution> distributions = plan("select * from a, b where a.id = 1 and b.id = 1", params);
+        Assert.assertEquals(2, distributions.size());
+        CoPartitionDistribution semi = new CoPartitionDistribution(distributions.get(0), a, distributions.get(1), b, JoinRelType.SEMI);
+        Assert.assertEquals(Collections.singletonList(1), partitions(semi, params));
+
+        params = new ArrayList<>();
+        distributions = plan("select * from a, b where a.id = 1 and b.id = 2", params);
+        semi = new CoPartitionDistribution(distributions.get(0), a, distributions.get(1), b, JoinRelType.SEMI);
+        //交集为空时仍然访问一个分片得到空结果集
+        Assert.assertEquals(Collections.singletonList(1), partitions(semi, params));
+        CoPartitionDistribution anti = new CoPartitionDistribution(distributions.get(0), a, distributions.get(1), b, JoinRelType.ANTI);
+        Assert.assertEquals(Collections.singletonList(1), partitions(anti, params));
+    }
+
+    @Test
+    public void testNotCoPartitioned() {
+        Assert.assertNull(coPartitions("select * from a join c on a.id = c.id"));
+        Assert.assertNull(coPartitions("select * from a join d on a.id = d.id"));
+        //不是分片字段的等值连接
+        Assert.assertNull(coPartitions("select * from a join b on a.fee = b.fee"));
+        Assert.assertNull(coPartitions("select * from a join b on a.id = b.fee"));
+    }
+
+    @Test
+    public void testAutoTable() {
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), coPartitions("select * from e join f on e.id = f.id"));
+        Assert.assertEquals(Collections.singletonList(1), coPartitions("select * from e join f on e.id = f.id where e.id = 1"));
+        //与mycat1x的分片算法不同
+        Assert.assertNull(coPartitions("select * from a join e on a.id = e.id"));
+        //分库分表字段不同时,两个分片字段都要在相同的位置上等值连接
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3),
+                coPartitions("select * from o1 join o2 on o1.id = o2.id and o1.user_id = o2.user_id"));
+        Assert.assertNull(coPartitions("select * from o1 join o2 on o1.id = o2.id"));
+        Assert.assertNull(coPartitions("select * from o1 join o2 on o1.id = o2.user_id and o1.user_id = o2.id"));
+        //分库数量不同
+        Assert.assertNull(coPartitions("select * from o1 join o3 on o1.id = o3.id and o1.user_id = o3.user_id"));
+        //分片字段位置不同
+        Assert.assertNull(coPartitions("select * from e join o1 on e.id = o1.id"));
+    }
+}
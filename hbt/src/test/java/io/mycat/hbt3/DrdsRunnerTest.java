@@ -0,0 +1,68 @@
+package io.mycat.hbt3;
+
+import com.alibaba.fastsql.sql.SQLUtils;
+import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlCreateTableStatement;
+import io.mycat.BackendTableInfo;
+import io.mycat.TableHandler;
+import io.mycat.calcite.CalciteConvertors;
+import io.mycat.calcite.table.MycatLogicTable;
+import io.mycat.hbt4.PlanCache;
+import io.mycat.metadata.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DrdsRunnerTest {
+
+    private static TableHandler normalTable(String schemaName, String tableName) {
+        String createTableSQL = "CREATE TABLE " + schemaName + "." + tableName + " (\n" +
+                "  `id` bigint NOT NULL,\n" +
+                "  PRIMARY KEY (`id`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+        MySqlCreateTableStatement statement = (MySqlCreateTableStatement) SQLUtils.parseSingleMysqlStatement(createTableSQL);
+        return LogicTable.createNormalTable(schemaName, tableName, new BackendTableInfo("c0", schemaName, tableName),
+                CalciteConvertors.getColumnInfo(SQL2ResultSetUtil.getMycatRowMetaData(statement)), createTableSQL);
+    }
+
+    private static SchemaHandlerImpl schema(String schemaName, TableHandler... tables) {
+        SchemaHandlerImpl schemaHandler = new SchemaHandlerImpl(schemaName, "c0");
+        for (TableHandler table : tables) {
+            schemaHandler.logicTables().put(table.getTableName(), table);
+        }
+        return schemaHandler;
+    }
+
+    @Test
+    public void testReuseSchema() {
+        TableHandler t1 = normalTable("db1", "t1");
+        SchemaHandlerImpl db2 = schema("db2", normalTable("db2", "t3"));
+        Map<String, SchemaHandler> schemas = new HashMap<>();
+        schemas.put("db1", schema("db1", t1, normalTable("db1", "t2")));
+        schemas.put("db2", db2);
+        DrdsRunner previous = new DrdsRunner(() -> schemas, PlanCache.INSTANCE);
+
+        //db1.t2被重新创建
+        TableHandler t2 = normalTable("db1", "t2");
+        Map<String, SchemaHandler> changed = new HashMap<>();
+        changed.put("db1", schema("db1", t1, t2));
+        changed.put("db2", db2);
+        DrdsRunner drdsRunner = new DrdsRunner(() -> changed, PlanCache.INSTANCE, previous, "db1");
+
+        //没有变化的schema直接复用
+        Assert.assertSame(previous.mycatSchemas.get("db2"), drdsRunner.mycatSchemas.get("db2"));
+        MycatSchema previousDb1 = previous.mycatSchemas.get("db1");
+        MycatSchema db1 = drdsRunner.mycatSchemas.get("db1");
+        Assert.assertNotSame(previousDb1, db1);
+        //变化的schema中没有变化的表复用原来的MycatLogicTable
+        Assert.assertSame(previousDb1.getMycatTableMap().get("t1"), db1.getMycatTableMap().get("t1"));
+        Assert.assertNotSame(previousDb1.getMycatTableMap().get("t2"), db1.getMycatTableMap().get("t2"));
+        Assert.assertSame(t2, ((MycatLogicTable) db1.getMycatTableMap().get("t2")).getTable());
+
+        //没有previous时全部重建
+        DrdsRunner rebuilt = new DrdsRunner(() -> changed, PlanCache.INSTANCE);
+        Assert.assertNotSame(previous.mycatSchemas.get("db2"), rebuilt.mycatSchemas.get("db2"));
+        Assert.assertNotSame(db1.getMycatTableMap().get("t1"), rebuilt.mycatSchemas.get("db1").getMycatTableMap().get("t1"));
+    }
+}
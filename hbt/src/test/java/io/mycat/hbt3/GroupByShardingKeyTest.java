@@ -0,0 +1,118 @@
+package io.mycat.hbt3;
+
+import com.alibaba.fastsql.sql.SQLUtils;
+import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlCreateTableStatement;
+import io.mycat.MycatDataContext;
+import io.mycat.calcite.CalciteConvertors;
+import io.mycat.config.ShardingFuntion;
+import io.mycat.hbt4.PlanCache;
+import io.mycat.metadata.*;
+import io.mycat.router.mycat1xfunction.PartitionRuleFunctionManager;
+import org.apache.calcite.MycatContext;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
+import org.apache.calcite.rel.core.Aggregate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+public class GroupByShardingKeyTest {
+    private static final String SCHEMA = "db1";
+    private DrdsRunner drdsRunner;
+    private MycatDataContext dataContext;
+
+    @Before
+    public void setUp() throws Exception {
+        SchemaHandlerImpl schemaHandler = new SchemaHandlerImpl(SCHEMA, "prototype");
+        //分库按id,分表按user_id
+        schemaHandler.logicTables().put("orders", shardingTable("orders", "hash(id)", "hash(user_id)"));
+        //分库分表都按id
+        schemaHandler.logicTables().put("travelrecord", shardingTable("travelrecord", "hash(id)", "hash(id)"));
+        Map<String, SchemaHandler> schemas = Collections.singletonMap(SCHEMA, schemaHandler);
+        drdsRunner = new DrdsRunner(() -> schemas, PlanCache.INSTANCE);
+        dataContext = (MycatDataContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{MycatDataContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getDefaultSchema":
+                            return SCHEMA;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return method.getReturnType() == boolean.class ? false : null;
+                    }
+                });
+        MycatContext.CONTEXT.set(dataContext);
+    }
+
+    @After
+    public void tearDown() {
+        PlanCache.INSTANCE.clear();
+        MycatContext.CONTEXT.remove();
+    }
+
+    /**
+     * 2个库,每个库2个分表
+     */
+    private static ShardingTable shardingTable(String table, String dbMethod, String tableMethod) throws Exception {
+        String createTableSQL = "CREATE TABLE db1." + table + " (\n" +
+                "  `id` bigint NOT NULL,\n" +
+                "  `user_id` bigint NOT NULL,\n" +
+                "  `fee` bigint DEFAULT NULL,\n" +
+                "  PRIMARY KEY (`id`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+        MySqlCreateTableStatement statement = (MySqlCreateTableStatement) SQLUtils.parseSingleMysqlStatement(createTableSQL);
+        ShardingTable shardingTable = LogicTable.createShardingTable(SCHEMA, table, new ArrayList<>(),
+                CalciteConvertors.getColumnInfo(SQL2ResultSetUtil.getMycatRowMetaData(statement)), null, createTableSQL);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("dbNum", "2");
+        properties.put("tableNum", "2");
+        properties.put("storeNum", "2");
+        properties.put("dbMethod", dbMethod);
+        properties.put("tableMethod", tableMethod);
+        ShardingFuntion function = ShardingFuntion.builder().properties(properties).ranges(new HashMap<>()).build();
+        shardingTable.setShardingFuntion(PartitionRuleFunctionManager.getRuleAlgorithm(shardingTable, function));
+        return shardingTable;
+    }
+
+    /**
+     * 聚合下推到View中时返回true
+     */
+    private boolean pushDown(String sql) {
+        DrdsSql drdsSql = drdsRunner.preParse(Collections.singletonList(SQLUtils.parseSingleMysqlStatement(sql)),
+                Collections.emptyList()).iterator().next();
+        drdsSql = drdsRunner.convertToMycatRel(Collections.singletonList(drdsSql), dataContext).iterator().next();
+        boolean[] aggregate = {false};
+        new RelVisitor() {
+            @Override
+            public void visit(RelNode node, int ordinal, RelNode parent) {
+                if (node instanceof Aggregate) {
+                    aggregate[0] = true;
+                }
+                super.visit(node, ordinal, parent);
+            }
+        }.go(drdsSql.getRelNode());
+        return !aggregate[0];
+    }
+
+    @Test
+    public void testSameKey() {
+        Assert.assertTrue(pushDown("select id, count(*) from travelrecord group by id"));
+        Assert.assertTrue(pushDown("select id, user_id, count(*) from travelrecord group by id, user_id"));
+        Assert.assertFalse(pushDown("select user_id, count(*) from travelrecord group by user_id"));
+    }
+
+    @Test
+    public void testDifferentKey() {
+        //只按分库字段分组时,同一个id的行仍然分布在同一个库的不同分表中
+        Assert.assertFalse(pushDown("select id, count(*) from orders group by id"));
+        Assert.assertFalse(pushDown("select user_id, count(*) from orders group by user_id"));
+        Assert.assertTrue(pushDown("select id, user_id, count(*) from orders group by id, user_id"));
+        Assert.assertTrue(pushDown("select user_id, fee, id, sum(fee) from orders group by user_id, fee, id"));
+    }
+}
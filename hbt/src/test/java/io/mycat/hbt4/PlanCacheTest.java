@@ -0,0 +1,121 @@
+package io.mycat.hbt4;
+
+import io.mycat.BackendTableInfo;
+import io.mycat.beans.mycat.MycatRowMetaData;
+import io.mycat.hbt3.Distribution;
+import io.mycat.hbt3.DistributionImpl;
+import io.mycat.hbt3.View;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractSchema;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class PlanCacheTest {
+    private final PlanCache planCache = PlanCache.INSTANCE;
+    private RelBuilder builder;
+
+    @Before
+    public void setUp() {
+        SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+        SchemaPlus db1 = rootSchema.add("db1", new AbstractSchema());
+        for (String tableName : Arrays.asList("t1", "t2")) {
+            db1.add(tableName, new AbstractTable() {
+                @Override
+                public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+                    return typeFactory.builder().add("id", typeFactory.createSqlType(SqlTypeName.BIGINT)).build();
+                }
+            });
+        }
+        builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+        planCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        planCache.clear();
+    }
+
+    private static Plan plan(RelNode relNode) {
+        return new Plan() {
+            @Override
+            public RelOptCost getRelOptCost() {
+                return null;
+            }
+
+            @Override
+            public MycatRowMetaData rowMetaData() {
+                return null;
+            }
+
+            @Override
+            public Type getType() {
+                return Type.FINAL;
+            }
+
+            @Override
+            public RelNode getRelNode() {
+                return relNode;
+            }
+
+            @Override
+            public int compareTo(Plan o) {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * t2只出现在下推的View中
+     */
+    private void putPlans() {
+        planCache.put("select * from t1", plan(builder.scan("db1", "t1").build()));
+        RelNode t2 = builder.scan("db1", "t2").build();
+        planCache.put("select * from t2", plan(View.of(t2, new DistributionImpl(
+                Collections.singletonList(new BackendTableInfo("c0", "db1", "t2")), false, Distribution.Type.PHY))));
+        planCache.put("select * from t1 join t2", plan(builder.scan("db1", "t1").scan("db1", "t2")
+                .join(JoinRelType.INNER, builder.literal(true)).build()));
+        //没有引用表的计划
+        planCache.put("select 1", plan(builder.values(new String[]{"1"}, 1).build()));
+    }
+
+    @Test
+    public void testCollectTables() {
+        putPlans();
+        Assert.assertEquals(Collections.singleton("db1.t1"), planCache.tableRefs.get("select * from t1"));
+        Assert.assertEquals(Collections.singleton("db1.t2"), planCache.tableRefs.get("select * from t2"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("db1.t1", "db1.t2")), planCache.tableRefs.get("select * from t1 join t2"));
+        Assert.assertTrue(planCache.tableRefs.get("select 1").isEmpty());
+    }
+
+    @Test
+    public void testInvalidate() {
+        putPlans();
+        //表名不区分大小写,无法确定引用表的计划也被清除
+        planCache.invalidate("DB1", "T1");
+        Assert.assertEquals(Collections.singleton("select * from t2"), planCache.cache.keySet());
+        Assert.assertEquals(Collections.singleton("select * from t2"), planCache.tableRefs.keySet());
+        Assert.assertNotNull(planCache.getMinCostPlan("select * from t2"));
+
+        putPlans();
+        planCache.invalidate("db2", "t1");
+        Assert.assertEquals(3, planCache.cache.size());
+        Assert.assertFalse(planCache.cache.containsKey("select 1"));
+        planCache.invalidate("db1", "t2");
+        Assert.assertEquals(Collections.singleton("select * from t1"), planCache.cache.keySet());
+    }
+}
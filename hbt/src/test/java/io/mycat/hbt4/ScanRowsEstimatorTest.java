@@ -0,0 +1,121 @@
+package io.mycat.hbt4;
+
+import com.alibaba.fastsql.sql.SQLUtils;
+import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlCreateTableStatement;
+import io.mycat.BackendTableInfo;
+import io.mycat.DataNode;
+import io.mycat.MycatDataContext;
+import io.mycat.calcite.CalciteConvertors;
+import io.mycat.config.ShardingFuntion;
+import io.mycat.hbt3.DrdsRunner;
+import io.mycat.hbt3.DrdsSql;
+import io.mycat.metadata.*;
+import io.mycat.router.mycat1xfunction.PartitionRuleFunctionManager;
+import org.apache.calcite.MycatContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.function.BiFunction;
+
+public class ScanRowsEstimatorTest {
+    private static final String SCHEMA = "db1";
+    private static final double ROWS = 1000;
+    private DrdsRunner drdsRunner;
+    private MycatDataContext dataContext;
+    private final BiFunction<String, String, Double> tableRows = (schema, table) ->
+            SCHEMA.equals(schema) && !"company".equals(table) ? ROWS : null;
+
+    @Before
+    public void setUp() throws Exception {
+        SchemaHandlerImpl schemaHandler = new SchemaHandlerImpl(SCHEMA, "prototype");
+        schemaHandler.logicTables().put("travelrecord", shardingTable("travelrecord"));
+        schemaHandler.logicTables().put("user", shardingTable("user"));
+        schemaHandler.logicTables().put("company", shardingTable("company"));
+        Map<String, SchemaHandler> schemas = Collections.singletonMap(SCHEMA, schemaHandler);
+        drdsRunner = new DrdsRunner(() -> schemas, PlanCache.INSTANCE);
+        dataContext = (MycatDataContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{MycatDataContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getDefaultSchema":
+                            return SCHEMA;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return method.getReturnType() == boolean.class ? false : null;
+                    }
+                });
+        MycatContext.CONTEXT.set(dataContext);
+    }
+
+    @After
+    public void tearDown() {
+        PlanCache.INSTANCE.clear();
+        MycatContext.CONTEXT.remove();
+    }
+
+    /**
+     * 2个库,每个库2个分片,按id自动分片
+     */
+    private static ShardingTable shardingTable(String table) throws Exception {
+        String createTableSQL = "CREATE TABLE db1." + table + " (\n" +
+                "  `id` bigint NOT NULL,\n" +
+                "  `fee` decimal(10,0) DEFAULT NULL,\n" +
+                "  PRIMARY KEY (`id`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                dataNodes.add(new BackendTableInfo("c" + i, SCHEMA + "_" + i, table + "_" + (i * 2 + j)));
+            }
+        }
+        MySqlCreateTableStatement statement = (MySqlCreateTableStatement) SQLUtils.parseSingleMysqlStatement(createTableSQL);
+        ShardingTable shardingTable = LogicTable.createShardingTable(SCHEMA, table, dataNodes,
+                CalciteConvertors.getColumnInfo(SQL2ResultSetUtil.getMycatRowMetaData(statement)), null, createTableSQL);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("dbNum", "2");
+        properties.put("tableNum", "2");
+        properties.put("storeNum", "2");
+        properties.put("dbMethod", "mod_hash(id)");
+        properties.put("tableMethod", "mod_hash(id)");
+        ShardingFuntion function = ShardingFuntion.builder().properties(properties).ranges(new HashMap<>()).build();
+        shardingTable.setShardingFuntion(PartitionRuleFunctionManager.getRuleAlgorithm(shardingTable, function));
+        return shardingTable;
+    }
+
+    private double estimate(String sql) {
+        DrdsSql drdsSql = drdsRunner.preParse(Collections.singletonList(SQLUtils.parseSingleMysqlStatement(sql)),
+                Collections.emptyList()).iterator().next();
+        drdsSql = drdsRunner.convertToMycatRel(Collections.singletonList(drdsSql), dataContext).iterator().next();
+        return ScanRowsEstimator.estimate(drdsSql.getRelNode(), drdsSql.getParams(), tableRows);
+    }
+
+    @Test
+    public void testFullScan() {
+        Assert.assertEquals(ROWS, estimate("select * from travelrecord"), 0.001);
+        Assert.assertEquals(2 * ROWS, estimate("select * from travelrecord t join `user` u on t.fee = u.fee"), 0.001);
+    }
+
+    @Test
+    public void testFilter() {
+        //不是分片键的条件只按选择率减少
+        double filtered = estimate("select * from travelrecord where fee = 1");
+        Assert.assertTrue(filtered < ROWS);
+        //分片键等值条件裁剪分片,dbMethod与tableMethod都是mod_hash(id)时只确定tableIndex,访问4个分片中的2个
+        double pruned = estimate("select * from travelrecord where id = 1");
+        Assert.assertEquals(filtered / 2, pruned, 0.001);
+        //参数不同分片不同,但是行数相同
+        Assert.assertEquals(pruned, estimate("select * from travelrecord where id = 2"), 0.001);
+    }
+
+    @Test
+    public void testUnknownTable() {
+        Assert.assertTrue(Double.isNaN(estimate("select * from company")));
+        Assert.assertTrue(Double.isNaN(estimate("select * from travelrecord t join company c on t.fee = c.fee")));
+    }
+}
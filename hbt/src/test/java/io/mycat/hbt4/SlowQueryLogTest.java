@@ -0,0 +1,74 @@
+package io.mycat.hbt4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class SlowQueryLogTest {
+
+    @After
+    public void tearDown() {
+        SlowQueryLog.INSTANCE.configure(0, null, 0, 0);
+        SlowQueryLog.INSTANCE.reset();
+    }
+
+    private static void record(String schema, long sleepMillis) throws InterruptedException {
+        SlowQueryLog.Recorder recorder = new SlowQueryLog.Recorder("root", schema, null);
+        SlowQueryLog.ViewTrace trace = recorder.addView("c0", "select * from t where id = ?", Collections.emptyList());
+        trace.setElapsedNanos(2000_000);
+        trace.incrementRows();
+        recorder.addOperator("MemSort").setRows(1);
+        Thread.sleep(sleepMillis);
+        SlowQueryLog.INSTANCE.end(recorder, null, null);
+    }
+
+    private static void waitFor(Path path) throws InterruptedException {
+        for (int i = 0; i < 500 && !Files.exists(path); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(path.toString(), Files.exists(path));
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        Path directory = Files.createTempDirectory("slowlog");
+        SlowQueryLog.INSTANCE.configure(20, directory, 1024 * 1024, 2);
+        record("db1", 0);
+        Assert.assertTrue(SlowQueryLog.INSTANCE.getRecent().isEmpty());
+        record("db1", 30);
+        List<SlowQueryLog.Entry> recent = SlowQueryLog.INSTANCE.getRecent();
+        Assert.assertEquals(1, recent.size());
+        SlowQueryLog.Entry entry = recent.get(0);
+        Assert.assertEquals("root", entry.getUser());
+        Assert.assertTrue(entry.getElapsedMicros() >= 20_000);
+        Map<String, Object> view = entry.getViews().get(0);
+        Assert.assertEquals("c0", view.get("target"));
+        Assert.assertEquals(2000L, view.get("elapsedMicros"));
+        Assert.assertEquals(1L, view.get("rows"));
+        Assert.assertEquals("MemSort", entry.getOperators().get(0).get("name"));
+        waitFor(directory.resolve(SlowQueryLogFile.FILE_NAME));
+    }
+
+    @Test
+    public void testRotate() throws Exception {
+        Path directory = Files.createTempDirectory("slowlog");
+        //每条记录都超过文件大小,每次写入之前滚动,最多保留2个文件
+        SlowQueryLog.INSTANCE.configure(1, directory, 1, 2);
+        for (int i = 0; i < 3; i++) {
+            record("db" + i, 2);
+        }
+        Path current = directory.resolve(SlowQueryLogFile.FILE_NAME);
+        for (int i = 0; i < 500 && !(Files.exists(current) && new String(Files.readAllBytes(current)).contains("db2")); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, Files.readAllLines(current).size());
+        Assert.assertTrue(Files.readAllLines(directory.resolve(SlowQueryLogFile.FILE_NAME + ".1")).get(0).contains("db1"));
+        Assert.assertFalse(Files.exists(directory.resolve(SlowQueryLogFile.FILE_NAME + ".2")));
+    }
+}
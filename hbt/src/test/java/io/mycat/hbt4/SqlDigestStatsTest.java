@@ -0,0 +1,94 @@
+package io.mycat.hbt4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class SqlDigestStatsTest {
+
+    @After
+    public void tearDown() {
+        SqlDigestStats.INSTANCE.configure(0);
+    }
+
+    private static void record(String digest, long executeMillis, String target, long targetMillis) {
+        SqlDigestStats.Recorder recorder = new SqlDigestStats.Recorder("root");
+        recorder.setDigest(digest);
+        recorder.addPhase(SqlDigestStats.Phase.EXECUTE, TimeUnit.MILLISECONDS.toNanos(executeMillis));
+        if (target != null) {
+            recorder.addTarget(target, TimeUnit.MILLISECONDS.toNanos(targetMillis));
+        }
+        SqlDigestStats.INSTANCE.end(recorder);
+    }
+
+    @Test
+    public void testHistogram() {
+        SqlDigestStats.INSTANCE.configure(10);
+        record("select * from t where id = ?", 3, "c0", 2);
+        record("select * from t where id = ?", 30, "c0", 20);
+        SqlDigestStats.DigestStat stat = SqlDigestStats.INSTANCE.getStats().iterator().next();
+        long[] counts = stat.getPhase(SqlDigestStats.Phase.EXECUTE).getBucketCounts();
+        //3ms在5ms的桶,30ms在50ms的桶
+        Assert.assertEquals(1, counts[3]);
+        Assert.assertEquals(1, counts[5]);
+        Assert.assertEquals(33000, stat.getPhase(SqlDigestStats.Phase.EXECUTE).getMicrosSum());
+        Assert.assertEquals(22000, stat.getPhase(SqlDigestStats.Phase.BACKEND).getMicrosSum());
+        Assert.assertEquals(22000, stat.getTargets().get("c0").getMicrosSum());
+    }
+
+    @Test
+    public void testEvictLowestTotalTime() {
+        SqlDigestStats.INSTANCE.configure(2);
+        long evictions = SqlDigestStats.INSTANCE.getEvictions();
+        record("a", 100, null, 0);
+        record("b", 1, null, 0);
+        record("c", 50, null, 0);
+        Assert.assertEquals(2, SqlDigestStats.INSTANCE.getStats().size());
+        Assert.assertEquals(evictions + 1, SqlDigestStats.INSTANCE.getEvictions());
+        Assert.assertEquals("[a, c]", digests());
+        //c替换了b,继承b的1ms
+        SqlDigestStats.DigestStat c = stat("c");
+        Assert.assertEquals(1000, c.getInheritedMicros());
+        Assert.assertEquals(51000, c.getTotalMicros());
+        Assert.assertEquals(50000, c.getPhase(SqlDigestStats.Phase.EXECUTE).getMicrosSum());
+    }
+
+    @Test
+    public void testNewHeavyDigest() {
+        SqlDigestStats.INSTANCE.configure(2);
+        record("a", 100, null, 0);
+        record("b", 50, null, 0);
+        //d每次只有30ms,但是总耗时会超过a与b
+        for (int i = 0; i < 5; i++) {
+            record("d", 30, null, 0);
+            Assert.assertTrue(digests().contains("d"));
+        }
+        Assert.assertEquals("[a, d]", digests());
+        SqlDigestStats.DigestStat d = stat("d");
+        Assert.assertEquals(5, d.getPhase(SqlDigestStats.Phase.EXECUTE).getBucketCounts()[5]);
+        Assert.assertEquals(200000, d.getTotalMicros());
+        //新的模板替换总耗时最小的a
+        record("e", 1, null, 0);
+        Assert.assertEquals("[d, e]", digests());
+        Assert.assertEquals(101000, stat("e").getTotalMicros());
+    }
+
+    private static String digests() {
+        return SqlDigestStats.INSTANCE.getStats().stream()
+                .map(SqlDigestStats.DigestStat::getDigest).sorted().collect(Collectors.toList()).toString();
+    }
+
+    private static SqlDigestStats.DigestStat stat(String digest) {
+        return SqlDigestStats.INSTANCE.getStats().stream().filter(i -> digest.equals(i.getDigest())).findFirst().get();
+    }
+
+    @Test
+    public void testDisabled() {
+        SqlDigestStats.INSTANCE.configure(0);
+        Assert.assertNull(SqlDigestStats.INSTANCE.begin(null));
+        Assert.assertTrue(SqlDigestStats.INSTANCE.getStats().isEmpty());
+    }
+}
@@ -0,0 +1,249 @@
+package io.mycat.hbt4.executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import io.mycat.BackendTableInfo;
+import io.mycat.DataNode;
+import io.mycat.hbt3.Distribution;
+import io.mycat.hbt3.DistributionImpl;
+import io.mycat.hbt3.View;
+import io.mycat.hbt4.DatasourceFactory;
+import io.mycat.hbt4.Executor;
+import io.mycat.mpp.Row;
+import org.apache.calcite.linq4j.JoinType;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.util.SqlString;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class MycatBatchNestedLoopJoinExecutorTest {
+
+    /**
+     * select * from (values ...) t where t.id = $cor0.id or t.id = $cor1.id,每批最多2行
+     */
+    private static View view(int targets) {
+        RelBuilder builder = RelBuilder.create(Frameworks.newConfigBuilder()
+                .defaultSchema(Frameworks.createRootSchema(true)).build());
+        builder.values(new String[]{"id", "name"}, 1L, "a", 2L, "b");
+        RelDataType leftRowType = builder.peek().getRowType();
+        RexBuilder rexBuilder = builder.getRexBuilder();
+        List<RexNode> conditions = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            RexNode variable = rexBuilder.makeFieldAccess(rexBuilder.makeCorrel(leftRowType, new CorrelationId(i)), 0);
+            conditions.add(builder.equals(builder.field(0), variable));
+        }
+        RelNode relNode = builder.filter(builder.call(SqlStdOperatorTable.OR, conditions)).build();
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (int i = 0; i < targets; i++) {
+            dataNodes.add(new BackendTableInfo("c" + i, "db1", "t"));
+        }
+        return View.of(relNode, new DistributionImpl(dataNodes, false, Distribution.Type.Sharding));
+    }
+
+    /**
+     * 右表的行在内存中,按批次中左表的id查找,并记录占用的临时连接
+     */
+    private static class StubLookupExecutor extends MycatLookupExecutor {
+        final List<Row> rightRows;
+        final StubDatasourceFactory factory;
+        final List<List<Row>> batches = new ArrayList<>();
+
+        StubLookupExecutor(int targets, StubDatasourceFactory factory, Object[]... rightRows) {
+            super(view(targets), factory, Collections.emptyList());
+            this.factory = factory;
+            this.rightRows = Stream.of(rightRows).map(Row::of).collect(Collectors.toList());
+        }
+
+        @Override
+        LookupBatch submit(List<Row> args, ImmutableMultimap<String, SqlString> expandToSqls) {
+            batches.add(args);
+            LookupBatch batch = new LookupBatch(args, factory.getTmpConnections(expandToSqls.keys().asList()), factory);
+            Set<Object> keys = args.stream().map(r -> r.getObject(0)).collect(Collectors.toSet());
+            batch.futures.add(CompletableFuture.completedFuture(rightRows.stream()
+                    .filter(r -> keys.contains(r.getObject(0))).collect(Collectors.toList())));
+            return batch;
+        }
+    }
+
+    private static class StubDatasourceFactory implements DatasourceFactory {
+        int connections = 0;
+        int maxConnections = 0;
+
+        @Override
+        public void open() {
+
+        }
+
+        @Override
+        public void createTableIfNotExisted(String targetName, String createTableSql) {
+
+        }
+
+        @Override
+        public Map<String, Connection> getConnections(List<String> targets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void regist(ImmutableList<String> asList) {
+
+        }
+
+        @Override
+        public Connection getConnection(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Connection> getTmpConnections(List<String> targets) {
+            connections += targets.size();
+            maxConnections = Math.max(maxConnections, connections);
+            return new ArrayList<>(Collections.nCopies(targets.size(), null));
+        }
+
+        @Override
+        public void recycleTmpConnections(List<Connection> connections) {
+            this.connections -= connections.size();
+        }
+
+        @Override
+        public boolean isInTransaction() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    private static class ListExecutor implements Executor {
+        final List<Row> rows;
+        Iterator<Row> iterator;
+
+        ListExecutor(Object[]... rows) {
+            this.rows = Stream.of(rows).map(Row::of).collect(Collectors.toList());
+        }
+
+        @Override
+        public void open() {
+            iterator = rows.iterator();
+        }
+
+        @Override
+        public Row next() {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public void close() {
+
+        }
+
+        @Override
+        public boolean isRewindSupported() {
+            return true;
+        }
+    }
+
+    private static Object[] row(Object... values) {
+        return values;
+    }
+
+    private static List<String> join(JoinType joinType, StubLookupExecutor right, Object[]... leftRows) {
+        MycatBatchNestedLoopJoinExecutor executor = MycatBatchNestedLoopJoinExecutor.create(joinType,
+                new ListExecutor(leftRows), right, 2, 2,
+                (l, r) -> Objects.equals(l.getObject(0), r.getObject(0)),
+                (l, r) -> Objects.equals(l.getObject(0), r.getObject(0)));
+        executor.open();
+        List<String> res = new ArrayList<>();
+        Row row;
+        while ((row = executor.next()) != null) {
+            res.add(Arrays.toString(row.values));
+        }
+        executor.close();
+        Assert.assertEquals(0, right.factory.connections);
+        return res;
+    }
+
+    private static StubLookupExecutor right(Object[]... rows) {
+        return new StubLookupExecutor(1, new StubDatasourceFactory(), rows);
+    }
+
+    @Test
+    public void testLeftJoin() {
+        //没有匹配的左表行补null
+        Assert.assertEquals(Arrays.asList("[1, a, 1, x]", "[2, b, null, null]", "[3, c, 3, z]"),
+                join(JoinType.LEFT, right(row(1L, "x"), row(3L, "z")),
+                        row(1L, "a"), row(2L, "b"), row(3L, "c")));
+        //整个批次都没有匹配
+        Assert.assertEquals(Arrays.asList("[1, a, null, null]", "[2, b, null, null]"),
+                join(JoinType.LEFT, right(row(3L, "z")), row(1L, "a"), row(2L, "b")));
+    }
+
+    @Test
+    public void testDuplicateMatches() {
+        Assert.assertEquals(Arrays.asList("[1, a, 1, x]", "[1, a, 1, y]", "[1, c, 1, x]", "[1, c, 1, y]"),
+                join(JoinType.INNER, right(row(1L, "x"), row(1L, "y"), row(2L, "z")),
+                        row(1L, "a"), row(3L, "b"), row(1L, "c")));
+    }
+
+    @Test
+    public void testSemiAntiJoin() {
+        StubLookupExecutor right = right(row(1L, "x"), row(1L, "y"), row(3L, "z"), row(3L, "z"));
+        //右表重复的行不会重复输出左表行
+        Assert.assertEquals(Arrays.asList("[1, a]", "[3, c]"),
+                join(JoinType.SEMI, right, row(1L, "a"), row(2L, "b"), row(3L, "c")));
+        right = right(row(1L, "x"), row(1L, "y"), row(3L, "z"), row(3L, "z"));
+        Assert.assertEquals(Collections.singletonList("[2, b]"),
+                join(JoinType.ANTI, right, row(1L, "a"), row(2L, "b"), row(3L, "c")));
+    }
+
+    @Test
+    public void testBatches() {
+        StubLookupExecutor right = right(row(1L, "x"));
+        join(JoinType.INNER, right, row(1L, "a"), row(2L, "b"), row(3L, "c"));
+        //最后一个批次不满
+        Assert.assertEquals(Arrays.asList(2, 1), right.batches.stream().map(List::size).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testExpandToSqlPadding() {
+        MycatLookupExecutor executor = MycatLookupExecutor.create(view(1), new StubDatasourceFactory(), Collections.emptyList());
+        Assert.assertEquals(2, executor.getMaxBatchSize());
+        String full = executor.expandToSql(Arrays.asList(Row.of(new Object[]{1L, "a"}), Row.of(new Object[]{2L, "b"})))
+                .values().iterator().next().getSql();
+        Assert.assertTrue(full, full.contains("= 1") && full.contains("= 2"));
+        //批次不满时用第一行补齐,重复的条件被合并
+        String padded = executor.expandToSql(Collections.singletonList(Row.of(new Object[]{1L, "a"})))
+                .values().iterator().next().getSql();
+        Assert.assertEquals(padded, 1, padded.split("= 1", -1).length - 1);
+        Assert.assertFalse(padded, padded.contains(" OR "));
+    }
+
+    @Test
+    public void testPendingConnections() {
+        //每批访问3个分片,预取的批次占用的连接不超过上限
+        StubDatasourceFactory factory = new StubDatasourceFactory();
+        StubLookupExecutor right = new StubLookupExecutor(3, factory, row(1L, "x"));
+        Object[][] leftRows = IntStream.range(0, 20).mapToObj(i -> row((long) i, "a")).toArray(Object[][]::new);
+        Assert.assertEquals(Collections.singletonList("[1, a, 1, x]"), join(JoinType.INNER, right, leftRows));
+        Assert.assertEquals(10, right.batches.size());
+        Assert.assertTrue(factory.maxConnections > 3);
+        Assert.assertTrue(factory.maxConnections <= MycatBatchNestedLoopJoinExecutor.MAX_PENDING_CONNECTIONS);
+    }
+}
@@ -0,0 +1,207 @@
+package io.mycat.hbt4.executor;
+
+import com.google.common.collect.ImmutableList;
+import io.mycat.BackendTableInfo;
+import io.mycat.DataNode;
+import io.mycat.hbt4.DatasourceFactory;
+import io.mycat.mpp.Row;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class MycatDeepPageExecutorTest {
+
+    /**
+     * 分片在内存中,三个阶段按照分片的数据计算,验证offset的推算
+     */
+    private static class MemoryDeepPageExecutor extends MycatDeepPageExecutor {
+        private final List<List<Long>> shards;
+        private final boolean desc;
+        long windowRows;
+
+        MemoryDeepPageExecutor(List<List<Long>> shards, boolean desc, long offset, long fetch) {
+            super(dataNodes(shards.size()), Collections.emptyList(),
+                    new RelFieldCollation(0, desc ? RelFieldCollation.Direction.DESCENDING : RelFieldCollation.Direction.ASCENDING),
+                    comparator(desc), offset, fetch, Collections.emptyList(), new NoopDatasourceFactory());
+            this.shards = shards;
+            this.desc = desc;
+        }
+
+        private List<Long> sorted(List<Long> shard) {
+            return shard.stream().sorted(desc ? Comparator.reverseOrder() : Comparator.naturalOrder()).collect(Collectors.toList());
+        }
+
+        private boolean before(long value, BigDecimal boundary) {
+            int c = BigDecimal.valueOf(value).compareTo(boundary);
+            return desc ? c > 0 : c < 0;
+        }
+
+        @Override
+        protected List<BigDecimal> probe(long shardOffset) {
+            List<BigDecimal> res = new ArrayList<>();
+            for (List<Long> shard : shards) {
+                List<Long> sorted = sorted(shard);
+                res.add(shardOffset < sorted.size() ? BigDecimal.valueOf(sorted.get((int) shardOffset)) : null);
+            }
+            return res;
+        }
+
+        @Override
+        protected List<Long> countBefore(BigDecimal boundary) {
+            List<Long> res = new ArrayList<>();
+            for (List<Long> shard : shards) {
+                res.add(shard.stream().filter(i -> before(i, boundary)).count());
+            }
+            return res;
+        }
+
+        @Override
+        protected List<Iterator<Row>> window(BigDecimal boundary, long limit) {
+            List<Iterator<Row>> res = new ArrayList<>();
+            for (List<Long> shard : shards) {
+                List<Row> rows = sorted(shard).stream()
+                        .filter(i -> !before(i, boundary))
+                        .limit(limit)
+                        .map(i -> Row.of(new Object[]{i}))
+                        .collect(Collectors.toList());
+                windowRows += rows.size();
+                res.add(rows.iterator());
+            }
+            return res;
+        }
+    }
+
+    private static List<DataNode> dataNodes(int count) {
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            dataNodes.add(new BackendTableInfo("c" + i, "db1", "t_" + i));
+        }
+        return dataNodes;
+    }
+
+    private static Comparator<Row> comparator(boolean desc) {
+        Comparator<Row> comparator = Comparator.comparing(i -> (Long) i.values[0]);
+        return desc ? comparator.reversed() : comparator;
+    }
+
+    private static List<Long> execute(MycatDeepPageExecutor executor) {
+        executor.open();
+        List<Long> res = new ArrayList<>();
+        Row row;
+        while ((row = executor.next()) != null) {
+            res.add((Long) row.values[0]);
+        }
+        executor.close();
+        return res;
+    }
+
+    private static List<Long> expect(List<List<Long>> shards, boolean desc, long offset, long fetch) {
+        return shards.stream().flatMap(List::stream)
+                .sorted(desc ? Comparator.reverseOrder() : Comparator.naturalOrder())
+                .skip(offset).limit(fetch)
+                .collect(Collectors.toList());
+    }
+
+    private static void check(List<List<Long>> shards, long offset, long fetch) {
+        for (boolean desc : new boolean[]{false, true}) {
+            MemoryDeepPageExecutor executor = new MemoryDeepPageExecutor(shards, desc, offset, fetch);
+            Assert.assertEquals("desc:" + desc + " offset:" + offset, expect(shards, desc, offset, fetch), execute(executor));
+        }
+    }
+
+    @Test
+    public void testUniform() {
+        List<List<Long>> shards = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            List<Long> shard = new ArrayList<>();
+            for (long k = i; k < 4000; k += 4) {
+                shard.add(k);
+            }
+            shards.add(shard);
+        }
+        check(shards, 2000, 10);
+        check(shards, 3995, 10);
+        check(shards, 0, 10);
+        //均匀分布时每个分片只返回约fetch行
+        MemoryDeepPageExecutor executor = new MemoryDeepPageExecutor(shards, false, 2000, 10);
+        execute(executor);
+        Assert.assertTrue(String.valueOf(executor.windowRows), executor.windowRows <= 4 * (10 + 4));
+    }
+
+    @Test
+    public void testSkewAndDuplicates() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            List<List<Long>> shards = new ArrayList<>();
+            int shardCount = 1 + random.nextInt(5);
+            int total = 0;
+            for (int i = 0; i < shardCount; i++) {
+                List<Long> shard = new ArrayList<>();
+                //分片大小差别很大,值有重复
+                int size = random.nextInt(i == 0 ? 500 : 50);
+                for (int k = 0; k < size; k++) {
+                    shard.add((long) random.nextInt(200) - 100);
+                }
+                total += size;
+                shards.add(shard);
+            }
+            long offset = random.nextInt(total + 10);
+            check(shards, offset, 1 + random.nextInt(20));
+        }
+    }
+
+    @Test
+    public void testOffsetBeyondRows() {
+        List<List<Long>> shards = Arrays.asList(Arrays.asList(1L, 2L, 3L), Arrays.asList(4L), Collections.emptyList());
+        check(shards, 3, 10);
+        check(shards, 4, 10);
+        check(shards, 100, 10);
+    }
+
+    private static class NoopDatasourceFactory implements DatasourceFactory {
+        @Override
+        public void open() {
+
+        }
+
+        @Override
+        public void createTableIfNotExisted(String targetName, String createTableSql) {
+
+        }
+
+        @Override
+        public Map<String, Connection> getConnections(List<String> targets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void regist(ImmutableList<String> asList) {
+
+        }
+
+        @Override
+        public Connection getConnection(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Connection> getTmpConnections(List<String> targets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void recycleTmpConnections(List<Connection> connections) {
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
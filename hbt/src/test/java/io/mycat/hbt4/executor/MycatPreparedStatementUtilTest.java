@@ -0,0 +1,223 @@
+package io.mycat.hbt4.executor;
+
+import io.mycat.MetaClusterCurrent;
+import io.mycat.api.collector.RowBaseIterator;
+import io.mycat.beans.mycat.JdbcRowBaseIterator;
+import io.mycat.beans.mycat.MycatRowMetaData;
+import io.mycat.beans.mycat.ResultSetBuilder;
+import io.mycat.beans.mycat.StreamingJdbcRowBaseIterator;
+import io.mycat.config.DatasourceConfig;
+import io.mycat.config.ServerConfig;
+import io.mycat.datasource.jdbc.datasource.ConnectionManager;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import io.mycat.plug.loadBalance.LatencyStatistics;
+import org.apache.calcite.sql.dialect.MysqlSqlDialect;
+import org.apache.calcite.sql.util.SqlString;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MycatPreparedStatementUtilTest {
+
+    final MycatRowMetaData metaData = ResultSetBuilder.create().addColumnInfo("id", JDBCType.INTEGER).build().getMetaData();
+
+    private Map<Class, Object> oldContext;
+    private final ServerConfig serverConfig = new ServerConfig();
+
+    @Before
+    public void setUp() {
+        oldContext = MetaClusterCurrent.context.get();
+        HashMap<Class, Object> context = new HashMap<>(oldContext);
+        context.put(ServerConfig.class, serverConfig);
+        MetaClusterCurrent.register(context);
+    }
+
+    @After
+    public void reset() {
+        MetaClusterCurrent.register(oldContext);
+    }
+
+    @Test
+    public void testStreamingReadsOneRowAtATime() {
+        FakeConnection fake = new FakeConnection(10000);
+        RowBaseIterator iterator = MycatPreparedStatementUtil.executeQuery(fake.connection, metaData,
+                new SqlString(MysqlSqlDialect.DEFAULT, "select id from t"), Collections.emptyList());
+        Assert.assertEquals(Integer.MIN_VALUE, fake.fetchSizes.get(0).intValue());
+        int count = 0;
+        while (iterator.next()) {
+            count++;
+            Assert.assertEquals(count, iterator.getInt(1));
+            //驱动只被拉取到当前行,没有预读整个结果集
+            Assert.assertEquals(count, fake.resultSets.get(0).pulled);
+        }
+        iterator.close();
+        Assert.assertEquals(10000, count);
+        Assert.assertTrue(fake.resultSets.get(0).closed);
+    }
+
+    @Test
+    public void testSecondQueryMaterializesActiveStream() {
+        FakeConnection fake = new FakeConnection(5);
+        SqlString sql = new SqlString(MysqlSqlDialect.DEFAULT, "select id from t");
+        RowBaseIterator first = MycatPreparedStatementUtil.executeQuery(fake.connection, metaData, sql, Collections.emptyList());
+        Assert.assertTrue(first.next());
+        Assert.assertEquals(1, first.getInt(1));
+
+        RowBaseIterator second = MycatPreparedStatementUtil.executeQuery(fake.connection, metaData, sql, Collections.emptyList());
+        //第二个语句执行前,第一个结果集已经读完并关闭
+        Assert.assertTrue(((StreamingJdbcRowBaseIterator) first).isMaterialized());
+        Assert.assertTrue(fake.resultSets.get(0).closedBeforeNextExecute);
+
+        List<Integer> rest = new ArrayList<>();
+        while (first.next()) {
+            rest.add(first.getInt(1));
+        }
+        Assert.assertEquals(java.util.Arrays.asList(2, 3, 4, 5), rest);
+        Assert.assertTrue(second.next());
+        Assert.assertEquals(1, second.getInt(1));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testBufferedMode() {
+        serverConfig.setJdbcFetchSize(0);
+        FakeConnection fake = new FakeConnection(3);
+        RowBaseIterator iterator = MycatPreparedStatementUtil.executeQuery(fake.connection, metaData,
+                new SqlString(MysqlSqlDialect.DEFAULT, "select id from t"), Collections.emptyList());
+        Assert.assertTrue(iterator instanceof JdbcRowBaseIterator);
+        Assert.assertTrue(fake.fetchSizes.isEmpty());
+        iterator.close();
+    }
+
+    private DefaultConnection defaultConnection(FakeConnection fake, String name) {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName(name);
+        DataSource dataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataSource.class},
+                (proxy, method, args) -> null);
+        ConnectionManager connectionManager = (ConnectionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{ConnectionManager.class}, (proxy, method, args) -> null);
+        return new DefaultConnection(fake.connection, new JdbcDataSource(config, dataSource),
+                true, Connection.TRANSACTION_REPEATABLE_READ, false, connectionManager);
+    }
+
+    @Test
+    public void testDefaultConnectionQueryIsBuffered() {
+        FakeConnection fake = new FakeConnection(3);
+        DefaultConnection connection = defaultConnection(fake, "bufferedDs");
+        RowBaseIterator stream = MycatPreparedStatementUtil.executeQuery(fake.connection, metaData,
+                new SqlString(MysqlSqlDialect.DEFAULT, "select id from t"), Collections.emptyList());
+        Assert.assertTrue(stream.next());
+        //只有执行器的分片查询使用流式读取,其他查询执行前先把未读完的流式结果读入内存
+        RowBaseIterator iterator = connection.executeQuery(metaData, "select id from t");
+        Assert.assertTrue(iterator instanceof JdbcRowBaseIterator);
+        Assert.assertEquals(Collections.singletonList(Integer.MIN_VALUE), fake.fetchSizes);
+        Assert.assertTrue(((StreamingJdbcRowBaseIterator) stream).isMaterialized());
+        iterator.close();
+        stream.close();
+        connection.close();
+    }
+
+    @Test
+    public void testLatencyStatistics() {
+        FakeConnection fake = new FakeConnection(1);
+        DefaultConnection connection = defaultConnection(fake, "latencyDs");
+        Assert.assertEquals("latencyDs", DefaultConnection.getDatasourceName(fake.connection));
+        LatencyStatistics.Statistic statistic = LatencyStatistics.INSTANCE.get("latencyDs");
+        Assert.assertEquals(0, statistic.getLatencyNanos(), 0);
+        //执行器直接在物理连接上执行的语句也计入数据源的延迟
+        RowBaseIterator iterator = MycatPreparedStatementUtil.executeQuery(fake.connection, metaData,
+                new SqlString(MysqlSqlDialect.DEFAULT, "select id from t"), Collections.emptyList());
+        Assert.assertTrue(statistic.getLatencyNanos() > 0);
+        Assert.assertEquals(0, statistic.getInFlight());
+        iterator.close();
+        connection.close();
+        Assert.assertNull(DefaultConnection.getDatasourceName(fake.connection));
+    }
+
+    static class FakeResultSet {
+        final int rows;
+        int pulled = 0;
+        boolean closed = false;
+        boolean closedBeforeNextExecute = false;
+        final ResultSet resultSet;
+
+        FakeResultSet(int rows) {
+            this.rows = rows;
+            this.resultSet = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ResultSet.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        if (pulled < rows) {
+                            pulled++;
+                            return true;
+                        }
+                        return false;
+                    case "getInt":
+                        return pulled;
+                    case "wasNull":
+                        return false;
+                    case "close":
+                        closed = true;
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+
+    static class FakeConnection {
+        final int rows;
+        final List<Integer> fetchSizes = new ArrayList<>();
+        final List<FakeResultSet> resultSets = new ArrayList<>();
+        final Connection connection;
+
+        FakeConnection(int rows) {
+            this.rows = rows;
+            this.connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+                if ("prepareStatement".equals(method.getName()) || "createStatement".equals(method.getName())) {
+                    return createStatement();
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                return null;
+            });
+        }
+
+        private PreparedStatement createStatement() {
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setFetchSize":
+                        fetchSizes.add((Integer) args[0]);
+                        return null;
+                    case "executeQuery": {
+                        if (!resultSets.isEmpty()) {
+                            FakeResultSet last = resultSets.get(resultSets.size() - 1);
+                            last.closedBeforeNextExecute = last.closed;
+                        }
+                        FakeResultSet fakeResultSet = new FakeResultSet(rows);
+                        resultSets.add(fakeResultSet);
+                        return fakeResultSet.resultSet;
+                    }
+                    default:
+                        return null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package io.mycat.hbt4.executor;
+
+import com.alibaba.fastsql.sql.SQLUtils;
+import com.google.common.collect.ImmutableList;
+import io.mycat.BackendTableInfo;
+import io.mycat.DataNode;
+import io.mycat.ExecutorUtil;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatWorkerProcessor;
+import io.mycat.NameableExecutor;
+import io.mycat.config.ServerConfig;
+import io.mycat.hbt3.Distribution;
+import io.mycat.hbt3.DistributionImpl;
+import io.mycat.hbt4.DatasourceFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+public class MycatUpdateExecutorTest {
+    private Map<Class, Object> oldContext;
+    private NameableExecutor mycatWorker;
+    private final ServerConfig serverConfig = new ServerConfig();
+
+    @Before
+    public void setUp() {
+        oldContext = MetaClusterCurrent.context.get();
+        mycatWorker = ExecutorUtil.create("updateTest", 4);
+        HashMap<Class, Object> context = new HashMap<>(oldContext);
+        context.put(MycatWorkerProcessor.class, new MycatWorkerProcessor(mycatWorker, mycatWorker));
+        context.put(ServerConfig.class, serverConfig);
+        MetaClusterCurrent.register(context);
+    }
+
+    @After
+    public void tearDown() {
+        MetaClusterCurrent.register(oldContext);
+        mycatWorker.shutdownNow();
+    }
+
+    /**
+     * 记录在该连接上调用的方法,executeUpdate返回updateCount或者抛出异常
+     */
+    private static class StubConnection {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        final boolean inTransaction;
+        final int updateCount;
+        final boolean fail;
+        CyclicBarrier barrier;
+        final Connection connection;
+
+        StubConnection(boolean inTransaction, int updateCount, boolean fail) {
+            this.inTransaction = inTransaction;
+            this.updateCount = updateCount;
+            this.fail = fail;
+            this.connection = proxy(Connection.class, (p, method, args) -> {
+                switch (method.getName()) {
+                    case "getAutoCommit":
+                        return !inTransaction;
+                    case "setSavepoint":
+                    case "releaseSavepoint":
+                        calls.add(method.getName());
+                        return proxy(Savepoint.class, (s, m, a) -> null);
+                    case "rollback":
+                        calls.add(args == null ? "rollback" : "rollbackToSavepoint");
+                        return null;
+                    case "prepareStatement":
+                        return statement();
+                    case "hashCode":
+                        return System.identityHashCode(p);
+                    case "equals":
+                        return p == args[0];
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            });
+        }
+
+        private PreparedStatement statement() {
+            return proxy(PreparedStatement.class, (p, method, args) -> {
+                if ("executeUpdate".equals(method.getName())) {
+                    calls.add("executeUpdate");
+                    if (barrier != null) {
+                        barrier.await(10, TimeUnit.SECONDS);
+                    }
+                    if (fail) {
+                        throw new SQLException("update fail");
+                    }
+                    return updateCount;
+                }
+                return defaultValue(method.getReturnType());
+            });
+        }
+
+        boolean executed() {
+            return calls.contains("executeUpdate");
+        }
+    }
+
+    private static class StubDatasourceFactory implements DatasourceFactory {
+        final Map<String, StubConnection> connections = new LinkedHashMap<>();
+        final boolean inTransaction;
+
+        StubDatasourceFactory(boolean inTransaction) {
+            this.inTransaction = inTransaction;
+        }
+
+        StubConnection add(String target, int updateCount, boolean fail) {
+            StubConnection connection = new StubConnection(inTransaction, updateCount, fail);
+            connections.put(target, connection);
+            return connection;
+        }
+
+        @Override
+        public void open() {
+
+        }
+
+        @Override
+        public void createTableIfNotExisted(String targetName, String createTableSql) {
+
+        }
+
+        @Override
+        public Map<String, Connection> getConnections(List<String> targets) {
+            Map<String, Connection> res = new HashMap<>();
+            for (String target : targets) {
+                res.put(target, connections.get(target).connection);
+            }
+            return res;
+        }
+
+        @Override
+        public void regist(ImmutableList<String> asList) {
+
+        }
+
+        @Override
+        public Connection getConnection(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Connection> getTmpConnections(List<String> targets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void recycleTmpConnections(List<Connection> connections) {
+
+        }
+
+        @Override
+        public boolean isInTransaction() {
+            return inTransaction;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    private static MycatUpdateExecutor executor(StubDatasourceFactory factory) {
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (String target : factory.connections.keySet()) {
+            dataNodes.add(new BackendTableInfo(target, "db1", "t"));
+        }
+        Distribution distribution = new DistributionImpl(dataNodes, false, Distribution.Type.Sharding);
+        return MycatUpdateExecutor.create(distribution, SQLUtils.parseSingleMysqlStatement("delete from t where fee = 1"),
+                factory, new ArrayList<>());
+    }
+
+    @Test
+    public void testParallel() {
+        StubDatasourceFactory factory = new StubDatasourceFactory(false);
+        CyclicBarrier barrier = new CyclicBarrier(4);
+        for (int i = 0; i < 4; i++) {
+            factory.add("c" + i, i + 1, false).barrier = barrier;
+        }
+        //4个分片同时执行时才能通过barrier
+        MycatUpdateExecutor executor = executor(factory);
+        executor.open();
+        Assert.assertEquals(1 + 2 + 3 + 4, executor.getAffectedRow());
+        Assert.assertEquals(4, executor.getShardTimeNanos().size());
+    }
+
+    @Test
+    public void testSavepoint() {
+        StubDatasourceFactory factory = new StubDatasourceFactory(true);
+        for (int i = 0; i < 3; i++) {
+            factory.add("c" + i, 2, false);
+        }
+        MycatUpdateExecutor executor = executor(factory);
+        executor.open();
+        Assert.assertEquals(6, executor.getAffectedRow());
+        //成功后释放保存点
+        for (StubConnection connection : factory.connections.values()) {
+            Assert.assertEquals(Arrays.asList("setSavepoint", "executeUpdate", "releaseSavepoint"), connection.calls);
+        }
+
+        //只有一个分片时不使用保存点
+        factory = new StubDatasourceFactory(true);
+        StubConnection single = factory.add("c0", 1, false);
+        executor(factory).open();
+        Assert.assertEquals(Collections.singletonList("executeUpdate"), single.calls);
+    }
+
+    @Test
+    public void testFailFastInTransaction() {
+        serverConfig.setShardUpdateParallelism(1);
+        StubDatasourceFactory factory = new StubDatasourceFactory(true);
+        StubConnection ok = factory.add("c0", 1, false);
+        StubConnection fail1 = factory.add("c1", 1, true);
+        StubConnection fail2 = factory.add("c2", 1, true);
+        try {
+            executor(factory).open();
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertTrue(e instanceof SQLException);
+            //第一个失败后不再执行其他分片
+            Assert.assertEquals(0, e.getSuppressed().length);
+        }
+        Assert.assertTrue(fail1.executed() ^ fail2.executed());
+        //已经执行的分片回滚到保存点,不释放
+        for (StubConnection connection : Arrays.asList(ok, fail1, fail2)) {
+            Assert.assertFalse(connection.calls.contains("releaseSavepoint"));
+            Assert.assertEquals(connection.executed(), connection.calls.contains("rollbackToSavepoint"));
+        }
+    }
+
+    @Test
+    public void testContinueInAutocommit() {
+        serverConfig.setShardUpdateParallelism(1);
+        StubDatasourceFactory factory = new StubDatasourceFactory(false);
+        StubConnection ok = factory.add("c0", 3, false);
+        StubConnection fail1 = factory.add("c1", 1, true);
+        StubConnection fail2 = factory.add("c2", 1, true);
+        MycatUpdateExecutor executor = executor(factory);
+        try {
+            executor.open();
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertTrue(e instanceof SQLException);
+            //各分片独立提交,抛出第一个错误,其他错误附加在后面
+            Assert.assertEquals(1, e.getSuppressed().length);
+        }
+        for (StubConnection connection : Arrays.asList(ok, fail1, fail2)) {
+            Assert.assertEquals(Collections.singletonList("executeUpdate"), connection.calls);
+        }
+        //成功分片的影响行数仍然累计
+        Assert.assertEquals(3, executor.getAffectedRow());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MycatUpdateExecutorTest.class.getClassLoader(), new Class[]{clazz}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
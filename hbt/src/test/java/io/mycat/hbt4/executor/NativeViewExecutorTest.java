@@ -0,0 +1,336 @@
+package io.mycat.hbt4.executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import io.mycat.BackendTableInfo;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatException;
+import io.mycat.api.MySQLAPI;
+import io.mycat.api.MySQLAPIRuntime;
+import io.mycat.api.callback.MySQLAPIExceptionCallback;
+import io.mycat.api.callback.MySQLAPISessionCallback;
+import io.mycat.api.callback.MySQLJobCallback;
+import io.mycat.api.collector.ResultSetCollector;
+import io.mycat.api.collector.ResultSetTransfor;
+import io.mycat.beans.mysql.packet.ErrorPacketImpl;
+import io.mycat.beans.mysql.packet.MySQLPacket;
+import io.mycat.config.ServerConfig;
+import io.mycat.hbt3.Distribution;
+import io.mycat.hbt3.DistributionImpl;
+import io.mycat.hbt3.View;
+import io.mycat.hbt4.DatasourceFactory;
+import io.mycat.mpp.Row;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.util.SqlString;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class NativeViewExecutorTest {
+    private Map<Class, Object> oldContext;
+    private StubRuntime runtime;
+
+    @Before
+    public void setUp() {
+        oldContext = MetaClusterCurrent.context.get();
+        runtime = new StubRuntime();
+        HashMap<Class, Object> context = new HashMap<>(oldContext);
+        context.put(MySQLAPIRuntime.class, runtime);
+        ServerConfig serverConfig = new ServerConfig();
+        serverConfig.setNativeFanOutThreshold(2);
+        context.put(ServerConfig.class, serverConfig);
+        MetaClusterCurrent.register(context);
+    }
+
+    @After
+    public void tearDown() {
+        MetaClusterCurrent.register(oldContext);
+        runtime.reactor.shutdownNow();
+    }
+
+    /**
+     * 模拟reactor线程,session和结果集的回调都在该线程中执行
+     */
+    private static class StubRuntime implements MySQLAPIRuntime {
+        final ExecutorService reactor = Executors.newSingleThreadExecutor();
+        final Map<String, StubAPI> apis = new HashMap<>();
+        final AtomicInteger closed = new AtomicInteger();
+        boolean blockingAllowed = true;
+        CountDownLatch sessionLatch = new CountDownLatch(0);
+
+        @Override
+        public void create(String dataSourceName, MySQLAPISessionCallback callback) {
+            reactor.submit(() -> {
+                sessionLatch.await();
+                StubAPI api = apis.get(dataSourceName);
+                if (api == null) {
+                    callback.onException(new MycatException("native datasource:{} is not found", dataSourceName));
+                } else {
+                    callback.onSession(api);
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public boolean isBlockingAllowed() {
+            return blockingAllowed;
+        }
+
+        @Override
+        public void addPengdingJob(MySQLJobCallback callback) {
+
+        }
+
+        StubAPI add(String target, String[]... rows) {
+            StubAPI api = new StubAPI(this, rows);
+            apis.put(target, api);
+            return api;
+        }
+    }
+
+    /**
+     * 按文本协议把每一行交给transfor,null值使用collectNull
+     */
+    private static class StubAPI implements MySQLAPI {
+        final StubRuntime runtime;
+        final String[][] rows;
+        String errorMessage;
+        final List<String> sqls = new ArrayList<>();
+
+        StubAPI(StubRuntime runtime, String[][] rows) {
+            this.runtime = runtime;
+            this.rows = rows;
+        }
+
+        @Override
+        public void query(String sql, ResultSetCollector resultSetCollector, MySQLAPIExceptionCallback exceptionCollector) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void query(String sql, ResultSetTransfor transfor, MySQLAPIExceptionCallback callback) {
+            sqls.add(sql);
+            transfor.onResultSetStart();
+            for (String[] row : rows) {
+                transfor.onRowStart();
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] == null) {
+                        transfor.collectNull(i, null);
+                    } else {
+                        transfor.collectVarString(i, null, packet(row[i]), 0);
+                    }
+                }
+                transfor.onRowEnd();
+            }
+            transfor.onResultSetEnd();
+            if (errorMessage != null) {
+                ErrorPacketImpl errorPacket = new ErrorPacketImpl();
+                errorPacket.setErrorMessage(errorMessage.getBytes(StandardCharsets.UTF_8));
+                callback.onErrorPacket(errorPacket, false, this);
+            } else {
+                callback.onFinished(false, this);
+            }
+        }
+
+        @Override
+        public void close() {
+            runtime.closed.incrementAndGet();
+        }
+    }
+
+    private static MySQLPacket packet(String value) {
+        return (MySQLPacket) Proxy.newProxyInstance(MySQLPacket.class.getClassLoader(), new Class[]{MySQLPacket.class},
+                (proxy, method, args) -> {
+                    if ("readLenencBytes".equals(method.getName())) {
+                        return value.getBytes(StandardCharsets.UTF_8);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static View view() {
+        RelBuilder builder = RelBuilder.create(Frameworks.newConfigBuilder()
+                .defaultSchema(Frameworks.createRootSchema(true)).build());
+        RelDataTypeFactory typeFactory = builder.getTypeFactory();
+        RelDataType rowType = typeFactory.builder()
+                .add("id", typeFactory.createSqlType(SqlTypeName.BIGINT))
+                .add("name", typeFactory.createTypeWithNullability(typeFactory.createSqlType(SqlTypeName.VARCHAR), true))
+                .add("fee", typeFactory.createTypeWithNullability(typeFactory.createSqlType(SqlTypeName.DECIMAL, 10, 2), true))
+                .add("day", typeFactory.createTypeWithNullability(typeFactory.createSqlType(SqlTypeName.DATE), true))
+                .build();
+        return View.of(builder.values(rowType).build(), new DistributionImpl(
+                Collections.singletonList(new BackendTableInfo("c0", "db1", "t")), false, Distribution.Type.Sharding));
+    }
+
+    private static ImmutableMultimap<String, SqlString> sqls(String... targets) {
+        ImmutableMultimap.Builder<String, SqlString> builder = ImmutableMultimap.builder();
+        for (String target : targets) {
+            builder.put(target, new SqlString(null, "select * from t where target = '" + target + "'"));
+        }
+        return builder.build();
+    }
+
+    private static List<String> readAll(NativeViewExecutor executor) {
+        List<String> res = new ArrayList<>();
+        Row row;
+        while ((row = executor.next()) != null) {
+            res.add(Stream.of(row.values).map(v -> v == null ? "null" : v.getClass().getSimpleName() + ":" + v)
+                    .collect(Collectors.joining(",")));
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    @Test
+    public void testIsAvailable() {
+        runtime.add("c0");
+        runtime.add("c1");
+        StubDatasourceFactory factory = new StubDatasourceFactory();
+        Assert.assertTrue(NativeViewExecutor.isAvailable(factory, sqls("c0", "c1")));
+        //分片数没有达到阈值
+        Assert.assertFalse(NativeViewExecutor.isAvailable(factory, sqls("c0")));
+        factory.inTransaction = true;
+        Assert.assertFalse(NativeViewExecutor.isAvailable(factory, sqls("c0", "c1")));
+        factory.inTransaction = false;
+        //reactor线程中不能阻塞等待自己的session
+        runtime.blockingAllowed = false;
+        Assert.assertFalse(NativeViewExecutor.isAvailable(factory, sqls("c0", "c1")));
+    }
+
+    @Test
+    public void testQuery() {
+        StubAPI c0 = runtime.add("c0",
+                new String[]{"1", "a", "1.50", "2020-01-02"},
+                new String[]{"2", null, null, null});
+        runtime.add("c1",
+                new String[]{"3", "c", "0.00", "0000-00-00"});
+        NativeViewExecutor executor = new NativeViewExecutor(view(), Collections.emptyList(), new StubDatasourceFactory(), sqls("c0", "c1"));
+        executor.open();
+        //按期望的行类型解码,0000-00-00日期为null
+        Assert.assertEquals(Arrays.asList(
+                "Long:1,String:a,BigDecimal:1.50,LocalDate:2020-01-02",
+                "Long:2,null,null,null",
+                "Long:3,String:c,BigDecimal:0.00,null"), readAll(executor));
+        Assert.assertEquals(Collections.singletonList("select * from t where target = 'c0'"), c0.sqls);
+        //完成后归还所有session
+        Assert.assertEquals(2, runtime.closed.get());
+        Assert.assertNull(executor.next());
+        executor.close();
+    }
+
+    @Test
+    public void testErrorPacket() {
+        runtime.add("c0", new String[]{"1", "a", "1.00", "2020-01-02"});
+        runtime.add("c1", new String[]{"2", "b", "1.00", "2020-01-02"}).errorMessage = "Table 't' doesn't exist";
+        NativeViewExecutor executor = new NativeViewExecutor(view(), Collections.emptyList(), new StubDatasourceFactory(), sqls("c0", "c1"));
+        executor.open();
+        try {
+            readAll(executor);
+            Assert.fail();
+        } catch (MycatException e) {
+            Assert.assertEquals("Table 't' doesn't exist", e.getMessage());
+        }
+        Assert.assertEquals(2, runtime.closed.get());
+        executor.close();
+    }
+
+    @Test
+    public void testSessionException() {
+        runtime.add("c0", new String[]{"1", "a", "1.00", "2020-01-02"});
+        //c1没有可用的session
+        NativeViewExecutor executor = new NativeViewExecutor(view(), Collections.emptyList(), new StubDatasourceFactory(), sqls("c0", "c1"));
+        executor.open();
+        try {
+            readAll(executor);
+            Assert.fail();
+        } catch (MycatException e) {
+            Assert.assertTrue(e.getMessage().contains("c1"));
+        }
+        executor.close();
+    }
+
+    @Test
+    public void testCloseBeforeSession() throws Exception {
+        StubAPI c0 = runtime.add("c0", new String[]{"1", "a", "1.00", "2020-01-02"});
+        StubAPI c1 = runtime.add("c1", new String[]{"2", "b", "1.00", "2020-01-02"});
+        CountDownLatch sessionLatch = new CountDownLatch(1);
+        runtime.sessionLatch = sessionLatch;
+        NativeViewExecutor executor = new NativeViewExecutor(view(), Collections.emptyList(), new StubDatasourceFactory(), sqls("c0", "c1"));
+        executor.open();
+        executor.close();
+        sessionLatch.countDown();
+        runtime.reactor.shutdown();
+        Assert.assertTrue(runtime.reactor.awaitTermination(10, TimeUnit.SECONDS));
+        //关闭后得到的session不执行查询,直接归还
+        Assert.assertTrue(c0.sqls.isEmpty());
+        Assert.assertTrue(c1.sqls.isEmpty());
+        Assert.assertEquals(2, runtime.closed.get());
+    }
+
+    private static class StubDatasourceFactory implements DatasourceFactory {
+        boolean inTransaction = false;
+
+        @Override
+        public void open() {
+
+        }
+
+        @Override
+        public void createTableIfNotExisted(String targetName, String createTableSql) {
+
+        }
+
+        @Override
+        public Map<String, Connection> getConnections(List<String> targets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void regist(ImmutableList<String> asList) {
+
+        }
+
+        @Override
+        public Connection getConnection(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Connection> getTmpConnections(List<String> targets) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void recycleTmpConnections(List<Connection> connections) {
+
+        }
+
+        @Override
+        public boolean isInTransaction() {
+            return inTransaction;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
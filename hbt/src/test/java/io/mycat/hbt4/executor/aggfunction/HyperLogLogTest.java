@@ -0,0 +1,52 @@
+package io.mycat.hbt4.executor.aggfunction;
+
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    public void testSmallCardinalityIsAlmostExact() {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) {
+            hyperLogLog.add(i);
+            hyperLogLog.add(String.valueOf(i));
+        }
+        Assert.assertEquals(1000, hyperLogLog.estimate(), 10);
+    }
+
+    @Test
+    public void testLargeCardinality() {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        for (long i = 0; i < 1000000; i++) {
+            hyperLogLog.add(i);
+        }
+        Assert.assertEquals(1000000, hyperLogLog.estimate(), 1000000 * 0.03);
+    }
+
+    /**
+     * 模拟四个分片用md5(x)计算的寄存器,分片之间的值有重复
+     */
+    @Test
+    public void testMergeShardRegisters() {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int shard = 0; shard < 4; shard++) {
+            for (long i = shard * 50000; i < shard * 50000 + 100000; i++) {
+                String md5 = Hashing.md5().hashString(String.valueOf(i), StandardCharsets.UTF_8).toString();
+                int index = (int) (Long.parseLong(md5.substring(0, 4), 16) % HyperLogLog.M);
+                long hash = Long.parseLong(md5.substring(4, 16), 16);
+                int rho = hash == 0 ? 49 : 49 - Long.toBinaryString(hash).length();
+                hyperLogLog.merge(index, rho);
+            }
+        }
+        Assert.assertEquals(250000, hyperLogLog.estimate(), 250000 * 0.03);
+    }
+}
@@ -0,0 +1,113 @@
+package io.mycat.hbt4.executor.aggfunction;
+
+import io.mycat.ExecutorUtil;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatWorkerProcessor;
+import io.mycat.NameableExecutor;
+import io.mycat.config.ServerConfig;
+import io.mycat.hbt4.executor.MycatValuesExecutor;
+import io.mycat.mpp.Row;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class MycatHashAggExecutorTest {
+    private Map<Class, Object> oldContext;
+    private NameableExecutor mycatWorker;
+    private Path spillDirectory;
+    private final ServerConfig serverConfig = new ServerConfig();
+
+    @Before
+    public void setUp() throws Exception {
+        oldContext = MetaClusterCurrent.context.get();
+        mycatWorker = ExecutorUtil.create("aggTest", 4);
+        HashMap<Class, Object> context = new HashMap<>(oldContext);
+        context.put(MycatWorkerProcessor.class, new MycatWorkerProcessor(mycatWorker, mycatWorker));
+        context.put(ServerConfig.class, serverConfig);
+        MetaClusterCurrent.register(context);
+        spillDirectory = Files.createTempDirectory("aggTest");
+        serverConfig.setHashAggSpillDirectory(spillDirectory.toString());
+    }
+
+    @After
+    public void tearDown() {
+        MetaClusterCurrent.register(oldContext);
+        mycatWorker.shutdownNow();
+        spillDirectory.toFile().delete();
+    }
+
+    /**
+     * select k, count(*), sum(v), max(v) from t group by k
+     */
+    private static Aggregate aggregate() {
+        RelBuilder builder = RelBuilder.create(Frameworks.newConfigBuilder()
+                .defaultSchema(Frameworks.createRootSchema(true)).build());
+        RelDataTypeFactory typeFactory = builder.getTypeFactory();
+        RelDataType rowType = typeFactory.builder()
+                .add("k", typeFactory.createSqlType(SqlTypeName.BIGINT))
+                .add("v", typeFactory.createSqlType(SqlTypeName.BIGINT))
+                .build();
+        return (Aggregate) builder.values(rowType)
+                .aggregate(builder.groupKey(0),
+                        builder.countStar("c"),
+                        builder.sum(false, "s", builder.field(1)),
+                        builder.max("m", builder.field(1)))
+                .build();
+    }
+
+    private static List<Row> input() {
+        List<Row> rows = new ArrayList<>();
+        for (long i = 0; i < 50000; i++) {
+            rows.add(Row.of(new Object[]{i % 5000, i}));
+        }
+        //打乱顺序,新的分组在写磁盘之后仍然不断出现
+        Collections.shuffle(rows, new Random(1));
+        return rows;
+    }
+
+    private List<String> run(Aggregate aggregate, List<Row> input, boolean expectSpill) {
+        MycatHashAggExecutor executor = MycatHashAggExecutor.create(MycatValuesExecutor.create(input), aggregate);
+        executor.open();
+        File[] spillFiles = spillDirectory.toFile().listFiles();
+        Assert.assertEquals(expectSpill, spillFiles != null && spillFiles.length > 0);
+        List<String> rows = new ArrayList<>();
+        Row row;
+        while ((row = executor.next()) != null) {
+            rows.add(Stream.of(row.values).map(String::valueOf).collect(Collectors.joining(",")));
+        }
+        executor.close();
+        //读完之后删除磁盘上的文件
+        Assert.assertArrayEquals(new File[0], spillDirectory.toFile().listFiles());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test
+    public void testParallelSpill() {
+        Aggregate aggregate = aggregate();
+        List<Row> input = input();
+        serverConfig.setHashAggParallelism(1);
+        serverConfig.setHashAggMemoryBytes(0);
+        List<String> expected = run(aggregate, input, false);
+        Assert.assertEquals(5000, expected.size());
+
+        //每个分区只能在内存中保存几十个分组,其余的分组写到磁盘
+        serverConfig.setHashAggParallelism(4);
+        serverConfig.setHashAggMemoryBytes(16 * 1024);
+        Assert.assertEquals(expected, run(aggregate, input, true));
+    }
+}
@@ -0,0 +1,199 @@
+package io.mycat.metadata;
+
+import io.mycat.*;
+import io.mycat.config.DatasourceConfig;
+import io.mycat.config.ServerConfig;
+import io.mycat.datasource.jdbc.DatasourceProvider;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import io.mycat.replica.ReplicaSelectorRuntime;
+import org.apache.calcite.MycatContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DDLHelperTest {
+    private Map<Class, Object> oldContext;
+    private NameableExecutor mycatWorker;
+    private final ServerConfig serverConfig = new ServerConfig();
+    /**
+     * 每个数据源同时打开的连接数与最大值
+     */
+    private final Map<String, AtomicInteger> opened = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> maxOpened = new ConcurrentHashMap<>();
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * 包含其中任何一个字符串的语句执行失败
+     */
+    private final Set<String> failures = new HashSet<>();
+    private final List<String> states = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        oldContext = MetaClusterCurrent.context.get();
+        mycatWorker = ExecutorUtil.create("ddlTest", 8);
+        HashMap<Class, Object> context = new HashMap<>(oldContext);
+        context.put(MycatWorkerProcessor.class, new MycatWorkerProcessor(mycatWorker, mycatWorker));
+        context.put(JdbcConnectionManager.class, connectionManager("c0", "c1"));
+        context.put(ServerConfig.class, serverConfig);
+        MetaClusterCurrent.register(context);
+        MycatContext.CONTEXT.set(proxy(MycatDataContext.class, (p, method, args) -> {
+            if ("setQueryState".equals(method.getName())) {
+                states.add((String) args[0]);
+            }
+            return null;
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        MycatContext.CONTEXT.remove();
+        MetaClusterCurrent.register(oldContext);
+        mycatWorker.shutdownNow();
+    }
+
+    /**
+     * 每个target上2个库,每个库3个分表
+     */
+    private static List<DataNode> dataNodes() {
+        List<DataNode> dataNodes = new ArrayList<>();
+        for (String target : Arrays.asList("c0", "c1")) {
+            for (int db = 0; db < 2; db++) {
+                for (int table = 0; table < 3; table++) {
+                    dataNodes.add(new BackendTableInfo(target, "db_" + db, "t_" + db + "_" + table));
+                }
+            }
+        }
+        return dataNodes;
+    }
+
+    private int count(String prefix) {
+        synchronized (executed) {
+            return (int) executed.stream().filter(i -> i.startsWith(prefix)).count();
+        }
+    }
+
+    @Test
+    public void testParallelismPerTarget() {
+        serverConfig.setDdlParallelismPerTarget(2);
+        DDLHelper.createPhysicalTables("db1.t", "CREATE TABLE t (id bigint)", dataNodes());
+        //每个target上同名的库只创建一次
+        Assert.assertEquals(4, count("CREATE DATABASE"));
+        Assert.assertEquals(12, count("CREATE TABLE"));
+        for (String target : Arrays.asList("c0", "c1")) {
+            Assert.assertEquals(2, maxOpened.get(target).get());
+            Assert.assertEquals(0, opened.get(target).get());
+        }
+        //会话的State显示进度,结束后清除
+        Assert.assertTrue(states.contains("create table db1.t 12/12, 0 failed"));
+        Assert.assertNull(states.get(states.size() - 1));
+    }
+
+    @Test
+    public void testFailures() {
+        failures.add("CREATE DATABASE IF NOT EXISTS db_1");
+        failures.add("db_0.t_0_2");
+        try {
+            DDLHelper.createPhysicalTables("db1.t", "CREATE TABLE t (id bigint)", dataNodes());
+            Assert.fail();
+        } catch (MycatException e) {
+            //c0,c1上db_1的6个分表不再建表,db_0.t_0_2在两个target上失败
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("create physical tables of db1.t failed on 8/12 data nodes:"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("t_0_2"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("t_1_0"));
+        }
+        Assert.assertEquals(6, count("CREATE TABLE"));
+        Assert.assertFalse(executed.stream().anyMatch(i -> i.startsWith("CREATE TABLE") && i.contains("db_1")));
+        Assert.assertTrue(states.contains("create table db1.t 6/6, 2 failed"));
+    }
+
+    private JdbcConnectionManager connectionManager(String... targets) {
+        Map<String, DatasourceConfig> configs = new HashMap<>();
+        for (String target : targets) {
+            DatasourceConfig config = new DatasourceConfig();
+            config.setName(target);
+            configs.put(target, config);
+            opened.put(target, new AtomicInteger());
+            maxOpened.put(target, new AtomicInteger());
+        }
+        DatasourceProvider provider = new DatasourceProvider() {
+            @Override
+            public JdbcDataSource createDataSource(DatasourceConfig datasourceConfig) {
+                String target = datasourceConfig.getName();
+                return new JdbcDataSource(datasourceConfig, proxy(DataSource.class, (p, method, args) -> {
+                    if ("getConnection".equals(method.getName())) {
+                        int count = opened.get(target).incrementAndGet();
+                        maxOpened.get(target).accumulateAndGet(count, Math::max);
+                        return connection(target);
+                    }
+                    return defaultValue(method.getReturnType());
+                }));
+            }
+
+            @Override
+            public void closeDataSource(JdbcDataSource dataSource) {
+
+            }
+        };
+        ReplicaSelectorRuntime replicaSelector = new ReplicaSelectorRuntime(Collections.emptyList(), Collections.emptyMap(), null, null);
+        return new JdbcConnectionManager(configs, Collections.emptyMap(), provider, null, replicaSelector);
+    }
+
+    private Connection connection(String target) {
+        return proxy(Connection.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "createStatement":
+                    return proxy(Statement.class, (statement, statementMethod, statementArgs) -> {
+                        if ("executeUpdate".equals(statementMethod.getName())) {
+                            String sql = (String) statementArgs[0];
+                            executed.add(sql);
+                            //建表时间足够长,同一个target上的连接才会同时打开
+                            Thread.sleep(20);
+                            for (String failure : failures) {
+                                if (sql.contains(failure)) {
+                                    throw new SQLException(target + " " + failure + " fail");
+                                }
+                            }
+                        }
+                        return defaultValue(statementMethod.getReturnType());
+                    });
+                case "close":
+                    opened.get(target).decrementAndGet();
+                    return null;
+                case "getTransactionIsolation":
+                    return Connection.TRANSACTION_REPEATABLE_READ;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(DDLHelperTest.class.getClassLoader(), new Class[]{clazz}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,248 @@
+package io.mycat.metadata;
+
+import io.mycat.SimpleColumnInfo;
+import io.mycat.config.DatasourceConfig;
+import io.mycat.config.LogicSchemaConfig;
+import io.mycat.config.NormalTableConfig;
+import io.mycat.datasource.jdbc.DatasourceProvider;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import io.mycat.plug.loadBalance.LoadBalanceManager;
+import io.mycat.plug.sequence.SequenceGenerator;
+import io.mycat.replica.ReplicaSelectorRuntime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class MetadataManagerReloadTest {
+
+    /**
+     * 后端的建表语句,为null时SHOW CREATE TABLE失败
+     */
+    private volatile String createTableSQL = "CREATE TABLE `t1` (`id` int)";
+    /**
+     * show tables返回的表,除了t1以外的建表语句只有id列
+     */
+    private volatile List<String> tableNames = Collections.singletonList("t1");
+    private final AtomicInteger loading = new AtomicInteger();
+    private final AtomicInteger maxLoading = new AtomicInteger();
+
+    @Test
+    public void testReloadFromBackend() {
+        MetadataSnapshot snapshot = new MetadataSnapshot();
+        snapshot.getCreateTableSQLs().put("db1", Collections.singletonMap("t1", "CREATE TABLE `t1` (`old_id` int)"));
+        snapshot.getDefaultTables().put("db1", Collections.singletonList("t1"));
+        MetadataManager fromSnapshot = create(snapshot);
+        Assert.assertFalse(fromSnapshot.isVerified());
+        Assert.assertEquals(Collections.singletonList("old_id"), columns(fromSnapshot));
+
+        MetadataManager reloaded = fromSnapshot.reload();
+        Assert.assertNotSame(fromSnapshot, reloaded);
+        Assert.assertTrue(reloaded.isVerified());
+        Assert.assertFalse(reloaded.isFetchFailed());
+        Assert.assertEquals(Collections.singletonList("id"), columns(reloaded));
+        Assert.assertTrue(reloaded.getSnapshot().getCreateTableSQLs().get("db1").get("t1").contains("`id`"));
+        //正在使用的元数据不会被修改
+        Assert.assertEquals(Collections.singletonList("old_id"), columns(fromSnapshot));
+        Assert.assertNotSame(fromSnapshot.getSchemaMap().get("db1"), reloaded.getSchemaMap().get("db1"));
+    }
+
+    @Test
+    public void testFetchFailed() {
+        MetadataManager metadataManager = create(null);
+        Assert.assertFalse(metadataManager.isFetchFailed());
+        createTableSQL = null;
+        MetadataManager reloaded = metadataManager.reload();
+        Assert.assertTrue(reloaded.isFetchFailed());
+        Assert.assertFalse(metadataManager.isFetchFailed());
+    }
+
+    @Test
+    public void testCopyWithTable() {
+        MetadataManager metadataManager = create(null);
+        LogicSchemaConfig schemaConfig = new LogicSchemaConfig();
+        schemaConfig.setSchemaName("db1");
+        schemaConfig.setTargetName("prototype");
+        schemaConfig.getNormalTables().put("t2", NormalTableConfig.create("db1", "t2",
+                "CREATE TABLE `t2` (`id` int, `name` varchar(20))", "prototype"));
+        MetadataManager copy = metadataManager.copyWithTable(schemaConfig, "t2");
+        Assert.assertNotNull(copy.getTable("db1", "t2"));
+        //没有变化的表与schema和原来的元数据共享
+        Assert.assertSame(metadataManager.getTable("db1", "t1"), copy.getTable("db1", "t1"));
+        Assert.assertSame(metadataManager.getSchemaMap().get("mysql"), copy.getSchemaMap().get("mysql"));
+        Assert.assertNotSame(metadataManager.getSchemaMap().get("db1"), copy.getSchemaMap().get("db1"));
+        //原来的元数据不会被修改
+        Assert.assertNull(metadataManager.getTable("db1", "t2"));
+    }
+
+    @Test
+    public void testCopyWithoutTable() {
+        MetadataManager metadataManager = create(null);
+        MetadataManager copy = metadataManager.copyWithoutTable("db1", "t1");
+        Assert.assertNull(copy.getTable("db1", "t1"));
+        Assert.assertFalse(copy.getSnapshot().getCreateTableSQLs().get("db1").containsKey("t1"));
+        Assert.assertNotNull(metadataManager.getTable("db1", "t1"));
+        Assert.assertTrue(metadataManager.getSnapshot().getCreateTableSQLs().get("db1").containsKey("t1"));
+        Assert.assertSame(metadataManager.getSchemaMap().get("mysql"), copy.getSchemaMap().get("mysql"));
+        //不存在的schema
+        Assert.assertNotNull(metadataManager.copyWithoutTable("db2", "t1").getTable("db1", "t1"));
+    }
+
+    @Test
+    public void testLoadParallelismPerTarget() {
+        tableNames = Arrays.asList("t1", "t2", "t3", "t4", "t5", "t6");
+        MetadataManager metadataManager = create(null, 4, 2);
+        for (String tableName : tableNames) {
+            Assert.assertNotNull(metadataManager.getTable("db1", tableName));
+        }
+        //所有的表都在prototype上
+        Assert.assertTrue(maxLoading.get() <= 2);
+    }
+
+    private static List<String> columns(MetadataManager metadataManager) {
+        return metadataManager.getTable("db1", "t1").getColumns().stream()
+                .map(SimpleColumnInfo::getColumnName).collect(Collectors.toList());
+    }
+
+    private MetadataManager create(MetadataSnapshot snapshot) {
+        return create(snapshot, 2, 1);
+    }
+
+    private MetadataManager create(MetadataSnapshot snapshot, int loadParallelism, int loadParallelismPerTarget) {
+        LogicSchemaConfig schemaConfig = new LogicSchemaConfig();
+        schemaConfig.setSchemaName("db1");
+        schemaConfig.setTargetName("prototype");
+        List<LogicSchemaConfig> schemaConfigs = new ArrayList<>();
+        schemaConfigs.add(schemaConfig);
+        ReplicaSelectorRuntime replicaSelector = new ReplicaSelectorRuntime(Collections.emptyList(), Collections.emptyMap(), null, null);
+        return new MetadataManager(schemaConfigs,
+                new LoadBalanceManager(null),
+                new SequenceGenerator(null),
+                replicaSelector,
+                connectionManager(replicaSelector),
+                "prototype",
+                snapshot,
+                loadParallelism,
+                loadParallelismPerTarget);
+    }
+
+    private JdbcConnectionManager connectionManager(ReplicaSelectorRuntime replicaSelector) {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName("prototype");
+        DataSource dataSource = proxy(DataSource.class, (p, method, args) -> {
+            if ("getConnection".equals(method.getName())) {
+                return connection();
+            }
+            return defaultValue(method.getReturnType());
+        });
+        DatasourceProvider provider = new DatasourceProvider() {
+            @Override
+            public JdbcDataSource createDataSource(DatasourceConfig datasourceConfig) {
+                return new JdbcDataSource(datasourceConfig, dataSource);
+            }
+
+            @Override
+            public void closeDataSource(JdbcDataSource dataSource) {
+
+            }
+        };
+        return new JdbcConnectionManager(Collections.singletonMap("prototype", config), Collections.emptyMap(), provider, null, replicaSelector);
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (p, method, args) -> {
+            if ("createStatement".equals(method.getName())) {
+                return proxy(Statement.class, (statement, statementMethod, statementArgs) -> {
+                    if ("executeQuery".equals(statementMethod.getName())) {
+                        return query((String) statementArgs[0]);
+                    }
+                    return defaultValue(statementMethod.getReturnType());
+                });
+            }
+            if ("getTransactionIsolation".equals(method.getName())) {
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private ResultSet query(String sql) throws SQLException {
+        if (sql.startsWith("show tables from db1")) {
+            return resultSet(1, tableNames.stream().map(i -> new String[]{i}).collect(Collectors.toList()));
+        }
+        if (sql.startsWith("SHOW CREATE TABLE db1.")) {
+            String tableName = sql.substring("SHOW CREATE TABLE db1.".length()).trim();
+            String createTableSQL = "t1".equals(tableName) ? this.createTableSQL : "CREATE TABLE `" + tableName + "` (`id` int)";
+            if (createTableSQL == null) {
+                throw new SQLException("Communications link failure");
+            }
+            maxLoading.accumulateAndGet(loading.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                loading.decrementAndGet();
+            }
+            return resultSet(2, Collections.singletonList(new String[]{tableName, createTableSQL}));
+        }
+        return resultSet(2, Collections.emptyList());
+    }
+
+    private static ResultSet resultSet(int columnCount, List<String[]> rows) {
+        Iterator<String[]> iterator = rows.iterator();
+        String[][] current = new String[1][];
+        ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return columnCount;
+                case "getColumnType":
+                    return Types.VARCHAR;
+                case "getColumnName":
+                case "getColumnLabel":
+                    return "c" + args[0];
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        return proxy(ResultSet.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    current[0] = iterator.hasNext() ? iterator.next() : null;
+                    return current[0] != null;
+                case "getString":
+                case "getObject":
+                    return current[0][(Integer) args[0] - 1];
+                case "getMetaData":
+                    return metaData;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MetadataManagerReloadTest.class.getClassLoader(), new Class[]{clazz}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
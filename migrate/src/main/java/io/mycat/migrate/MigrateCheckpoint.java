@@ -0,0 +1,99 @@
+package io.mycat.migrate;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 分块迁移的断点文件.
+ * 第一行是迁移的标识(源表,目标表,主键,分块大小,起始主键),之后每行是一个已经完成的分块(begin,end]: begin,end,rowCount,checksum
+ * 标识不一致时视为新的迁移,重写文件
+ */
+@Slf4j
+class MigrateCheckpoint {
+    private final Path path;
+    /**
+     * key:分块起点 value:分块终点
+     */
+    private final ConcurrentNavigableMap<Long, Long> completed = new ConcurrentSkipListMap<>();
+    private final boolean resumed;
+
+    private MigrateCheckpoint(Path path, boolean resumed) {
+        this.path = path;
+        this.resumed = resumed;
+    }
+
+    /**
+     * @param file null 不记录断点
+     */
+    static MigrateCheckpoint open(String file, String key) throws IOException {
+        if (file == null) {
+            return new MigrateCheckpoint(null, false);
+        }
+        Path path = Paths.get(file);
+        String header = "#" + key;
+        if (Files.exists(path)) {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && Objects.equals(header, lines.get(0))) {
+                MigrateCheckpoint checkpoint = new MigrateCheckpoint(path, true);
+                for (String line : lines.subList(1, lines.size())) {
+                    String[] items = line.split(",");
+                    if (items.length >= 2) {
+                        checkpoint.completed.put(Long.parseLong(items[0]), Long.parseLong(items[1]));
+                    }
+                }
+                log.info("Mycat migrate resume from checkpoint {}, completed chunks {}", path, checkpoint.completed.size());
+                return checkpoint;
+            }
+            log.warn("Mycat migrate checkpoint {} belongs to another transfer, it will be overwritten", path);
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(path, (header + "\n").getBytes(StandardCharsets.UTF_8));
+        return new MigrateCheckpoint(path, false);
+    }
+
+    /**
+     * 断点文件是否来自同一个迁移,此时未完成的分块在目标库中可能有部分数据
+     */
+    boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * 从begin开始的分块已经完成时返回它的终点
+     */
+    Long getCompletedEnd(long begin) {
+        return completed.get(begin);
+    }
+
+    /**
+     * begin之后第一个已经完成的分块的起点
+     */
+    Long getNextCompletedBegin(long begin) {
+        return completed.higherKey(begin);
+    }
+
+    int completedCount() {
+        return completed.size();
+    }
+
+    synchronized void complete(long begin, long end, long rowCount, long checksum) throws IOException {
+        if (path != null) {
+            String line = begin + "," + end + "," + rowCount + "," + checksum + "\n";
+            Files.write(path, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        }
+        completed.put(begin, end);
+    }
+}
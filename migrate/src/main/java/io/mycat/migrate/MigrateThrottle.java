@@ -0,0 +1,36 @@
+package io.mycat.migrate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 所有迁移线程共享的读取限速,按行数计算每批数据可以开始的时间
+ */
+class MigrateThrottle {
+    private final double nanosPerRow;
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * @param maxRowsPerSecond 0 不限速
+     */
+    MigrateThrottle(long maxRowsPerSecond) {
+        this.nanosPerRow = maxRowsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / (double) maxRowsPerSecond;
+    }
+
+    void acquire(int rows) throws InterruptedException {
+        if (nanosPerRow == 0 || rows <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                nextFreeNanos = now;
+            }
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += (long) (rows * nanosPerRow);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package io.mycat.migrate;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.*;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static io.mycat.migrate.MycatMigrateService.*;
+
+/**
+ * 按单列整数主键分块迁移.
+ * 分块边界按主键顺序取chunkSize行确定(where pk > ? order by pk limit ?),主键不连续时分块也不会变空或过大.
+ * 每个线程各自持有读写连接,取一个分块 select * from table where pk > ? and pk <= ? 边读边写,
+ * 分块写完提交事务,校验通过后记录到断点文件,重新执行时跳过已完成的分块
+ */
+@Slf4j
+class MycatJdbcChunkTransfer {
+    private final MycatJdbcMigrateService service;
+    private final TransferRequest request;
+    private final DataSource readDataSource;
+    private final DataSource writeDataSource;
+    private final Consumer<TransferEvent> eventCallback;
+    private final List<Class<SQLException>> skipErrorClassList;
+    private final String readTableName;
+    private final String writeTableName;
+    private final String pkColumnName;
+    /**
+     * 去掉where关键字的过滤条件,可以为null
+     */
+    private final String condition;
+    private final int bufferSize;
+    private final MigrateThrottle throttle;
+    private final AtomicLong totalWriteCount = new AtomicLong();
+    private final AtomicInteger checksumErrorCount = new AtomicInteger();
+    private final AtomicBoolean stop = new AtomicBoolean();
+    /**
+     * 下一个分块的起点,不包含
+     */
+    private long nextAfter;
+    private boolean exhausted;
+    private MigrateCheckpoint checkpoint;
+    private String[] columnNames;
+    private int[] columnTypes;
+
+    MycatJdbcChunkTransfer(MycatJdbcMigrateService service,
+                           TransferRequest request,
+                           DataSource readDataSource,
+                           DataSource writeDataSource,
+                           Consumer<TransferEvent> eventCallback,
+                           List<Class<SQLException>> skipErrorClassList,
+                           String pkColumnName,
+                           int bufferSize) {
+        this.service = service;
+        this.request = request;
+        this.readDataSource = readDataSource;
+        this.writeDataSource = writeDataSource;
+        this.eventCallback = eventCallback;
+        this.skipErrorClassList = skipErrorClassList;
+        this.readTableName = request.getReadDataNode().getTableName();
+        this.writeTableName = request.getWriteDataNode().getTableName();
+        this.pkColumnName = pkColumnName;
+        this.condition = whereCondition(request.getReadSqlWhere());
+        this.bufferSize = bufferSize;
+        this.throttle = new MigrateThrottle(request.getMaxRowsPerSecond());
+    }
+
+    /**
+     * 去掉开头的where
+     */
+    static String whereCondition(String readSqlWhere) {
+        if (readSqlWhere == null || readSqlWhere.trim().isEmpty()) {
+            return null;
+        }
+        String where = readSqlWhere.trim();
+        if (where.length() > 5 && where.regionMatches(true, 0, "where", 0, 5)
+                && Character.isWhitespace(where.charAt(5))) {
+            where = where.substring(6).trim();
+        }
+        return where;
+    }
+
+    /**
+     * 主键的最小值,主键不是整数或者没有数据时返回null,此时不能分块
+     */
+    Long selectMinPk(Connection connection) throws SQLException {
+        String sql = "SELECT MIN(" + quote(pkColumnName) + ") FROM " + readTableName + where("");
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            Object min = resultSet.getObject(1);
+            //第一个分块的起点是min-1
+            if (!isInteger(min) || ((Number) min).longValue() == Long.MIN_VALUE) {
+                return null;
+            }
+            return ((Number) min).longValue();
+        }
+    }
+
+    private static boolean isInteger(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    void open(long minPk) throws IOException {
+        this.checkpoint = MigrateCheckpoint.open(request.getCheckpointFile(), String.join(",",
+                readTableName, writeTableName, pkColumnName, String.valueOf(request.getChunkSize()), String.valueOf(minPk)));
+        this.nextAfter = minPk - 1;
+        this.exhausted = false;
+    }
+
+    void transfer(long minPk) {
+        try {
+            open(minPk);
+        } catch (IOException e) {
+            String message = MessageFormat.format(MESSAGE_CHECKPOINT_ERROR, request.getCheckpointFile(), e.toString());
+            log.error(message, e);
+            eventCallback.accept(new TransferEvent(EVENT_CHECKPOINT_ERROR, message, 0, Collections.emptyList(), null));
+            return;
+        }
+
+        int parallelism = Math.max(1, request.getParallelism());
+        ExecutorService executorService = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mycat-migrate-" + writeTableName + "-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<?>> futures = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            futures.add(executorService.submit(this::work));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            stop.set(true);
+            log.error("Mycat migrate worker failure", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        if (stop.get()) {
+            log.info("Mycat migrate stop. tableName={},totalWriteCount={},completedChunks={}",
+                    readTableName, totalWriteCount.get(), checkpoint.completedCount());
+            return;
+        }
+        if (checksumErrorCount.get() == 0) {
+            eventCallback.accept(new TransferEvent(EVENT_SUCCESSFUL_INFO, MESSAGE_SUCCESSFUL_INFO, totalWriteCount.get(), Collections.emptyList(), null));
+        }
+        log.info("Mycat migrate normal stop. tableName={},totalWriteCount={},completedChunks={},checksumErrorChunks={}",
+                readTableName, totalWriteCount.get(), checkpoint.completedCount(), checksumErrorCount.get());
+    }
+
+    /**
+     * 下一个未完成的分块(after,end],没有时返回null.
+     * 已完成的分块直接跳过,新的分块不会越过下一个已完成的分块,源表在两次执行之间有变化也不会重复复制
+     */
+    synchronized long[] nextChunk(Connection readConnection) throws SQLException {
+        while (!exhausted) {
+            long after = nextAfter;
+            Long completedEnd = checkpoint.getCompletedEnd(after);
+            if (completedEnd != null) {
+                nextAfter = completedEnd;
+                continue;
+            }
+            String pk = quote(pkColumnName);
+            String sql = "SELECT MAX(" + pk + "),COUNT(*) FROM (SELECT " + pk + " FROM " + readTableName
+                    + where(" AND ") + pk + " > ? ORDER BY " + pk + " LIMIT ?) t";
+            long end;
+            long count;
+            try (PreparedStatement ps = readConnection.prepareStatement(sql)) {
+                ps.setLong(1, after);
+                ps.setLong(2, request.getChunkSize());
+                try (ResultSet resultSet = ps.executeQuery()) {
+                    resultSet.next();
+                    end = resultSet.getLong(1);
+                    count = resultSet.getLong(2);
+                }
+            }
+            if (count == 0) {
+                exhausted = true;
+                return null;
+            }
+            Long completedBegin = checkpoint.getNextCompletedBegin(after);
+            if (completedBegin != null && end > completedBegin) {
+                end = completedBegin;
+            } else if (count < request.getChunkSize()) {
+                exhausted = true;
+            }
+            nextAfter = end;
+            return new long[]{after, end};
+        }
+        return null;
+    }
+
+    private void work() {
+        Connection readConnection = null;
+        Connection writeConnection = null;
+        long[] chunk = null;
+        try {
+            readConnection = readDataSource.getConnection();
+            writeConnection = writeDataSource.getConnection();
+            writeConnection.setAutoCommit(false);
+            while (!stop.get() && (chunk = nextChunk(readConnection)) != null) {
+                copyChunk(readConnection, writeConnection, chunk[0], chunk[1]);
+            }
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            //写入失败在copyChunk中已经回调
+            if (stop.compareAndSet(false, true) && !(e instanceof WriteException)) {
+                String message = MessageFormat.format(MESSAGE_TABLE_READ_ERROR,
+                        "", readTableName, chunk == null ? "" : Arrays.toString(chunk),
+                        totalWriteCount.get(), 0, e.toString());
+                log.error(message, e);
+                eventCallback.accept(new TransferEvent(EVENT_TABLE_READ_ERROR, message, totalWriteCount.get(), Collections.singletonList(e), null));
+            }
+        } catch (IOException e) {
+            stop.set(true);
+            String message = MessageFormat.format(MESSAGE_CHECKPOINT_ERROR, request.getCheckpointFile(), e.toString());
+            log.error(message, e);
+            eventCallback.accept(new TransferEvent(EVENT_CHECKPOINT_ERROR, message, totalWriteCount.get(), Collections.emptyList(), null));
+        } finally {
+            close(readConnection);
+            close(writeConnection);
+        }
+    }
+
+    private void copyChunk(Connection readConnection, Connection writeConnection, long begin, long end)
+            throws SQLException, InterruptedException, IOException {
+        if (checkpoint.isResumed()) {
+            //上次中断的分块可能已经写入了一部分,过滤条件只适用于源表,目标表按主键范围删除
+            try (PreparedStatement ps = writeConnection.prepareStatement("DELETE FROM " + writeTableName + " WHERE " + range())) {
+                ps.setLong(1, begin);
+                ps.setLong(2, end);
+                ps.executeUpdate();
+            }
+        }
+        boolean hasCallback = request.getTransferEventCallback() != null;
+        int maxTransactionSize = request.getMaxTransactionSize();
+        long chunkWriteCount = 0;
+        int unCommitCount = 0;
+        List<SQLException> exceptionList = new LinkedList<>();
+        List<Object[]> rows = new ArrayList<>(bufferSize);
+        PreparedStatement insert = null;
+        try (PreparedStatement ps = readConnection.prepareStatement(
+                "SELECT * FROM " + readTableName + where(" AND ") + range(),
+                ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setLong(1, begin);
+            ps.setLong(2, end);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                int columnCount = initColumns(resultSet.getMetaData());
+                boolean next;
+                do {
+                    next = resultSet.next();
+                    if (next) {
+                        Object[] row = new Object[columnCount];
+                        for (int i = 0; i < columnCount; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                    if (rows.size() >= bufferSize || (!next && !rows.isEmpty())) {
+                        throttle.acquire(rows.size());
+                        waitTargetLoad(writeConnection);
+                        try {
+                            if (hasCallback) {
+                                //只有注册了回调才需要转换为可修改的RowData
+                                List<RowData> rowDataList = toRowDataList(rows);
+                                eventCallback.accept(new TransferEvent(EVENT_TRANSFER_WRITE_BEFORE_INFO, MESSAGE_TRANSFER_WRITE_BEFORE_INFO, totalWriteCount.get(), exceptionList, rowDataList));
+                                service.write(rowDataList, writeConnection);
+                            } else {
+                                if (insert == null) {
+                                    insert = writeConnection.prepareStatement(insertSql());
+                                }
+                                write(rows, insert);
+                            }
+                            chunkWriteCount += rows.size();
+                            unCommitCount += rows.size();
+                            totalWriteCount.addAndGet(rows.size());
+                            if (unCommitCount >= maxTransactionSize) {
+                                writeConnection.commit();
+                                unCommitCount = 0;
+                            }
+                            exceptionList.clear();
+                        } catch (SQLException e) {
+                            exceptionList.add(e);
+                            try {
+                                service.onSQLException(request.isSkipAllWriteErrorFlag(), e, skipErrorClassList);
+                            } catch (SQLException stopWriteSqlException) {
+                                writeConnection.rollback();
+                                if (stop.compareAndSet(false, true)) {
+                                    String message = MessageFormat.format(MESSAGE_TABLE_WRITE_ERROR,
+                                            "", readTableName, "(" + begin + "," + end + "]",
+                                            totalWriteCount.get(), rows.size(), e.toString());
+                                    log.error(message, e);
+                                    eventCallback.accept(new TransferEvent(EVENT_TABLE_WRITE_ERROR, message, totalWriteCount.get(), exceptionList, null));
+                                }
+                                throw new WriteException(e);
+                            }
+                        }
+                        rows.clear();
+                        if (stop.get()) {
+                            writeConnection.rollback();
+                            return;
+                        }
+                    }
+                } while (next);
+            }
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+        }
+        writeConnection.commit();
+
+        long checksum = 0;
+        if (request.isVerifyChecksum() && columnNames != null) {
+            long[] source = checksum(readConnection, readTableName + where(" AND "), begin, end);
+            long[] target = checksum(writeConnection, writeTableName + " WHERE ", begin, end);
+            writeConnection.commit();
+            if (!Arrays.equals(source, target)) {
+                checksumErrorCount.incrementAndGet();
+                String message = MessageFormat.format(MESSAGE_CHUNK_CHECKSUM_ERROR, readTableName, pkColumnName,
+                        String.valueOf(begin), String.valueOf(end), Arrays.toString(source), Arrays.toString(target));
+                log.error(message);
+                eventCallback.accept(new TransferEvent(EVENT_CHUNK_CHECKSUM_ERROR, message, totalWriteCount.get(), Collections.emptyList(), null));
+                //不记录断点,重新执行时再复制一次
+                return;
+            }
+            checksum = source[1];
+        }
+        checkpoint.complete(begin, end, chunkWriteCount, checksum);
+        log.debug("Mycat migrate chunk ({},{}] rowCount={} totalWriteCount={}", begin, end, chunkWriteCount, totalWriteCount.get());
+    }
+
+    private synchronized int initColumns(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        if (columnNames == null) {
+            String[] names = new String[columnCount];
+            int[] types = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                names[i] = metaData.getColumnName(i + 1);
+                types[i] = metaData.getColumnType(i + 1);
+            }
+            this.columnTypes = types;
+            this.columnNames = names;
+        }
+        return columnCount;
+    }
+
+    private List<RowData> toRowDataList(List<Object[]> rows) {
+        List<RowData> rowDataList = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            ColumnData[] columnDatas = new ColumnData[row.length];
+            for (int i = 0; i < row.length; i++) {
+                columnDatas[i] = new ColumnData(pkColumnName.equalsIgnoreCase(columnNames[i]),
+                        columnTypes[i], null, columnNames[i], row[i]);
+            }
+            rowDataList.add(new RowData("", writeTableName, columnDatas));
+        }
+        return rowDataList;
+    }
+
+    private String insertSql() {
+        StringJoiner valuesJoiner = new StringJoiner(",", "values (", ")");
+        StringJoiner columnJoiner = new StringJoiner(",", "insert into " + writeTableName + " (", ")");
+        for (String columnName : columnNames) {
+            columnJoiner.add(columnName);
+            valuesJoiner.add("?");
+        }
+        return columnJoiner.toString().concat(valuesJoiner.toString());
+    }
+
+    private void write(List<Object[]> rows, PreparedStatement ps) throws SQLException {
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                ps.setObject(i + 1, row[i], columnTypes[i]);
+            }
+            ps.addBatch();
+        }
+        ps.executeBatch();
+    }
+
+    /**
+     * 分块的行数与每行crc32的异或
+     *
+     * @param from 表名与where
+     */
+    private long[] checksum(Connection connection, String from, long begin, long end) throws SQLException {
+        StringJoiner concat = new StringJoiner(",", "CONCAT_WS('#',", ")");
+        for (String columnName : columnNames) {
+            concat.add(quote(columnName));
+        }
+        for (String columnName : columnNames) {
+            concat.add("ISNULL(" + quote(columnName) + ")");
+        }
+        String sql = "SELECT COUNT(*),COALESCE(BIT_XOR(CRC32(" + concat + ")),0) FROM " + from + range();
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setLong(1, begin);
+            ps.setLong(2, end);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+            }
+        }
+    }
+
+    /**
+     * 目标库Threads_running超过上限时暂停写入
+     */
+    private void waitTargetLoad(Connection writeConnection) throws SQLException, InterruptedException {
+        int maxThreadsRunning = request.getMaxTargetThreadsRunning();
+        if (maxThreadsRunning <= 0) {
+            return;
+        }
+        while (!stop.get()) {
+            int threadsRunning = 0;
+            try (Statement statement = writeConnection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SHOW GLOBAL STATUS LIKE 'Threads_running'")) {
+                if (resultSet.next()) {
+                    threadsRunning = resultSet.getInt(2);
+                }
+            }
+            if (threadsRunning <= maxThreadsRunning) {
+                return;
+            }
+            log.debug("Mycat migrate target Threads_running={} > {}, wait", threadsRunning, maxThreadsRunning);
+            TimeUnit.MILLISECONDS.sleep(500);
+        }
+    }
+
+    /**
+     * @param and 条件与主键范围之间的连接符,为空时只返回过滤条件
+     */
+    private String where(String and) {
+        if (condition == null) {
+            return and.isEmpty() ? "" : " WHERE ";
+        }
+        return " WHERE (" + condition + ")" + and;
+    }
+
+    /**
+     * 分块的主键范围(?,?]
+     */
+    private String range() {
+        return quote(pkColumnName) + " > ? AND " + quote(pkColumnName) + " <= ?";
+    }
+
+    private static String quote(String columnName) {
+        return "`" + columnName + "`";
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Mycat migrate close connection failure", e);
+            }
+        }
+    }
+
+    /**
+     * 写入失败,已经回调过事件
+     */
+    private static class WriteException extends SQLException {
+        WriteException(SQLException cause) {
+            super(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+        }
+    }
+}
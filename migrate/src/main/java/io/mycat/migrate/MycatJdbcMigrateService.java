@@ -42,6 +42,13 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
                 .readSqlWhere("where id > 1000")
                 //自动建表
                 .autoCreateTableIfNotExist(true)
+                //按主键分块,每块10万行,4个线程并行复制,每秒最多读取10万行
+                .chunkSize(100000)
+                .parallelism(4)
+                .maxRowsPerSecond(100000)
+                //中断后重新执行跳过已完成的分块
+                .checkpointFile("my_table_copy.checkpoint")
+                .verifyChecksum(true)
                 //这里可以加sql重写的逻辑
                 .transferEventCallback(MycatJdbcMigrateService::eventHandleExample1)
                 .build();
@@ -86,14 +93,18 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
     }
 
     /**
-     * Single-threaded operation, call those who choose their own multi-threaded operating outside the method.
+     * A table with a single integer primary key is copied by {@link TransferRequest#getParallelism()} threads chunk by chunk,
+     * otherwise single-threaded operation, call those who choose their own multi-threaded operating outside the method.
      * @param request row data will remain its reference data,
      *                you can modify its,
+     *                the callback must be thread safe when parallelism > 1
      */
     @Override
     public void transfer(TransferRequest request) {
-        try (DruidDataSource readDataSource = newDataSource(request.getReadDataNode());
-             DruidDataSource writeDataSource = newDataSource(request.getWriteDataNode())){
+        //每个分块线程各一个连接,再加上读取元数据的连接
+        int maxActive = Math.max(2, request.getParallelism() + 1);
+        try (DruidDataSource readDataSource = newDataSource(request.getReadDataNode(), maxActive);
+             DruidDataSource writeDataSource = newDataSource(request.getWriteDataNode(), maxActive)){
             //流式传输,一条一条读数据,避免内存撑爆.
             streamTransfer(request,readDataSource,writeDataSource);
         }
@@ -165,11 +176,35 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
             }
         }
 
+        //单列整数主键按主键分块并行复制
+        if(request.getChunkSize() > 0 && pkColumnNameList.size() == 1){
+            MycatJdbcChunkTransfer chunkTransfer = new MycatJdbcChunkTransfer(this, request, readDataSource, writeDataSource,
+                    eventCallback, skipErrorClassList, pkColumnNameList.get(0), bufferSize);
+            Long minPk;
+            try {
+                minPk = chunkTransfer.selectMinPk(readConnection);
+            } catch (SQLException e) {
+                String message = MessageFormat.format(MESSAGE_TABLE_READ_ERROR,
+                        readCatalogName, readTableName, readConnection, 0, 0, getCase(e).toString());
+                log.error(message,e);
+                eventCallback.accept(new TransferEvent(EVENT_TABLE_READ_ERROR,message,0, Collections.singletonList(e),null));
+                close(readConnection, writeConnection);
+                return;
+            }
+            if(minPk != null){
+                close(readConnection, writeConnection);
+                chunkTransfer.transfer(minPk);
+                return;
+            }
+            log.info("Mycat migrate primary key {} of {} is not an integer or the table is empty, fall back to one select stream", pkColumnNameList.get(0), readTableName);
+        }
+
         //边读边写
         int bufferSize = this.bufferSize;
         List<SQLException> exceptionList = new LinkedList<>();
         List<RowData> rowDataList = new ArrayList<>(bufferSize);
         long totalWriteCount = 0;
+        long unCommitCount = 0;
         //读取源库数据. 例: select * from table where id > 1000 或 select * from table
         try(ResultSet readResultSet = selectTableAsStream(readConnection, readTableName,readSqlWhere)){
             ResultSetMetaData readMetaData = readResultSet.getMetaData();
@@ -185,9 +220,11 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
                         //写入目标库
                         write(rowDataList,writeConnection);
                         totalWriteCount += unWriteCount;
+                        unCommitCount += unWriteCount;
                         //超过了事物上限,或者结束了
-                        if(stop || totalWriteCount > maxTransactionSize){
+                        if(stop || unCommitCount > maxTransactionSize){
                             writeConnection.commit();
+                            unCommitCount = 0;
                         }
                         rowDataList.clear();
                         exceptionList.clear();
@@ -216,10 +253,10 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
                 for (int i = 1; i <= columnCount; i++) {
                     Object columnValue = readResultSet.getObject(i);
                     ColumnData columnData = new ColumnData();
-                    columnData.setPrimaryKey(pkColumnNameList.contains(columnData.getColumnName()));
                     columnData.setColumnClassName(readMetaData.getColumnClassName(i));
                     columnData.setColumnTypeId(readMetaData.getColumnType(i));
                     columnData.setColumnName(readMetaData.getColumnName(i));
+                    columnData.setPrimaryKey(pkColumnNameList.contains(columnData.getColumnName()));
                     columnData.setColumnValue(columnValue);
                     rowData.getColumnDatas()[i-1] = columnData;
                 }
@@ -371,13 +408,17 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
     }
 
     protected DruidDataSource newDataSource(DataNode dataNode){
+        return newDataSource(dataNode, 2);
+    }
+
+    protected DruidDataSource newDataSource(DataNode dataNode, int maxActive){
         DruidDataSource datasource = new DruidDataSource();
         datasource.setPassword(dataNode.getPassword());
         datasource.setUsername(dataNode.getUsername());
         datasource.setUrl(dataNode.getUrl());
         datasource.setDriverClassName(dataNode.getDriverClassName());
         datasource.setMaxWait(TimeUnit.SECONDS.toMillis(3));
-        datasource.setMaxActive(2);
+        datasource.setMaxActive(maxActive);
         datasource.setMinIdle(1);
         return datasource;
     }
@@ -408,6 +449,16 @@ public class MycatJdbcMigrateService implements MycatMigrateService {
         return pkList;
     }
 
+    private static void close(Connection... connections){
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Mycat migrate close connection failure", e);
+            }
+        }
+    }
+
     private static Throwable getCase(Throwable exception){
         Throwable prev = exception;
         while (exception != null){
@@ -35,6 +35,10 @@ public interface MycatMigrateService {
     String MESSAGE_TABLE_WRITE_ERROR = "Mycat migrate error#5004. write data handle failure. catalogName={0},tableName={1},connection={2},totalWriteCount={3},unWriteCount={4},error={5}\n";
     int EVENT_TABLE_CREATE_ERROR = 5005;
     String MESSAGE_TABLE_CREATE_ERROR = "Mycat migrate error#5004. create data handle failure. catalogName={0},tableName={1},connection={2},createTableSql={3},error={4}\n";
+    int EVENT_CHUNK_CHECKSUM_ERROR = 5006;
+    String MESSAGE_CHUNK_CHECKSUM_ERROR = "Mycat migrate error#5006. chunk checksum mismatch. tableName={0},primaryKey={1},chunk=({2},{3}],source={4},target={5}\n";
+    int EVENT_CHECKPOINT_ERROR = 5007;
+    String MESSAGE_CHECKPOINT_ERROR = "Mycat migrate error#5007. checkpoint file failure. checkpointFile={0},error={1}\n";
 
     /**
      * data transfer. Copy the data node to another node
@@ -67,6 +71,39 @@ public interface MycatMigrateService {
         private boolean skipAllWriteErrorFlag = false;
         @Builder.Default
         private String[] skipWriteErrorClassNames = {"java.sql.SQLIntegrityConstraintViolationException"};
+        /**
+         * Rows of each chunk. A table with a single integer primary key is copied chunk by chunk,
+         * readSqlWhere must be a plain condition such as "where id > 1000" (no order by, no limit).
+         * 0 (default) = one select stream for the whole table.
+         */
+        private long chunkSize;
+        /**
+         * Number of workers copying chunks concurrently, each worker has its own read and write connection.
+         */
+        @Builder.Default
+        private int parallelism = 1;
+        /**
+         * Rows read per second of all workers. 0 = unlimited.
+         */
+        @Builder.Default
+        private long maxRowsPerSecond = 0;
+        /**
+         * Pause writing while Threads_running of the target is above this value. 0 = unlimited.
+         */
+        @Builder.Default
+        private int maxTargetThreadsRunning = 0;
+        /**
+         * Completed chunks are appended to this file, a transfer restarted with the same file skips them.
+         * Rows of an unfinished chunk are deleted from the target before the chunk is copied again.
+         * null = no checkpoint.
+         */
+        private String checkpointFile;
+        /**
+         * Compare row count and crc32 checksum of each chunk between source and target after it is copied.
+         * Rows modified by {@link #transferEventCallback} will not match.
+         */
+        @Builder.Default
+        private boolean verifyChecksum = false;
     }
 
     @AllArgsConstructor
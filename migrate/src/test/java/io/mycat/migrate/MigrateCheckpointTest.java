@@ -0,0 +1,50 @@
+package io.mycat.migrate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MigrateCheckpointTest {
+
+    @Test
+    public void testResume() throws Exception {
+        Path file = Files.createTempDirectory("migrate").resolve("t.checkpoint");
+        MigrateCheckpoint checkpoint = MigrateCheckpoint.open(file.toString(), "t,t_copy,id,10,1");
+        Assert.assertFalse(checkpoint.isResumed());
+        checkpoint.complete(0, 10, 10, 123);
+        checkpoint.complete(20, 35, 10, 456);
+
+        MigrateCheckpoint resumed = MigrateCheckpoint.open(file.toString(), "t,t_copy,id,10,1");
+        Assert.assertTrue(resumed.isResumed());
+        Assert.assertEquals(2, resumed.completedCount());
+        Assert.assertEquals(Long.valueOf(10), resumed.getCompletedEnd(0));
+        Assert.assertEquals(Long.valueOf(35), resumed.getCompletedEnd(20));
+        Assert.assertNull(resumed.getCompletedEnd(10));
+        Assert.assertEquals(Long.valueOf(20), resumed.getNextCompletedBegin(10));
+        Assert.assertNull(resumed.getNextCompletedBegin(20));
+    }
+
+    @Test
+    public void testAnotherTransfer() throws Exception {
+        Path file = Files.createTempDirectory("migrate").resolve("t.checkpoint");
+        MigrateCheckpoint.open(file.toString(), "t,t_copy,id,10,1").complete(0, 10, 10, 123);
+        //分块大小变了,重新开始
+        MigrateCheckpoint checkpoint = MigrateCheckpoint.open(file.toString(), "t,t_copy,id,20,1");
+        Assert.assertFalse(checkpoint.isResumed());
+        Assert.assertEquals(0, checkpoint.completedCount());
+        List<String> lines = Files.readAllLines(file);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("#t,t_copy,id,20,1", lines.get(0));
+    }
+
+    @Test
+    public void testWithoutFile() throws Exception {
+        MigrateCheckpoint checkpoint = MigrateCheckpoint.open(null, "t,t_copy,id,10,1");
+        Assert.assertFalse(checkpoint.isResumed());
+        checkpoint.complete(0, 10, 10, 0);
+        Assert.assertEquals(Long.valueOf(10), checkpoint.getCompletedEnd(0));
+    }
+}
@@ -0,0 +1,54 @@
+package io.mycat.migrate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class MigrateThrottleTest {
+
+    @Test
+    public void testUnlimited() throws Exception {
+        MigrateThrottle throttle = new MigrateThrottle(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            throttle.acquire(1000_000);
+        }
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        //每秒1000行,第一批不等待,之后每批100行等待100ms
+        MigrateThrottle throttle = new MigrateThrottle(1000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            throttle.acquire(100);
+        }
+        long elapsed = System.nanoTime() - start;
+        Assert.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(300));
+        Assert.assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void testSharedByThreads() throws Exception {
+        MigrateThrottle throttle = new MigrateThrottle(1000);
+        Thread[] threads = new Thread[4];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    throttle.acquire(100);
+                    throttle.acquire(100);
+                } catch (InterruptedException ignored) {
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        //8批共800行,最后一批在700ms之后才能开始
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(700));
+    }
+}
@@ -0,0 +1,151 @@
+package io.mycat.migrate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+public class MycatJdbcChunkTransferTest {
+
+    @Test
+    public void testWhereCondition() {
+        Assert.assertNull(MycatJdbcChunkTransfer.whereCondition(null));
+        Assert.assertNull(MycatJdbcChunkTransfer.whereCondition("  "));
+        Assert.assertEquals("id > 1000", MycatJdbcChunkTransfer.whereCondition("where id > 1000"));
+        Assert.assertEquals("id > 1000", MycatJdbcChunkTransfer.whereCondition(" WHERE\tid > 1000 "));
+        Assert.assertEquals("id > 1000", MycatJdbcChunkTransfer.whereCondition("id > 1000"));
+        //列名以where开头
+        Assert.assertEquals("whereabouts = 1", MycatJdbcChunkTransfer.whereCondition("whereabouts = 1"));
+    }
+
+    @Test
+    public void testNextChunk() throws Exception {
+        //主键不连续,按行数分块
+        TreeSet<Long> pks = new TreeSet<>(Arrays.asList(1L, 2L, 3L, 100L, 1000L, 1001L, 5000L));
+        List<String> sqls = new ArrayList<>();
+        MycatJdbcChunkTransfer transfer = transfer(3, "where status = 1", null);
+        transfer.open(pks.first());
+        List<long[]> chunks = chunks(transfer, connection(pks, sqls));
+        Assert.assertEquals(Arrays.asList("(0,3]", "(3,1001]", "(1001,5000]"), toString(chunks));
+        Assert.assertEquals("SELECT MAX(`id`),COUNT(*) FROM (SELECT `id` FROM t WHERE (status = 1) AND `id` > ? ORDER BY `id` LIMIT ?) t",
+                sqls.get(0));
+        //最后一个分块不足chunkSize行,不再查询
+        Assert.assertEquals(3, sqls.size());
+    }
+
+    @Test
+    public void testNextChunkExactMultiple() throws Exception {
+        TreeSet<Long> pks = new TreeSet<>(Arrays.asList(10L, 20L, 30L, 40L));
+        MycatJdbcChunkTransfer transfer = transfer(2, null, null);
+        transfer.open(pks.first());
+        List<String> sqls = new ArrayList<>();
+        Assert.assertEquals(Arrays.asList("(9,20]", "(20,40]"), toString(chunks(transfer, connection(pks, sqls))));
+        Assert.assertEquals("SELECT MAX(`id`),COUNT(*) FROM (SELECT `id` FROM t WHERE `id` > ? ORDER BY `id` LIMIT ?) t",
+                sqls.get(0));
+    }
+
+    @Test
+    public void testNextChunkResume() throws Exception {
+        String file = Files.createTempDirectory("migrate").resolve("t.checkpoint").toString();
+        TreeSet<Long> pks = new TreeSet<>();
+        for (long i = 1; i <= 10; i++) {
+            pks.add(i);
+        }
+        MycatJdbcChunkTransfer first = transfer(3, null, file);
+        first.open(1);
+        MigrateCheckpoint checkpoint = MigrateCheckpoint.open(file, "t,t_copy,id,3,1");
+        checkpoint.complete(3, 6, 3, 0);
+
+        //源表在(0,3]中删除了数据,新的分块不能越过已完成的(3,6]
+        pks.remove(1L);
+        MycatJdbcChunkTransfer resumed = transfer(3, null, file);
+        resumed.open(1);
+        List<String> sqls = new ArrayList<>();
+        Assert.assertEquals(Arrays.asList("(0,3]", "(6,9]", "(9,10]"), toString(chunks(resumed, connection(pks, sqls))));
+        Assert.assertEquals(3, sqls.size());
+    }
+
+    private static List<long[]> chunks(MycatJdbcChunkTransfer transfer, Connection connection) throws Exception {
+        List<long[]> chunks = new ArrayList<>();
+        long[] chunk;
+        while ((chunk = transfer.nextChunk(connection)) != null) {
+            chunks.add(chunk);
+        }
+        Assert.assertNull(transfer.nextChunk(connection));
+        return chunks;
+    }
+
+    private static List<String> toString(List<long[]> chunks) {
+        List<String> list = new ArrayList<>();
+        for (long[] chunk : chunks) {
+            list.add("(" + chunk[0] + "," + chunk[1] + "]");
+        }
+        return list;
+    }
+
+    private static MycatJdbcChunkTransfer transfer(long chunkSize, String readSqlWhere, String checkpointFile) {
+        MycatMigrateService.TransferRequest request = MycatMigrateService.TransferRequest.builder()
+                .readDataNode(MycatMigrateService.DataNode.builder().tableName("t").build())
+                .writeDataNode(MycatMigrateService.DataNode.builder().tableName("t_copy").build())
+                .readSqlWhere(readSqlWhere)
+                .chunkSize(chunkSize)
+                .checkpointFile(checkpointFile)
+                .build();
+        return new MycatJdbcChunkTransfer(new MycatJdbcMigrateService(), request, null, null,
+                event -> {
+                }, Collections.emptyList(), "id", 10);
+    }
+
+    /**
+     * 按主键集合返回 MAX(pk),COUNT(*) from (pk > ? order by pk limit ?)
+     */
+    private static Connection connection(TreeSet<Long> pks, List<String> sqls) {
+        return (Connection) Proxy.newProxyInstance(MycatJdbcChunkTransferTest.class.getClassLoader(), new Class[]{Connection.class},
+                (proxy, method, args) -> {
+                    Assert.assertEquals("prepareStatement", method.getName());
+                    sqls.add((String) args[0]);
+                    long[] params = new long[2];
+                    return Proxy.newProxyInstance(MycatJdbcChunkTransferTest.class.getClassLoader(), new Class[]{PreparedStatement.class},
+                            (statement, statementMethod, statementArgs) -> {
+                                switch (statementMethod.getName()) {
+                                    case "setLong":
+                                        params[(Integer) statementArgs[0] - 1] = (Long) statementArgs[1];
+                                        return null;
+                                    case "executeQuery":
+                                        return resultSet(pks, params[0], params[1]);
+                                    default:
+                                        return null;
+                                }
+                            });
+                });
+    }
+
+    private static ResultSet resultSet(TreeSet<Long> pks, long after, long limit) {
+        long max = 0;
+        long count = 0;
+        for (Long pk : pks.tailSet(after, false)) {
+            if (count == limit) {
+                break;
+            }
+            max = pk;
+            count++;
+        }
+        long[] row = {max, count};
+        return (ResultSet) Proxy.newProxyInstance(MycatJdbcChunkTransferTest.class.getClassLoader(), new Class[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return true;
+                        case "getLong":
+                            return row[(Integer) args[0] - 1];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
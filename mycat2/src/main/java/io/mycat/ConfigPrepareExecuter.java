@@ -1,14 +1,14 @@
 package io.mycat;
 
-import io.mycat.config.ClusterConfig;
-import io.mycat.config.DatasourceConfig;
-import io.mycat.config.MycatRouterConfig;
+import io.mycat.booster.BoosterRuntime;
+import io.mycat.config.*;
 import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
 import io.mycat.hbt3.DrdsConfig;
 import io.mycat.hbt3.DrdsConst;
 import io.mycat.hbt3.DrdsRunner;
 import io.mycat.hbt4.PlanCache;
 import io.mycat.metadata.MetadataManager;
+import io.mycat.metadata.MetadataSnapshot;
 import io.mycat.metadata.SchemaHandler;
 import io.mycat.plug.loadBalance.LoadBalanceManager;
 import io.mycat.plug.sequence.SequenceGenerator;
@@ -17,6 +17,7 @@ import io.mycat.replica.ReplicaSelectorRuntime;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -28,10 +29,12 @@ public class ConfigPrepareExecuter {
     private MetadataManager metadataManager;
     private DatasourceConfigProvider datasourceConfigProvider;
     private Authenticator authenticator;
+    private List<UserConfig> users;
     private MetadataStorageManager metadataStorageManager;
     private SequenceGenerator sequenceGenerator;
 
     private String datasourceProvider;
+    private final MetadataSnapshot metadataSnapshot;
 //    UpdateType updateType = UpdateType.FULL;
 
 
@@ -40,9 +43,18 @@ public class ConfigPrepareExecuter {
             MycatRouterConfigOps ops,
             MetadataStorageManager metadataStorageManager,
             String datasourceProvider) {
+        this(ops, metadataStorageManager, datasourceProvider, null);
+    }
+
+    public ConfigPrepareExecuter(
+            MycatRouterConfigOps ops,
+            MetadataStorageManager metadataStorageManager,
+            String datasourceProvider,
+            MetadataSnapshot metadataSnapshot) {
         this.ops = ops;
         this.metadataStorageManager = metadataStorageManager;
         this.datasourceProvider = datasourceProvider;
+        this.metadataSnapshot = metadataSnapshot;
 
         boolean router = ops.getSchemas() != null;
         boolean cluster = ops.getClusters() != null;
@@ -70,7 +82,8 @@ public class ConfigPrepareExecuter {
                 LoadBalanceManager loadBalanceManager = MetaClusterCurrent.wrapper(LoadBalanceManager.class);
                 MycatWorkerProcessor mycatWorkerProcessor = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class);
 
-                this.authenticator = new AuthenticatorImpl(ops.getUsers().stream().collect(Collectors.toMap(k -> k.getUsername(), v -> v)));
+                this.users = ops.getUsers();
+                this.authenticator = new AuthenticatorImpl(users.stream().collect(Collectors.toMap(k -> k.getUsername(), v -> v)));
                 break;
             }
             case SEQUENCE: {
@@ -85,9 +98,14 @@ public class ConfigPrepareExecuter {
                 break;
             }
             case CREATE_TABLE: {
+                MetadataManager oldMetadataManager = MetaClusterCurrent.wrapper(MetadataManager.class);
                 String schemaName = ops.getSchemaName();
                 String tableName = ops.getTableName();
-                this.metadataManager = createMetaData();
+                LogicSchemaConfig schemaConfig = ops.getSchemas().stream()
+                        .filter(i -> schemaName.equals(i.getSchemaName()))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("unknown:" + schemaName));
+                this.metadataManager = oldMetadataManager.copyWithTable(schemaConfig, tableName);
                 TableHandler table = this.metadataManager.getTable(schemaName, tableName);
                 table.createPhysicalTables();
                 break;
@@ -97,7 +115,7 @@ public class ConfigPrepareExecuter {
 
                 String schemaName = ops.getSchemaName();
                 String tableName = ops.getTableName();
-                this.metadataManager = createMetaData();
+                this.metadataManager = oldMetadataManager.copyWithoutTable(schemaName, tableName);
 
                 TableHandler table = oldMetadataManager.getTable(schemaName, tableName);
                 if (table != null) {
@@ -116,7 +134,7 @@ public class ConfigPrepareExecuter {
 
     @NotNull
     private MetadataManager createMetaData() {
-        return new MetadataManager(ops.getSchemas(),
+        return createMetaData(ops.getSchemas(),
                 MetaClusterCurrent.wrapper(LoadBalanceManager.class),
                 MetaClusterCurrent.wrapper(SequenceGenerator.class),
                 MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class),
@@ -124,6 +142,25 @@ public class ConfigPrepareExecuter {
                 "prototype");
     }
 
+    @NotNull
+    private MetadataManager createMetaData(List<LogicSchemaConfig> schemaConfigs,
+                                           LoadBalanceManager loadBalanceManager,
+                                           SequenceGenerator sequenceGenerator,
+                                           ReplicaSelectorRuntime replicaSelector,
+                                           JdbcConnectionManager jdbcConnectionManager,
+                                           String prototype) {
+        ServerConfig serverConfig = MetaClusterCurrent.serverConfig();
+        return new MetadataManager(schemaConfigs,
+                loadBalanceManager,
+                sequenceGenerator,
+                replicaSelector,
+                jdbcConnectionManager,
+                prototype,
+                serverConfig.isMetadataSnapshot() ? metadataSnapshot : null,
+                serverConfig.getMetadataLoadParallelism(),
+                serverConfig.getMetadataLoadParallelismPerTarget());
+    }
+
     public void initBy(MycatRouterConfig mycatRouterConfig) {
         if (MetaClusterCurrent.exist(ReplicaSelectorRuntime.class)) {
             ReplicaSelectorRuntime replicaSelectorRuntime = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
@@ -142,8 +179,9 @@ public class ConfigPrepareExecuter {
             }
         };
         this.sequenceGenerator = new SequenceGenerator(mycatRouterConfig.getSequences());
-        this.authenticator = new AuthenticatorImpl(mycatRouterConfig.getUsers().stream().collect(Collectors.toMap(k -> k.getUsername(), v -> v)));
-        this.metadataManager = new MetadataManager(mycatRouterConfig.getSchemas(), loadBalanceManager, sequenceGenerator, replicaSelector, jdbcConnectionManager, mycatRouterConfig.getPrototype());
+        this.users = mycatRouterConfig.getUsers();
+        this.authenticator = new AuthenticatorImpl(users.stream().collect(Collectors.toMap(k -> k.getUsername(), v -> v)));
+        this.metadataManager = createMetaData(mycatRouterConfig.getSchemas(), loadBalanceManager, sequenceGenerator, replicaSelector, jdbcConnectionManager, mycatRouterConfig.getPrototype());
     }
 
     public void prepareStoreDDL() {
@@ -186,6 +224,7 @@ public class ConfigPrepareExecuter {
         MetadataManager metadataManager = this.metadataManager;
         DatasourceConfigProvider datasourceConfigProvider = this.datasourceConfigProvider;
         Authenticator authenticator = this.authenticator;
+        List<UserConfig> users = this.users;
         MetadataStorageManager metadataStorageManager = this.metadataStorageManager;
         SequenceGenerator sequenceGenerator = this.sequenceGenerator;
 
@@ -221,10 +260,29 @@ public class ConfigPrepareExecuter {
             context.put(sequenceGenerator.getClass(), sequenceGenerator);
         }
         context.put(MetadataStorageManager.class, this.metadataStorageManager);
-        context.put(MysqlVariableService.class, this.metadataManager);
         MycatRouterConfig mycatRouterConfig = ops.getMycatRouterConfig();
         context.put(MycatRouterConfig.class, mycatRouterConfig);
-        context.put(DrdsRunner.class,new DrdsRunner(() -> this.metadataManager.getSchemaMap(), PlanCache.INSTANCE));
+        if (metadataManager != null) {
+            context.put(MysqlVariableService.class, metadataManager);
+            DrdsRunner oldDrdsRunner = (DrdsRunner) context.get(DrdsRunner.class);
+            switch (ops.getUpdateType()) {
+                case CREATE_TABLE:
+                case DROP_TABLE: {
+                    //只有一个schema变化,其他schema复用原来的calcite schema
+                    String schemaName = ops.getSchemaName();
+                    PlanCache.INSTANCE.invalidate(schemaName, ops.getTableName());
+                    context.put(DrdsRunner.class, new DrdsRunner(() -> metadataManager.getSchemaMap(), PlanCache.INSTANCE, oldDrdsRunner, schemaName));
+                    break;
+                }
+                default: {
+                    PlanCache.INSTANCE.clear();
+                    context.put(DrdsRunner.class, new DrdsRunner(() -> metadataManager.getSchemaMap(), PlanCache.INSTANCE));
+                }
+            }
+        }
         MetaClusterCurrent.register(context);
+        if (users != null) {
+            BoosterRuntime.INSTANCE.load(users);
+        }
     }
 }
\ No newline at end of file
@@ -39,6 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.sql.JDBCType;
 import java.util.List;
 import java.util.Map;
@@ -75,11 +76,15 @@ public class DefaultCommandHandler extends AbstractCommandHandler {
 
     @Override
     public void handleQuery(byte[] bytes, MycatSession session) {
+        //只按会话的字符集解码一次,进程列表与执行使用同一个语句
+        Charset charset = session.charset();
+        String sql = new String(bytes, charset == null ? Charset.defaultCharset() : charset);
         try {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("-----------------reveice--------------------");
-                LOGGER.debug(new String(bytes));
+                LOGGER.debug(sql);
             }
+            session.getDataContext().startQuery(sql);
             Boolean hasRun = Optional.ofNullable(
                     MetaClusterCurrent.exist(InterceptorRuntime.class)?
                             MetaClusterCurrent.wrapper(InterceptorRuntime.class):null)
@@ -87,12 +92,12 @@ public class DefaultCommandHandler extends AbstractCommandHandler {
                     .map(i -> i.execute(ByteBuffer.wrap(bytes), session))
                     .orElse(false);
             if (!hasRun) {
-                MycatdbCommand.INSTANCE.executeQuery(new String(bytes), session, session.getDataContext());
+                MycatdbCommand.INSTANCE.executeQuery(sql, session, session.getDataContext());
                 return;
             }
         } catch (Throwable e) {
             LOGGER.debug("-----------------reveice--------------------");
-            LOGGER.debug(new String(bytes));
+            LOGGER.debug(sql);
             session.setLastMessage(e);
             session.writeErrorEndPacketBySyncInProcessError();
         }
@@ -249,6 +254,7 @@ public class DefaultCommandHandler extends AbstractCommandHandler {
         PreparedStatement preparedStatement = longPreparedStatementMap.get(statementId);
         SQLStatement statement = preparedStatement.getSQLStatementByBindValue(values);
         LOGGER.info("=>"+statement);
+        dataContext.startQuery(statement.toString());
         ReceiverImpl receiver = new ReceiverImpl(session, 1, true, false);
         session.getDataContext().block(new Runnable() {
             @Override
@@ -2,9 +2,14 @@ package io.mycat;
 
 import com.google.common.collect.Lists;
 import io.mycat.config.*;
+import io.mycat.hbt3.DrdsRunner;
+import io.mycat.hbt4.PlanCache;
+import io.mycat.metadata.MetadataManager;
+import io.mycat.metadata.MetadataSnapshot;
 import io.mycat.plug.sequence.SequenceGenerator;
 import io.mycat.replica.ReplicaSwitchType;
 import io.mycat.replica.ReplicaType;
+import io.mycat.util.JsonUtil;
 import lombok.EqualsAndHashCode;
 import lombok.SneakyThrows;
 import org.apache.commons.io.FileUtils;
@@ -14,10 +19,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -29,6 +36,7 @@ public class FileMetadataStorageManager extends MetadataStorageManager {
     private final String datasourceProvider;
     private final Path baseDirectory;
     private final State state = new State();
+    private static final String METADATA_SNAPSHOT_FILE = "metadata.snapshot.json";
 
 
     @SneakyThrows
@@ -213,7 +221,7 @@ public class FileMetadataStorageManager extends MetadataStorageManager {
                     String suffix = getSuffix(mycatPath.getFileName().toString());
                     ConfigReaderWriter configReaderWriter = ConfigReaderWriter.getReaderWriterBySuffix(suffix);
                     MycatRouterConfigOps routerConfig = (MycatRouterConfigOps) ops;
-                    ConfigPrepareExecuter prepare = new ConfigPrepareExecuter(routerConfig, FileMetadataStorageManager.this, datasourceProvider);
+                    ConfigPrepareExecuter prepare = new ConfigPrepareExecuter(routerConfig, FileMetadataStorageManager.this, datasourceProvider, readMetadataSnapshot());
                     prepare.prepareRuntimeObject();
                     prepare.prepareStoreDDL();
                     //还没有初始化
@@ -304,6 +312,14 @@ public class FileMetadataStorageManager extends MetadataStorageManager {
 
 
                     prepare.commit();
+                    MetadataManager metadataManager = prepare.getMetadataManager();
+                    if (metadataManager != null) {
+                        if (!metadataManager.isVerified()) {
+                            revalidateMetadata(metadataManager);
+                        } else if (!metadataManager.isFetchFailed()) {
+                            writeMetadataSnapshot(metadataManager);
+                        }
+                    }
                     Path statePath = baseDirectory.resolve("state.json");
 
                     Files.deleteIfExists(statePath);
@@ -329,6 +345,87 @@ public class FileMetadataStorageManager extends MetadataStorageManager {
     }
 
 
+    /**
+     * 读取上一次保存的元数据快照,版本不一致或者读取失败则忽略
+     */
+    private MetadataSnapshot readMetadataSnapshot() {
+        Path snapshotPath = baseDirectory.resolve(METADATA_SNAPSHOT_FILE);
+        if (Files.notExists(snapshotPath)) {
+            return null;
+        }
+        try {
+            MetadataSnapshot snapshot = JsonUtil.from(readString(snapshotPath), MetadataSnapshot.class);
+            if (snapshot != null && snapshot.isCompatible()) {
+                return snapshot;
+            }
+            LOGGER.warn("ignore incompatible metadata snapshot:{}", snapshotPath);
+        } catch (Throwable e) {
+            LOGGER.warn("can not read metadata snapshot:{}", snapshotPath, e);
+        }
+        return null;
+    }
+
+    /**
+     * 先写临时文件再替换,避免写入过程中崩溃留下不完整的快照
+     */
+    private synchronized void writeMetadataSnapshot(MetadataManager metadataManager) {
+        Path snapshotPath = baseDirectory.resolve(METADATA_SNAPSHOT_FILE);
+        Path tmpPath = baseDirectory.resolve(METADATA_SNAPSHOT_FILE + ".tmp");
+        try {
+            MetadataSnapshot snapshot = metadataManager.getSnapshot();
+            snapshot.setTimestamp(LocalDateTime.now().toString());
+            Files.write(tmpPath, JsonUtil.toJson(snapshot).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable e) {
+            LOGGER.warn("can not write metadata snapshot:{}", snapshotPath, e);
+        }
+    }
+
+    /**
+     * 使用快照启动后在后台重新从后端加载元数据,加载期间继续使用快照得到的元数据
+     * 加载完成后如果正在使用的元数据没有被替换(例如执行了DDL或者重新加载配置)则替换,并且更新快照
+     * 加载会阻塞在JDBC上,使用工作线程而不是定时器线程
+     */
+    private void revalidateMetadata(MetadataManager metadataManager) {
+        MycatWorkerProcessor mycatWorkerProcessor = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class);
+        mycatWorkerProcessor.getMycatWorker().execute(() -> {
+            try {
+                MetadataManager newMetadataManager = metadataManager.reload();
+                if (newMetadataManager.isFetchFailed()) {
+                    LOGGER.warn("revalidate metadata fail,keep the metadata from snapshot");
+                    return;
+                }
+                if (swapMetadata(metadataManager, newMetadataManager)) {
+                    writeMetadataSnapshot(newMetadataManager);
+                }
+            } catch (Throwable e) {
+                LOGGER.error("revalidate metadata fail", e);
+            }
+        });
+    }
+
+    /**
+     * 只有正在使用的元数据仍然是expect时才替换,替换时重建DrdsRunner并清空执行计划缓存
+     */
+    static boolean swapMetadata(MetadataManager expect, MetadataManager update) {
+        DrdsRunner drdsRunner = new DrdsRunner(() -> update.getSchemaMap(), PlanCache.INSTANCE);
+        while (true) {
+            Map<Class, Object> oldContext = MetaClusterCurrent.context.get();
+            if (oldContext.get(MetadataManager.class) != expect) {
+                return false;
+            }
+            HashMap<Class, Object> context = new HashMap<>(oldContext);
+            context.put(MetadataManager.class, update);
+            context.put(MysqlVariableService.class, update);
+            context.put(DrdsRunner.class, drdsRunner);
+            if (MetaClusterCurrent.context.compareAndSet(oldContext, context)) {
+                //替换之后再清空,避免留下按照旧元数据生成的执行计划
+                PlanCache.INSTANCE.clear();
+                return true;
+            }
+        }
+    }
+
     @NotNull
     private MycatRouterConfig loadFromLocalFile() {
         return getRouterConfig(baseDirectory);
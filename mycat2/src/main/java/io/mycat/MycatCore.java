@@ -1,10 +1,16 @@
 package io.mycat;
 
+import io.mycat.api.MySQLAPIRuntime;
+import io.mycat.booster.BoosterLoad;
+import io.mycat.booster.ReplicaBoosterLoad;
 import io.mycat.config.MycatServerConfig;
+import io.mycat.config.ServerConfig;
 import io.mycat.config.ServerConfiguration;
 import io.mycat.config.ServerConfigurationImpl;
+import io.mycat.ext.MySQLAPIRuntimeImpl;
 import io.mycat.plug.loadBalance.LoadBalanceManager;
 import io.mycat.proxy.session.ProxyAuthenticator;
+import io.mycat.replica.DataSourceNearnessImpl;
 import lombok.SneakyThrows;
 import org.apache.calcite.util.BuiltInMethod;
 import sun.util.calendar.ZoneInfo;
@@ -53,9 +59,13 @@ public class MycatCore {
         HashMap<Class, Object> context = new HashMap<>();
         context.put(serverConfiguration.getClass(), serverConfiguration);
         context.put(serverConfig.getClass(), serverConfig);
+        context.put(ServerConfig.class, serverConfig.getServer());
+        context.put(BoosterLoad.class, new ReplicaBoosterLoad());
+        context.put(DataSourceNearnessImpl.GtidWaiter.class, (DataSourceNearnessImpl.GtidWaiter) MycatServer::waitForGtidSet);
         context.put(loadBalanceManager.getClass(), loadBalanceManager);
         context.put(mycatWorkerProcessor.getClass(), mycatWorkerProcessor);
         context.put(mycatServer.getClass(), mycatServer);
+        context.put(MySQLAPIRuntime.class, new MySQLAPIRuntimeImpl(mycatServer::getReactorManager, mycatServer::resolveNativeDatasource));
 
 
         String mode = Optional.ofNullable(serverConfig.getMode()).orElse(PROPERTY_MODE_LOCAL).toLowerCase();
@@ -1,5 +1,6 @@
 package io.mycat;
 
+import io.mycat.api.collector.RowBaseIteratorCacher;
 import io.mycat.beans.MySQLDatasource;
 import io.mycat.beans.mycat.TransactionType;
 import io.mycat.buffer.BufferPool;
@@ -8,15 +9,24 @@ import io.mycat.buffer.HeapBufferPool;
 import io.mycat.buffer.ReactorBufferPool;
 import io.mycat.command.CommandDispatcher;
 import io.mycat.config.*;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
 import io.mycat.datasource.jdbc.datasourceprovider.AtomikosDatasourceProvider;
 import io.mycat.datasource.jdbc.datasourceprovider.DruidDatasourceProvider;
+import io.mycat.exporter.PrometheusExporter;
+import io.mycat.hbt4.SlowQueryLog;
+import io.mycat.hbt4.SqlDigestStats;
+import io.mycat.lib.impl.ResultSetPacketCache;
 import io.mycat.manager.ManagerCommandDispatcher;
 import io.mycat.plug.loadBalance.LoadBalanceManager;
 import io.mycat.proxy.buffer.ProxyBufferPoolMonitor;
 import io.mycat.proxy.reactor.*;
 import io.mycat.proxy.session.*;
+import io.mycat.replica.GtidSet;
+import io.mycat.replica.ReplicaSelectorRuntime;
 import io.mycat.runtime.LocalTransactionSession;
 import io.mycat.runtime.ProxyTransactionSession;
+import io.mycat.runtime.XaLog;
+import io.mycat.runtime.XaTransactionSession;
 import io.mycat.thread.SimpleMycatContextBindingThreadPool;
 import lombok.Getter;
 import lombok.SneakyThrows;
@@ -25,6 +35,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -67,15 +79,49 @@ public class MycatServer {
         this.mycatWorkerProcessor = new MycatWorkerProcessor(serverConfigServer.getWorkerPool(), serverConfigServer.getTimeWorkerPool());
         this.transcationFactoryMap = new HashMap<>();
         this.transcationFactoryMap.put(TransactionType.PROXY_TRANSACTION_TYPE, mycatDataContext -> new ProxyTransactionSession(mycatDataContext));
-        this.transcationFactoryMap.put(TransactionType.JDBC_TRANSACTION_TYPE, mycatDataContext -> new LocalTransactionSession(mycatDataContext));
+        if (serverConfigServer.isXaTransaction()) {
+            Path xaLogDirectory = Optional.ofNullable(serverConfigServer.getXaLogDirectory()).map(i -> Paths.get(i))
+                    .orElseGet(() -> Paths.get(serverConfigServer.getTempDirectory(), "xa"));
+            XaTransactionSession.configure(new XaLog(xaLogDirectory, serverConfigServer.getXaNode()));
+            this.transcationFactoryMap.put(TransactionType.JDBC_TRANSACTION_TYPE, mycatDataContext -> new XaTransactionSession(mycatDataContext));
+        } else {
+            this.transcationFactoryMap.put(TransactionType.JDBC_TRANSACTION_TYPE, mycatDataContext -> new LocalTransactionSession(mycatDataContext));
+        }
         ThreadPoolExecutorConfig contextPool = serverConfigServer.getContextPool();
         this.mycatContextThreadPool = new MycatContextThreadPoolImpl(contextPool, mycatWorkerProcessor.getMycatWorker());
+        ScheduleUtil.configure(serverConfigServer.getScheduleThreads(), serverConfigServer.getHeartbeatThreads());
+        RowBaseIteratorCacher.configure(serverConfigServer.getResultSetCacheMaxBytes(), serverConfigServer.getResultSetCacheMaxEntryBytes());
+        SqlDigestStats.INSTANCE.configure(serverConfigServer.getSqlDigestStatMaxDigests());
+        SlowQueryLog.INSTANCE.configure(serverConfigServer.getSlowQueryThresholdMillis(),
+                Optional.ofNullable(serverConfigServer.getSlowQueryLogDirectory()).map(i -> Paths.get(i))
+                        .orElseGet(() -> Paths.get(serverConfigServer.getTempDirectory(), "slowlog")),
+                serverConfigServer.getSlowQueryLogMaxFileBytes(), serverConfigServer.getSlowQueryLogMaxFiles());
+        ResultSetPacketCache.INSTANCE.configure(serverConfigServer.getTempDirectory(), serverConfigServer.getPacketCacheMaxBytes(),
+                serverConfigServer.getPacketCacheMaxEntryBytes(), serverConfigServer.getPacketCacheTtlMillis());
+    }
+
+    /**
+     * 等待从节点追上会话写入的gtid
+     */
+    static boolean waitForGtidSet(String datasourceName, GtidSet gtidSet, long timeoutMillis) {
+        //reactor线程上不等待,直接读主节点
+        if (Thread.currentThread() instanceof ReactorEnvThread) {
+            return false;
+        }
+        return MetaClusterCurrent.wrapper(JdbcConnectionManager.class).waitForGtidSet(datasourceName, gtidSet, timeoutMillis);
     }
 
     @SneakyThrows
     public void start() {
+        XaLog xaLog = XaTransactionSession.getXaLog();
+        if (xaLog != null && MetaClusterCurrent.exist(JdbcConnectionManager.class)) {
+            //开始接受连接之前处理上次崩溃留下的分支
+            long[] res = xaLog.recover(MetaClusterCurrent.wrapper(JdbcConnectionManager.class));
+            LOGGER.info("xa recover commit:{} rollback:{}", res[0], res[1]);
+        }
         startProxy(this.serverConfig.getServer());
         startManager(this.serverConfig.getManager());
+        new PrometheusExporter(this.serverConfig.getServer().getPrometheusPort()).start();
     }
 
 
@@ -160,7 +206,7 @@ public class MycatServer {
 
     private void initFrontSessionChecker(TimerConfig frontSessionChecker, ReactorThreadManager reactorManager) {
         if (frontSessionChecker.getPeriod() > 0) {
-            ScheduleUtil.getTimer().scheduleAtFixedRate(() -> {
+            ScheduleUtil.scheduleAtFixedRate("frontSessionChecker", () -> {
                 try {
                     for (MycatReactorThread thread : reactorManager.getList()) {
                         thread.addNIOJob(new NIOJob() {
@@ -188,7 +234,7 @@ public class MycatServer {
     }
 
     private void idleConnectCheck(TimerConfig timer, ReactorThreadManager reactorManager) {
-        ScheduleUtil.getTimer().scheduleAtFixedRate(() -> {
+        ScheduleUtil.scheduleAtFixedRate("idleConnectCheck", () -> {
             for (MycatReactorThread thread : reactorManager.getList()) {
                 thread.addNIOJob(new NIOJob() {
                     @Override
@@ -235,6 +281,21 @@ public class MycatServer {
         return null;
     }
 
+    /**
+     * 目标可以是数据源名或者集群名,集群名按读选择数据源,不支持native时返回null
+     */
+    public MySQLDatasource resolveNativeDatasource(String targetName) {
+        MySQLDatasource datasource = getDatasource(targetName);
+        if (datasource != null || !MetaClusterCurrent.exist(ReplicaSelectorRuntime.class)) {
+            return datasource;
+        }
+        ReplicaSelectorRuntime selectorRuntime = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
+        if (!selectorRuntime.isReplicaName(targetName)) {
+            return null;
+        }
+        return getDatasource(selectorRuntime.getDatasourceNameByReplicaName(targetName, false, null));
+    }
+
 
     private static Constructor<?> getConstructor(String clazz) throws ClassNotFoundException, NoSuchMethodException {
         Class<?> bufferPoolClass = Class.forName(clazz);
@@ -8,7 +8,6 @@ import io.mycat.datasource.jdbc.datasource.DefaultConnection;
 import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
 import io.mycat.metadata.MetadataManager;
 import io.mycat.proxy.session.MycatSession;
-import io.mycat.replica.ReplicaSelectorRuntime;
 import io.mycat.util.Response;
 import org.apache.calcite.avatica.proto.Common;
 import org.slf4j.Logger;
@@ -100,8 +99,7 @@ public class ReceiverImpl implements Response {
     @Override
     public void execute(ExplainDetail detail) {
         boolean master = session.isInTransaction() || !session.isAutocommit() || detail.getExecuteType().isMaster();
-        ReplicaSelectorRuntime selectorRuntime = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
-        String datasource = selectorRuntime.getDatasourceNameByReplicaName(Objects.requireNonNull(detail.getTarget()), master, detail.getBalance());
+        String datasource = session.getDataContext().resolveDatasourceTargetName(Objects.requireNonNull(detail.getTarget()), master, detail.getBalance());
         sqlExecuterWriter.writeToMycatSession(MycatProxyResponse.create(detail.getExecuteType(), datasource, detail.getSql()));
     }
 
@@ -17,11 +17,13 @@ package io.mycat;
 import io.mycat.api.collector.RowBaseIterator;
 import io.mycat.api.collector.RowIterable;
 import io.mycat.beans.mycat.TransactionType;
+import io.mycat.beans.mysql.MySQLErrorCode;
 import io.mycat.beans.resultset.MycatProxyResponse;
 import io.mycat.beans.resultset.MycatResponse;
 import io.mycat.beans.resultset.MycatResultSetResponse;
 import io.mycat.bindthread.BindThread;
 import io.mycat.proxy.session.MycatSession;
+import io.mycat.replica.DataSourceNearnessImpl;
 import io.mycat.resultset.BinaryResultSetResponse;
 import io.mycat.resultset.TextResultSetResponse;
 import io.mycat.util.ByteUtil;
@@ -40,6 +42,7 @@ public class SQLExecuterWriter implements SQLExecuterWriterHandler {
     final boolean explain;
     int count;
     final static Logger LOGGER = LoggerFactory.getLogger(SQLExecuterWriter.class);
+    private static final String QUERY_INTERRUPTED = "Query execution was interrupted";
 
     public SQLExecuterWriter(int total,
                              boolean binary,
@@ -72,7 +75,10 @@ public class SQLExecuterWriter implements SQLExecuterWriterHandler {
             return;
         }
 
+        MycatDataContext queryContext = session.getDataContext();
         try (MycatResponse mycatResponse = response) {
+            queryContext.bindQueryThread();
+            checkCancelled(null);
             switch (mycatResponse.getType()) {
                 case RRESULTSET: {
                     RowIterable rowIterable = (RowIterable) mycatResponse;
@@ -90,7 +96,8 @@ public class SQLExecuterWriter implements SQLExecuterWriterHandler {
                 case PROXY: {
                     MycatProxyResponse proxyResponse = (MycatProxyResponse) mycatResponse;
                     TransactionSession transactionSession = session.getDataContext().getTransactionSession();
-                    if (this.count == 1 && transactionSession.transactionType() == TransactionType.PROXY_TRANSACTION_TYPE) {
+                    if (this.count == 1 && transactionSession.transactionType() == TransactionType.PROXY_TRANSACTION_TYPE
+                            && isNativeAllowed(proxyResponse)) {
                         MycatServer mycatServer = MetaClusterCurrent.wrapper(MycatServer.class);
                         if (mycatServer.getDatasource(proxyResponse.getTargetName()) != null) {
                             MySQLTaskUtil.proxyBackendByDatasourceName(session, proxyResponse.getTargetName(), proxyResponse.getSql(),
@@ -207,13 +214,50 @@ public class SQLExecuterWriter implements SQLExecuterWriterHandler {
                     throw new IllegalStateException("Unexpected value: " + mycatResponse.getType());
             }
         } catch (Exception e) {
+            //中断标记会使同步写错误包的channel被关闭
+            queryContext.unbindQueryThread();
+            if (queryContext.isQueryCancelled()) {
+                session.setLastMessage(QUERY_INTERRUPTED);
+                session.writeErrorEndPacketBySyncInProcessError(MySQLErrorCode.ER_QUERY_INTERRUPTED);
+                return;
+            }
             session.setLastMessage(e);
             session.writeErrorEndPacketBySyncInProcessError();
         } finally {
+            queryContext.unbindQueryThread();
             this.count--;
         }
     }
 
+    /**
+     * kill query之后停止拉取结果,关闭结果集使执行树中断
+     * 拉取第一行之前阻塞在分片结果上的执行器由kill query中断线程停止
+     */
+    private void checkCancelled(RowBaseIterator resultSet) {
+        if (session.getDataContext().isQueryCancelled()) {
+            if (resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (Exception e) {
+                    LOGGER.warn("close cancelled result set fail", e);
+                }
+            }
+            throw new MycatException(MySQLErrorCode.ER_QUERY_INTERRUPTED, QUERY_INTERRUPTED);
+        }
+    }
+
+    /**
+     * native连接的写无法取得gtid,开启readYourWrites时写和事务使用jdbc连接
+     */
+    private boolean isNativeAllowed(MycatProxyResponse proxyResponse) {
+        if (!DataSourceNearnessImpl.isReadYourWrites()) {
+            return true;
+        }
+        ExecuteType executeType = proxyResponse.getExecuteType();
+        return session.isAutocommit() && !session.isInTransaction()
+                && executeType != ExecuteType.INSERT && executeType != ExecuteType.UPDATE;
+    }
+
     private void sendResultSet(boolean moreResultSet, RowBaseIterator resultSet) {
         MycatResultSetResponse currentResultSet;
         if (!binary) {
@@ -230,6 +274,7 @@ public class SQLExecuterWriter implements SQLExecuterWriterHandler {
         session.writeColumnEndPacket();
         Iterator<byte[]> rowIterator = currentResultSet.rowIterator();
         while (rowIterator.hasNext()) {
+            checkCancelled(resultSet);
             byte[] row = rowIterator.next();
             session.writeBytes(row, false);
         }
@@ -0,0 +1,94 @@
+package io.mycat.booster;
+
+import io.mycat.MetaClusterCurrent;
+import io.mycat.replica.PhysicsInstance;
+import io.mycat.replica.ReplicaDataSourceSelector;
+import io.mycat.replica.ReplicaSelectorRuntime;
+import io.mycat.replica.heartbeat.HeartbeatFlow;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 从集群的心跳与连接计数读取booster的状态
+ * booster可以是集群名或者数据源名,集群按其中可读的数据源汇总:连接数求和,延迟取最小值
+ * 数据源心跳失败或者复制延迟超过slaveThreshold时asSelectRead为false,视为不可用
+ * chen junwen
+ */
+public class ReplicaBoosterLoad implements BoosterLoad {
+
+    @Override
+    public boolean isAvailable(String target) {
+        if (!MetaClusterCurrent.exist(ReplicaSelectorRuntime.class)) {
+            return true;
+        }
+        Collection<PhysicsInstance> instances = getInstances(target);
+        if (instances == null) {
+            //不是集群管理的目标,没有状态可以参考
+            return true;
+        }
+        for (PhysicsInstance instance : instances) {
+            if (isReadable(instance)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getActiveConnections(String target) {
+        if (!MetaClusterCurrent.exist(ReplicaSelectorRuntime.class)) {
+            return 0;
+        }
+        Collection<PhysicsInstance> instances = getInstances(target);
+        if (instances == null) {
+            return 0;
+        }
+        int count = 0;
+        for (PhysicsInstance instance : instances) {
+            if (isReadable(instance)) {
+                count += instance.getSessionCounter();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getLatencyMillis(String target) {
+        if (!MetaClusterCurrent.exist(ReplicaSelectorRuntime.class)) {
+            return 0;
+        }
+        ReplicaSelectorRuntime runtime = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
+        Map<String, HeartbeatFlow> heartbeatDetectorMap = runtime.getHeartbeatDetectorMap();
+        long latency = Long.MAX_VALUE;
+        for (Map.Entry<String, HeartbeatFlow> entry : heartbeatDetectorMap.entrySet()) {
+            //key为集群名.数据源名
+            String key = entry.getKey();
+            int index = key.lastIndexOf('.');
+            String replicaName = index < 0 ? key : key.substring(0, index);
+            String datasourceName = index < 0 ? key : key.substring(index + 1);
+            if (target.equals(replicaName) || target.equals(datasourceName)) {
+                latency = Math.min(latency, entry.getValue().getLastLatency());
+            }
+        }
+        return latency == Long.MAX_VALUE ? 0 : latency;
+    }
+
+    private static boolean isReadable(PhysicsInstance instance) {
+        return instance.isAlive() && instance.asSelectRead();
+    }
+
+    private static Collection<PhysicsInstance> getInstances(String target) {
+        ReplicaSelectorRuntime runtime = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
+        ReplicaDataSourceSelector selector = runtime.getReplicaMap().get(target);
+        if (selector != null) {
+            return selector.getRawDataSourceMap().values();
+        }
+        PhysicsInstance instance = runtime.getPhysicsInstanceByName(target);
+        if (instance != null) {
+            return Collections.singletonList(instance);
+        }
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package io.mycat.booster;
 
+import io.mycat.proxy.session.MycatSession;
 import lombok.AllArgsConstructor;
 
 /**
@@ -30,4 +31,13 @@ public abstract class Task {
     }
 
     public  abstract <T> T get(CacheConfig cacheConfig);
+
+    /**
+     * 在reactor线程中直接回放编码好的报文
+     *
+     * @return 没有可以回放的报文返回false
+     */
+    public boolean replay(MycatSession session) {
+        return false;
+    }
 }
@@ -12,6 +12,9 @@ import io.mycat.commands.MycatdbCommand;
 import io.mycat.hbt4.CacheExecutorImplementor;
 import io.mycat.hbt4.DefaultDatasourceFactory;
 import io.mycat.hbt4.executor.TempResultSetFactoryImpl;
+import io.mycat.lib.impl.CacheFile;
+import io.mycat.lib.impl.ResultSetPacketCache;
+import io.mycat.lib.impl.TransforFileLib;
 import io.mycat.matcher.Matcher;
 import io.mycat.plug.command.MycatCommandLoader;
 import io.mycat.plug.hint.HintLoader;
@@ -29,11 +32,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -49,25 +50,26 @@ public class UserSpace {
     public UserSpace(String userName, TransactionType defaultTransactionType, Matcher matcher, List<CacheTask> cacheTaskList) {
         this.userName = Objects.requireNonNull(userName);
         this.matcher = matcher;
-        ScheduledExecutorService timer = ScheduleUtil.getTimer();
         cacheTaskList.forEach(config -> {
             MycatDataContext context = new MycatDataContextImpl(new SimpleTransactionSessionRunner());
-            Task task = getTask(config, context, timer);
+            Task task = getTask(config, context);
             cacheMap.put(config.getName(), task);
             task.start();
         });
     }
 
 
+    /**
+     * 直接在报文字节上匹配,只有匹配成功才创建sql字符串
+     */
     public boolean execute(final ByteBuffer buffer, final MycatSession session) {
-        final CharBuffer charBuffer = StandardCharsets.UTF_8.decode(buffer);
         final Map<String, Object> extractor = new HashMap<>();
-        List<Map<String, Object>> matchList = matcher.match(charBuffer, extractor);
+        List<Map<String, Object>> matchList = matcher.match(buffer.duplicate(), extractor);
         if (matchList == null) {
             matchList = Collections.emptyList();
         }
-        String text = charBuffer.toString();
         if (!matchList.isEmpty()){
+            String text = toText(buffer);
             MycatDataContext dataContext = session.getDataContext();
             int sessionId = session.sessionId();
             ReceiverImpl receiver = new ReceiverImpl(session, 1, false, false);
@@ -80,6 +82,13 @@ public class UserSpace {
       return false;
     }
 
+    private static String toText(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
     public boolean execute(int sessionId,
                            MycatDataContext dataContext,
                            String text,
@@ -94,6 +103,11 @@ public class UserSpace {
             final boolean cache = !StringUtil.isEmpty((String) context.get("cache"));
             ///////////////////////////////////cache//////////////////////////////////
             if (cache) {
+                Task task = cacheMap.get(name);
+                if (task != null && session != null && task.replay(session)) {
+                    logger.info("\n" + context + "\n hit packet cache");
+                    return true;
+                }
                 Optional<RowBaseIterator> mycatResultSetResponse = Optional.ofNullable(cacheMap.get(name)).map(i -> i.get());
                 if (mycatResultSetResponse.isPresent()) {
                     logger.info("\n" + context + "\n hit cache");
@@ -121,8 +135,7 @@ public class UserSpace {
 
     @NotNull
     public static Task getTask(CacheTask task,
-                               MycatDataContext context,
-                               ScheduledExecutorService timer) {
+                               MycatDataContext context) {
         final String text = task.text;
         Type type = task.type;
         return new Task(task.cacheConfig) {
@@ -130,7 +143,7 @@ public class UserSpace {
             @Override
             public void start(CacheConfig cacheConfig) {
                 NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
-                timer.scheduleAtFixedRate(() -> mycatWorker.execute(() -> {
+                ScheduleUtil.scheduleAtFixedRate("cache." + task.name, () -> mycatWorker.execute(() -> {
                             try {
                                 cache(cacheConfig);
                             } catch (Exception e) {
@@ -142,9 +155,47 @@ public class UserSpace {
                         TimeUnit.MILLISECONDS);
             }
 
+            /**
+             * 定时刷新,已有加载进行中则跳过,刷新期间继续使用旧的缓存
+             */
             @Override
-            public synchronized void cache(CacheConfig cacheConfig) {
-                dispatcher(type, text);
+            public void cache(CacheConfig cacheConfig) {
+                RowBaseIteratorCacher.load(text, () -> dispatcher(type, text), 0);
+                long sourceId = RowBaseIteratorCacher.getEntryId(text);
+                if (ResultSetPacketCache.INSTANCE.isEnabled() && sourceId >= 0) {
+                    buildPacketCache(sourceId);
+                }
+            }
+
+            /**
+             * 报文缓存不存在或者已经过期时在worker线程中重新生成,本次请求仍然使用结果集缓存
+             */
+            @Override
+            public boolean replay(MycatSession session) {
+                ResultSetPacketCache packetCache = ResultSetPacketCache.INSTANCE;
+                if (!packetCache.isEnabled() || !session.isIOThreadMode()) {
+                    return false;
+                }
+                long sourceId = RowBaseIteratorCacher.getEntryId(text);
+                if (sourceId < 0) {
+                    return false;
+                }
+                CacheFile cacheFile = packetCache.acquire(text, sourceId);
+                if (cacheFile == null) {
+                    NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+                    mycatWorker.execute(() -> buildPacketCache(sourceId));
+                    return false;
+                }
+                TransforFileLib.transferCacheFile(session, cacheFile);
+                return true;
+            }
+
+            private void buildPacketCache(long sourceId) {
+                //先取版本号再读取缓存,缓存在两者之间被替换时生成的文件版本号过旧,不会被使用
+                RowBaseIterator iterator = RowBaseIteratorCacher.peek(text);
+                if (iterator != null) {
+                    ResultSetPacketCache.INSTANCE.build(text, sourceId, iterator);
+                }
             }
 
             @SneakyThrows
@@ -172,14 +223,25 @@ public class UserSpace {
                 }
             }
 
+            /**
+             * 未命中(未预读或者被DML失效)时返回null,本次查询不使用缓存,
+             * 在worker线程中单飞加载,调用者可能是reactor线程,不能在这里执行查询或者等待加载
+             */
             @Override
             public RowBaseIterator get(CacheConfig cacheConfig) {
                 RowBaseIterator rowBaseIterator = RowBaseIteratorCacher.get(text);
                 if (rowBaseIterator != null) {
                     return rowBaseIterator;
-                } else {
-                    return null;
                 }
+                NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+                mycatWorker.execute(() -> {
+                    try {
+                        cache(cacheConfig);
+                    } catch (Throwable t) {
+                        logger.error("load cache fail:" + text, t);
+                    }
+                });
+                return null;
             }
         };
     }
@@ -0,0 +1,58 @@
+package io.mycat.exporter;
+
+import io.mycat.MetaClusterCurrent;
+import io.mycat.datasource.jdbc.datasource.ConnectionWaitQueue;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.*;
+
+public class JdbcConnectionPoolCollector extends Collector {
+    private static final String WAIT_METRIC = "mycat_jdbc_connection_wait_seconds";
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        if (!MetaClusterCurrent.exist(JdbcConnectionManager.class)) {
+            return Collections.emptyList();
+        }
+        JdbcConnectionManager jdbcConnectionManager = MetaClusterCurrent.wrapper(JdbcConnectionManager.class);
+        List<String> datasourceLabel = Collections.singletonList("datasource");
+        List<String> laneLabels = Arrays.asList("datasource", "lane");
+        GaugeMetricFamily used = new GaugeMetricFamily("mycat_jdbc_connection_used", "connections in use", datasourceLabel);
+        GaugeMetricFamily max = new GaugeMetricFamily("mycat_jdbc_connection_max", "max connections", datasourceLabel);
+        GaugeMetricFamily queueDepth = new GaugeMetricFamily("mycat_jdbc_connection_wait_queue_depth", "requests waiting for a connection", laneLabels);
+        CounterMetricFamily timeouts = new CounterMetricFamily("mycat_jdbc_connection_wait_timeout", "requests timed out waiting for a connection", datasourceLabel);
+        CounterMetricFamily rejections = new CounterMetricFamily("mycat_jdbc_connection_wait_rejection", "requests rejected because the wait queue is full", datasourceLabel);
+        List<MetricFamilySamples.Sample> waitSamples = new ArrayList<>();
+        for (Map.Entry<String, JdbcDataSource> entry : jdbcConnectionManager.getDatasourceInfo().entrySet()) {
+            String name = entry.getKey();
+            ConnectionWaitQueue waitQueue = entry.getValue().getWaitQueue();
+            List<String> nameValue = Collections.singletonList(name);
+            used.addMetric(nameValue, waitQueue.getUsed());
+            max.addMetric(nameValue, waitQueue.getMaxCon());
+            for (ConnectionWaitQueue.Lane lane : ConnectionWaitQueue.Lane.values()) {
+                queueDepth.addMetric(Arrays.asList(name, lane.name().toLowerCase()), waitQueue.getQueueDepth(lane));
+            }
+            timeouts.addMetric(nameValue, waitQueue.getTimeouts());
+            rejections.addMetric(nameValue, waitQueue.getRejections());
+
+            long[] counts = waitQueue.getWaitBucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < ConnectionWaitQueue.WAIT_MILLIS_BUCKETS.length ?
+                        doubleToGoString(ConnectionWaitQueue.WAIT_MILLIS_BUCKETS[i] / 1000.0) : "+Inf";
+                waitSamples.add(new MetricFamilySamples.Sample(WAIT_METRIC + "_bucket",
+                        Arrays.asList("datasource", "le"), Arrays.asList(name, le), cumulative));
+            }
+            waitSamples.add(new MetricFamilySamples.Sample(WAIT_METRIC + "_count", datasourceLabel, nameValue, cumulative));
+            waitSamples.add(new MetricFamilySamples.Sample(WAIT_METRIC + "_sum", datasourceLabel, nameValue, waitQueue.getWaitMillisSum() / 1000.0));
+        }
+        MetricFamilySamples wait = new MetricFamilySamples(WAIT_METRIC, Type.HISTOGRAM,
+                "time spent waiting for a jdbc connection", waitSamples);
+        return Arrays.asList(used, max, queueDepth, timeouts, rejections, wait);
+    }
+}
@@ -0,0 +1,39 @@
+package io.mycat.exporter;
+
+import com.google.common.collect.ImmutableList;
+import io.mycat.api.collector.OffHeapResultSetCache;
+import io.mycat.api.collector.RowBaseIteratorCacher;
+import io.mycat.lib.impl.ResultSetPacketCache;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.List;
+
+public class ResultSetCacheCollector extends Collector {
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        OffHeapResultSetCache cache = RowBaseIteratorCacher.getCache();
+        ResultSetPacketCache packetCache = ResultSetPacketCache.INSTANCE;
+        return ImmutableList.of(
+                new CounterMetricFamily("mycat_result_set_cache_hit", "result set cache hits", cache.getHits()),
+                new CounterMetricFamily("mycat_result_set_cache_miss", "result set cache misses", cache.getMisses()),
+                new CounterMetricFamily("mycat_result_set_cache_load", "result set cache loads", cache.getLoads()),
+                new CounterMetricFamily("mycat_result_set_cache_load_failure", "result set cache failed loads", cache.getLoadFailures()),
+                new CounterMetricFamily("mycat_result_set_cache_eviction", "entries evicted by byte budget", cache.getEvictions()),
+                new CounterMetricFamily("mycat_result_set_cache_invalidation", "entries invalidated by dml", cache.getInvalidations()),
+                new CounterMetricFamily("mycat_result_set_cache_rejection", "result sets too large to cache", cache.getRejections()),
+                new GaugeMetricFamily("mycat_result_set_cache_bytes", "off-heap bytes used by result set cache", cache.getBytes()),
+                new GaugeMetricFamily("mycat_result_set_cache_max_bytes", "byte budget of result set cache", cache.getMaxBytes()),
+                new GaugeMetricFamily("mycat_result_set_cache_entries", "entries in result set cache", cache.getEntryCount()),
+                new CounterMetricFamily("mycat_packet_cache_hit", "packet cache replays", packetCache.getHits()),
+                new CounterMetricFamily("mycat_packet_cache_miss", "packet cache misses", packetCache.getMisses()),
+                new CounterMetricFamily("mycat_packet_cache_build", "packet cache files built", packetCache.getBuilds()),
+                new CounterMetricFamily("mycat_packet_cache_build_failure", "packet cache files failed to build", packetCache.getBuildFailures()),
+                new CounterMetricFamily("mycat_packet_cache_eviction", "packet cache files evicted by byte budget", packetCache.getEvictions()),
+                new GaugeMetricFamily("mycat_packet_cache_bytes", "bytes of packet cache files", packetCache.getBytes()),
+                new GaugeMetricFamily("mycat_packet_cache_entries", "packet cache files", packetCache.getEntryCount())
+        );
+    }
+}
@@ -0,0 +1,63 @@
+package io.mycat.exporter;
+
+import io.mycat.hbt4.SqlDigestStats;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.*;
+
+public class SqlDigestCollector extends Collector {
+    private static final String LATENCY_METRIC = "mycat_sql_digest_latency_seconds";
+    private static final String TARGET_LATENCY_METRIC = "mycat_sql_digest_target_latency_seconds";
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        SqlDigestStats digestStats = SqlDigestStats.INSTANCE;
+        List<MetricFamilySamples.Sample> latencySamples = new ArrayList<>();
+        List<MetricFamilySamples.Sample> targetSamples = new ArrayList<>();
+        List<String> phaseLabels = Arrays.asList("digest", "user", "phase");
+        List<String> targetLabels = Arrays.asList("digest", "user", "target");
+        Collection<SqlDigestStats.DigestStat> stats = digestStats.getStats();
+        for (SqlDigestStats.DigestStat stat : stats) {
+            for (SqlDigestStats.Phase phase : SqlDigestStats.Phase.values()) {
+                addHistogram(latencySamples, LATENCY_METRIC, phaseLabels,
+                        Arrays.asList(stat.getDigest(), stat.getUser(), phase.name().toLowerCase()), stat.getPhase(phase));
+            }
+            for (Map.Entry<String, SqlDigestStats.Histogram> entry : stat.getTargets().entrySet()) {
+                addHistogram(targetSamples, TARGET_LATENCY_METRIC, targetLabels,
+                        Arrays.asList(stat.getDigest(), stat.getUser(), entry.getKey()), entry.getValue());
+            }
+        }
+        return Arrays.asList(
+                new MetricFamilySamples(LATENCY_METRIC, Type.HISTOGRAM,
+                        "latency of sql digest by phase", latencySamples),
+                new MetricFamilySamples(TARGET_LATENCY_METRIC, Type.HISTOGRAM,
+                        "backend latency of sql digest by target", targetSamples),
+                new GaugeMetricFamily("mycat_sql_digest_entries", "sql digests with statistics", stats.size()),
+                new CounterMetricFamily("mycat_sql_digest_eviction", "sql digests replaced by new digests", digestStats.getEvictions())
+        );
+    }
+
+    private static void addHistogram(List<MetricFamilySamples.Sample> samples, String metric,
+                                     List<String> labelNames, List<String> labelValues,
+                                     SqlDigestStats.Histogram histogram) {
+        long[] counts = histogram.getBucketCounts();
+        if (Arrays.stream(counts).sum() == 0) {
+            return;
+        }
+        List<String> bucketLabelNames = new ArrayList<>(labelNames);
+        bucketLabelNames.add("le");
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String le = i < SqlDigestStats.LATENCY_MICROS_BUCKETS.length ?
+                    doubleToGoString(SqlDigestStats.LATENCY_MICROS_BUCKETS[i] / 1000000.0) : "+Inf";
+            List<String> bucketLabelValues = new ArrayList<>(labelValues);
+            bucketLabelValues.add(le);
+            samples.add(new MetricFamilySamples.Sample(metric + "_bucket", bucketLabelNames, bucketLabelValues, cumulative));
+        }
+        samples.add(new MetricFamilySamples.Sample(metric + "_count", labelNames, labelValues, cumulative));
+        samples.add(new MetricFamilySamples.Sample(metric + "_sum", labelNames, labelValues, histogram.getMicrosSum() / 1000000.0));
+    }
+}
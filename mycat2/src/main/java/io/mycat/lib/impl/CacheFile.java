@@ -1,34 +1,100 @@
 package io.mycat.lib.impl;
 
-import io.mycat.beans.resultset.MycatResultSetResponse;
-import lombok.SneakyThrows;
-import lombok.extern.log4j.Log4j;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-@Log4j
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 一个已经写完的报文缓存文件
+ * 缓存本身持有一个引用,每次回放再持有一个引用,从缓存移除并且所有回放结束后关闭并删除文件
+ *
+ * @author chen junwen
+ */
+@Getter
 public class CacheFile {
-    public CacheFile(ResultSetCacheRecorder recorder, ResultSetCacheRecorder.Token token) {
-        this.recorder = recorder;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheFile.class);
+    private final Object key;
+    private final long sourceId;
+    private final Path path;
+    private final ResultSetCacheRecorder.Token token;
+    private final long expireTime;
+    private final FileChannel channel;
+    private MappedByteBuffer mappedByteBuffer;
+    private int refCount = 1;
+    private boolean removed = false;
+
+    public CacheFile(Object key, long sourceId, Path path, ResultSetCacheRecorder.Token token, long expireTime) throws IOException {
+        this.key = key;
+        this.sourceId = sourceId;
+        this.path = path;
         this.token = token;
+        this.expireTime = expireTime;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
     }
-    ResultSetCacheRecorder recorder;
-    ResultSetCacheRecorder.Token token;
 
-    @Override
-    public void finalize() throws Throwable {
-        super.finalize();
-        close();
+    public long size() {
+        return token.getEndPosition();
     }
 
-    public void close() {
-        try {
-            recorder.close();
-        } catch (Exception e) {
-            log.error(e);
+    public boolean isExpired(long now) {
+        return now >= expireTime;
+    }
+
+    /**
+     * 报文序号需要改写时按报文读取,整个文件只映射一次
+     */
+    public synchronized ByteBuffer map() throws IOException {
+        if (mappedByteBuffer == null) {
+            mappedByteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size());
+        }
+        return mappedByteBuffer.duplicate();
+    }
+
+    public synchronized boolean retain() {
+        if (removed) {
+            return false;
         }
+        refCount++;
+        return true;
     }
 
-    @SneakyThrows
-    public MycatResultSetResponse cacheResponse() {
-        return recorder.newMycatResultSetResponse(token);
+    /**
+     * 从缓存移除,释放缓存持有的引用
+     */
+    public void remove() {
+        synchronized (this) {
+            if (removed) {
+                return;
+            }
+            removed = true;
+        }
+        release();
+    }
+
+    public void release() {
+        synchronized (this) {
+            if (--refCount > 0) {
+                return;
+            }
+            mappedByteBuffer = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("", e);
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("can not delete cache file {}", path, e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,14 @@
 package io.mycat.lib.impl;
 
-import io.mycat.beans.resultset.MycatResultSetResponse;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 
 import java.io.IOException;
 
 /**
+ * 把结果集记录为完整的mysql报文,报文序号从1开始
+ * 字段结束的eof与行结束的eof包含服务器状态,不写入文件,只保留它们的报文序号
+ *
  * @author chen junwen
  */
 public interface ResultSetCacheRecorder {
@@ -18,15 +22,22 @@ public interface ResultSetCacheRecorder {
 
     void addColumnDefBytes(byte[] bytes);
 
-    void startRecordRow() ;
+    void startRecordRow();
 
-    void addRowBytes(byte[] bytes) ;
+    void addRowBytes(byte[] bytes);
 
     Token endRecord();
 
-    public MycatResultSetResponse newMycatResultSetResponse(Token token) throws IOException;
-
-    public interface Token{
-
+    @Getter
+    @AllArgsConstructor
+    class Token {
+        final int columnCount;
+        /**
+         * 字段数与字段定义报文的结束位置,也是行报文的开始位置
+         */
+        final long columnEndPosition;
+        final int columnEofPacketId;
+        final long endPosition;
+        final int rowEofPacketId;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,228 @@
+package io.mycat.lib.impl;
+
+import io.mycat.api.collector.RowBaseIterator;
+import io.mycat.resultset.TextResultSetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 拦截器缓存的报文缓存
+ * 1.结果集编码为完整的mysql文本协议报文保存在tempDirectory/packetCache下,命中时用transferTo直接写到客户端
+ * 2.每个文件记录生成时结果集缓存的版本号,结果集缓存刷新或者被DML失效后版本号不同,文件不再使用
+ * 3.按字节预算做LRU淘汰,超过ttl的文件不再使用
+ * 4.启动时删除目录下遗留的文件,该目录不能被多个mycat共用
+ *
+ * @author chen junwen
+ */
+public enum ResultSetPacketCache {
+    INSTANCE;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultSetPacketCache.class);
+    private static final String DIRECTORY_NAME = "packetCache";
+    private static final String PREFIX = "resultSet";
+    private static final String SUFFIX = ".cache";
+
+    private final LinkedHashMap<Object, CacheFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Object> buildings = ConcurrentHashMap.newKeySet();
+    private long bytes = 0;
+    private volatile Path directory;
+    private volatile long maxBytes = 0;
+    private volatile long maxEntryBytes = 0;
+    private volatile long ttlMillis = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+    private final LongAdder buildFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes      所有文件的字节上限,小于等于0不开启
+     * @param maxEntryBytes 单个文件的字节上限,映射文件要求不超过Integer.MAX_VALUE
+     * @param ttlMillis     文件生成后可以使用的时间,小于等于0不过期
+     */
+    public synchronized void configure(String tempDirectory, long maxBytes, long maxEntryBytes, long ttlMillis) {
+        clear();
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(Math.min(maxEntryBytes, maxBytes), Integer.MAX_VALUE);
+        this.ttlMillis = ttlMillis;
+        if (maxBytes <= 0 || tempDirectory == null) {
+            this.directory = null;
+            return;
+        }
+        Path path = Paths.get(tempDirectory, DIRECTORY_NAME);
+        try {
+            Files.createDirectories(path);
+            cleanup(path);
+            this.directory = path;
+        } catch (IOException e) {
+            this.directory = null;
+            LOGGER.error("packet cache is disabled, can not use directory {}", path, e);
+        }
+    }
+
+    /**
+     * 删除上次进程退出时遗留的文件
+     */
+    private static void cleanup(Path path) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.warn("can not delete cache file {}", file, e);
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @param sourceId 当前结果集缓存的版本号
+     * @return 持有引用的文件,使用完调用release,没有可用的文件返回null
+     */
+    public synchronized CacheFile acquire(Object key, long sourceId) {
+        CacheFile file = files.get(key);
+        if (file != null && (file.getSourceId() != sourceId || file.isExpired(System.currentTimeMillis()))) {
+            remove(key);
+            file = null;
+        }
+        if (file == null || !file.retain()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return file;
+    }
+
+    /**
+     * 把结果集编码为报文文件,同一个key同时只有一个构建,已有构建进行中返回false
+     */
+    public boolean build(Object key, long sourceId, RowBaseIterator iterator) {
+        Path directory = this.directory;
+        if (directory == null || !buildings.add(key)) {
+            iterator.close();
+            return false;
+        }
+        Path path = null;
+        try {
+            path = Files.createTempFile(directory, PREFIX, SUFFIX);
+            ResultSetCacheImpl recorder = new ResultSetCacheImpl(path, maxEntryBytes);
+            TextResultSetResponse response = new TextResultSetResponse(iterator);
+            ResultSetCacheRecorder.Token token;
+            try {
+                recorder.open();
+                recorder.startRecordColumn(response.columnCount());
+                Iterator<byte[]> columnDefIterator = response.columnDefIterator();
+                while (columnDefIterator.hasNext()) {
+                    recorder.addColumnDefBytes(columnDefIterator.next());
+                }
+                recorder.startRecordRow();
+                Iterator<byte[]> rowIterator = response.rowIterator();
+                while (rowIterator.hasNext()) {
+                    recorder.addRowBytes(rowIterator.next());
+                }
+                token = recorder.endRecord();
+            } finally {
+                response.close();
+                recorder.close();
+            }
+            long expireTime = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+            CacheFile file = new CacheFile(key, sourceId, path, token, expireTime);
+            path = null;
+            put(file);
+            builds.increment();
+            return true;
+        } catch (Throwable e) {
+            buildFailures.increment();
+            LOGGER.warn("packet cache is not built key:{}", key, e);
+            return false;
+        } finally {
+            buildings.remove(key);
+            if (path != null) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    LOGGER.warn("can not delete cache file {}", path, e);
+                }
+            }
+        }
+    }
+
+    private synchronized void put(CacheFile file) {
+        remove(file.getKey());
+        files.put(file.getKey(), file);
+        bytes += file.size();
+        long now = System.currentTimeMillis();
+        Iterator<CacheFile> iterator = files.values().iterator();
+        while (iterator.hasNext()) {
+            CacheFile cacheFile = iterator.next();
+            if (cacheFile.isExpired(now)) {
+                iterator.remove();
+                bytes -= cacheFile.size();
+                cacheFile.remove();
+            }
+        }
+        while (bytes > maxBytes && !files.isEmpty()) {
+            remove(files.keySet().iterator().next());
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(Object key) {
+        remove(key);
+    }
+
+    public synchronized void clear() {
+        for (Object key : new ArrayList<>(files.keySet())) {
+            remove(key);
+        }
+    }
+
+    private void remove(Object key) {
+        CacheFile file = files.remove(key);
+        if (file != null) {
+            bytes -= file.size();
+            file.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getBuilds() {
+        return builds.sum();
+    }
+
+    public long getBuildFailures() {
+        return buildFailures.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return files.size();
+    }
+}
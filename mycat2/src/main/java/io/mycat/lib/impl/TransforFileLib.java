@@ -10,7 +10,9 @@ import io.mycat.proxy.session.ProcessState;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Iterator;
@@ -37,6 +39,22 @@ public class TransforFileLib {
         };
     }
 
+    /**
+     * 回放报文缓存文件,调用者需要持有文件的引用,写完或者出错时释放
+     */
+    public static void transferCacheFile(MycatSession session, CacheFile cacheFile) {
+        CacheFileWriteHandler writeHandler = new CacheFileWriteHandler(session, cacheFile);
+        session.switchWriteHandler(writeHandler);
+        try {
+            session.writeToChannel();
+        } catch (IOException e) {
+            session.setLastMessage(e);
+            session.writeErrorEndPacketBySyncInProcessError();
+            writeHandler.onException(session, e);
+            session.getCurNIOHandler().onException(session, e);
+        }
+    }
+
     public static void saveToFile(String filePath, boolean eof, MycatResultSetResponse<byte[]> resultSetResponse) throws IOException {
         int columnCount = resultSetResponse.columnCount();
         byte packetId = 1;
@@ -131,4 +149,151 @@ public class TransforFileLib {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * 报文缓存文件的写入处理器
+     * 文件中的报文序号从1开始,session的下一个报文序号也是1时直接transferTo,否则逐个报文改写序号后写入
+     * 两个eof包含当前的服务器状态,在写入时生成
+     */
+    public static class CacheFileWriteHandler implements MycatSessionWriteHandler {
+        private static final int HEADER_SIZE = 4;
+        final CacheFile cacheFile;
+        final ResultSetCacheRecorder.Token token;
+        final int delta;
+        final ByteBuffer columnEof;
+        final ByteBuffer rowEof;
+        int stage = 0;
+        long position;
+        long end;
+        ByteBuffer mapped;
+        ByteBuffer[] packet;
+        boolean released = false;
+
+        public CacheFileWriteHandler(MycatSession session, CacheFile cacheFile) {
+            this(cacheFile, session.getNextPacketId() - 1,
+                    MySQLPacketUtil.generateEof(session.getWarningCount(), session.getServerStatusValue()));
+            session.setPacketId(token.getRowEofPacketId() + delta);
+        }
+
+        /**
+         * @param delta 文件中的报文序号从1开始,回放时每个报文序号加上delta
+         */
+        CacheFileWriteHandler(CacheFile cacheFile, int delta, byte[] eof) {
+            this.cacheFile = cacheFile;
+            this.token = cacheFile.getToken();
+            this.delta = delta;
+            this.columnEof = ByteBuffer.wrap(MySQLPacketUtil.generateMySQLPacket(token.getColumnEofPacketId() + delta, eof));
+            this.rowEof = ByteBuffer.wrap(MySQLPacketUtil.generateMySQLPacket(token.getRowEofPacketId() + delta, eof));
+            this.position = 0;
+            this.end = token.getColumnEndPosition();
+        }
+
+        @Override
+        public void writeToChannel(MycatSession session) throws IOException {
+            session.setResponseFinished(ProcessState.DOING);
+            session.updateLastActiveTime();
+            if (write(session.channel())) {
+                session.setResponseFinished(ProcessState.DONE);
+                session.writeFinished(session);
+            } else {
+                session.change2WriteOpts();
+            }
+        }
+
+        /**
+         * @return 全部写完返回true,通道写满返回false,下次可写时继续
+         */
+        boolean write(GatheringByteChannel channel) throws IOException {
+            while (true) {
+                boolean drained;
+                switch (stage) {
+                    case 0:
+                    case 2:
+                        drained = writeRegion(channel);
+                        break;
+                    case 1:
+                        channel.write(columnEof);
+                        drained = !columnEof.hasRemaining();
+                        break;
+                    case 3:
+                        channel.write(rowEof);
+                        drained = !rowEof.hasRemaining();
+                        break;
+                    default:
+                        return true;
+                }
+                if (!drained) {
+                    return false;
+                }
+                stage++;
+                if (stage == 2) {
+                    position = token.getColumnEndPosition();
+                    end = token.getEndPosition();
+                }
+            }
+        }
+
+        private boolean writeRegion(GatheringByteChannel channel) throws IOException {
+            if (delta == 0) {
+                FileChannel fileChannel = cacheFile.getChannel();
+                while (position < end) {
+                    long writed = fileChannel.transferTo(position, end - position, channel);
+                    if (writed <= 0) {
+                        return false;
+                    }
+                    position += writed;
+                }
+                return true;
+            }
+            if (mapped == null) {
+                mapped = cacheFile.map();
+            }
+            while (true) {
+                if (packet == null) {
+                    if (position >= end) {
+                        return true;
+                    }
+                    int offset = (int) position;
+                    int length = (mapped.get(offset) & 0xff)
+                            | (mapped.get(offset + 1) & 0xff) << 8
+                            | (mapped.get(offset + 2) & 0xff) << 16;
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.put(mapped.get(offset));
+                    header.put(mapped.get(offset + 1));
+                    header.put(mapped.get(offset + 2));
+                    header.put((byte) (mapped.get(offset + 3) + delta));
+                    header.flip();
+                    ByteBuffer payload = mapped.duplicate();
+                    payload.limit(offset + HEADER_SIZE + length);
+                    payload.position(offset + HEADER_SIZE);
+                    packet = new ByteBuffer[]{header, payload};
+                    position = offset + HEADER_SIZE + length;
+                }
+                channel.write(packet);
+                if (packet[0].hasRemaining() || packet[1].hasRemaining()) {
+                    return false;
+                }
+                packet = null;
+            }
+        }
+
+        @Override
+        public void onException(MycatSession session, Exception e) {
+            onClear(session);
+            MycatMonitor.onMycatServerWriteException(session, e);
+        }
+
+        @Override
+        public void onClear(MycatSession session) {
+            if (!released) {
+                released = true;
+                cacheFile.release();
+            }
+        }
+
+        @Override
+        public WriteType getType() {
+            return WriteType.SERVER;
+        }
+    }
+}
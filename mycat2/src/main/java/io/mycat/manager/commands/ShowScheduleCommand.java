@@ -9,7 +9,9 @@ import io.mycat.util.Response;
 
 import java.sql.JDBCType;
 import java.util.Arrays;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class ShowScheduleCommand implements ManageCommand {
     @Override
@@ -24,17 +26,46 @@ public class ShowScheduleCommand implements ManageCommand {
 
     @Override
     public void handle(MycatRequest request, MycatDataContext context, Response response) throws Exception {
+        ResultSetBuilder builder = buildSchedules();
+        response.sendResultSet(()->builder.build());
+    }
+
+    /**
+     * 每个周期任务一行,另外时间轮和心跳线程池各一行
+     * 时间轮:RUNS为已经触发的超时,PENDING为未完成的超时任务
+     * 心跳线程池:RUNS为完成的心跳,OVERRUNS为上一次未结束而跳过的心跳,FAILURES为被拒绝的心跳
+     */
+    public static ResultSetBuilder buildSchedules() {
         ResultSetBuilder builder = ResultSetBuilder.create();
-        ScheduledExecutorService timer = ScheduleUtil.getTimer();
-        String NAME = timer.toString();
-        boolean IS_TERMINATED = timer.isTerminated();
-        boolean IS_SHUTDOWN = timer.isShutdown();
-        int SCHEDULE_COUNT = ScheduleUtil.getScheduleCount();
         builder.addColumnInfo("NAME", JDBCType.VARCHAR)
-                .addColumnInfo("IS_TERMINATED",JDBCType.BOOLEAN)
-                .addColumnInfo("IS_SHUTDOWN",JDBCType.BOOLEAN)
-                .addColumnInfo("SCHEDULE_COUNT",JDBCType.BIGINT);
-        builder.addObjectRowPayload(Arrays.asList(NAME,IS_TERMINATED,IS_SHUTDOWN,SCHEDULE_COUNT));
-        response.sendResultSet(()->builder.build());
+                .addColumnInfo("TYPE", JDBCType.VARCHAR)
+                .addColumnInfo("PERIOD_MS", JDBCType.BIGINT)
+                .addColumnInfo("RUNS", JDBCType.BIGINT)
+                .addColumnInfo("OVERRUNS", JDBCType.BIGINT)
+                .addColumnInfo("FAILURES", JDBCType.BIGINT)
+                .addColumnInfo("LAST_LATENESS_MS", JDBCType.BIGINT)
+                .addColumnInfo("MAX_LATENESS_MS", JDBCType.BIGINT)
+                .addColumnInfo("LAST_DURATION_MS", JDBCType.BIGINT)
+                .addColumnInfo("MAX_DURATION_MS", JDBCType.BIGINT)
+                .addColumnInfo("ACTIVE", JDBCType.BIGINT)
+                .addColumnInfo("PENDING", JDBCType.BIGINT);
+        List<ScheduleUtil.TaskStat> taskStats = ScheduleUtil.getTaskStats();
+        taskStats.sort(Comparator.comparing(ScheduleUtil.TaskStat::getName));
+        for (ScheduleUtil.TaskStat stat : taskStats) {
+            builder.addObjectRowPayload(Arrays.asList(stat.getName(), "schedule", stat.getPeriodMillis(),
+                    stat.getRuns().sum(), stat.getOverruns().sum(), stat.getFailures().sum(),
+                    stat.getLastLatenessMillis(), stat.getMaxLatenessMillis(),
+                    stat.getLastDurationMillis(), stat.getMaxDurationMillis(),
+                    stat.isRunning() ? 1L : 0L, 0L));
+        }
+        builder.addObjectRowPayload(Arrays.asList("timeout", "timingWheel", null,
+                ScheduleUtil.getExpiredCount(), null, null, null, null, null, null,
+                null, (long) ScheduleUtil.getScheduleCount()));
+        ThreadPoolExecutor heartbeatExecutor = ScheduleUtil.getHeartbeatExecutor();
+        builder.addObjectRowPayload(Arrays.asList("heartbeat", "heartbeatPool", null,
+                heartbeatExecutor.getCompletedTaskCount(), ScheduleUtil.getHeartbeatSkips(), ScheduleUtil.getHeartbeatRejections(),
+                null, null, null, null,
+                (long) heartbeatExecutor.getActiveCount(), (long) heartbeatExecutor.getQueue().size()));
+        return builder;
     }
-}
\ No newline at end of file
+}
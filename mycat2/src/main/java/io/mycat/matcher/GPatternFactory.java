@@ -5,6 +5,9 @@ import io.mycat.pattern.GPatternBuilder;
 import io.mycat.pattern.GPatternMatcher;
 import io.mycat.util.Pair;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -30,25 +33,33 @@ public class GPatternFactory<T> implements Matcher.Factory<T> {
         }
         GPattern groupPattern = gPatternBuilder.createGroupPattern();
 
-        return (buffer, context) -> {
-            T t1 = null;
-            GPatternMatcher matcher = groupPattern.matcher(buffer.toString());
-            if (matcher.acceptAll()) {
-                matcher.namesContext((Map) context);
-                t1 = map.get(matcher.id());
+        return new Matcher<T>() {
+            @Override
+            public List<T> match(CharBuffer buffer, Map<String, Object> context) {
+                return match(StandardCharsets.UTF_8.encode(buffer), context);
             }
-            if (t1 == null) {
+
+            @Override
+            public List<T> match(ByteBuffer buffer, Map<String, Object> context) {
+                T t1 = null;
+                GPatternMatcher matcher = groupPattern.matcher(buffer, buffer.position(), buffer.limit());
+                if (matcher.acceptAll()) {
+                    matcher.namesContext((Map) context);
+                    t1 = map.get(matcher.id());
+                }
+                if (t1 == null) {
+                    if (defaultPattern != null) {
+                        return Collections.singletonList(defaultPattern);
+                    } else {
+                        return Collections.emptyList();
+                    }
+                }
                 if (defaultPattern != null) {
-                    return Collections.singletonList(defaultPattern);
+                    return (List) Arrays.asList(t1, defaultPattern);
                 } else {
-                    return Collections.emptyList();
+                    return (List) Collections.singletonList(t1);
                 }
             }
-            if (defaultPattern != null) {
-                return (List) Arrays.asList(t1,defaultPattern);
-            } else {
-                return (List)Collections.singletonList(t1);
-            }
         };
     }
 }
\ No newline at end of file
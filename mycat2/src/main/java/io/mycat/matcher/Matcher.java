@@ -2,7 +2,9 @@ package io.mycat.matcher;
 
 import io.mycat.util.Pair;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -19,4 +21,11 @@ public interface Matcher<T> {
     }
 
     List<T> match(CharBuffer buffer, Map<String, Object> context);
+
+    /**
+     * 直接匹配utf8报文,默认解码后再匹配,能够直接处理字节的实现应该覆盖此方法
+     */
+    default List<T> match(ByteBuffer buffer, Map<String, Object> context) {
+        return match(StandardCharsets.UTF_8.decode(buffer), context);
+    }
 }
@@ -1,19 +1,129 @@
 package io.mycat.sqlhandler.dcl;
 
+import com.alibaba.fastsql.sql.ast.SQLExpr;
 import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlKillStatement;
+import io.mycat.MetaClusterCurrent;
 import io.mycat.MycatDataContext;
+import io.mycat.MycatServer;
+import io.mycat.MycatUser;
+import io.mycat.MycatWorkerProcessor;
+import io.mycat.beans.mysql.MySQLErrorCode;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.proxy.reactor.MycatReactorThread;
+import io.mycat.proxy.reactor.NIOJob;
+import io.mycat.proxy.reactor.ReactorEnvThread;
+import io.mycat.proxy.session.MySQLClientSession;
+import io.mycat.proxy.session.MycatSession;
 import io.mycat.sqlhandler.AbstractSQLHandler;
-import io.mycat.sqlhandler.ExecuteCode;
 import io.mycat.sqlhandler.SQLRequest;
+import io.mycat.sqlhandler.dql.ShowProcessListSQLHandler;
 import io.mycat.util.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 
 
-
+/**
+ * kill [connection|query] id,id是show processlist中的前端会话id
+ * 1.取消会话在jdbc连接上正在执行的语句(Statement.cancel)
+ * 2.会话绑定了native连接时,使用另外的连接对后端thread id执行kill query
+ * 3.标记会话的语句已被kill,发送结果的时候中断执行树
+ * kill connection在此之后关闭前端会话
+ * 没有processPrivilege的用户只能kill同一个用户的会话
+ */
 public class KillSQLHandler extends AbstractSQLHandler<MySqlKillStatement> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KillSQLHandler.class);
 
     @Override
     protected void onExecute(SQLRequest<MySqlKillStatement> request, MycatDataContext dataContext, Response response) throws Exception {
+        MySqlKillStatement ast = request.getAst();
+        boolean killQuery = ast.getType() == MySqlKillStatement.Type.QUERY;
+        MycatUser user = dataContext.getUser();
+        boolean processPrivilege = ShowProcessListSQLHandler.hasProcessPrivilege(user);
+        List<MycatSession> sessions = new ArrayList<>();
+        for (SQLExpr threadId : ast.getThreadIds()) {
+            MycatSession session = findSession(threadId.toString());
+            if (session == null) {
+                response.sendError("Unknown thread id: " + threadId, MySQLErrorCode.ER_NO_SUCH_THREAD);
+                return;
+            }
+            if (!ShowProcessListSQLHandler.isVisible(user, processPrivilege, session.getUser())) {
+                response.sendError("You are not owner of thread " + threadId, MySQLErrorCode.ER_KILL_DENIED_ERROR);
+                return;
+            }
+            sessions.add(session);
+        }
+        for (MycatSession session : sessions) {
+            if (killQuery && session.getDataContext() == dataContext) {
+                //kill query自身时正在执行的就是这条语句
+                continue;
+            }
+            LOGGER.info("kill {} {}", killQuery ? "query" : "connection", session.sessionId());
+            killQuery(session);
+            if (!killQuery) {
+                closeSession(session);
+            }
+        }
         response.sendOk();
     }
+
+    private static MycatSession findSession(String threadId) {
+        long id;
+        try {
+            id = Long.parseLong(threadId.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        MycatServer mycatServer = MetaClusterCurrent.wrapper(MycatServer.class);
+        for (MycatReactorThread thread : mycatServer.getReactorManager().getList()) {
+            for (MycatSession session : thread.getFrontManager().getAllSessions()) {
+                if (session.sessionId() == id) {
+                    return session;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void killQuery(MycatSession session) {
+        session.getDataContext().cancelQuery();
+        MySQLClientSession mySQLSession = session.getMySQLSession();
+        if (mySQLSession == null || mySQLSession.getThreadId() == 0) {
+            return;
+        }
+        String datasourceName = mySQLSession.getDatasourceName();
+        long threadId = mySQLSession.getThreadId();
+        //kill query会等待后端响应,不在当前线程执行
+        MycatWorkerProcessor workerProcessor = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class);
+        workerProcessor.getMycatWorker().execute(() -> {
+            JdbcConnectionManager connectionManager = MetaClusterCurrent.wrapper(JdbcConnectionManager.class);
+            try (DefaultConnection connection = connectionManager.getConnection(datasourceName)) {
+                connection.executeUpdate("KILL QUERY " + threadId, false);
+            } catch (Exception e) {
+                LOGGER.warn("kill query {} on {} fail", threadId, datasourceName, e);
+            }
+        });
+    }
+
+    private static void closeSession(MycatSession session) {
+        session.getIOThread().addNIOJob(new NIOJob() {
+            @Override
+            public void run(ReactorEnvThread reactor) throws Exception {
+                session.close(false, "killed");
+            }
+
+            @Override
+            public void stop(ReactorEnvThread reactor, Exception reason) {
+
+            }
+
+            @Override
+            public String message() {
+                return "kill connection " + session.sessionId();
+            }
+        });
+    }
 }
@@ -10,6 +10,7 @@ import io.mycat.sqlhandler.AbstractSQLHandler;
 import io.mycat.sqlhandler.ConfigUpdater;
 import io.mycat.sqlhandler.SQLRequest;
 import io.mycat.util.Response;
+import org.apache.calcite.MycatContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,7 +41,14 @@ public class CreateTableSQLHandler extends AbstractSQLHandler<MySqlCreateTableSt
             response.sendError("No database selected", 1046);
             return;
         }
-        createTable(hint, schemaName, tableName, ast);
+        //建表进度显示在当前会话的State中
+        MycatDataContext oldContext = MycatContext.CONTEXT.get();
+        MycatContext.CONTEXT.set(dataContext);
+        try {
+            createTable(hint, schemaName, tableName, ast);
+        } finally {
+            MycatContext.CONTEXT.set(oldContext);
+        }
         response.sendOk();
     }
 
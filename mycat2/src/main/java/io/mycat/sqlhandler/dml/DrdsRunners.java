@@ -24,11 +24,36 @@ public class DrdsRunners {
                                  ExecutorImplementor executorImplementor) {
             MycatContext.CONTEXT.set(dataContext);
             DrdsRunner drdsRunner = MetaClusterCurrent.wrapper(DrdsRunner.class);
-            Iterable<DrdsSql> drdsSqls = drdsRunner.preParse(Collections.singletonList(statement), Collections.emptyList());
-            Iterable<DrdsSql> iterable = drdsRunner.convertToMycatRel(drdsSqls, dataContext);
-            DrdsSql drdsSql = iterable.iterator().next();
-            executorImplementor.setParams(drdsSql.getParams());
-            executorImplementor.implementRoot((MycatRel) drdsSql.getRelNode());
+            SqlDigestStats.Recorder recorder = SqlDigestStats.INSTANCE.begin(dataContext);
+            SlowQueryLog.Recorder slowLog = SlowQueryLog.INSTANCE.begin(dataContext, statement);
+            MycatRel rel = null;
+            Throwable error = null;
+            try {
+                long startTime = System.nanoTime();
+                DrdsSql drdsSql = drdsRunner.preParse(Collections.singletonList(statement), Collections.emptyList()).iterator().next();
+                long parseTime = System.nanoTime();
+                drdsSql = drdsRunner.convertToMycatRel(Collections.singletonList(drdsSql), dataContext).iterator().next();
+                long planTime = System.nanoTime();
+                rel = (MycatRel) drdsSql.getRelNode();
+                if (slowLog != null) {
+                    slowLog.setParseNanos(parseTime - startTime);
+                    slowLog.setPlanNanos(planTime - parseTime);
+                }
+                executorImplementor.setParams(drdsSql.getParams());
+                executorImplementor.implementRoot(rel);
+                if (recorder != null) {
+                    recorder.setDigest(drdsSql.getParameterizedString());
+                    recorder.addPhase(SqlDigestStats.Phase.PARSE, parseTime - startTime);
+                    recorder.addPhase(SqlDigestStats.Phase.PLAN, planTime - parseTime);
+                    recorder.addPhase(SqlDigestStats.Phase.EXECUTE, System.nanoTime() - planTime);
+                }
+            } catch (Throwable e) {
+                error = e;
+                throw e;
+            } finally {
+                SqlDigestStats.INSTANCE.end(recorder);
+                SlowQueryLog.INSTANCE.end(slowLog, rel, error);
+            }
     }
 
     public static void runHbtOnDrds(MycatDataContext dataContext, String statement, ExecutorImplementor executorImplementor) throws Exception {
@@ -5,6 +5,7 @@ import com.alibaba.fastsql.sql.ast.SQLStatement;
 import com.alibaba.fastsql.sql.ast.statement.SQLExprTableSource;
 import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlUpdateStatement;
 import io.mycat.*;
+import io.mycat.api.collector.RowBaseIteratorCacher;
 import io.mycat.hbt3.DrdsConfig;
 import io.mycat.hbt3.DrdsConst;
 import io.mycat.hbt3.DrdsRunner;
@@ -34,6 +35,12 @@ public class UpdateSQLHandler extends AbstractSQLHandler<MySqlUpdateStatement> {
         String schemaName = Optional.ofNullable(tableSource.getSchema() == null ? dataContext.getDefaultSchema() : tableSource.getSchema())
                 .map(i-> SQLUtils.normalize(i)).orElse(null);
         String tableName = SQLUtils.normalize(tableSource.getTableName());
+        if (schemaName != null) {
+            //在修改前失效,加载期间发生的失效会使加载结果被丢弃
+            RowBaseIteratorCacher.invalidateTable(schemaName, tableName);
+            //修改可能异步完成,响应写完后再失效,事务中的修改在事务结束后再失效
+            dataContext.addWrittenTable(schemaName, tableName);
+        }
         SchemaHandler schemaHandler;
         MetadataManager metadataManager = MetaClusterCurrent.wrapper(MetadataManager.class);
         Optional<Map<String, SchemaHandler>> handlerMapOptional = Optional.ofNullable(metadataManager.getSchemaMap());
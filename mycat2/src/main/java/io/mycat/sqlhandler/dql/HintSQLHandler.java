@@ -9,6 +9,8 @@ import io.mycat.beans.mysql.MySQLAutoCommit;
 import io.mycat.config.*;
 import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
 import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import io.mycat.hbt4.SlowQueryLog;
+import io.mycat.manager.commands.ShowScheduleCommand;
 import io.mycat.metadata.MetadataManager;
 import io.mycat.metadata.SchemaHandler;
 import io.mycat.proxy.reactor.MycatReactorThread;
@@ -24,6 +26,8 @@ import io.mycat.replica.ReplicaSwitchType;
 import io.mycat.replica.heartbeat.DatasourceStatus;
 import io.mycat.replica.heartbeat.HeartBeatStatus;
 import io.mycat.replica.heartbeat.HeartbeatFlow;
+import io.mycat.runtime.XaLog;
+import io.mycat.runtime.XaTransactionSession;
 import io.mycat.sqlhandler.*;
 import io.mycat.sqlhandler.ddl.CreateTableSQLHandler;
 import io.mycat.util.JsonUtil;
@@ -32,7 +36,6 @@ import io.mycat.util.Response;
 import java.sql.JDBCType;
 import java.sql.Timestamp;
 import java.util.*;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -640,21 +643,68 @@ public class HintSQLHandler extends AbstractSQLHandler<MySqlHintStatement> {
                     response.sendResultSet(() -> builder.build());
                     return;
                 }
-                if ("showSchedules".equalsIgnoreCase(cmd)) {
+                if ("xaRecover".equalsIgnoreCase(cmd)) {
+                    XaLog xaLog = XaTransactionSession.getXaLog();
+                    if (xaLog == null) {
+                        response.sendError(new MycatException("xaTransaction is not enabled"));
+                        return;
+                    }
+                    long[] res = xaLog.recover(MetaClusterCurrent.wrapper(JdbcConnectionManager.class));
                     ResultSetBuilder builder = ResultSetBuilder.create();
-                    ScheduledExecutorService timer = ScheduleUtil.getTimer();
-                    String NAME = timer.toString();
-                    boolean IS_TERMINATED = timer.isTerminated();
-                    boolean IS_SHUTDOWN = timer.isShutdown();
-                    int SCHEDULE_COUNT = ScheduleUtil.getScheduleCount();
-                    builder.addColumnInfo("NAME", JDBCType.VARCHAR)
-                            .addColumnInfo("IS_TERMINATED",JDBCType.BOOLEAN)
-                            .addColumnInfo("IS_SHUTDOWN",JDBCType.BOOLEAN)
-                            .addColumnInfo("SCHEDULE_COUNT",JDBCType.BIGINT);
-                    builder.addObjectRowPayload(Arrays.asList(NAME,IS_TERMINATED,IS_SHUTDOWN,SCHEDULE_COUNT));
+                    builder.addColumnInfo("COMMITTED", JDBCType.BIGINT)
+                            .addColumnInfo("ROLLED_BACK", JDBCType.BIGINT);
+                    builder.addObjectRowPayload(Arrays.asList(res[0], res[1]));
                     response.sendResultSet(()->builder.build());
                     return;
                 }
+                if ("showSchedules".equalsIgnoreCase(cmd)) {
+                    ResultSetBuilder builder = ShowScheduleCommand.buildSchedules();
+                    response.sendResultSet(()->builder.build());
+                    return;
+                }
+                if ("showSlowQueries".equalsIgnoreCase(cmd)) {
+                    Map map = JsonUtil.from(body, Map.class);
+                    Number limit = (Number) map.get("limit");
+                    ResultSetBuilder builder = ResultSetBuilder.create();
+                    builder.addColumnInfo("START_TIME", JDBCType.TIMESTAMP)
+                            .addColumnInfo("USER", JDBCType.VARCHAR)
+                            .addColumnInfo("SCHEMA", JDBCType.VARCHAR)
+                            .addColumnInfo("ELAPSED_MICROS", JDBCType.BIGINT)
+                            .addColumnInfo("PARSE_MICROS", JDBCType.BIGINT)
+                            .addColumnInfo("PLAN_MICROS", JDBCType.BIGINT)
+                            .addColumnInfo("SQL", JDBCType.VARCHAR)
+                            .addColumnInfo("VIEWS", JDBCType.VARCHAR)
+                            .addColumnInfo("OPERATORS", JDBCType.VARCHAR)
+                            .addColumnInfo("LOGICAL_PLAN", JDBCType.VARCHAR)
+                            .addColumnInfo("PHYSICAL_PLAN", JDBCType.VARCHAR)
+                            .addColumnInfo("ERROR", JDBCType.VARCHAR);
+                    List<SlowQueryLog.Entry> entries = SlowQueryLog.INSTANCE.getRecent();
+                    if (limit != null && limit.intValue() < entries.size()) {
+                        entries = entries.subList(0, Math.max(0, limit.intValue()));
+                    }
+                    for (SlowQueryLog.Entry entry : entries) {
+                        builder.addObjectRowPayload(Arrays.asList(
+                                new Timestamp(entry.getStartTime()),
+                                entry.getUser(),
+                                entry.getSchema(),
+                                entry.getElapsedMicros(),
+                                entry.getParseMicros(),
+                                entry.getPlanMicros(),
+                                entry.getSql(),
+                                JsonUtil.toJson(entry.getViews()),
+                                JsonUtil.toJson(entry.getOperators()),
+                                entry.getLogicalPlan(),
+                                entry.getPhysicalPlan(),
+                                entry.getError()));
+                    }
+                    response.sendResultSet(() -> builder.build());
+                    return;
+                }
+                if ("resetSlowQueries".equalsIgnoreCase(cmd)) {
+                    SlowQueryLog.INSTANCE.reset();
+                    response.sendOk();
+                    return;
+                }
                 mycatDmlHandler(cmd, body);
             }
             System.out.println();
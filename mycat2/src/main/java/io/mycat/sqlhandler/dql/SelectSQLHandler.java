@@ -14,9 +14,12 @@ import io.mycat.beans.mycat.ResultSetBuilder;
 import io.mycat.booster.BoosterRuntime;
 import io.mycat.config.ServerConfiguration;
 import io.mycat.config.ShardingQueryRootConfig;
+import io.mycat.hbt3.DrdsRunner;
+import io.mycat.hbt3.DrdsSql;
 import io.mycat.hbt4.DatasourceFactory;
 import io.mycat.hbt4.DefaultDatasourceFactory;
 import io.mycat.hbt4.ResponseExecutorImplementor;
+import io.mycat.hbt4.ScanRowsEstimator;
 import io.mycat.metadata.MetadataManager;
 import io.mycat.metadata.SchemaHandler;
 import io.mycat.replica.ReplicaSelectorRuntime;
@@ -28,12 +31,16 @@ import io.mycat.sqlhandler.dml.DrdsRunners;
 import io.mycat.util.Response;
 import lombok.Getter;
 import lombok.SneakyThrows;
+import org.apache.calcite.MycatContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.JDBCType;
 import java.util.*;
 import java.util.function.Predicate;
 
 public class SelectSQLHandler extends ShardingSQLHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SelectSQLHandler.class);
     //    public static String NULL = new String(new char[]{(char)0XFB});
 //    public static int NULL = 0XFB;
     public static String NULL = "NULL";
@@ -105,6 +112,22 @@ public class SelectSQLHandler extends ShardingSQLHandler {
         return ExecuteCode.PERFORMED;
     }
 
+    /**
+     * 按执行计划估算查询扫描的行数,考虑where条件的选择率和分片裁剪,无法估算时返回NaN
+     */
+    private static double estimateScanRows(MycatDataContext dataContext, SQLSelectStatement statement) {
+        try {
+            MycatContext.CONTEXT.set(dataContext);
+            DrdsRunner drdsRunner = MetaClusterCurrent.wrapper(DrdsRunner.class);
+            DrdsSql drdsSql = drdsRunner.preParse(Collections.singletonList(statement), Collections.emptyList()).iterator().next();
+            drdsSql = drdsRunner.convertToMycatRel(Collections.singletonList(drdsSql), dataContext).iterator().next();
+            return ScanRowsEstimator.estimate(drdsSql.getRelNode(), drdsSql.getParams());
+        } catch (Throwable e) {
+            LOGGER.debug("estimate scan rows fail:{}", statement, e);
+            return Double.NaN;
+        }
+    }
+
     @SneakyThrows
     protected void onSelectTable(MycatDataContext dataContext, SQLTableSource tableSource,
                                  SQLRequest<SQLSelectStatement> request, Response receiver) {
@@ -129,7 +152,9 @@ public class SelectSQLHandler extends ShardingSQLHandler {
 
         ///////////////////////////////booster//////////////////////////////
         if (!dataContext.isInTransaction() && dataContext.isAutocommit()) {
-            Optional<String> booster = BoosterRuntime.INSTANCE.getBooster(dataContext.getUser().getUserName());
+            String userName = dataContext.getUser().getUserName();
+            Optional<String> booster = BoosterRuntime.INSTANCE.hasBooster(userName) ?
+                    BoosterRuntime.INSTANCE.getBooster(userName, estimateScanRows(dataContext, statement)) : Optional.empty();
             if (booster.isPresent()) {
                 receiver.proxySelect(booster.get(), statement.toString());
                 return;
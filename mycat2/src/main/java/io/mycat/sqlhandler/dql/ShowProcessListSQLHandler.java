@@ -1,20 +1,117 @@
 package io.mycat.sqlhandler.dql;
 
 import com.alibaba.fastsql.sql.dialect.mysql.ast.statement.MySqlShowProcessListStatement;
+import io.mycat.Authenticator;
+import io.mycat.MetaClusterCurrent;
 import io.mycat.MycatDataContext;
+import io.mycat.MycatServer;
+import io.mycat.MycatUser;
+import io.mycat.beans.mycat.ResultSetBuilder;
+import io.mycat.config.UserConfig;
+import io.mycat.proxy.reactor.MycatReactorThread;
+import io.mycat.proxy.session.MySQLClientSession;
+import io.mycat.proxy.session.MycatSession;
+import io.mycat.proxy.session.ProcessState;
 import io.mycat.sqlhandler.AbstractSQLHandler;
-import io.mycat.sqlhandler.ExecuteCode;
 import io.mycat.sqlhandler.SQLRequest;
 import io.mycat.util.Response;
 
+import java.sql.JDBCType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
 
-
+/**
+ * 显示mycat的前端会话而不是后端的线程,Backends是会话正在使用的后端连接
+ * native连接显示为 数据源名(thread id),jdbc连接显示为数据源名
+ * 没有processPrivilege的用户只显示同一个用户的会话
+ */
 public class ShowProcessListSQLHandler extends AbstractSQLHandler<MySqlShowProcessListStatement> {
+    private static final int INFO_LENGTH = 100;
 
     @Override
     protected void onExecute(SQLRequest<MySqlShowProcessListStatement> request, MycatDataContext dataContext, Response response) throws Exception {
-        response.tryBroadcastShow(request.getAst().toString());
-        return ;
+        boolean full = request.getAst().isFull();
+        MycatServer mycatServer = MetaClusterCurrent.wrapper(MycatServer.class);
+
+        ResultSetBuilder builder = ResultSetBuilder.create();
+        builder.addColumnInfo("Id", JDBCType.BIGINT);
+        builder.addColumnInfo("User", JDBCType.VARCHAR);
+        builder.addColumnInfo("Host", JDBCType.VARCHAR);
+        builder.addColumnInfo("db", JDBCType.VARCHAR);
+        builder.addColumnInfo("Command", JDBCType.VARCHAR);
+        builder.addColumnInfo("Time", JDBCType.BIGINT);
+        builder.addColumnInfo("State", JDBCType.VARCHAR);
+        builder.addColumnInfo("Info", JDBCType.VARCHAR);
+        builder.addColumnInfo("Backends", JDBCType.VARCHAR);
+
+        long now = System.currentTimeMillis();
+        MycatUser currentUser = dataContext.getUser();
+        boolean processPrivilege = hasProcessPrivilege(currentUser);
+        for (MycatReactorThread thread : mycatServer.getReactorManager().getList()) {
+            for (MycatSession session : thread.getFrontManager().getAllSessions()) {
+                MycatUser user = session.getUser();
+                if (!isVisible(currentUser, processPrivilege, user)) {
+                    continue;
+                }
+                MycatDataContext context = session.getDataContext();
+                boolean sleep = session.getProcessState() == ProcessState.READY;
+                String state;
+                if (context.isQueryCancelled()) {
+                    state = "killed";
+                } else if (sleep) {
+                    state = "";
+                } else {
+                    String queryState = context.getQueryState();
+                    state = queryState == null ? "executing" : queryState;
+                }
+                String info = sleep ? null : context.getQuery();
+                if (info != null && !full && info.length() > INFO_LENGTH) {
+                    info = info.substring(0, INFO_LENGTH);
+                }
+                builder.addObjectRowPayload(Arrays.asList(
+                        session.sessionId(),
+                        user == null ? null : user.getUserName(),
+                        user == null ? null : user.getHost(),
+                        session.getSchema(),
+                        sleep ? "Sleep" : "Query",
+                        Math.max(0, (now - context.getQueryStartTime()) / 1000),
+                        state,
+                        info,
+                        String.join(",", getBackends(session))
+                ));
+            }
+        }
+        response.sendResultSet(() -> builder.build());
+    }
+
+    public static boolean hasProcessPrivilege(MycatUser user) {
+        if (user == null) {
+            return false;
+        }
+        UserConfig userConfig = MetaClusterCurrent.wrapper(Authenticator.class).getUserInfo(user.getUserName());
+        return userConfig != null && userConfig.isProcessPrivilege();
+    }
+
+    /**
+     * @param owner 会话的用户
+     */
+    public static boolean isVisible(MycatUser user, boolean processPrivilege, MycatUser owner) {
+        if (processPrivilege) {
+            return true;
+        }
+        return user != null && owner != null && Objects.equals(user.getUserName(), owner.getUserName());
+    }
+
+    private static List<String> getBackends(MycatSession session) {
+        List<String> backends = new ArrayList<>();
+        MySQLClientSession mySQLSession = session.getMySQLSession();
+        if (mySQLSession != null) {
+            backends.add(mySQLSession.getDatasourceName() + "(" + mySQLSession.getThreadId() + ")");
+        }
+        backends.addAll(session.getDataContext().getTransactionSession().getUsedDatasources());
+        return backends;
     }
 }
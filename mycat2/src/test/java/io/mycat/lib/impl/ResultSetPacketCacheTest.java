@@ -0,0 +1,223 @@
+package io.mycat.lib.impl;
+
+import io.mycat.MySQLPacketUtil;
+import io.mycat.api.collector.RowBaseIterator;
+import io.mycat.beans.mycat.ResultSetBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.JDBCType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResultSetPacketCacheTest {
+    private static final ResultSetPacketCache CACHE = ResultSetPacketCache.INSTANCE;
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mycat");
+        CACHE.configure(directory.toString(), 1024 * 1024, 1024 * 1024, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        CACHE.configure(null, 0, 0, 0);
+        Files.deleteIfExists(directory.resolve("packetCache"));
+        Files.deleteIfExists(directory);
+    }
+
+    private static RowBaseIterator rows(int count) {
+        ResultSetBuilder builder = ResultSetBuilder.create();
+        builder.addColumnInfo("id", JDBCType.BIGINT);
+        builder.addColumnInfo("name", JDBCType.VARCHAR);
+        for (int i = 0; i < count; i++) {
+            builder.addObjectRowPayload(Arrays.asList((long) i, "name" + i));
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testBuild() {
+        Assert.assertTrue(CACHE.isEnabled());
+        Assert.assertTrue(CACHE.build("k", 1, rows(3)));
+        CacheFile file = CACHE.acquire("k", 1);
+        Assert.assertNotNull(file);
+        Assert.assertTrue(Files.exists(file.getPath()));
+        Assert.assertEquals(file.size(), CACHE.getBytes());
+        ResultSetCacheRecorder.Token token = file.getToken();
+        //字段数,2个字段,字段EOF,3行,行EOF
+        Assert.assertEquals(2, token.getColumnCount());
+        Assert.assertEquals(4, token.getColumnEofPacketId());
+        Assert.assertEquals(8, token.getRowEofPacketId());
+        file.release();
+        Assert.assertEquals(1, CACHE.getEntryCount());
+    }
+
+    @Test
+    public void testSourceId() {
+        long hits = CACHE.getHits();
+        long misses = CACHE.getMisses();
+        Assert.assertTrue(CACHE.build("k", 1, rows(1)));
+        CacheFile file = CACHE.acquire("k", 1);
+        Path path = file.getPath();
+        file.release();
+        //结果集缓存的版本号变化后文件不再使用并被删除
+        Assert.assertNull(CACHE.acquire("k", 2));
+        Assert.assertFalse(Files.exists(path));
+        Assert.assertEquals(0, CACHE.getEntryCount());
+        Assert.assertEquals(0, CACHE.getBytes());
+        Assert.assertEquals(hits + 1, CACHE.getHits());
+        Assert.assertEquals(misses + 1, CACHE.getMisses());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        CACHE.configure(directory.toString(), 1024 * 1024, 1024 * 1024, 50);
+        Assert.assertTrue(CACHE.build("k", 1, rows(1)));
+        CacheFile file = CACHE.acquire("k", 1);
+        Path path = file.getPath();
+        file.release();
+        Thread.sleep(100);
+        Assert.assertNull(CACHE.acquire("k", 1));
+        Assert.assertFalse(Files.exists(path));
+        Assert.assertEquals(0, CACHE.getEntryCount());
+    }
+
+    @Test
+    public void testReferenceCount() {
+        Assert.assertTrue(CACHE.build("k", 1, rows(1)));
+        CacheFile first = CACHE.acquire("k", 1);
+        CacheFile second = CACHE.acquire("k", 1);
+        Path path = first.getPath();
+        CACHE.invalidate("k");
+        //正在回放的文件在所有引用释放后才删除
+        Assert.assertNull(CACHE.acquire("k", 1));
+        Assert.assertFalse(first.retain());
+        first.release();
+        Assert.assertTrue(Files.exists(path));
+        second.release();
+        Assert.assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testEviction() {
+        Assert.assertTrue(CACHE.build("k1", 1, rows(10)));
+        long size = CACHE.getBytes();
+        CACHE.configure(directory.toString(), size * 2, size * 2, 0);
+        long evictions = CACHE.getEvictions();
+        Assert.assertTrue(CACHE.build("k1", 1, rows(10)));
+        Assert.assertTrue(CACHE.build("k2", 1, rows(10)));
+        CACHE.acquire("k1", 1).release();
+        Assert.assertTrue(CACHE.build("k3", 1, rows(10)));
+        //k2最久没有使用
+        Assert.assertEquals(evictions + 1, CACHE.getEvictions());
+        Assert.assertNull(CACHE.acquire("k2", 1));
+        Assert.assertEquals(2, CACHE.getEntryCount());
+    }
+
+    @Test
+    public void testRewritePacketId() throws IOException {
+        Assert.assertTrue(CACHE.build("k", 1, rows(3)));
+        CacheFile file = CACHE.acquire("k", 1);
+        byte[] eof = MySQLPacketUtil.generateEof(0, 2);
+        byte[] origin = replay(file, 0, eof);
+        //预处理语句等场景下客户端期望的序号不从1开始
+        byte[] rewritten = replay(file, 2, eof);
+        file.release();
+        Assert.assertEquals(origin.length, rewritten.length);
+        List<int[]> originPackets = packets(origin);
+        List<int[]> rewrittenPackets = packets(rewritten);
+        Assert.assertEquals(8, originPackets.size());
+        Assert.assertEquals(originPackets.size(), rewrittenPackets.size());
+        for (int i = 0; i < originPackets.size(); i++) {
+            int start = originPackets.get(i)[0];
+            Assert.assertEquals(i + 1, originPackets.get(i)[1]);
+            Assert.assertEquals(i + 3, rewrittenPackets.get(i)[1]);
+            //只改写序号,长度和payload不变
+            for (int j = start; j < start + 3; j++) {
+                Assert.assertEquals(origin[j], rewritten[j]);
+            }
+            int end = i + 1 < originPackets.size() ? originPackets.get(i + 1)[0] : origin.length;
+            Assert.assertArrayEquals(Arrays.copyOfRange(origin, start + 4, end), Arrays.copyOfRange(rewritten, start + 4, end));
+        }
+        //EOF报文
+        Assert.assertArrayEquals(MySQLPacketUtil.generateMySQLPacket(10, eof),
+                Arrays.copyOfRange(rewritten, rewrittenPackets.get(7)[0], rewritten.length));
+    }
+
+    private static byte[] replay(CacheFile file, int delta, byte[] eof) throws IOException {
+        TransforFileLib.CacheFileWriteHandler handler = new TransforFileLib.CacheFileWriteHandler(file, delta, eof);
+        SlowChannel channel = new SlowChannel();
+        int writes = 0;
+        while (!handler.write(channel)) {
+            writes++;
+        }
+        Assert.assertTrue(writes > 0);
+        return channel.out.toByteArray();
+    }
+
+    /**
+     * 每个报文的开始位置与序号
+     */
+    private static List<int[]> packets(byte[] bytes) {
+        List<int[]> packets = new ArrayList<>();
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16;
+            packets.add(new int[]{offset, bytes[offset + 3] & 0xff});
+            offset += 4 + length;
+        }
+        Assert.assertEquals(bytes.length, offset);
+        return packets;
+    }
+
+    /**
+     * 模拟socket发送缓冲区,每次调用最多写入3个字节
+     */
+    private static class SlowChannel implements GatheringByteChannel {
+        private static final int LIMIT = 3;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            int writed = 0;
+            for (int i = offset; i < offset + length && writed < LIMIT; i++) {
+                while (srcs[i].hasRemaining() && writed < LIMIT) {
+                    out.write(srcs[i].get());
+                    writed++;
+                }
+            }
+            return writed;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
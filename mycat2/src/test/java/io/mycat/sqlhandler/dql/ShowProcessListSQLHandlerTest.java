@@ -0,0 +1,67 @@
+package io.mycat.sqlhandler.dql;
+
+import io.mycat.Authenticator;
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatUser;
+import io.mycat.config.UserConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ShowProcessListSQLHandlerTest {
+    private Map<Class, Object> context;
+
+    @Before
+    public void setUp() {
+        context = MetaClusterCurrent.context.get();
+        Map<Class, Object> newContext = new HashMap<>(context);
+        newContext.put(Authenticator.class, new Authenticator() {
+            @Override
+            public AuthInfo getPassword(String username, String ip) {
+                return null;
+            }
+
+            @Override
+            public UserConfig getUserInfo(String username) {
+                UserConfig userConfig = new UserConfig();
+                userConfig.setUsername(username);
+                userConfig.setProcessPrivilege("admin".equals(username));
+                return "nobody".equals(username) ? null : userConfig;
+            }
+        });
+        MetaClusterCurrent.register(newContext);
+    }
+
+    @After
+    public void tearDown() {
+        MetaClusterCurrent.register(context);
+    }
+
+    private static MycatUser user(String userName) {
+        return new MycatUser(userName, null, null, "127.0.0.1");
+    }
+
+    @Test
+    public void testProcessPrivilege() {
+        Assert.assertTrue(ShowProcessListSQLHandler.hasProcessPrivilege(user("admin")));
+        Assert.assertFalse(ShowProcessListSQLHandler.hasProcessPrivilege(user("root")));
+        Assert.assertFalse(ShowProcessListSQLHandler.hasProcessPrivilege(user("nobody")));
+        Assert.assertFalse(ShowProcessListSQLHandler.hasProcessPrivilege(null));
+    }
+
+    @Test
+    public void testVisible() {
+        //只能访问同一个用户的会话
+        Assert.assertTrue(ShowProcessListSQLHandler.isVisible(user("root"), false, user("root")));
+        Assert.assertFalse(ShowProcessListSQLHandler.isVisible(user("root"), false, user("other")));
+        //还没有完成认证的会话
+        Assert.assertFalse(ShowProcessListSQLHandler.isVisible(user("root"), false, null));
+        Assert.assertFalse(ShowProcessListSQLHandler.isVisible(null, false, user("root")));
+        Assert.assertTrue(ShowProcessListSQLHandler.isVisible(user("admin"), true, user("other")));
+        Assert.assertTrue(ShowProcessListSQLHandler.isVisible(user("admin"), true, null));
+    }
+}
@@ -56,7 +56,14 @@ public class GPattern {
     }
 
     public GPatternMatcher matcher(ByteBuffer buffer) {
-        utf8Lexer.init(buffer, 0, buffer.limit());
+        return matcher(buffer, 0, buffer.limit());
+    }
+
+    /**
+     * 直接在报文字节上匹配,不需要解码成字符串
+     */
+    public GPatternMatcher matcher(ByteBuffer buffer, int startOffset, int limit) {
+        utf8Lexer.init(buffer, startOffset, limit);
         matcher.reset();
         while (utf8Lexer.nextToken()) {
             GPatternSeq token = idRecorder.toCurToken();
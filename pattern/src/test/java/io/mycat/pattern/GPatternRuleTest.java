@@ -17,6 +17,8 @@ package io.mycat.pattern;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
@@ -662,4 +664,18 @@ public class GPatternRuleTest {
         GPatternMatcher matcher = gPattern.matcher("select 1;");
         Assert.assertTrue(matcher.acceptAll());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMatchPacketBytes() {
+        GPatternBuilder patternBuilder = new GPatternBuilder(0);
+        int id = patternBuilder.addRule("SELECT id FROM {table} LIMIT 1;");
+        GPattern gPattern = patternBuilder.createGroupPattern();
+        byte[] sql = "SELECT id FROM travelrecord LIMIT 1;".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer packet = ByteBuffer.allocate(sql.length + 5);
+        packet.put(new byte[]{0, 0, 0, 0, 3}).put(sql).flip();
+        GPatternMatcher matcher = gPattern.matcher(packet, 5, packet.limit());
+        Assert.assertTrue(matcher.acceptAll());
+        Assert.assertEquals(id, matcher.id());
+        Assert.assertEquals("travelrecord", gPattern.toContextMap(matcher).get("table"));
+    }
+}
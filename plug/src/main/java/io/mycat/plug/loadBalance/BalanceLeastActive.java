@@ -16,7 +16,6 @@
 package io.mycat.plug.loadBalance;
 
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -31,28 +30,26 @@ public enum BalanceLeastActive implements LoadBalanceStrategy {
         return null;
       }
       int len = entityList.size();
-      List<LoadBalanceElement> balanceList = new ArrayList<>();
-
+      LoadBalanceElement selected = null;
       int leastActive = Integer.MAX_VALUE;
+      int ties = 0;
       for (int i = 0; i < len; i++) {
         LoadBalanceElement le = entityList.get(i);
         if (le == null) {
           continue;
         }
-        if (leastActive > le.getSessionCounter()) {
-          leastActive = le.getSessionCounter();
-          balanceList.clear();
-          balanceList.add(le);
-        } else if (leastActive == le.getSessionCounter()) {
-          balanceList.add(le);
+        int sessionCounter = le.getSessionCounter();
+        if (leastActive > sessionCounter) {
+          leastActive = sessionCounter;
+          selected = le;
+          ties = 1;
+        } else if (leastActive == sessionCounter
+            && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+          //连接数相同的元素中均匀随机
+          selected = le;
         }
       }
-      int size = balanceList.size();
-      if (1 == size) {
-        return balanceList.get(0);
-      }
-      int i = ThreadLocalRandom.current().nextInt(0, size);
-      return balanceList.get(i);
+      return selected;
     }
   }
 }
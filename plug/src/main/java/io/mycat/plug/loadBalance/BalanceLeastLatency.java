@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.mycat.plug.loadBalance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 随机取两个,选择LatencyStatistics中代价较小的一个
+ * 变慢但没有宕机的数据源代价升高后很少被选中,两两比较避免所有请求同时涌向同一个最快的数据源
+ */
+public enum BalanceLeastLatency implements LoadBalanceStrategy {
+  INSTANCE {
+    @Override
+    public LoadBalanceElement select(LoadBalanceInfo info, List<LoadBalanceElement> entityList) {
+      if (null == entityList || entityList.isEmpty()) {
+        return null;
+      }
+      int size = entityList.size();
+      if (size == 1) {
+        return entityList.get(0);
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int first = random.nextInt(size);
+      int second = random.nextInt(size - 1);
+      if (second >= first) {
+        second++;
+      }
+      LoadBalanceElement a = entityList.get(first);
+      LoadBalanceElement b = entityList.get(second);
+      if (a == null || b == null) {
+        return a == null ? b : a;
+      }
+      LatencyStatistics statistics = LatencyStatistics.INSTANCE;
+      double costA = statistics.get(a.getName()).getCost();
+      double costB = statistics.get(b.getName()).getCost();
+      return costA <= costB ? a : b;
+    }
+  }
+}
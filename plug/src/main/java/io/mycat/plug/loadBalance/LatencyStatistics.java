@@ -0,0 +1,89 @@
+package io.mycat.plug.loadBalance;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个数据源的请求统计,按数据源名记录
+ * 1.jdbc连接在语句执行前后,native连接在请求发出前与收到第一个响应时更新
+ * 2.延迟为peak ewma:比均值慢的响应立即生效,比均值快的响应与没有响应的时间按距离上次更新的时间衰减生效
+ * 3.复制延迟由主从心跳更新
+ * chen junwen
+ */
+public enum LatencyStatistics {
+    INSTANCE;
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ConcurrentHashMap<String, Statistic> map = new ConcurrentHashMap<>();
+
+    public static class Statistic {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double latencyNanos = 0;
+        private long timestamp = System.nanoTime();
+        private volatile long replicationLagSeconds = 0;
+
+        synchronized void observe(long latencyNanos, long now) {
+            double weight = Math.exp(-(now - timestamp) / DECAY_NANOS);
+            double decayed = this.latencyNanos * weight;
+            if (latencyNanos > decayed) {
+                this.latencyNanos = latencyNanos;
+            } else {
+                this.latencyNanos = decayed + latencyNanos * (1 - weight);
+            }
+            timestamp = now;
+        }
+
+        /**
+         * 没有新的响应时延迟也会随时间衰减,变慢的数据源过一段时间会重新被尝试
+         */
+        public synchronized double getLatencyNanos() {
+            return latencyNanos * Math.exp(-(System.nanoTime() - timestamp) / DECAY_NANOS);
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getReplicationLagSeconds() {
+            return replicationLagSeconds;
+        }
+
+        /**
+         * 延迟*(进行中的请求数+1)*(复制延迟秒数+1)
+         */
+        public double getCost() {
+            return (getLatencyNanos() + 1) * (getInFlight() + 1) * (replicationLagSeconds + 1.0);
+        }
+    }
+
+    public Statistic get(String name) {
+        return map.computeIfAbsent(name, s -> new Statistic());
+    }
+
+    /**
+     * @return 请求开始的时间,传给end
+     */
+    public long start(String name) {
+        get(name).inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void end(String name, long startNanos) {
+        Statistic statistic = get(name);
+        statistic.inFlight.decrementAndGet();
+        long now = System.nanoTime();
+        statistic.observe(Math.max(0, now - startNanos), now);
+    }
+
+    public void setReplicationLag(String name, long seconds) {
+        get(name).replicationLagSeconds = Math.max(0, seconds);
+    }
+
+    /**
+     * 复制延迟未知(Seconds_Behind_Master为NULL或者复制出错)时视为无限大
+     */
+    public void setReplicationLagUnknown(String name) {
+        get(name).replicationLagSeconds = Long.MAX_VALUE;
+    }
+}
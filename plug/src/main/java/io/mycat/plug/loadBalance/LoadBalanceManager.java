@@ -59,6 +59,7 @@ public class LoadBalanceManager {
 
         List<LoadBalanceConfig> buildin = Arrays.asList(
                 BalanceLeastActive.class,
+                BalanceLeastLatency.class,
                 BalanceRandom.class,
                 BalanceRoundRobin.class,
                 BalanceRunOnMaster.class,
@@ -14,11 +14,12 @@
  */
 package io.mycat.ext;
 
+import io.mycat.MySQLPacketUtil;
 import io.mycat.api.MySQLAPI;
 import io.mycat.api.callback.MySQLAPIExceptionCallback;
 import io.mycat.api.collector.ResultSetCollector;
+import io.mycat.api.collector.ResultSetTransfor;
 import io.mycat.api.collector.TextResultSetTransforCollector;
-import io.mycat.beans.mysql.MySQLCommandType;
 import io.mycat.beans.mysql.packet.ErrorPacketImpl;
 import io.mycat.proxy.callback.ResultSetCallBack;
 import io.mycat.proxy.handler.backend.TextResultSetHandler;
@@ -35,10 +36,14 @@ public class MySQLAPIImpl implements MySQLAPI {
   @Override
   public void query(String sql, ResultSetCollector collector,
       MySQLAPIExceptionCallback exceptionCollector) {
-    TextResultSetTransforCollector transfor = new TextResultSetTransforCollector(
-        collector);
+    query(sql, new TextResultSetTransforCollector(collector), exceptionCollector);
+  }
+
+  @Override
+  public void query(String sql, ResultSetTransfor transfor,
+      MySQLAPIExceptionCallback exceptionCollector) {
     TextResultSetHandler queryResultSetTask = new TextResultSetHandler(transfor);
-    queryResultSetTask.request(mySQLClientSession, MySQLCommandType.COM_QUERY, sql.getBytes(),
+    queryResultSetTask.request(mySQLClientSession, MySQLPacketUtil.generateComQueryPacket(sql),
         new ResultSetCallBack<MySQLClientSession>() {
           @Override
           public void onFinishedSendException(Exception exception, Object sender,
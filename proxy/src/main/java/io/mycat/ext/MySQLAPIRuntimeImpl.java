@@ -14,34 +14,128 @@
  */
 package io.mycat.ext;
 
+import io.mycat.MycatException;
 import io.mycat.api.callback.MySQLAPISessionCallback;
 import io.mycat.api.callback.MySQLJobCallback;
+import io.mycat.beans.MySQLDatasource;
+import io.mycat.beans.mysql.MySQLAutoCommit;
+import io.mycat.beans.mysql.MySQLCommandType;
+import io.mycat.beans.mysql.packet.ErrorPacketImpl;
+import io.mycat.proxy.callback.ResultSetCallBack;
+import io.mycat.proxy.callback.SessionCallBack;
+import io.mycat.proxy.handler.backend.ResultSetHandler;
 import io.mycat.proxy.reactor.MycatReactorThread;
 import io.mycat.proxy.reactor.NIOJob;
 import io.mycat.proxy.reactor.ReactorEnvThread;
+import io.mycat.proxy.reactor.ReactorThreadManager;
+import io.mycat.proxy.session.MySQLClientSession;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class MySQLAPIRuntimeImpl implements io.mycat.api.MySQLAPIRuntime {
+  private final Supplier<ReactorThreadManager> reactorThreadManager;
+  private final Function<String, MySQLDatasource> datasourceResolver;
+
+  /**
+   * @param datasourceResolver 数据源名字或者集群名字得到native数据源,不支持native返回null
+   */
+  public MySQLAPIRuntimeImpl(Supplier<ReactorThreadManager> reactorThreadManager,
+      Function<String, MySQLDatasource> datasourceResolver) {
+    this.reactorThreadManager = reactorThreadManager;
+    this.datasourceResolver = datasourceResolver;
+  }
+
+  @Override
+  public boolean isAvailable(String dataSourceName) {
+    return reactorThreadManager.get() != null && datasourceResolver.apply(dataSourceName) != null;
+  }
+
+  @Override
+  public boolean isBlockingAllowed() {
+    return !(Thread.currentThread() instanceof ReactorEnvThread);
+  }
 
+  /**
+   * 在reactor线程中获取空闲的session,非reactor线程调用时投递到随机的reactor线程,回调都在reactor线程中执行
+   */
   @Override
   public void create(String dataSourceName, MySQLAPISessionCallback callback) {
+    MySQLDatasource datasource = datasourceResolver.apply(dataSourceName);
+    if (datasource == null) {
+      callback.onException(new MycatException("native datasource:{} is not found", dataSourceName));
+      return;
+    }
+    Thread thread = Thread.currentThread();
+    if (thread instanceof MycatReactorThread) {
+      getSession((MycatReactorThread) thread, datasource, callback);
+      return;
+    }
+    MycatReactorThread reactor = reactorThreadManager.get().getRandomReactor();
+    reactor.addNIOJob(new NIOJob() {
+      @Override
+      public void run(ReactorEnvThread reactorEnvThread) throws Exception {
+        getSession(reactor, datasource, callback);
+      }
+
+      @Override
+      public void stop(ReactorEnvThread reactorEnvThread, Exception reason) {
+        callback.onException(reason);
+      }
+
+      @Override
+      public String message() {
+        return "create MySQLAPI:" + dataSourceName;
+      }
+    });
+  }
+
+  private void getSession(MycatReactorThread reactor, MySQLDatasource datasource,
+      MySQLAPISessionCallback callback) {
+    reactor.getMySQLSessionManager().getIdleSessionsOfKey(datasource, new SessionCallBack<MySQLClientSession>() {
+      @Override
+      public void onSession(MySQLClientSession session, Object sender, Object attr) {
+        if (session.isAutomCommit() == MySQLAutoCommit.ON) {
+          callback.onSession(new MySQLAPIImpl(session));
+        } else {
+          syncAutocommit(session, callback);
+        }
+      }
+
+      @Override
+      public void onException(Exception exception, Object sender, Object attr) {
+        callback.onException(exception);
+      }
+    });
+  }
+
+  private void syncAutocommit(MySQLClientSession session, MySQLAPISessionCallback callback) {
+    ResultSetHandler.DEFAULT.request(session, MySQLCommandType.COM_QUERY, MySQLAutoCommit.ON.getCmd(),
+        new ResultSetCallBack<MySQLClientSession>() {
+          @Override
+          public void onFinishedSendException(Exception exception, Object sender, Object attr) {
+            callback.onException(exception);
+          }
+
+          @Override
+          public void onFinishedException(Exception exception, Object sender, Object attr) {
+            callback.onException(exception);
+          }
+
+          @Override
+          public void onFinished(boolean monopolize, MySQLClientSession mysql, Object sender,
+              Object attr) {
+            callback.onSession(new MySQLAPIImpl(mysql));
+          }
 
-      //todo
-//    MycatReactorThread thread = (MycatReactorThread) Thread.currentThread();
-//    ProxyRuntime runtime = thread.getRuntime();
-//    thread.getMySQLSessionManager().getIdleSessionsOfIdsOrPartial(
-//        runtime.getDataSourceByDataSourceName(dataSourceName),
-//        Collections.emptyList(), PartialType.RANDOM_ID, new SessionCallBack<MySQLClientSession>() {
-//          @Override
-//          public void onSession(MySQLClientSession session, Object sender, Object attr) {
-//            MySQLAPIImpl mySQLAPI = new MySQLAPIImpl(session);
-//            callback.onSession(mySQLAPI);
-//          }
-//
-//          @Override
-//          public void onException(Exception exception, Object sender, Object attr) {
-//            callback.onException(exception);
-//          }
-//        });
+          @Override
+          public void onErrorPacket(ErrorPacketImpl errorPacket, boolean monopolize,
+              MySQLClientSession mysql, Object sender, Object attr) {
+            String message = errorPacket.getErrorMessageString();
+            mysql.close(false, message);
+            callback.onException(new MycatException(message));
+          }
+        });
   }
 
   @Override
@@ -14,6 +14,7 @@
  */
 package io.mycat.proxy.reactor;
 
+import io.mycat.NonBlockingThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,7 +25,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  *
  * @author jamie12221 date 2019-05-10 13:21
  **/
-public abstract class ReactorEnvThread extends Thread implements SessionThread {
+public abstract class ReactorEnvThread extends Thread implements SessionThread, NonBlockingThread {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ReactorEnvThread.class);
   protected final ConcurrentLinkedQueue<NIOJob> pendingJobs = new ConcurrentLinkedQueue<>();
@@ -23,6 +23,7 @@ import io.mycat.beans.mysql.MySQLServerStatusFlags;
 import io.mycat.beans.mysql.packet.MySQLPacket;
 import io.mycat.beans.mysql.packet.MySQLPacketSplitter;
 import io.mycat.beans.mysql.packet.ProxyBuffer;
+import io.mycat.plug.loadBalance.LatencyStatistics;
 import io.mycat.proxy.buffer.ProxyBufferImpl;
 import io.mycat.proxy.handler.NIOHandler;
 import io.mycat.proxy.handler.ResponseType;
@@ -63,8 +64,16 @@ public class MySQLClientSession extends
    */
   private boolean noResponse = false;
   private boolean requestSuccess = false;
+  /**
+   * 准备接收响应时记录,收到第一个响应或者关闭时计入LatencyStatistics
+   */
+  private long requestStartNanos = 0;
 
   private long cursorStatementId;
+  /**
+   * 握手包中的connection id,即后端的thread id,kill query时使用
+   */
+  private long threadId;
   /**
    * 错误信息
    */
@@ -120,6 +129,7 @@ public class MySQLClientSession extends
     }
     resetPacket();
     hasClosed = true;
+    endRequest();
 //    getDatasource().decrementUsedCounter();
     try {
       getSessionManager().removeSession(this, normal, hint);
@@ -132,6 +142,7 @@ public class MySQLClientSession extends
    */
   public void prepareReveiceResponse() {
     this.packetResolver.prepareReveiceResponse();
+    startRequest();
   }
 
   /**
@@ -139,6 +150,7 @@ public class MySQLClientSession extends
    */
   public void prepareReveicePrepareOkResponse() {
     this.packetResolver.prepareReveicePrepareOkResponse();
+    startRequest();
   }
 
 
@@ -431,6 +443,9 @@ public class MySQLClientSession extends
   @Override
   public boolean readFromChannel() throws IOException {
     boolean b = MySQLProxySession.super.readFromChannel();
+    if (b) {
+      endRequest();
+    }
     ProxyBuffer proxyBuffer = this.proxyBuffer;
     MycatMonitor
         .onBackendRead(this, proxyBuffer.currentByteBuffer(), proxyBuffer.channelReadStartIndex(),
@@ -462,6 +477,24 @@ public class MySQLClientSession extends
 
   public void prepareReveiceMultiResultSetResponse() {
     this.getPacketResolver().prepareReveiceMultiResultSetResponse();
+    startRequest();
+  }
+
+  /**
+   * 请求发出前后都可能调用prepareReveice,只记录第一次
+   */
+  private void startRequest() {
+    if (requestStartNanos == 0 && datasource != null) {
+      requestStartNanos = LatencyStatistics.INSTANCE.start(datasource.getName());
+    }
+  }
+
+  private void endRequest() {
+    long startNanos = requestStartNanos;
+    if (startNanos != 0) {
+      requestStartNanos = 0;
+      LatencyStatistics.INSTANCE.end(datasource.getName(), startNanos);
+    }
   }
 
   private MySQLPacketResolver getPacketResolver() {
@@ -484,6 +517,10 @@ public class MySQLClientSession extends
     return datasource;
   }
 
+  public long getThreadId() {
+    return threadId;
+  }
+
   public long getCursorStatementId() {
     return cursorStatementId;
   }
@@ -110,6 +110,7 @@ public final class MycatSession extends AbstractSession<MycatSession> implements
     }
 
     public void onHandlerFinishedClear() {
+        dataContext.endQuery();
         resetPacket();
         setResponseFinished(ProcessState.READY);
         this.change2ReadOpts();
@@ -2,16 +2,23 @@ package io.mycat.runtime;
 
 import com.alibaba.fastsql.sql.SQLUtils;
 import io.mycat.*;
+import io.mycat.api.collector.RowBaseIteratorCacher;
 import io.mycat.beans.mycat.TransactionType;
 import io.mycat.beans.mysql.MySQLIsolation;
+import io.mycat.proxy.reactor.ReactorEnvThread;
+import io.mycat.util.CharsetUtil;
 import lombok.Getter;
 import lombok.Setter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -52,7 +59,24 @@ public class MycatDataContextImpl implements MycatDataContext {
     private TransactionSession transactionSession = new ProxyTransactionSession(this);
     private TransactionSessionRunner runner;
     private final AtomicBoolean cancelFlag = new AtomicBoolean(false);
+    private volatile String query;
+    private volatile String queryState;
+    private volatile long queryStartTime = System.currentTimeMillis();
+    private volatile boolean queryCancelled = false;
+    /**
+     * 正在执行语句的线程,只在queryThreadLock中访问
+     */
+    private Thread queryThread;
+    private final Object queryThreadLock = new Object();
     private final Map<Long, PreparedStatement> preparedStatementMap = new HashMap<>();
+    /**
+     * 当前语句写入的表,写可能在reactor线程或者worker线程上异步完成
+     */
+    private final Set<Map.Entry<String, String>> writtenTables = ConcurrentHashMap.newKeySet();
+    /**
+     * 事务中已经写入的表,事务结束后再失效一次
+     */
+    private final Set<Map.Entry<String, String>> transactionWrittenTables = ConcurrentHashMap.newKeySet();
 
     private static final AtomicLong IDS = new AtomicLong();
 
@@ -280,7 +304,26 @@ public class MycatDataContextImpl implements MycatDataContext {
     public void setCharset(int index, String charsetName, Charset defaultCharset) {
         this.charsetIndex = index;
         this.charsetName = charsetName;
-        this.charset = defaultCharset;
+        this.charset = toJavaCharset(index, charsetName, defaultCharset);
+    }
+
+    /**
+     * mysql的字符集名不一定是java的字符集名(utf8mb4),此时按编号查找,都找不到时使用defaultCharset
+     */
+    static Charset toJavaCharset(int index, String charsetName, Charset defaultCharset) {
+        String[] names = {charsetName, index == -1 ? null : CharsetUtil.getCharset(index)};
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            try {
+                if (Charset.isSupported(name)) {
+                    return Charset.forName(name);
+                }
+            } catch (IllegalCharsetNameException ignored) {
+            }
+        }
+        return defaultCharset;
     }
 
     @Override
@@ -288,6 +331,87 @@ public class MycatDataContextImpl implements MycatDataContext {
         return cancelFlag;
     }
 
+    @Override
+    public void startQuery(String sql) {
+        this.queryCancelled = false;
+        this.queryStartTime = System.currentTimeMillis();
+        this.query = sql;
+        this.queryState = null;
+    }
+
+    @Override
+    public void setQueryState(String state) {
+        this.queryState = state;
+    }
+
+    @Override
+    public String getQueryState() {
+        return queryState;
+    }
+
+    @Override
+    public void cancelQuery() {
+        this.queryCancelled = true;
+        synchronized (queryThreadLock) {
+            if (queryThread != null) {
+                queryThread.interrupt();
+            }
+        }
+        TransactionSession transactionSession = this.transactionSession;
+        if (transactionSession != null) {
+            transactionSession.cancel();
+        }
+    }
+
+    @Override
+    public void bindQueryThread() {
+        Thread thread = Thread.currentThread();
+        //reactor线程被中断时会关闭它正在读写的channel
+        if (thread instanceof ReactorEnvThread) {
+            return;
+        }
+        synchronized (queryThreadLock) {
+            this.queryThread = thread;
+        }
+    }
+
+    @Override
+    public void unbindQueryThread() {
+        synchronized (queryThreadLock) {
+            if (queryThread == Thread.currentThread()) {
+                queryThread = null;
+                Thread.interrupted();
+            }
+        }
+    }
+
+    @Override
+    public void addWrittenTable(String schemaName, String tableName) {
+        writtenTables.add(new AbstractMap.SimpleImmutableEntry<>(schemaName, tableName));
+    }
+
+    @Override
+    public void endQuery() {
+        if (writtenTables.isEmpty() && transactionWrittenTables.isEmpty()) {
+            return;
+        }
+        boolean inTransaction = isInTransaction();
+        for (Map.Entry<String, String> table : writtenTables) {
+            RowBaseIteratorCacher.invalidateTable(table.getKey(), table.getValue());
+            if (inTransaction) {
+                transactionWrittenTables.add(table);
+            }
+        }
+        writtenTables.clear();
+        if (!inTransaction) {
+            //提交之前其他会话加载的结果集看不到事务中的写,提交后需要再失效
+            for (Map.Entry<String, String> table : transactionWrittenTables) {
+                RowBaseIteratorCacher.invalidateTable(table.getKey(), table.getValue());
+            }
+            transactionWrittenTables.clear();
+        }
+    }
+
     @Override
     public void run(Runnable runnable) {
         runner.run(this, runnable);
@@ -338,6 +462,11 @@ public class MycatDataContextImpl implements MycatDataContext {
         return transactionSession.resolveFinalTargetName(targetName);
     }
 
+    @Override
+    public String resolveDatasourceTargetName(String targetName, boolean master, String loadBalanceStrategy) {
+        return transactionSession.resolveFinalTargetName(targetName, master, loadBalanceStrategy);
+    }
+
     @Override
     public Map<Long, PreparedStatement> getPrepareInfo() {
         return preparedStatementMap;
@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.runtime;
+
+import io.mycat.MetaClusterCurrent;
+import io.mycat.MycatException;
+import io.mycat.ScheduleUtil;
+import io.mycat.beans.mycat.StreamingJdbcRowBaseIterator;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.util.HexFormatUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * xa两阶段提交的决策日志,只追加
+ * COMMIT gtrid 数据源1,数据源2 所有分支prepare成功后,第一个分支提交之前写入并刷盘
+ * END gtrid 所有分支已经提交
+ * 重启后对XA RECOVER得到的本节点的分支,有COMMIT没有END的提交,其余的回滚(presumed abort)
+ * gtrid为 mycat.节点.启动时间.序号,只处理本节点的分支
+ * 运行中分支提交失败时定时重试recover,间隔从1秒开始翻倍,最长60秒,直到提交决策完成
+ * chen junwen
+ */
+public class XaLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(XaLog.class);
+    private static final String FILE_NAME = "xa.log";
+    /**
+     * 没有配置xaNode时生成的节点名,重启后继续使用
+     */
+    private static final String NODE_FILE_NAME = "xa.node";
+    private static final String COMMIT = "COMMIT";
+    private static final String END = "END";
+    /**
+     * mysql的gtrid最长64字节
+     */
+    private static final int MAX_GTRID_LENGTH = 64;
+    private static final int ER_XAER_NOTA = 1397;
+    private static final long RETRY_DELAY_SECONDS = 1;
+    private static final long RETRY_MAX_DELAY_SECONDS = 60;
+    private final Path path;
+    private final String node;
+    private final String nodePrefix;
+    private final String instancePrefix;
+    private final AtomicLong sequence = new AtomicLong();
+    private final FileChannel channel;
+    /**
+     * 已经决定提交但是分支提交失败,等待重试的gtrid
+     */
+    private final Set<String> retrying = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    ScheduledExecutorService retryTimer = ScheduleUtil.getTimer();
+
+    /**
+     * @param node 为空时使用目录中保存的节点名,没有则生成一个并保存
+     */
+    public XaLog(Path directory, String node) throws IOException {
+        Files.createDirectories(directory);
+        if (node == null) {
+            node = loadOrCreateNode(directory);
+        }
+        this.nodePrefix = "mycat." + node + ".";
+        this.instancePrefix = nodePrefix + System.currentTimeMillis() + ".";
+        if (node.isEmpty() || instancePrefix.length() + 19 > MAX_GTRID_LENGTH || node.chars().anyMatch(Character::isWhitespace)) {
+            throw new MycatException("illegal xa node:{}", node);
+        }
+        this.node = node;
+        this.path = directory.resolve(FILE_NAME);
+        compact();
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static String loadOrCreateNode(Path directory) throws IOException {
+        Path nodePath = directory.resolve(NODE_FILE_NAME);
+        if (Files.exists(nodePath)) {
+            return new String(Files.readAllBytes(nodePath), StandardCharsets.UTF_8).trim();
+        }
+        String node = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+        Path tmp = directory.resolve(NODE_FILE_NAME + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(node.getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        Files.move(tmp, nodePath, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("xa node is not configured, generate {} in {}", node, nodePath);
+        return node;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String nextGtrid() {
+        return instancePrefix + sequence.incrementAndGet();
+    }
+
+    /**
+     * 提交决策,刷盘后才能提交分支
+     */
+    public synchronized void logCommit(String gtrid, Collection<String> datasources) throws IOException {
+        write(COMMIT + " " + gtrid + " " + String.join(",", datasources) + "\n", true);
+    }
+
+    /**
+     * 丢失END只会使重启后多检查一次,不需要刷盘
+     */
+    public synchronized void logEnd(String gtrid) {
+        try {
+            write(END + " " + gtrid + "\n", false);
+        } catch (IOException e) {
+            LOGGER.warn("write xa log end {} fail", gtrid, e);
+        }
+    }
+
+    private void write(String line, boolean force) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * key:已经决定提交但是没有完成的gtrid value:参与的数据源
+     */
+    public synchronized Map<String, Set<String>> readPending() throws IOException {
+        Map<String, Set<String>> pending = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return pending;
+        }
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        //最后一行可能只写了一半,只处理以换行结束的行
+        int end = content.lastIndexOf('\n');
+        if (end < 0) {
+            return pending;
+        }
+        for (String line : content.substring(0, end).split("\n")) {
+            String[] items = line.trim().split(" ");
+            if (items.length >= 2 && COMMIT.equals(items[0])) {
+                Set<String> datasources = new LinkedHashSet<>();
+                if (items.length > 2) {
+                    datasources.addAll(Arrays.asList(items[2].split(",")));
+                }
+                pending.put(items[1], datasources);
+            } else if (items.length >= 2 && END.equals(items[0])) {
+                pending.remove(items[1]);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 启动时只保留没有完成的提交决策
+     */
+    private void compact() throws IOException {
+        Map<String, Set<String>> pending = readPending();
+        if (!Files.exists(path)) {
+            return;
+        }
+        Path tmp = path.resolveSibling(FILE_NAME + ".tmp");
+        StringBuilder sb = new StringBuilder();
+        pending.forEach((gtrid, datasources) -> sb.append(COMMIT).append(' ').append(gtrid).append(' ')
+                .append(String.join(",", datasources)).append('\n'));
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 对所有数据源执行XA RECOVER,处理本节点的分支
+     * 本进程的分支只提交已经决定提交的,其余的可能还在执行,不回滚
+     *
+     * @return {提交的分支数,回滚的分支数}
+     */
+    public long[] recover(JdbcConnectionManager connectionManager) throws IOException {
+        Map<String, Set<String>> pending = readPending();
+        Set<String> unresolved = new HashSet<>();
+        long committed = 0;
+        long rolledBack = 0;
+        for (String datasource : connectionManager.getDatasourceInfo().keySet()) {
+            try (DefaultConnection connection = connectionManager.getConnection(datasource)) {
+                Connection rawConnection = connection.getRawConnection();
+                for (Xid xid : recover(rawConnection)) {
+                    if (!xid.gtrid.startsWith(nodePrefix)) {
+                        continue;
+                    }
+                    boolean commit = pending.containsKey(xid.gtrid);
+                    if (!commit && xid.gtrid.startsWith(instancePrefix)) {
+                        continue;
+                    }
+                    try {
+                        execute(rawConnection, (commit ? "XA COMMIT " : "XA ROLLBACK ") + xid);
+                        if (commit) {
+                            committed++;
+                        } else {
+                            rolledBack++;
+                        }
+                        LOGGER.info("xa recover {} {} on {}", commit ? "commit" : "rollback", xid, datasource);
+                    } catch (SQLException e) {
+                        if (e.getErrorCode() == ER_XAER_NOTA) {
+                            continue;
+                        }
+                        LOGGER.error("xa recover {} on {} fail", xid, datasource, e);
+                        unresolved.add(xid.gtrid);
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.error("xa recover on {} fail", datasource, e);
+                pending.forEach((gtrid, datasources) -> {
+                    if (datasources.contains(datasource)) {
+                        unresolved.add(gtrid);
+                    }
+                });
+            }
+        }
+        for (String gtrid : pending.keySet()) {
+            if (!unresolved.contains(gtrid)) {
+                logEnd(gtrid);
+            }
+        }
+        return new long[]{committed, rolledBack};
+    }
+
+    /**
+     * 分支提交失败后不等重启,定时执行recover
+     */
+    public void retryCommit(String gtrid) {
+        retrying.add(gtrid);
+        scheduleRetry(RETRY_DELAY_SECONDS);
+    }
+
+    private void scheduleRetry(long delaySeconds) {
+        if (retryScheduled.compareAndSet(false, true)) {
+            retryTimer.schedule(() -> retry(delaySeconds), delaySeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void retry(long delaySeconds) {
+        try {
+            if (MetaClusterCurrent.exist(JdbcConnectionManager.class)) {
+                retry(MetaClusterCurrent.wrapper(JdbcConnectionManager.class));
+            }
+        } catch (Throwable e) {
+            LOGGER.error("xa retry commit fail", e);
+        } finally {
+            retryScheduled.set(false);
+        }
+        if (!retrying.isEmpty()) {
+            scheduleRetry(Math.min(delaySeconds * 2, RETRY_MAX_DELAY_SECONDS));
+        }
+    }
+
+    /**
+     * @return 仍然没有完成的gtrid
+     */
+    Set<String> retry(JdbcConnectionManager connectionManager) throws IOException {
+        long[] res = recover(connectionManager);
+        retrying.retainAll(readPending().keySet());
+        LOGGER.info("xa retry commit:{} rollback:{} pending:{}", res[0], res[1], retrying);
+        return new HashSet<>(retrying);
+    }
+
+    private static List<Xid> recover(Connection connection) throws SQLException {
+        List<Xid> xids = new ArrayList<>();
+        StreamingJdbcRowBaseIterator.beforeExecute(connection);
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("XA RECOVER CONVERT XID")) {
+            while (resultSet.next()) {
+                long formatId = resultSet.getLong("formatID");
+                int gtridLength = resultSet.getInt("gtrid_length");
+                int bqualLength = resultSet.getInt("bqual_length");
+                String data = resultSet.getString("data");
+                if (data.startsWith("0x") || data.startsWith("0X")) {
+                    data = data.substring(2);
+                }
+                byte[] bytes = fromHex(data);
+                if (bytes.length != gtridLength + bqualLength) {
+                    continue;
+                }
+                String gtrid = new String(bytes, 0, gtridLength, StandardCharsets.UTF_8);
+                byte[] bqual = Arrays.copyOfRange(bytes, gtridLength, gtridLength + bqualLength);
+                xids.add(new Xid(gtrid, bqual, formatId));
+            }
+        }
+        return xids;
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    static void execute(Connection connection, String sql) throws SQLException {
+        StreamingJdbcRowBaseIterator.beforeExecute(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * xa语句中的xid,使用十六进制字面量避免转义
+     */
+    static final class Xid {
+        final String gtrid;
+        final byte[] bqual;
+        final long formatId;
+
+        Xid(String gtrid, byte[] bqual, long formatId) {
+            this.gtrid = gtrid;
+            this.bqual = bqual;
+            this.formatId = formatId;
+        }
+
+        static Xid of(String gtrid, String bqual) {
+            return new Xid(gtrid, bqual.getBytes(StandardCharsets.UTF_8), 1);
+        }
+
+        @Override
+        public String toString() {
+            return "X'" + HexFormatUtil.bytesToHexString(gtrid.getBytes(StandardCharsets.UTF_8))
+                    + "',X'" + HexFormatUtil.bytesToHexString(bqual) + "'," + formatId;
+        }
+    }
+}
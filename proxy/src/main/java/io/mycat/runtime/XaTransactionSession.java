@@ -0,0 +1,251 @@
+package io.mycat.runtime;
+
+import io.mycat.*;
+import io.mycat.beans.mycat.TransactionType;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.datasource.jdbc.transactionsession.TransactionSessionTemplate;
+import io.mycat.util.Dumper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static java.sql.Connection.TRANSACTION_REPEATABLE_READ;
+
+/**
+ * 使用mysql xa语句的分布式事务
+ * 连接在事务中第一次使用时XA START,每个数据源是一个分支
+ * 只有一个分支时XA COMMIT ONE PHASE,否则所有分支并行XA END,XA PREPARE,
+ * 写入决策日志后并行XA COMMIT,提交失败的分支由XaLog定时重试recover完成
+ */
+public class XaTransactionSession extends TransactionSessionTemplate implements TransactionSession {
+    private static final Logger LOGGER = LoggerFactory.getLogger(XaTransactionSession.class);
+    private static volatile XaLog xaLog;
+    private volatile String gtrid;
+
+    public XaTransactionSession(MycatDataContext dataContext) {
+        super(dataContext);
+    }
+
+    public static void configure(XaLog xaLog) {
+        XaTransactionSession.xaLog = xaLog;
+    }
+
+    public static XaLog getXaLog() {
+        return xaLog;
+    }
+
+    @Override
+    public String name() {
+        return "xa";
+    }
+
+    @Override
+    public ThreadUsageEnum getThreadUsageEnum() {
+        return ThreadUsageEnum.MULTI_THREADING;
+    }
+
+    @Override
+    public TransactionType transactionType() {
+        return TransactionType.JDBC_TRANSACTION_TYPE;
+    }
+
+    @Override
+    protected void callBackBegin() {
+        this.gtrid = null;
+    }
+
+    @Override
+    protected void onJoinTransaction(String jdbcDataSource, DefaultConnection connection) {
+        if (gtrid == null) {
+            gtrid = Objects.requireNonNull(xaLog, "xa log does not init").nextGtrid();
+        }
+        try {
+            XaLog.execute(connection.getRawConnection(), "XA START " + XaLog.Xid.of(gtrid, jdbcDataSource));
+        } catch (SQLException e) {
+            connection.close();
+            throw new MycatException("xa start on " + jdbcDataSource + " fail", e);
+        }
+    }
+
+    @Override
+    protected void callBackCommit() {
+        String gtrid = this.gtrid;
+        if (gtrid == null) {
+            return;
+        }
+        this.gtrid = null;
+        List<Map.Entry<String, DefaultConnection>> branches = new ArrayList<>(this.updateConnectionMap.entrySet());
+        if (branches.size() == 1) {
+            Map.Entry<String, DefaultConnection> branch = branches.get(0);
+            XaLog.Xid xid = XaLog.Xid.of(gtrid, branch.getKey());
+            try {
+                XaLog.execute(branch.getValue().getRawConnection(), "XA END " + xid);
+                XaLog.execute(branch.getValue().getRawConnection(), "XA COMMIT " + xid + " ONE PHASE");
+            } catch (SQLException e) {
+                rollbackQuietly(gtrid, branch);
+                throw new MycatException("xa提交失败 " + branch.getKey(), e);
+            }
+            return;
+        }
+        List<Throwable> errors = forEachParallel(branches, branch -> {
+            XaLog.Xid xid = XaLog.Xid.of(gtrid, branch.getKey());
+            XaLog.execute(branch.getValue().getRawConnection(), "XA END " + xid);
+            XaLog.execute(branch.getValue().getRawConnection(), "XA PREPARE " + xid);
+        });
+        if (errors.isEmpty()) {
+            try {
+                xaLog.logCommit(gtrid, branches.stream().map(i -> i.getKey()).collect(Collectors.toList()));
+            } catch (Exception e) {
+                errors.add(e);
+            }
+        }
+        if (!errors.isEmpty()) {
+            forEachParallel(branches, branch -> rollbackQuietly(gtrid, branch));
+            throw new MycatException("xa prepare失败,已回滚\n" + errors.stream().map(i -> i.getMessage()).collect(Collectors.joining("\n")));
+        }
+        errors = forEachParallel(branches, branch -> XaLog.execute(branch.getValue().getRawConnection(),
+                "XA COMMIT " + XaLog.Xid.of(gtrid, branch.getKey())));
+        if (errors.isEmpty()) {
+            xaLog.logEnd(gtrid);
+        } else {
+            //已经写入提交决策,事务视为提交成功
+            for (Throwable error : errors) {
+                LOGGER.error("xa commit {} fail, it will be committed by xa recover", gtrid, error);
+            }
+            xaLog.retryCommit(gtrid);
+        }
+    }
+
+    @Override
+    protected void callBackRollback() {
+        String gtrid = this.gtrid;
+        if (gtrid == null) {
+            return;
+        }
+        this.gtrid = null;
+        List<Map.Entry<String, DefaultConnection>> branches = new ArrayList<>(this.updateConnectionMap.entrySet());
+        List<Throwable> errors = forEachParallel(branches, branch -> {
+            XaLog.Xid xid = XaLog.Xid.of(gtrid, branch.getKey());
+            try {
+                XaLog.execute(branch.getValue().getRawConnection(), "XA END " + xid);
+            } catch (SQLException e) {
+                //分支可能已经结束
+                LOGGER.debug("xa end {} fail", xid, e);
+            }
+            XaLog.execute(branch.getValue().getRawConnection(), "XA ROLLBACK " + xid);
+        });
+        if (!errors.isEmpty()) {
+            throw new MycatException("xa回滚失败\n" + errors.stream().map(i -> i.getMessage()).collect(Collectors.joining("\n")));
+        }
+    }
+
+    /**
+     * 连接关闭前回滚还在进行的分支,否则分支会随连接回到连接池
+     */
+    private void rollbackActiveBranches() {
+        String gtrid = this.gtrid;
+        if (gtrid == null) {
+            return;
+        }
+        this.gtrid = null;
+        forEachParallel(new ArrayList<>(this.updateConnectionMap.entrySet()), branch -> rollbackQuietly(gtrid, branch));
+    }
+
+    @Override
+    public synchronized void close() {
+        rollbackActiveBranches();
+        super.close();
+    }
+
+    @Override
+    public void reset() {
+        rollbackActiveBranches();
+        super.reset();
+    }
+
+    private static void rollbackQuietly(String gtrid, Map.Entry<String, DefaultConnection> branch) {
+        XaLog.Xid xid = XaLog.Xid.of(gtrid, branch.getKey());
+        try {
+            XaLog.execute(branch.getValue().getRawConnection(), "XA END " + xid);
+        } catch (SQLException e) {
+            LOGGER.debug("xa end {} fail", xid, e);
+        }
+        try {
+            XaLog.execute(branch.getValue().getRawConnection(), "XA ROLLBACK " + xid);
+        } catch (SQLException e) {
+            LOGGER.error("xa rollback {} fail", xid, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BranchAction {
+        void apply(Map.Entry<String, DefaultConnection> branch) throws Exception;
+    }
+
+    /**
+     * 各分支在不同的物理连接上并行执行,调用线程也取分支执行,线程池繁忙时退化为顺序执行
+     *
+     * @return 所有分支的异常
+     */
+    private static List<Throwable> forEachParallel(List<Map.Entry<String, DefaultConnection>> branches, BranchAction action) {
+        ConcurrentLinkedQueue<Map.Entry<String, DefaultConnection>> pending = new ConcurrentLinkedQueue<>(branches);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(branches.size());
+        Runnable drain = () -> {
+            Map.Entry<String, DefaultConnection> branch;
+            while ((branch = pending.poll()) != null) {
+                try {
+                    action.apply(branch);
+                } catch (Throwable e) {
+                    LOGGER.error("xa branch {} fail", branch.getKey(), e);
+                    errors.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = branches.size() - 1;
+        if (helpers > 0 && MetaClusterCurrent.exist(MycatWorkerProcessor.class)) {
+            NameableExecutor mycatWorker = MetaClusterCurrent.wrapper(MycatWorkerProcessor.class).getMycatWorker();
+            for (int i = 0; i < helpers; i++) {
+                mycatWorker.execute(drain);
+            }
+        }
+        drain.run();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new ArrayList<>(errors);
+    }
+
+    @Override
+    public Dumper snapshot() {
+        return super.snapshot()
+                .addText("name", name())
+                .addText("threadUsage", getThreadUsageEnum())
+                .addText("transactionType", this.transactionType())
+                .addText("gtrid", gtrid);
+    }
+
+    @Override
+    public DefaultConnection getConnection(String name, Boolean autocommit, int transactionIsolation, boolean readOnly) {
+        JdbcConnectionManager jdbcConnectionManager = MetaClusterCurrent.wrapper(JdbcConnectionManager.class);
+        //事务由XA START开启,连接保持自动提交
+        return jdbcConnectionManager.getConnection(name, true, TRANSACTION_REPEATABLE_READ, false);
+    }
+}
@@ -0,0 +1,101 @@
+package io.mycat.runtime;
+
+import io.mycat.api.collector.RowBaseIteratorCacher;
+import io.mycat.beans.mycat.ResultSetBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.JDBCType;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MycatDataContextImplTest {
+
+    private static void cache(String key) {
+        ResultSetBuilder builder = ResultSetBuilder.create();
+        builder.addColumnInfo("id", JDBCType.BIGINT);
+        builder.addObjectRowPayload(Collections.singletonList(1L));
+        RowBaseIteratorCacher.put(key, builder.build(), Collections.singletonList("db1.t"));
+        Assert.assertNotNull(RowBaseIteratorCacher.peek(key));
+    }
+
+    @Test
+    public void testInvalidateAfterStatement() {
+        MycatDataContextImpl dataContext = new MycatDataContextImpl(null);
+        dataContext.addWrittenTable("db1", "t");
+        //写完成之前加载的结果集
+        cache("testInvalidateAfterStatement");
+        dataContext.endQuery();
+        Assert.assertNull(RowBaseIteratorCacher.peek("testInvalidateAfterStatement"));
+    }
+
+    @Test
+    public void testInvalidateAfterTransaction() {
+        MycatDataContextImpl dataContext = new MycatDataContextImpl(null);
+        dataContext.setInTransaction(true);
+        dataContext.addWrittenTable("db1", "t");
+        dataContext.endQuery();
+        //事务中其他会话加载的结果集看不到未提交的写
+        cache("testInvalidateAfterTransaction");
+        dataContext.endQuery();
+        Assert.assertNotNull(RowBaseIteratorCacher.peek("testInvalidateAfterTransaction"));
+        dataContext.setInTransaction(false);
+        dataContext.endQuery();
+        Assert.assertNull(RowBaseIteratorCacher.peek("testInvalidateAfterTransaction"));
+    }
+
+    @Test
+    public void testCancelInterruptsQueryThread() throws Exception {
+        MycatDataContextImpl dataContext = new MycatDataContextImpl(null);
+        dataContext.startQuery("select sleep(100)");
+        CountDownLatch bound = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean cleared = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            dataContext.bindQueryThread();
+            bound.countDown();
+            try {
+                //等待分片结果
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                Thread.currentThread().interrupt();
+            }
+            dataContext.unbindQueryThread();
+            cleared.set(!Thread.currentThread().isInterrupted());
+        });
+        thread.start();
+        Assert.assertTrue(bound.await(10, TimeUnit.SECONDS));
+        dataContext.cancelQuery();
+        thread.join(10_000);
+        Assert.assertTrue(interrupted.get());
+        Assert.assertTrue(cleared.get());
+        Assert.assertTrue(dataContext.isQueryCancelled());
+        dataContext.startQuery("select 1");
+        Assert.assertFalse(dataContext.isQueryCancelled());
+    }
+
+    @Test
+    public void testCancelAfterUnbind() throws Exception {
+        MycatDataContextImpl dataContext = new MycatDataContextImpl(null);
+        dataContext.bindQueryThread();
+        dataContext.unbindQueryThread();
+        //线程已经在执行其他会话的任务,不能被中断
+        dataContext.cancelQuery();
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testJavaCharset() {
+        Charset defaultCharset = StandardCharsets.ISO_8859_1;
+        Assert.assertEquals(StandardCharsets.UTF_8, MycatDataContextImpl.toJavaCharset(33, "utf8", defaultCharset));
+        Assert.assertEquals(StandardCharsets.UTF_8, MycatDataContextImpl.toJavaCharset(45, "utf8mb4", defaultCharset));
+        Assert.assertEquals(Charset.forName("GBK"), MycatDataContextImpl.toJavaCharset(28, "gbk", defaultCharset));
+        Assert.assertEquals(defaultCharset, MycatDataContextImpl.toJavaCharset(-1, "utf8mb4", defaultCharset));
+        Assert.assertEquals(defaultCharset, MycatDataContextImpl.toJavaCharset(-1, null, defaultCharset));
+    }
+}
@@ -0,0 +1,199 @@
+package io.mycat.runtime;
+
+import io.mycat.config.DatasourceConfig;
+import io.mycat.datasource.jdbc.DatasourceProvider;
+import io.mycat.datasource.jdbc.datasource.JdbcConnectionManager;
+import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import io.mycat.replica.ReplicaSelectorRuntime;
+import io.mycat.util.HexFormatUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+
+public class XaLogTest {
+
+    private static Set<String> set(String... items) {
+        return new LinkedHashSet<>(Arrays.asList(items));
+    }
+
+    @Test
+    public void testReadPending() throws Exception {
+        Path directory = Files.createTempDirectory("xa");
+        XaLog xaLog = new XaLog(directory, "n1");
+        String g1 = xaLog.nextGtrid();
+        String g2 = xaLog.nextGtrid();
+        Assert.assertNotEquals(g1, g2);
+        Assert.assertTrue(g1.startsWith("mycat.n1."));
+        xaLog.logCommit(g1, Arrays.asList("ds0", "ds1"));
+        xaLog.logCommit(g2, Arrays.asList("ds1"));
+        xaLog.logEnd(g2);
+        Map<String, Set<String>> pending = xaLog.readPending();
+        Assert.assertEquals(Collections.singletonMap(g1, set("ds0", "ds1")), pending);
+        //崩溃时最后一行只写了一半
+        Files.write(directory.resolve("xa.log"), "COMMIT mycat.n1.1.9 ds".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertEquals(pending, xaLog.readPending());
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        Path directory = Files.createTempDirectory("xa");
+        XaLog xaLog = new XaLog(directory, "n1");
+        for (int i = 0; i < 10; i++) {
+            String gtrid = xaLog.nextGtrid();
+            xaLog.logCommit(gtrid, Arrays.asList("ds0"));
+            if (i != 3) {
+                xaLog.logEnd(gtrid);
+            }
+        }
+        Map<String, Set<String>> pending = xaLog.readPending();
+        Assert.assertEquals(1, pending.size());
+        //重启时只保留没有完成的提交决策
+        XaLog restarted = new XaLog(directory, "n1");
+        List<String> lines = Files.readAllLines(directory.resolve("xa.log"));
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals(pending, restarted.readPending());
+        Assert.assertFalse(Files.exists(directory.resolve("xa.log.tmp")));
+    }
+
+    @Test
+    public void testGeneratedNode() throws Exception {
+        Path directory = Files.createTempDirectory("xa");
+        String node = new XaLog(directory, null).getNode();
+        Assert.assertFalse(node.isEmpty());
+        Assert.assertEquals(node, new XaLog(directory, null).getNode());
+        Assert.assertNotEquals(node, new XaLog(Files.createTempDirectory("xa"), null).getNode());
+        Assert.assertEquals("n1", new XaLog(directory, "n1").getNode());
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        Path directory = Files.createTempDirectory("xa");
+        XaLog before = new XaLog(directory, "n1");
+        String decided = before.nextGtrid();
+        String undecided = before.nextGtrid();
+        String ended = before.nextGtrid();
+        before.logCommit(decided, Arrays.asList("ds0"));
+        before.logCommit(ended, Arrays.asList("ds0"));
+        before.logEnd(ended);
+        Thread.sleep(2);
+        XaLog xaLog = new XaLog(directory, "n1");
+        String running = xaLog.nextGtrid();
+
+        List<String> executed = new ArrayList<>();
+        List<XaLog.Xid> prepared = Arrays.asList(
+                XaLog.Xid.of(decided, "ds0"),
+                XaLog.Xid.of(undecided, "ds0"),
+                //其他mycat节点的分支
+                XaLog.Xid.of("mycat.n2.1.1", "ds0"),
+                //本进程正在执行的分支
+                XaLog.Xid.of(running, "ds0"));
+        JdbcConnectionManager connectionManager = connectionManager(executed, prepared);
+
+        long[] res = xaLog.recover(connectionManager);
+        Assert.assertArrayEquals(new long[]{1, 1}, res);
+        Assert.assertEquals(Arrays.asList(
+                "XA COMMIT " + XaLog.Xid.of(decided, "ds0"),
+                "XA ROLLBACK " + XaLog.Xid.of(undecided, "ds0")), executed);
+        Assert.assertTrue(xaLog.readPending().isEmpty());
+    }
+
+    static JdbcConnectionManager connectionManager(List<String> executed, List<XaLog.Xid> prepared) {
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName("ds0");
+        DataSource dataSource = proxy(DataSource.class, (p, method, args) -> {
+            if ("getConnection".equals(method.getName())) {
+                return connection(executed, prepared);
+            }
+            return defaultValue(method.getReturnType());
+        });
+        DatasourceProvider provider = new DatasourceProvider() {
+            @Override
+            public JdbcDataSource createDataSource(DatasourceConfig datasourceConfig) {
+                return new JdbcDataSource(datasourceConfig, dataSource);
+            }
+
+            @Override
+            public void closeDataSource(JdbcDataSource dataSource) {
+
+            }
+        };
+        ReplicaSelectorRuntime replicaSelector = new ReplicaSelectorRuntime(Collections.emptyList(), Collections.emptyMap(), null, null);
+        return new JdbcConnectionManager(Collections.singletonMap("ds0", config), Collections.emptyMap(), provider, null, replicaSelector);
+    }
+
+    private static Connection connection(List<String> executed, List<XaLog.Xid> prepared) {
+        return proxy(Connection.class, (p, method, args) -> {
+            if ("createStatement".equals(method.getName())) {
+                return proxy(Statement.class, (statement, statementMethod, statementArgs) -> {
+                    switch (statementMethod.getName()) {
+                        case "execute":
+                            executed.add((String) statementArgs[0]);
+                            return false;
+                        case "executeQuery":
+                            Assert.assertEquals("XA RECOVER CONVERT XID", statementArgs[0]);
+                            return recoverResultSet(prepared);
+                        default:
+                            return defaultValue(statementMethod.getReturnType());
+                    }
+                });
+            }
+            if ("getTransactionIsolation".equals(method.getName())) {
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static ResultSet recoverResultSet(List<XaLog.Xid> prepared) {
+        Iterator<XaLog.Xid> iterator = prepared.iterator();
+        XaLog.Xid[] current = new XaLog.Xid[1];
+        return proxy(ResultSet.class, (p, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    current[0] = iterator.hasNext() ? iterator.next() : null;
+                    return current[0] != null;
+                case "getLong":
+                    return current[0].formatId;
+                case "getInt": {
+                    byte[] gtrid = current[0].gtrid.getBytes(StandardCharsets.UTF_8);
+                    return "gtrid_length".equals(args[0]) ? gtrid.length : current[0].bqual.length;
+                }
+                case "getString": {
+                    byte[] gtrid = current[0].gtrid.getBytes(StandardCharsets.UTF_8);
+                    return "0x" + HexFormatUtil.bytesToHexString(gtrid) + HexFormatUtil.bytesToHexString(current[0].bqual);
+                }
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(XaLogTest.class.getClassLoader(), new Class[]{clazz}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,212 @@
+package io.mycat.runtime;
+
+import io.mycat.MycatDataContext;
+import io.mycat.MycatException;
+import io.mycat.config.DatasourceConfig;
+import io.mycat.datasource.jdbc.datasource.ConnectionManager;
+import io.mycat.datasource.jdbc.datasource.DefaultConnection;
+import io.mycat.datasource.jdbc.datasource.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+public class XaTransactionSessionTest {
+    private XaLog oldXaLog;
+    private XaLog xaLog;
+    private Path directory;
+    private ScheduledThreadPoolExecutor retryTimer;
+    /**
+     * 数据源:语句,不包含xid
+     */
+    private final List<String> executed = new ArrayList<>();
+    /**
+     * 执行时抛出异常的 数据源:语句
+     */
+    private final Set<String> failures = new HashSet<>();
+    /**
+     * 每次XA COMMIT执行时提交决策是否已经写入
+     */
+    private final List<Boolean> loggedBeforeCommit = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        oldXaLog = XaTransactionSession.getXaLog();
+        directory = Files.createTempDirectory("xa");
+        xaLog = new XaLog(directory, "n1");
+        retryTimer = new ScheduledThreadPoolExecutor(1);
+        xaLog.retryTimer = retryTimer;
+        XaTransactionSession.configure(xaLog);
+    }
+
+    @After
+    public void tearDown() {
+        XaTransactionSession.configure(oldXaLog);
+        retryTimer.shutdownNow();
+    }
+
+    private XaTransactionSession session() {
+        boolean[] inTransaction = {false};
+        MycatDataContext dataContext = proxy(MycatDataContext.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isInTransaction":
+                    return inTransaction[0];
+                case "setInTransaction":
+                    inTransaction[0] = (Boolean) args[0];
+                    return null;
+                case "isAutocommit":
+                    return true;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        return new XaTransactionSession(dataContext) {
+            @Override
+            public DefaultConnection getConnection(String name, Boolean autocommit, int transactionIsolation, boolean readOnly) {
+                return connection(name);
+            }
+        };
+    }
+
+    private DefaultConnection connection(String datasource) {
+        Connection rawConnection = proxy(Connection.class, (p, method, args) -> {
+            if ("createStatement".equals(method.getName())) {
+                return proxy(Statement.class, (statement, statementMethod, statementArgs) -> {
+                    if ("execute".equals(statementMethod.getName())) {
+                        String sql = datasource + ":" + ((String) statementArgs[0]).replaceAll(" X'\\w*',X'\\w*',1", "");
+                        executed.add(sql);
+                        if (sql.endsWith("XA COMMIT")) {
+                            loggedBeforeCommit.add(!xaLog.readPending().isEmpty());
+                        }
+                        if (failures.contains(sql)) {
+                            throw new SQLException(sql + " fail");
+                        }
+                        return false;
+                    }
+                    return defaultValue(statementMethod.getReturnType());
+                });
+            }
+            if ("getTransactionIsolation".equals(method.getName())) {
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            }
+            return defaultValue(method.getReturnType());
+        });
+        DatasourceConfig config = new DatasourceConfig();
+        config.setName(datasource);
+        JdbcDataSource dataSource = new JdbcDataSource(config, proxy(DataSource.class, (p, method, args) -> defaultValue(method.getReturnType())));
+        ConnectionManager connectionManager = new ConnectionManager() {
+            @Override
+            public void addDatasource(DatasourceConfig key) {
+
+            }
+
+            @Override
+            public void removeDatasource(String name) {
+
+            }
+
+            @Override
+            public DefaultConnection getConnection(String name) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void closeConnection(DefaultConnection connection) {
+
+            }
+        };
+        return new DefaultConnection(rawConnection, dataSource, true, Connection.TRANSACTION_REPEATABLE_READ, false, connectionManager);
+    }
+
+    private XaTransactionSession begin(String... datasources) {
+        XaTransactionSession session = session();
+        session.begin();
+        for (String datasource : datasources) {
+            session.getConnection(Collections.singletonList(datasource));
+        }
+        return session;
+    }
+
+    @Test
+    public void testOnePhase() throws Exception {
+        begin("ds0").commit();
+        Assert.assertEquals(Arrays.asList("ds0:XA START", "ds0:XA END", "ds0:XA COMMIT ONE PHASE"), executed);
+        //只有一个分支时不写决策日志
+        Assert.assertTrue(Files.readAllLines(directory.resolve("xa.log")).isEmpty());
+    }
+
+    @Test
+    public void testPrepareFail() throws Exception {
+        failures.add("ds1:XA PREPARE");
+        XaTransactionSession session = begin("ds0", "ds1");
+        try {
+            session.commit();
+            Assert.fail();
+        } catch (MycatException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("ds1:XA PREPARE fail"));
+        }
+        Assert.assertTrue(executed.contains("ds0:XA ROLLBACK"));
+        Assert.assertTrue(executed.contains("ds1:XA ROLLBACK"));
+        Assert.assertFalse(executed.stream().anyMatch(i -> i.contains("XA COMMIT")));
+        Assert.assertTrue(Files.readAllLines(directory.resolve("xa.log")).isEmpty());
+    }
+
+    @Test
+    public void testLogBeforeCommit() throws Exception {
+        begin("ds0", "ds1").commit();
+        Assert.assertEquals(Arrays.asList("ds0:XA START", "ds1:XA START",
+                "ds0:XA END", "ds0:XA PREPARE", "ds1:XA END", "ds1:XA PREPARE",
+                "ds0:XA COMMIT", "ds1:XA COMMIT"), executed);
+        //提交每个分支之前决策日志已经写入
+        Assert.assertEquals(Arrays.asList(true, true), loggedBeforeCommit);
+        Assert.assertTrue(xaLog.readPending().isEmpty());
+        Assert.assertEquals(2, Files.readAllLines(directory.resolve("xa.log")).size());
+    }
+
+    @Test
+    public void testRetryCommit() throws Exception {
+        failures.add("ds1:XA COMMIT");
+        //已经写入提交决策,提交失败不影响客户端
+        begin("ds0", "ds1").commit();
+        Map<String, Set<String>> pending = xaLog.readPending();
+        Assert.assertEquals(1, pending.size());
+        String gtrid = pending.keySet().iterator().next();
+        Assert.assertEquals(1, retryTimer.getQueue().size());
+        //重试时ds1上的分支仍然是prepared状态
+        List<String> retried = new ArrayList<>();
+        Set<String> unresolved = xaLog.retry(XaLogTest.connectionManager(retried,
+                Collections.singletonList(XaLog.Xid.of(gtrid, "ds1"))));
+        Assert.assertTrue(unresolved.isEmpty());
+        Assert.assertEquals(Collections.singletonList("XA COMMIT " + XaLog.Xid.of(gtrid, "ds1")), retried);
+        Assert.assertTrue(xaLog.readPending().isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(XaTransactionSessionTest.class.getClassLoader(), new Class[]{clazz}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -4,25 +4,49 @@ import io.mycat.DataSourceNearness;
 import io.mycat.MetaCluster;
 import io.mycat.MetaClusterCurrent;
 import io.mycat.TransactionSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
  * 使集群选择数据源具有亲近性
+ * 开启readYourWrites后记录会话写入后的gtid,之后的读只选择已经执行过这些事务的节点,
+ * 心跳中没有满足的从节点时等待一个从节点追上,超时后读主节点
  *
  * @junwen12221
  */
 public class DataSourceNearnessImpl implements DataSourceNearness {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataSourceNearnessImpl.class);
+
     HashMap<String, String> map = new HashMap<>();
     String loadBalanceStrategy;
     Boolean replicaMode;
     private TransactionSession transactionSession;
+    /**
+     * key:集群名 value:会话在该集群写入后的gtid,clear不会清除
+     */
+    private final Map<String, GtidSet> writtenGtidSets = new HashMap<>();
 
     public DataSourceNearnessImpl(TransactionSession transactionSession) {
         this.transactionSession = transactionSession;
     }
 
+    /**
+     * 在指定时间内等待数据源执行完gtidSet,注册在MetaClusterCurrent中,没有注册时直接读主节点
+     */
+    @FunctionalInterface
+    public interface GtidWaiter {
+        boolean await(String datasourceName, GtidSet gtidSet, long timeoutMillis);
+    }
+
+    public static boolean isReadYourWrites() {
+        return MetaClusterCurrent.serverConfig().isReadYourWrites();
+    }
+
     public String getDataSourceByTargetName(final String targetName) {
         Objects.requireNonNull(targetName);
         ReplicaSelectorRuntime instance = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
@@ -32,7 +56,10 @@ public class DataSourceNearnessImpl implements DataSourceNearness {
         String res;
         if (replicaMode) {
             res  =  map.computeIfAbsent(targetName, (s) -> {
-                String datasourceNameByReplicaName = instance.getDatasourceNameByReplicaName(targetName, !transactionSession.isAutocommit()||transactionSession.isInTransaction(), loadBalanceStrategy);
+                boolean master = !transactionSession.isAutocommit() || transactionSession.isInTransaction();
+                String datasourceNameByReplicaName = master ?
+                        instance.getDatasourceNameByReplicaName(targetName, true, loadBalanceStrategy) :
+                        getReadDatasourceName(instance, targetName, loadBalanceStrategy);
                 return Objects.requireNonNull(datasourceNameByReplicaName);
             });
         }else {
@@ -41,6 +68,66 @@ public class DataSourceNearnessImpl implements DataSourceNearness {
         return Objects.requireNonNull( res);
     }
 
+    @Override
+    public String getDataSourceByTargetName(String targetName, boolean master, String loadBalanceStrategy) {
+        Objects.requireNonNull(targetName);
+        ReplicaSelectorRuntime instance = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
+        if (master || !transactionSession.isAutocommit() || transactionSession.isInTransaction()) {
+            return instance.getDatasourceNameByReplicaName(targetName, true, loadBalanceStrategy);
+        }
+        return getReadDatasourceName(instance, targetName, loadBalanceStrategy);
+    }
+
+    private String getReadDatasourceName(ReplicaSelectorRuntime instance, String targetName, String loadBalanceStrategy) {
+        GtidSet gtidSet = isReadYourWrites() ? writtenGtidSets.get(targetName) : null;
+        if (gtidSet == null) {
+            return instance.getDatasourceNameByReplicaName(targetName, false, loadBalanceStrategy);
+        }
+        String name = instance.getDatasourceNameByReplicaName(targetName, gtidSet, loadBalanceStrategy);
+        if (name != null) {
+            if (instance.isCaughtUp(targetName, gtidSet)) {
+                //所有读节点都已经追上,之后不需要再检查
+                writtenGtidSets.remove(targetName);
+            }
+            return name;
+        }
+        name = instance.getDatasourceNameByReplicaName(targetName, false, loadBalanceStrategy);
+        PhysicsInstance physicsInstance = instance.getPhysicsInstanceByName(name);
+        if (physicsInstance != null && (physicsInstance.isMaster() || await(name, gtidSet))) {
+            return name;
+        }
+        LOGGER.debug("no replica of {} caught up with gtid:{}, read from master", targetName, gtidSet);
+        return instance.getDatasourceNameByReplicaName(targetName, true, loadBalanceStrategy);
+    }
+
+    private static boolean await(String datasourceName, GtidSet gtidSet) {
+        //没有追上的从节点时最多等待readYourWritesWaitMillis,小于等于0直接读主节点
+        long timeout = MetaClusterCurrent.serverConfig().getReadYourWritesWaitMillis();
+        if (timeout <= 0 || !MetaClusterCurrent.exist(GtidWaiter.class)) {
+            return false;
+        }
+        GtidWaiter waiter = MetaClusterCurrent.wrapper(GtidWaiter.class);
+        try {
+            return waiter.await(datasourceName, gtidSet, timeout);
+        } catch (Exception e) {
+            LOGGER.warn("wait datasource:{} for gtid:{} fail", datasourceName, gtidSet, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void onCommitted(String datasourceName, String executedGtidSet) {
+        GtidSet gtidSet = GtidSet.parse(executedGtidSet);
+        if (gtidSet.isEmpty()) {
+            return;
+        }
+        ReplicaSelectorRuntime instance = MetaClusterCurrent.wrapper(ReplicaSelectorRuntime.class);
+        List<String> replicaNames = instance.getRepliaNameListByInstanceName(datasourceName);
+        for (String replicaName : replicaNames) {
+            writtenGtidSets.merge(replicaName, gtidSet, GtidSet::union);
+        }
+    }
+
     public void setLoadBalanceStrategy(String loadBalanceStrategy) {
         this.loadBalanceStrategy = loadBalanceStrategy;
     }
@@ -51,4 +138,4 @@ public class DataSourceNearnessImpl implements DataSourceNearness {
         replicaMode = null;
         loadBalanceStrategy = null;
     }
-}
\ No newline at end of file
+}
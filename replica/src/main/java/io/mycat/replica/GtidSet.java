@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) <2020>  <chen junwen>
+ * <p>
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with this program.  If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package io.mycat.replica;
+
+import io.mycat.MycatException;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * 不可变的gtid集合,格式与gtid_executed相同,例如
+ * 3E11FA47-71CA-11E1-9E33-C80AA9429562:1-5:7,4E11FA47-71CA-11E1-9E33-C80AA9429562:1-3
+ * 8.4的带tag的gtid以uuid:tag作为key
+ * chen junwen
+ */
+public final class GtidSet {
+    public static final GtidSet EMPTY = new GtidSet(Collections.emptyMap());
+    private static final Pattern UUID = Pattern.compile("[0-9a-f]{8}-?[0-9a-f]{4}-?[0-9a-f]{4}-?[0-9a-f]{4}-?[0-9a-f]{12}");
+    private static final Pattern TAG = Pattern.compile("[a-z_][a-z0-9_]{0,31}");
+    /**
+     * key:uuid(或uuid:tag) value:已合并并排序的闭区间,long[]{start,end}
+     */
+    private final Map<String, List<long[]>> sets;
+
+    private GtidSet(Map<String, List<long[]>> sets) {
+        this.sets = sets;
+    }
+
+    public static GtidSet parse(String text) {
+        if (text == null) {
+            return EMPTY;
+        }
+        Map<String, List<long[]>> sets = new TreeMap<>();
+        for (String item : text.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            String[] parts = item.split(":");
+            String key = parts[0].trim().toLowerCase();
+            if (!UUID.matcher(key).matches()) {
+                throw new MycatException("illegal gtid set:{}", text);
+            }
+            List<long[]> intervals = sets.computeIfAbsent(key, s -> new ArrayList<>());
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i].trim();
+                if (part.isEmpty()) {
+                    throw new MycatException("illegal gtid set:{}", text);
+                }
+                if (!Character.isDigit(part.charAt(0))) {
+                    String tag = part.toLowerCase();
+                    if (!TAG.matcher(tag).matches()) {
+                        throw new MycatException("illegal gtid set:{}", text);
+                    }
+                    intervals = sets.computeIfAbsent(key + ":" + tag, s -> new ArrayList<>());
+                    continue;
+                }
+                int index = part.indexOf('-');
+                try {
+                    long start = Long.parseLong(index < 0 ? part : part.substring(0, index));
+                    long end = index < 0 ? start : Long.parseLong(part.substring(index + 1));
+                    if (start > end) {
+                        throw new MycatException("illegal gtid set:{}", text);
+                    }
+                    intervals.add(new long[]{start, end});
+                } catch (NumberFormatException e) {
+                    throw new MycatException("illegal gtid set:{}", text);
+                }
+            }
+        }
+        sets.values().removeIf(List::isEmpty);
+        sets.replaceAll((k, v) -> normalize(v));
+        return sets.isEmpty() ? EMPTY : new GtidSet(sets);
+    }
+
+    private static List<long[]> normalize(List<long[]> intervals) {
+        intervals.sort(Comparator.comparingLong(i -> i[0]));
+        ArrayList<long[]> res = new ArrayList<>(intervals.size());
+        long[] last = null;
+        for (long[] interval : intervals) {
+            if (last != null && interval[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], interval[1]);
+            } else {
+                last = new long[]{interval[0], interval[1]};
+                res.add(last);
+            }
+        }
+        return res;
+    }
+
+    public boolean isEmpty() {
+        return sets.isEmpty();
+    }
+
+    /**
+     * 是否包含other中的所有事务
+     */
+    public boolean contains(GtidSet other) {
+        for (Map.Entry<String, List<long[]>> e : other.sets.entrySet()) {
+            List<long[]> intervals = sets.get(e.getKey());
+            if (intervals == null) {
+                return false;
+            }
+            for (long[] interval : e.getValue()) {
+                if (!covers(intervals, interval)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean covers(List<long[]> intervals, long[] interval) {
+        int low = 0;
+        int high = intervals.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] candidate = intervals.get(mid);
+            if (candidate[1] < interval[0]) {
+                low = mid + 1;
+            } else if (candidate[0] > interval[0]) {
+                high = mid - 1;
+            } else {
+                return candidate[1] >= interval[1];
+            }
+        }
+        return false;
+    }
+
+    public GtidSet union(GtidSet other) {
+        if (other.isEmpty() || this.contains(other)) {
+            return this;
+        }
+        if (this.isEmpty() || other.contains(this)) {
+            return other;
+        }
+        Map<String, List<long[]>> res = new TreeMap<>();
+        for (Map<String, List<long[]>> map : Arrays.asList(this.sets, other.sets)) {
+            map.forEach((k, v) -> {
+                List<long[]> list = res.computeIfAbsent(k, s -> new ArrayList<>());
+                for (long[] interval : v) {
+                    list.add(new long[]{interval[0], interval[1]});
+                }
+            });
+        }
+        res.replaceAll((k, v) -> normalize(v));
+        return new GtidSet(res);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GtidSet)) {
+            return false;
+        }
+        GtidSet gtidSet = (GtidSet) o;
+        return contains(gtidSet) && gtidSet.contains(this);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<long[]>> e : sets.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(e.getKey());
+            for (long[] interval : e.getValue()) {
+                sb.append(':').append(interval[0]);
+                if (interval[1] != interval[0]) {
+                    sb.append('-').append(interval[1]);
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
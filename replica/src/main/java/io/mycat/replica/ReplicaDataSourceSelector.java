@@ -72,7 +72,7 @@ public class ReplicaDataSourceSelector implements LoadBalanceInfo , Closeable {
         this.replicaSelectorRuntime = replicaSelectorRuntime;
         Objects.requireNonNull(balanceType, "balanceType is null");
         if (timer!=null) {
-            this.scheduled = ScheduleUtil.getTimer().scheduleAtFixedRate(() -> {
+            this.scheduled = ScheduleUtil.scheduleAtFixedRate("heartbeat." + name, () -> {
                 String replicaName = name;
                 Enumeration<String> keys = datasourceMap.keys();
                 while (keys.hasMoreElements()) {
@@ -297,7 +297,7 @@ public class ReplicaDataSourceSelector implements LoadBalanceInfo , Closeable {
     public void close() throws IOException {
         try {
             if (scheduled != null && (!scheduled.isDone() || !scheduled.isCancelled())) {
-                scheduled.cancel(true);
+                ScheduleUtil.cancel("heartbeat." + name, scheduled, true);
             }
         }catch (Throwable t){
 
@@ -264,6 +264,58 @@ public class ReplicaSelectorRuntime implements Closeable {
         return writeDatasource.getName();
     }
 
+    /**
+     * 只在心跳记录的Executed_Gtid_Set已经包含gtidSet的读节点中选择,主节点总是满足
+     *
+     * @return 没有满足的读节点返回null
+     */
+    public String getDatasourceNameByReplicaName(String replicaName, GtidSet gtidSet, String loadBalanceStrategy) {
+        ReplicaDataSourceSelector selector = replicaMap.get(Objects.requireNonNull(replicaName));
+        if (selector == null) {
+            return replicaName;
+        }
+        List<LoadBalanceElement> candidates = new ArrayList<>();
+        for (Object o : selector.getDataSourceByLoadBalacneType()) {
+            PhysicsInstanceImpl instance = (PhysicsInstanceImpl) o;
+            if (isCaughtUp(replicaName, instance, gtidSet)) {
+                candidates.add(instance);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        LoadBalanceStrategy balanceStrategy = selector.defaultReadLoadBalanceStrategy;
+        if (loadBalanceStrategy != null) {
+            balanceStrategy = loadBalanceManager.getLoadBalanceByBalanceName(loadBalanceStrategy);
+        }
+        LoadBalanceElement select = balanceStrategy.select(selector, candidates);
+        return select == null ? null : select.getName();
+    }
+
+    /**
+     * 集群的所有读节点是否都已经执行过gtidSet
+     */
+    public boolean isCaughtUp(String replicaName, GtidSet gtidSet) {
+        ReplicaDataSourceSelector selector = replicaMap.get(Objects.requireNonNull(replicaName));
+        if (selector == null) {
+            return true;
+        }
+        for (Object o : selector.getDataSourceByLoadBalacneType()) {
+            if (!isCaughtUp(replicaName, (PhysicsInstance) o, gtidSet)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCaughtUp(String replicaName, PhysicsInstance instance, GtidSet gtidSet) {
+        if (instance.isMaster()) {
+            return true;
+        }
+        HeartbeatFlow heartbeatFlow = heartbeatDetectorMap.get(replicaName + "." + instance.getName());
+        return heartbeatFlow != null && heartbeatFlow.getExecutedGtidSet().contains(gtidSet);
+    }
+
     public PhysicsInstanceImpl getWriteDatasourceByReplicaName(String replicaName,
                                                                LoadBalanceStrategy balanceStrategy) {
         ReplicaDataSourceSelector selector = replicaMap.get(replicaName);
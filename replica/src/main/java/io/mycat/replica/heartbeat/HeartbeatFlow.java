@@ -14,6 +14,7 @@
  */
 package io.mycat.replica.heartbeat;
 
+import io.mycat.replica.GtidSet;
 import io.mycat.replica.PhysicsInstance;
 import lombok.Getter;
 import org.slf4j.Logger;
@@ -35,6 +36,8 @@ public abstract class HeartbeatFlow {
   protected volatile DatasourceStatus dsStatus;
   protected volatile long lastSendQryTime;
   protected volatile long lastReceivedQryTime;//    private isCheck
+  protected volatile long lastLatency;
+  protected volatile GtidSet executedGtidSet = GtidSet.EMPTY;
 
 
   public HeartbeatFlow(PhysicsInstance instance, int maxRetry,
@@ -54,7 +57,29 @@ public abstract class HeartbeatFlow {
   }
 
   public void updateLastReceivedQryTime() {
-    this.lastReceivedQryTime = System.currentTimeMillis();
+    long now = System.currentTimeMillis();
+    this.lastReceivedQryTime = now;
+    if (lastSendQryTime > 0 && now >= lastSendQryTime) {
+      this.lastLatency = now - lastSendQryTime;
+    }
+  }
+
+  /**
+   * 最近一次心跳从发送到收到结果的毫秒数,超时的心跳记为超时时间
+   */
+  public long getLastLatency() {
+    return lastLatency;
+  }
+
+  /**
+   * 最近一次心跳读到的Executed_Gtid_Set,没有开启gtid或者不是从库时为空集合
+   */
+  public GtidSet getExecutedGtidSet() {
+    return executedGtidSet;
+  }
+
+  public void setExecutedGtidSet(GtidSet executedGtidSet) {
+    this.executedGtidSet = executedGtidSet;
   }
 
   public void updateLastSendQryTime() {
@@ -15,6 +15,8 @@
 package io.mycat.replica.heartbeat.strategy;
 
 import io.mycat.GlobalConst;
+import io.mycat.plug.loadBalance.LatencyStatistics;
+import io.mycat.replica.GtidSet;
 import io.mycat.replica.heartbeat.DatasourceEnum;
 import io.mycat.replica.heartbeat.DatasourceStatus;
 import io.mycat.replica.heartbeat.HeartBeatStrategy;
@@ -48,13 +50,24 @@ public class MySQLMasterSlaveBeatStrategy extends HeartBeatStrategy {
           && Slave_IO_Running.equals(Slave_SQL_Running)
           && Slave_SQL_Running.equals("Yes")) {
         datasourceStatus.setDbSynStatus(DatasourceEnum.DB_SYN_NORMAL);
-        Long Behind_Master = (Long) resultResult.get("Seconds_Behind_Master");
-        if (Behind_Master > heartbeatFlow.getSlaveThreshold()) {
+        updateExecutedGtidSet((String) resultResult.get("Executed_Gtid_Set"));
+        Number Behind_Master = (Number) resultResult.get("Seconds_Behind_Master");
+        String name = heartbeatFlow.instance().getName();
+        if (Behind_Master == null) {
+          //复制线程在运行但是延迟未知,例如sql线程还没有追上已经断开的io线程,视为延迟无限大
+          LatencyStatistics.INSTANCE.setReplicationLagUnknown(name);
           datasourceStatus.setSlaveBehindMaster(true);
-          LOGGER.info("found MySQL master/slave Replication delay !!! " +
-              " binlog sync time delay: " + Behind_Master + "s");
+          LOGGER.info("found MySQL master/slave Replication delay unknown !!! Seconds_Behind_Master is NULL");
         } else {
-          datasourceStatus.setSlaveBehindMaster(false);
+          //复制延迟未超过阈值时也会降低BalanceLeastLatency选择该数据源的概率
+          LatencyStatistics.INSTANCE.setReplicationLag(name, Behind_Master.longValue());
+          if (Behind_Master.longValue() > heartbeatFlow.getSlaveThreshold()) {
+            datasourceStatus.setSlaveBehindMaster(true);
+            LOGGER.info("found MySQL master/slave Replication delay !!! " +
+                " binlog sync time delay: " + Behind_Master + "s");
+          } else {
+            datasourceStatus.setSlaveBehindMaster(false);
+          }
         }
       } else if (heartbeatFlow.instance().asSelectRead()) {
         String Last_IO_Error =
@@ -62,11 +75,21 @@ public class MySQLMasterSlaveBeatStrategy extends HeartBeatStrategy {
         System.out.println("found MySQL master/slave Replication err !!! "
             + Last_IO_Error);
         datasourceStatus.setDbSynStatus(DatasourceEnum.DB_SYN_ERROR);
+        LatencyStatistics.INSTANCE.setReplicationLagUnknown(heartbeatFlow.instance().getName());
       }
     }
     heartbeatFlow.setStatus(datasourceStatus, DatasourceEnum.OK_STATUS);
   }
 
+  private void updateExecutedGtidSet(String executedGtidSet) {
+    try {
+      heartbeatFlow.setExecutedGtidSet(GtidSet.parse(executedGtidSet));
+    } catch (Exception e) {
+      LOGGER.warn("illegal Executed_Gtid_Set:{}", executedGtidSet, e);
+      heartbeatFlow.setExecutedGtidSet(GtidSet.EMPTY);
+    }
+  }
+
   @Override
   public void onError(String errorMessage) {
     heartbeatFlow.setStatus(DatasourceEnum.ERROR_STATUS);
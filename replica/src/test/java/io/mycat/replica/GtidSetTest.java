@@ -0,0 +1,70 @@
+package io.mycat.replica;
+
+import io.mycat.MycatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GtidSetTest {
+    private static final String A = "3e11fa47-71ca-11e1-9e33-c80aa9429562";
+    private static final String B = "4e11fa47-71ca-11e1-9e33-c80aa9429562";
+
+    @Test
+    public void testParse() {
+        Assert.assertTrue(GtidSet.parse(null).isEmpty());
+        Assert.assertTrue(GtidSet.parse("").isEmpty());
+        Assert.assertTrue(GtidSet.parse(" , ").isEmpty());
+        //区间排序合并,uuid转小写,gtid_executed中的换行
+        GtidSet gtidSet = GtidSet.parse(B + ":10-12:1-3,\n" + A.toUpperCase() + ":7:1-5:6");
+        Assert.assertEquals(A + ":1-7," + B + ":1-3:10-12", gtidSet.toString());
+        Assert.assertEquals(gtidSet, GtidSet.parse(gtidSet.toString()));
+    }
+
+    @Test
+    public void testParseTagged() {
+        GtidSet gtidSet = GtidSet.parse(A + ":1-5:Tag1:1-2:3");
+        Assert.assertEquals(A + ":1-5," + A + ":tag1:1-3", gtidSet.toString());
+        Assert.assertTrue(gtidSet.contains(GtidSet.parse(A + ":tag1:2")));
+        Assert.assertFalse(gtidSet.contains(GtidSet.parse(A + ":tag2:1")));
+    }
+
+    @Test
+    public void testParseIllegal() {
+        for (String text : new String[]{A + ":5-1", A + ":x-1", A + "::1", A + ":1-", "uuid'):1", A + ":t'):1"}) {
+            try {
+                GtidSet.parse(text);
+                Assert.fail(text);
+            } catch (MycatException e) {
+                Assert.assertTrue(e.getMessage().contains("illegal gtid set"));
+            }
+        }
+    }
+
+    @Test
+    public void testContains() {
+        GtidSet executed = GtidSet.parse(A + ":1-100:200-300," + B + ":1-5");
+        Assert.assertTrue(executed.contains(GtidSet.EMPTY));
+        Assert.assertTrue(executed.contains(GtidSet.parse(A + ":1-100")));
+        Assert.assertTrue(executed.contains(GtidSet.parse(A + ":50:250-260," + B + ":5")));
+        //跨越空洞
+        Assert.assertFalse(executed.contains(GtidSet.parse(A + ":100-200")));
+        Assert.assertFalse(executed.contains(GtidSet.parse(A + ":101")));
+        Assert.assertFalse(executed.contains(GtidSet.parse(A + ":300-301")));
+        Assert.assertFalse(executed.contains(GtidSet.parse(B + ":6")));
+        Assert.assertFalse(executed.contains(GtidSet.parse("5e11fa47-71ca-11e1-9e33-c80aa9429562:1")));
+        Assert.assertFalse(GtidSet.EMPTY.contains(executed));
+    }
+
+    @Test
+    public void testUnion() {
+        GtidSet left = GtidSet.parse(A + ":1-5");
+        GtidSet right = GtidSet.parse(A + ":6-8:10," + B + ":1");
+        GtidSet union = left.union(right);
+        Assert.assertEquals(A + ":1-8:10," + B + ":1", union.toString());
+        Assert.assertTrue(union.contains(left));
+        Assert.assertTrue(union.contains(right));
+        Assert.assertSame(union, union.union(left));
+        Assert.assertSame(union, GtidSet.EMPTY.union(union));
+        //原集合不变
+        Assert.assertEquals(A + ":1-5", left.toString());
+    }
+}
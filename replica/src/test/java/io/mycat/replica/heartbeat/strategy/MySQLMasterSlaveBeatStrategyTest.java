@@ -0,0 +1,76 @@
+package io.mycat.replica.heartbeat.strategy;
+
+import io.mycat.plug.loadBalance.LatencyStatistics;
+import io.mycat.replica.PhysicsInstance;
+import io.mycat.replica.heartbeat.DatasourceStatus;
+import io.mycat.replica.heartbeat.HeartbeatFlow;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MySQLMasterSlaveBeatStrategyTest {
+
+    private static DatasourceStatus process(String name, Object secondsBehindMaster) {
+        PhysicsInstance instance = (PhysicsInstance) Proxy.newProxyInstance(PhysicsInstance.class.getClassLoader(),
+                new Class[]{PhysicsInstance.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getName":
+                            return name;
+                        case "asSelectRead":
+                            return true;
+                        default:
+                            return method.getReturnType() == boolean.class ? false : null;
+                    }
+                });
+        DatasourceStatus[] sent = new DatasourceStatus[1];
+        HeartbeatFlow heartbeatFlow = new HeartbeatFlow(instance, 3, 1000, 1000, 10) {
+            @Override
+            public void heartbeat() {
+
+            }
+
+            @Override
+            public void sendDataSourceStatus(DatasourceStatus status) {
+                sent[0] = status;
+            }
+
+            @Override
+            public void setTaskquitDetector() {
+
+            }
+        };
+        Map<String, Object> row = new HashMap<>();
+        row.put("Slave_IO_Running", "Yes");
+        row.put("Slave_SQL_Running", "Yes");
+        row.put("Seconds_Behind_Master", secondsBehindMaster);
+        new MySQLMasterSlaveBeatStrategy(heartbeatFlow).process(Collections.singletonList(row));
+        return sent[0];
+    }
+
+    @Test
+    public void testLag() {
+        Assert.assertFalse(process("lag5", 5L).isSlaveBehindMaster());
+        Assert.assertEquals(5, LatencyStatistics.INSTANCE.get("lag5").getReplicationLagSeconds());
+        //驱动返回的类型不一定是Long
+        Assert.assertTrue(process("lag20", BigInteger.valueOf(20)).isSlaveBehindMaster());
+        Assert.assertEquals(20, LatencyStatistics.INSTANCE.get("lag20").getReplicationLagSeconds());
+    }
+
+    @Test
+    public void testNullLag() {
+        //复制延迟未知时视为延迟无限大
+        Assert.assertTrue(process("unknown", null).isSlaveBehindMaster());
+        LatencyStatistics.Statistic unknown = LatencyStatistics.INSTANCE.get("unknown");
+        Assert.assertEquals(Long.MAX_VALUE, unknown.getReplicationLagSeconds());
+        process("lag1000", 1000L);
+        Assert.assertTrue(unknown.getCost() > LatencyStatistics.INSTANCE.get("lag1000").getCost());
+        //恢复后使用新的延迟
+        Assert.assertFalse(process("unknown", 0L).isSlaveBehindMaster());
+        Assert.assertEquals(0, unknown.getReplicationLagSeconds());
+    }
+}
@@ -138,6 +138,11 @@ public class MergeSubTablesFunction extends CustomRuleFunction {
         return this.columnName.equals(name);
     }
 
+    @Override
+    public List<String> getShardingKeys() {
+        return ImmutableList.of(columnName);
+    }
+
     private DataNode getDataNode(String tableName) {
         return new DataNode() {
             @Override
@@ -99,10 +99,10 @@ public class AutoFunctionFactory {
 
 
         ToIntFunction<Object> tableFunction = (o) -> 0;
-        Set<String> dbShardingKeys = new HashSet<>();
+        Set<String> dbShardingKeys = new LinkedHashSet<>();
 
         ToIntFunction<Object> dbFunction = (o) -> 0;
-        Set<String> tableShardingKeys = new HashSet<>();
+        Set<String> tableShardingKeys = new LinkedHashSet<>();
 
         if (dbMethod != null) {
             int num = dbNum;
@@ -497,29 +497,103 @@ public class AutoFunctionFactory {
         };
         Set<String> keys = new HashSet<>(dbShardingKeys);
         keys.addAll(tableShardingKeys);
+        List<String> shardingKeys = new ArrayList<>(dbShardingKeys);
+        shardingKeys.addAll(tableShardingKeys);
+        List<String> distinctKeys = new ArrayList<>(new LinkedHashSet<>(shardingKeys));
+        String signature = methodSignature(dbMethod, distinctKeys, tableHandler)
+                + "/" + methodSignature(tableMethod, distinctKeys, tableHandler);
+        String name = MessageFormat.format("dbNum:{0} tableNum:{1} dbMethod:{2} tableMethod:{3}",
+                dbNum, tableNum, dbMethod, tableMethod);
+        return new AutoFunction(name, function, keys, shardingKeys, dbNum, tableNum, groupNum, signature);
+    }
 
-        return new CustomRuleFunction() {
-            @Override
-            public String name() {
-                return MessageFormat.format("dbNum:{0} tableNum:{1} dbMethod:{2} tableMethod:{3}",
-                        dbNum, tableNum, dbMethod, tableMethod);
+    /**
+     * 算法名与参数,分片字段替换为它在distinctKeys中的位置与类型,例如hash(id)与hash(user_id)分别为HASH(#0:NUMBER),HASH(#1:NUMBER)
+     */
+    private static String methodSignature(SQLMethodInvokeExpr method, List<String> distinctKeys, ShardingTableHandler tableHandler) {
+        if (method == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(method.getMethodName().toUpperCase()).append('(');
+        for (int i = 0; i < method.getArguments().size(); i++) {
+            String argument = getShardingKey(method, i);
+            int index = distinctKeys.indexOf(argument);
+            if (i > 0) {
+                sb.append(',');
             }
-
-            @Override
-            public List<DataNode> calculate(Map<String, Collection<RangeVariable>> values) {
-                return Objects.requireNonNull(function.apply(values));
+            if (index < 0) {
+                sb.append(argument);
+            } else {
+                SimpleColumnInfo column = tableHandler.getColumnByName(argument);
+                sb.append('#').append(index).append(':').append(column == null ? null : column.getType());
             }
+        }
+        return sb.append(')').toString();
+    }
 
-            @Override
-            protected void init(ShardingTableHandler tableHandler, Map<String, Object> properties, Map<String, Object> ranges) {
+    /**
+     * 分库分表数量,分库分表算法与参数相同,并且分片字段在参数中的位置与类型相同时,两个表相同的分片值得到相同的分片下标
+     */
+    static class AutoFunction extends CustomRuleFunction {
+        private final String name;
+        private final Function<Map<String, Collection<RangeVariable>>, List<DataNode>> function;
+        private final Set<String> keys;
+        private final List<String> shardingKeys;
+        private final int dbNum;
+        private final int tableNum;
+        private final int storeNum;
+        private final String signature;
+
+        AutoFunction(String name, Function<Map<String, Collection<RangeVariable>>, List<DataNode>> function,
+                     Set<String> keys, List<String> shardingKeys,
+                     int dbNum, int tableNum, int storeNum, String signature) {
+            this.name = name;
+            this.function = function;
+            this.keys = keys;
+            this.shardingKeys = Collections.unmodifiableList(shardingKeys);
+            this.dbNum = dbNum;
+            this.tableNum = tableNum;
+            this.storeNum = storeNum;
+            this.signature = signature;
+        }
 
-            }
+        @Override
+        public String name() {
+            return name;
+        }
 
-            @Override
-            public boolean isShardingKey(String name) {
-                return keys.contains(SQLUtils.normalize(name));
+        @Override
+        public List<DataNode> calculate(Map<String, Collection<RangeVariable>> values) {
+            return Objects.requireNonNull(function.apply(values));
+        }
+
+        @Override
+        protected void init(ShardingTableHandler tableHandler, Map<String, Object> properties, Map<String, Object> ranges) {
+
+        }
+
+        @Override
+        public boolean isShardingKey(String name) {
+            return keys.contains(SQLUtils.normalize(name));
+        }
+
+        @Override
+        public List<String> getShardingKeys() {
+            return shardingKeys;
+        }
+
+        @Override
+        public boolean isSameRule(CustomRuleFunction other) {
+            if (other == this) {
+                return true;
             }
-        };
+            if (!(other instanceof AutoFunction)) {
+                return false;
+            }
+            AutoFunction that = (AutoFunction) other;
+            return dbNum == that.dbNum && tableNum == that.tableNum && storeNum == that.storeNum
+                    && signature.equals(that.signature);
+        }
     }
 
     @NotNull